@@ -0,0 +1,348 @@
+package codecs;
+
+import javax.imageio.IIOException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Rotates JPEG files by rewriting the EXIF Orientation tag, without touching the compressed image data.
+ *
+ *  Only the segments before the first scan are parsed; everything from the scan on is copied byte for
+ *  byte. An existing Orientation tag is patched in place. If the Exif segment has no Orientation tag,
+ *  a copy of its first IFD with the tag added is appended to the segment, so every offset in the
+ *  original data stays valid. If the file has no Exif segment, a minimal one is inserted.
+ */
+public final class ExifOrientation {
+
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_APP0 = 0xE0;
+    private static final int MARKER_APP1 = 0xE1;
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TYPE_SHORT = 3;
+    private static final int IFD_ENTRY_LENGTH = 12;
+    private static final int MAX_SEGMENT_LENGTH = 0xFFFF;
+
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    /**
+     * Each orientation as the transform that displays the stored pixels: an optional horizontal
+     * mirror followed by a clockwise rotation, in degrees. Indexed by orientation - 1.
+     */
+    private static final boolean[] MIRRORED = {false, true, false, true, true, false, true, false};
+    private static final int[] ROTATION = {0, 0, 180, 180, 270, 90, 90, 270};
+
+
+    private ExifOrientation() {
+    }
+
+    /**
+     * @param bytes The file contents.
+     * @return True if the file starts with a JPEG start-of-image marker.
+     */
+    public static boolean isJpeg(final byte[] bytes) {
+        return bytes.length >= 4 && (bytes[0] & 0xFF) == 0xFF && (bytes[1] & 0xFF) == MARKER_SOI;
+    }
+
+    /**
+     * Reads the orientation of a JPEG file.
+     *
+     * @param jpeg The file contents.
+     * @return The orientation, from 1 to 8. Files without the tag have orientation 1.
+     * @throws IOException If the file is not a valid JPEG.
+     */
+    public static int read(final byte[] jpeg) throws IOException {
+        final int[] exif = findExifSegment(jpeg);
+        if (exif == null) {
+            return 1;
+        }
+        final Tiff tiff = new Tiff(jpeg, exif[0] + 4 + EXIF_HEADER.length, exif[1]);
+        final int entry = tiff.findEntry(tiff.firstIfdOffset(), TAG_ORIENTATION);
+        if (entry < 0) {
+            return 1;
+        }
+        final int orientation = tiff.u16(entry + 8);
+        return orientation >= 1 && orientation <= 8 ? orientation : 1;
+    }
+
+    /**
+     * Combines an orientation with a further clockwise rotation of the displayed image.
+     *
+     * @param orientation The current orientation, from 1 to 8.
+     * @param angle       The clockwise rotation: 0, 90, 180 or 270.
+     * @return The resulting orientation.
+     */
+    public static int compose(final int orientation, final int angle) {
+        final boolean mirrored = MIRRORED[orientation - 1];
+        final int rotation = (ROTATION[orientation - 1] + angle) % 360;
+        for (int i = 0; i < MIRRORED.length; i++) {
+            if (MIRRORED[i] == mirrored && ROTATION[i] == rotation) {
+                return i + 1;
+            }
+        }
+        throw new IllegalArgumentException("Invalid rotation angle: " + angle);
+    }
+
+    /**
+     * Rotates a JPEG file clockwise by rewriting its orientation.
+     *
+     * @param jpeg  The file contents.
+     * @param angle The clockwise rotation: 90, 180 or 270.
+     * @return The rewritten file.
+     * @throws IOException If the file is not a valid JPEG, or its Exif segment cannot be extended.
+     */
+    public static byte[] rotate(final byte[] jpeg, final int angle) throws IOException {
+        return withOrientation(jpeg, compose(read(jpeg), angle));
+    }
+
+    /**
+     * Sets the orientation of a JPEG file.
+     *
+     * @param jpeg        The file contents.
+     * @param orientation The new orientation, from 1 to 8.
+     * @return The rewritten file.
+     * @throws IOException If the file is not a valid JPEG, or its Exif segment cannot be extended.
+     */
+    public static byte[] withOrientation(final byte[] jpeg, final int orientation) throws IOException {
+        final int[] exif = findExifSegment(jpeg);
+        if (exif == null) {
+            return insertSegment(jpeg, minimalExifSegment(orientation));
+        }
+
+        final int segmentStart = exif[0];
+        final int segmentEnd = exif[1];
+        final int tiffStart = segmentStart + 4 + EXIF_HEADER.length;
+        final Tiff tiff = new Tiff(jpeg, tiffStart, segmentEnd);
+        final int firstIfd = tiff.firstIfdOffset();
+        final int entry = tiff.findEntry(firstIfd, TAG_ORIENTATION);
+
+        // Patch an existing tag in place
+        if (entry >= 0) {
+            final byte[] output = jpeg.clone();
+            new Tiff(output, tiffStart, segmentEnd).putU16(entry + 8, orientation);
+            return output;
+        }
+
+        // Append a copy of the first IFD with the tag added, and point the TIFF header at it
+        final int tiffLength = segmentEnd - tiffStart;
+        final int ifdStart = tiffLength + (tiffLength & 1);
+        final int entryCount = tiff.u16(tiffStart + firstIfd);
+        final int ifdLength = 2 + (entryCount + 1) * IFD_ENTRY_LENGTH + 4;
+        final int segmentLength = 2 + EXIF_HEADER.length + ifdStart + ifdLength;
+        if (segmentLength > MAX_SEGMENT_LENGTH) {
+            throw new IIOException("The Exif segment is too large to add an orientation tag to.");
+        }
+
+        final byte[] segment = new byte[2 + segmentLength];
+        segment[0] = (byte) 0xFF;
+        segment[1] = (byte) MARKER_APP1;
+        segment[2] = (byte) (segmentLength >> 8);
+        segment[3] = (byte) segmentLength;
+        System.arraycopy(EXIF_HEADER, 0, segment, 4, EXIF_HEADER.length);
+        final int newTiffStart = 4 + EXIF_HEADER.length;
+        System.arraycopy(jpeg, tiffStart, segment, newTiffStart, tiffLength);
+
+        final Tiff newTiff = new Tiff(segment, newTiffStart, segment.length);
+        newTiff.putU32(newTiffStart + 4, ifdStart);
+        newTiff.putU16(newTiffStart + ifdStart, entryCount + 1);
+
+        // Entries are sorted by tag
+        int source = tiffStart + firstIfd + 2;
+        int target = newTiffStart + ifdStart + 2;
+        boolean inserted = false;
+        for (int i = 0; i < entryCount; i++, source += IFD_ENTRY_LENGTH) {
+            if (!inserted && tiff.u16(source) > TAG_ORIENTATION) {
+                newTiff.putOrientationEntry(target, orientation);
+                target += IFD_ENTRY_LENGTH;
+                inserted = true;
+            }
+            System.arraycopy(jpeg, source, segment, target, IFD_ENTRY_LENGTH);
+            target += IFD_ENTRY_LENGTH;
+        }
+        if (!inserted) {
+            newTiff.putOrientationEntry(target, orientation);
+            target += IFD_ENTRY_LENGTH;
+        }
+        System.arraycopy(jpeg, source, segment, target, 4); // Offset of the next IFD
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(jpeg.length + segment.length);
+        output.write(jpeg, 0, segmentStart);
+        output.write(segment, 0, segment.length);
+        output.write(jpeg, segmentEnd, jpeg.length - segmentEnd);
+        return output.toByteArray();
+    }
+
+    /**
+     * Finds the Exif APP1 segment among the segments before the first scan.
+     *
+     * @param jpeg The file contents.
+     * @return The start (at the marker) and end of the segment, or null if there is none.
+     * @throws IOException If the file is not a valid JPEG.
+     */
+    private static int[] findExifSegment(final byte[] jpeg) throws IOException {
+        if (!isJpeg(jpeg)) {
+            throw new IIOException("Not a JPEG file.");
+        }
+
+        int position = 2;
+        while (true) {
+            if (position + 4 > jpeg.length || (jpeg[position] & 0xFF) != 0xFF) {
+                throw new IIOException("Invalid JPEG segment at byte " + position + ".");
+            }
+            final int marker = jpeg[position + 1] & 0xFF;
+            if (marker == 0xFF) {
+                position++; // Fill byte
+                continue;
+            }
+            if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                return null;
+            }
+
+            final int end = position + 2 + (((jpeg[position + 2] & 0xFF) << 8) | (jpeg[position + 3] & 0xFF));
+            if (end > jpeg.length) {
+                throw new IIOException("Truncated JPEG segment at byte " + position + ".");
+            }
+            if (marker == MARKER_APP1 && startsWith(jpeg, position + 4, EXIF_HEADER)) {
+                return new int[]{position, end};
+            }
+            position = end;
+        }
+    }
+
+    /**
+     * Inserts a segment after the start-of-image marker and any JFIF (APP0) segments, which must come first.
+     */
+    private static byte[] insertSegment(final byte[] jpeg, final byte[] segment) {
+        int position = 2;
+        while (position + 4 <= jpeg.length
+                && (jpeg[position] & 0xFF) == 0xFF
+                && (jpeg[position + 1] & 0xFF) == MARKER_APP0) {
+            position += 2 + (((jpeg[position + 2] & 0xFF) << 8) | (jpeg[position + 3] & 0xFF));
+        }
+        position = Math.min(position, jpeg.length);
+
+        final byte[] output = new byte[jpeg.length + segment.length];
+        System.arraycopy(jpeg, 0, output, 0, position);
+        System.arraycopy(segment, 0, output, position, segment.length);
+        System.arraycopy(jpeg, position, output, position + segment.length, jpeg.length - position);
+        return output;
+    }
+
+    /**
+     * @return A big-endian Exif APP1 segment holding only the orientation.
+     */
+    private static byte[] minimalExifSegment(final int orientation) {
+        final int tiffLength = 8 + 2 + IFD_ENTRY_LENGTH + 4;
+        final int segmentLength = 2 + EXIF_HEADER.length + tiffLength;
+        final byte[] segment = new byte[2 + segmentLength];
+        segment[0] = (byte) 0xFF;
+        segment[1] = (byte) MARKER_APP1;
+        segment[2] = (byte) (segmentLength >> 8);
+        segment[3] = (byte) segmentLength;
+        System.arraycopy(EXIF_HEADER, 0, segment, 4, EXIF_HEADER.length);
+
+        final int tiffStart = 4 + EXIF_HEADER.length;
+        segment[tiffStart] = 'M';
+        segment[tiffStart + 1] = 'M';
+        final Tiff tiff = new Tiff(segment, tiffStart, segment.length);
+        tiff.putU16(tiffStart + 2, 42);
+        tiff.putU32(tiffStart + 4, 8);
+        tiff.putU16(tiffStart + 8, 1);
+        tiff.putOrientationEntry(tiffStart + 10, orientation);
+        return segment;
+    }
+
+    private static boolean startsWith(final byte[] bytes, final int offset, final byte[] prefix) {
+        if (offset + prefix.length > bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * TIFF structure inside an Exif segment, in the byte order its header declares.
+     */
+    private static final class Tiff {
+        private final byte[] bytes;
+        private final int start;
+        private final int end;
+        private final boolean littleEndian;
+
+        private Tiff(final byte[] bytes, final int start, final int end) {
+            this.bytes = bytes;
+            this.start = start;
+            this.end = end;
+            this.littleEndian = bytes[start] == 'I';
+        }
+
+        private int firstIfdOffset() throws IIOException {
+            if (start + 8 > end || (bytes[start] != 'I' && bytes[start] != 'M')) {
+                throw new IIOException("Invalid TIFF header in Exif segment.");
+            }
+            final int offset = u32(start + 4);
+            if (offset < 8 || start + offset + 2 > end) {
+                throw new IIOException("Invalid IFD offset in Exif segment.");
+            }
+            return offset;
+        }
+
+        /**
+         * @return The position of the entry with a tag in an IFD, or -1 if there is none.
+         */
+        private int findEntry(final int ifdOffset, final int tag) throws IIOException {
+            final int count = u16(start + ifdOffset);
+            if (start + ifdOffset + 2 + count * IFD_ENTRY_LENGTH + 4 > end) {
+                throw new IIOException("Truncated IFD in Exif segment.");
+            }
+            for (int i = 0; i < count; i++) {
+                final int entry = start + ifdOffset + 2 + i * IFD_ENTRY_LENGTH;
+                if (u16(entry) == tag && u16(entry + 2) == TYPE_SHORT) {
+                    return entry;
+                }
+            }
+            return -1;
+        }
+
+        private void putOrientationEntry(final int position, final int orientation) {
+            putU16(position, TAG_ORIENTATION);
+            putU16(position + 2, TYPE_SHORT);
+            putU32(position + 4, 1);
+            putU32(position + 8, 0);
+            putU16(position + 8, orientation);
+        }
+
+        private int u16(final int position) {
+            final int a = bytes[position] & 0xFF;
+            final int b = bytes[position + 1] & 0xFF;
+            return littleEndian ? (b << 8) | a : (a << 8) | b;
+        }
+
+        private int u32(final int position) {
+            final int high = u16(littleEndian ? position + 2 : position);
+            final int low = u16(littleEndian ? position : position + 2);
+            return (high << 16) | low;
+        }
+
+        private void putU16(final int position, final int value) {
+            bytes[position + (littleEndian ? 0 : 1)] = (byte) value;
+            bytes[position + (littleEndian ? 1 : 0)] = (byte) (value >> 8);
+        }
+
+        private void putU32(final int position, final int value) {
+            putU16(littleEndian ? position : position + 2, value & 0xFFFF);
+            putU16(littleEndian ? position + 2 : position, value >>> 16);
+        }
+    }
+
+}
@@ -0,0 +1,1023 @@
+package codecs;
+
+import javax.imageio.IIOException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Rotates baseline JPEG files by 90, 180 or 270 degrees without decoding the pixels, in the style of jpegtran.
+ *
+ *  The entropy-coded data is decoded to quantized DCT coefficients. The 8x8 blocks are moved to their
+ *  rotated positions, each block's coefficients are transposed and/or sign-flipped, and the quantization
+ *  tables are transposed to match. The result is entropy-coded again with optimized Huffman tables, so
+ *  no inverse DCT runs and there is no generation loss.
+ *
+ *  A block can only move as a whole, so an edge that is not a multiple of the MCU size cannot move to
+ *  the top or left of the output. Such edges are either trimmed (EdgeMode.TRIM, as jpegtran -trim) or
+ *  refused (EdgeMode.ERROR, as jpegtran -perfect). Application and comment segments are copied as-is,
+ *  except that an EXIF Orientation tag is reset to 1; restart markers are not written to the output.
+ */
+public final class JpegLosslessRotation {
+
+    /**
+     * What to do with partial MCUs on an edge that would move to the top or left.
+     */
+    public enum EdgeMode {
+        TRIM, ERROR
+    }
+
+    /**
+     * The outcome of a rotation.
+     */
+    public static final class Result {
+        public final byte[] bytes;
+        public final int width;
+        public final int height;
+        public final int trimmedWidth;
+        public final int trimmedHeight;
+
+        private Result(final byte[] bytes, final int width, final int height, final int trimmedWidth, final int trimmedHeight) {
+            this.bytes = bytes;
+            this.width = width;
+            this.height = height;
+            this.trimmedWidth = trimmedWidth;
+            this.trimmedHeight = trimmedHeight;
+        }
+    }
+
+    private static final int SOF0 = 0xC0;
+    private static final int SOF1 = 0xC1;
+    private static final int DHT = 0xC4;
+    private static final int SOI = 0xD8;
+    private static final int EOI = 0xD9;
+    private static final int SOS = 0xDA;
+    private static final int DQT = 0xDB;
+    private static final int DRI = 0xDD;
+
+    /**
+     * The natural (row-major) index of each zigzag position.
+     */
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10,
+            17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34,
+            27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36,
+            29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46,
+            53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+
+    private final byte[] jpeg;
+    private final List<byte[]> preservedSegments = new ArrayList<>();
+    private final int[][] quantTables = new int[4][];
+    private final int[] quantPrecision = new int[4];
+    private final Huffman[] dcTables = new Huffman[4];
+    private final Huffman[] acTables = new Huffman[4];
+    private int frameMarker;
+    private int width;
+    private int height;
+    private int maxH;
+    private int maxV;
+    private int restartInterval;
+    private Component[] components;
+
+    private JpegLosslessRotation(final byte[] jpeg) {
+        this.jpeg = jpeg;
+    }
+
+    /**
+     * Rotates a JPEG file clockwise.
+     *
+     * @param jpeg     The file contents.
+     * @param angle    The clockwise rotation: 90, 180 or 270.
+     * @param edgeMode What to do with partial MCUs on edges that would move to the top or left.
+     * @return The rotated file and its dimensions.
+     * @throws IOException If the file is not a baseline Huffman JPEG, or has partial edge MCUs in ERROR mode.
+     */
+    public static Result rotate(final byte[] jpeg, final int angle, final EdgeMode edgeMode) throws IOException {
+        if (angle != 90 && angle != 180 && angle != 270) {
+            throw new IllegalArgumentException("Invalid rotation angle: " + angle);
+        }
+        final JpegLosslessRotation rotation = new JpegLosslessRotation(jpeg);
+        rotation.parse();
+        return rotation.transform(angle, edgeMode);
+    }
+
+
+    /**
+     * Reads every segment and decodes every scan into the components' coefficients.
+     */
+    private void parse() throws IOException {
+        if (jpeg.length < 4 || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != SOI) {
+            throw new IIOException("Not a JPEG file.");
+        }
+
+        int position = 2;
+        while (position < jpeg.length) {
+            if ((jpeg[position] & 0xFF) != 0xFF) {
+                throw new IIOException("Invalid JPEG marker at byte " + position + ".");
+            }
+            final int marker = jpeg[position + 1] & 0xFF;
+            if (marker == 0xFF) {
+                position++;
+                continue;
+            }
+            if (marker == EOI) {
+                break;
+            }
+            if (position + 4 > jpeg.length) {
+                throw new IIOException("Truncated JPEG file.");
+            }
+            final int length = u16(position + 2);
+            final int start = position + 4;
+            final int end = position + 2 + length;
+            if (end > jpeg.length) {
+                throw new IIOException("Truncated JPEG segment at byte " + position + ".");
+            }
+
+            if (marker == SOF0 || marker == SOF1) {
+                readFrame(marker, start);
+            } else if (marker >= 0xC2 && marker <= 0xCF && marker != DHT && marker != 0xC8 && marker != 0xCC) {
+                throw new IIOException("Only baseline Huffman JPEGs can be rotated losslessly.");
+            } else if (marker == DHT) {
+                readHuffmanTables(start, end);
+            } else if (marker == DQT) {
+                readQuantTables(start, end);
+            } else if (marker == DRI) {
+                restartInterval = u16(start);
+            } else if (marker == SOS) {
+                position = readScan(start, end);
+                continue;
+            } else if ((marker >= 0xE0 && marker <= 0xEF) || marker == 0xFE) {
+                preservedSegments.add(Arrays.copyOfRange(jpeg, position, end));
+            }
+            position = end;
+        }
+
+        if (components == null) {
+            throw new IIOException("JPEG file has no frame header.");
+        }
+    }
+
+    private void readFrame(final int marker, final int start) throws IOException {
+        if ((jpeg[start] & 0xFF) != 8) {
+            throw new IIOException("Only 8-bit JPEGs can be rotated losslessly.");
+        }
+        frameMarker = marker;
+        height = u16(start + 1);
+        width = u16(start + 3);
+        final int count = jpeg[start + 5] & 0xFF;
+        if (width == 0 || height == 0 || count == 0) {
+            throw new IIOException("Invalid JPEG frame header.");
+        }
+
+        components = new Component[count];
+        for (int i = 0; i < count; i++) {
+            final int offset = start + 6 + i * 3;
+            final int sampling = jpeg[offset + 1] & 0xFF;
+            components[i] = new Component(jpeg[offset] & 0xFF, sampling >> 4, sampling & 0x0F, jpeg[offset + 2] & 0x03);
+        }
+        if (count == 1) {
+            // A single component is never interleaved, so its sampling factors have no effect
+            components[0].h = 1;
+            components[0].v = 1;
+        }
+
+        for (final Component component : components) {
+            maxH = Math.max(maxH, component.h);
+            maxV = Math.max(maxV, component.v);
+        }
+        final int mcusX = ceilDiv(width, 8 * maxH);
+        final int mcusY = ceilDiv(height, 8 * maxV);
+        for (final Component component : components) {
+            component.allocate(mcusX * component.h, mcusY * component.v);
+        }
+    }
+
+    private void readQuantTables(int position, final int end) throws IOException {
+        while (position < end) {
+            final int precision = (jpeg[position] & 0xFF) >> 4;
+            final int id = jpeg[position] & 0x03;
+            position++;
+            final int[] table = new int[64];
+            for (int k = 0; k < 64; k++) {
+                table[ZIGZAG[k]] = precision == 0 ? jpeg[position++] & 0xFF : u16((position += 2) - 2);
+            }
+            quantTables[id] = table;
+            quantPrecision[id] = precision;
+        }
+        if (position != end) {
+            throw new IIOException("Invalid quantization table segment.");
+        }
+    }
+
+    private void readHuffmanTables(int position, final int end) throws IOException {
+        while (position < end) {
+            final int tableClass = (jpeg[position] & 0xFF) >> 4;
+            final int id = jpeg[position] & 0x03;
+            final int[] counts = new int[17];
+            int total = 0;
+            for (int i = 1; i <= 16; i++) {
+                counts[i] = jpeg[position + i] & 0xFF;
+                total += counts[i];
+            }
+            position += 17;
+            if (position + total > end) {
+                throw new IIOException("Invalid Huffman table segment.");
+            }
+            final int[] symbols = new int[total];
+            for (int i = 0; i < total; i++) {
+                symbols[i] = jpeg[position + i] & 0xFF;
+            }
+            position += total;
+            (tableClass == 0 ? dcTables : acTables)[id] = new Huffman(counts, symbols);
+        }
+    }
+
+    /**
+     * Decodes a scan into the components' coefficients.
+     *
+     * @return The position of the marker after the scan's entropy-coded data.
+     */
+    private int readScan(final int start, final int end) throws IOException {
+        if (components == null) {
+            throw new IIOException("JPEG scan before frame header.");
+        }
+        final int count = jpeg[start] & 0xFF;
+        final Component[] scan = new Component[count];
+        for (int i = 0; i < count; i++) {
+            final int id = jpeg[start + 1 + i * 2] & 0xFF;
+            final int tables = jpeg[start + 2 + i * 2] & 0xFF;
+            for (final Component component : components) {
+                if (component.id == id) {
+                    scan[i] = component;
+                }
+            }
+            if (scan[i] == null) {
+                throw new IIOException("JPEG scan refers to unknown component " + id + ".");
+            }
+            scan[i].dcTable = tables >> 4;
+            scan[i].acTable = tables & 0x03;
+            if (dcTables[scan[i].dcTable & 0x03] == null || acTables[scan[i].acTable] == null) {
+                throw new IIOException("JPEG scan uses an undefined Huffman table.");
+            }
+        }
+        final int spectralStart = jpeg[end - 3] & 0xFF;
+        final int spectralEnd = jpeg[end - 2] & 0xFF;
+        if (spectralStart != 0 || spectralEnd != 63 || jpeg[end - 1] != 0) {
+            throw new IIOException("Only baseline Huffman JPEGs can be rotated losslessly.");
+        }
+
+        // The entropy-coded data runs up to the next marker that is not a restart marker
+        int dataEnd = end;
+        while (dataEnd + 1 < jpeg.length) {
+            if ((jpeg[dataEnd] & 0xFF) == 0xFF) {
+                final int next = jpeg[dataEnd + 1] & 0xFF;
+                if (next != 0 && (next < 0xD0 || next > 0xD7)) {
+                    break;
+                }
+            }
+            dataEnd++;
+        }
+
+        final BitReader reader = new BitReader(jpeg, end, dataEnd);
+        final int[] predictions = new int[count];
+        int mcu = 0;
+
+        if (count == 1) {
+            // A non-interleaved scan covers only the blocks inside the component, one block per MCU
+            final Component component = scan[0];
+            final int blocksX = ceilDiv(ceilDiv(width * component.h, maxH), 8);
+            final int blocksY = ceilDiv(ceilDiv(height * component.v, maxV), 8);
+            for (int by = 0; by < blocksY; by++) {
+                for (int bx = 0; bx < blocksX; bx++, mcu++) {
+                    if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+                        reader.restart();
+                        predictions[0] = 0;
+                    }
+                    predictions[0] = decodeBlock(reader, component, component.block(bx, by), predictions[0]);
+                }
+            }
+        } else {
+            final int mcusX = ceilDiv(width, 8 * maxH);
+            final int mcusY = ceilDiv(height, 8 * maxV);
+            for (int my = 0; my < mcusY; my++) {
+                for (int mx = 0; mx < mcusX; mx++, mcu++) {
+                    if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+                        reader.restart();
+                        Arrays.fill(predictions, 0);
+                    }
+                    for (int i = 0; i < count; i++) {
+                        final Component component = scan[i];
+                        for (int y = 0; y < component.v; y++) {
+                            for (int x = 0; x < component.h; x++) {
+                                final int block = component.block(mx * component.h + x, my * component.v + y);
+                                predictions[i] = decodeBlock(reader, component, block, predictions[i]);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return dataEnd;
+    }
+
+    private int decodeBlock(final BitReader reader, final Component component, final int block, final int prediction) throws IOException {
+        final short[] coefficients = component.coefficients;
+        final int base = block * 64;
+
+        final int dcSize = dcTables[component.dcTable & 0x03].decode(reader);
+        final int dc = prediction + extend(reader.bits(dcSize), dcSize);
+        coefficients[base] = (short) dc;
+
+        final Huffman ac = acTables[component.acTable];
+        for (int k = 1; k < 64; ) {
+            final int symbol = ac.decode(reader);
+            final int run = symbol >> 4;
+            final int size = symbol & 0x0F;
+            if (size == 0) {
+                if (run != 15) {
+                    break;
+                }
+                k += 16;
+                continue;
+            }
+            k += run;
+            if (k > 63) {
+                throw new IIOException("Corrupt JPEG data: coefficient index out of range.");
+            }
+            coefficients[base + ZIGZAG[k]] = (short) extend(reader.bits(size), size);
+            k++;
+        }
+        return dc;
+    }
+
+
+    /**
+     * Rotates the coefficients and writes the output file.
+     */
+    private Result transform(final int angle, final EdgeMode edgeMode) throws IOException {
+        final boolean transposed = angle != 180;
+        final int mcuWidth = 8 * maxH;
+        final int mcuHeight = 8 * maxV;
+
+        // Partial MCUs on the right move to the top (270, 180), and on the bottom move to the left (90, 180)
+        final boolean trimRight = angle != 90 && width % mcuWidth != 0;
+        final boolean trimBottom = angle != 270 && height % mcuHeight != 0;
+        if ((trimRight || trimBottom) && edgeMode == EdgeMode.ERROR) {
+            throw new IIOException(String.format(
+                    "A %dx%d image cannot be rotated %d degrees losslessly: its size is not a multiple of the %dx%d MCU.",
+                    width, height, angle, mcuWidth, mcuHeight));
+        }
+        final int croppedWidth = trimRight ? width - width % mcuWidth : width;
+        final int croppedHeight = trimBottom ? height - height % mcuHeight : height;
+        if (croppedWidth == 0 || croppedHeight == 0) {
+            throw new IIOException("The image is smaller than one MCU and cannot be rotated losslessly.");
+        }
+
+        final int outWidth = transposed ? croppedHeight : croppedWidth;
+        final int outHeight = transposed ? croppedWidth : croppedHeight;
+        final int outMaxH = transposed ? maxV : maxH;
+        final int outMaxV = transposed ? maxH : maxV;
+        final int outMcusX = ceilDiv(outWidth, 8 * outMaxH);
+        final int outMcusY = ceilDiv(outHeight, 8 * outMaxV);
+
+        final Component[] rotated = new Component[components.length];
+        for (int c = 0; c < components.length; c++) {
+            final Component source = components[c];
+            final Component target = new Component(source.id, transposed ? source.v : source.h, transposed ? source.h : source.v, source.quantTable);
+            target.allocate(outMcusX * target.h, outMcusY * target.v);
+
+            // Source blocks that hold image data after trimming
+            final int sourceBlocksX = trimRight ? croppedWidth / mcuWidth * source.h : source.blocksX;
+            final int sourceBlocksY = trimBottom ? croppedHeight / mcuHeight * source.v : source.blocksY;
+
+            for (int by = 0; by < target.blocksY; by++) {
+                for (int bx = 0; bx < target.blocksX; bx++) {
+                    final int sx;
+                    final int sy;
+                    if (angle == 90) {
+                        sx = by;
+                        sy = sourceBlocksY - 1 - bx;
+                    } else if (angle == 270) {
+                        sx = sourceBlocksX - 1 - by;
+                        sy = bx;
+                    } else {
+                        sx = sourceBlocksX - 1 - bx;
+                        sy = sourceBlocksY - 1 - by;
+                    }
+                    if (sx < 0 || sy < 0 || sx >= source.blocksX || sy >= source.blocksY) {
+                        continue;
+                    }
+                    rotateBlock(source.coefficients, source.block(sx, sy) * 64, target.coefficients, target.block(bx, by) * 64, angle);
+                }
+            }
+            rotated[c] = target;
+        }
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(jpeg.length);
+        output.write(0xFF);
+        output.write(SOI);
+        for (final byte[] segment : preservedSegments) {
+            output.write(segment, 0, segment.length);
+        }
+        writeQuantTables(output, transposed);
+        writeFrame(output, rotated, outWidth, outHeight);
+        writeScan(output, rotated, outWidth, outHeight, outMaxH, outMaxV);
+        output.write(0xFF);
+        output.write(EOI);
+
+        // The pixels now hold the rotation, so viewers must not apply a copied orientation again
+        byte[] bytes = output.toByteArray();
+        if (ExifOrientation.read(bytes) != 1) {
+            bytes = ExifOrientation.withOrientation(bytes, 1);
+        }
+        return new Result(bytes, outWidth, outHeight, width - croppedWidth, height - croppedHeight);
+    }
+
+    /**
+     * Rotates the coefficients of a single block. With u the horizontal and v the vertical frequency,
+     * a horizontal flip negates odd u, a vertical flip negates odd v, and a transpose swaps u and v.
+     */
+    private static void rotateBlock(final short[] source, final int sourceBase, final short[] target, final int targetBase, final int angle) {
+        for (int v = 0; v < 8; v++) {
+            for (int u = 0; u < 8; u++) {
+                final int value;
+                if (angle == 90) {
+                    // Transpose, then flip horizontally
+                    value = (u & 1) == 0 ? source[sourceBase + u * 8 + v] : -source[sourceBase + u * 8 + v];
+                } else if (angle == 270) {
+                    // Transpose, then flip vertically
+                    value = (v & 1) == 0 ? source[sourceBase + u * 8 + v] : -source[sourceBase + u * 8 + v];
+                } else {
+                    value = ((u + v) & 1) == 0 ? source[sourceBase + v * 8 + u] : -source[sourceBase + v * 8 + u];
+                }
+                target[targetBase + v * 8 + u] = (short) value;
+            }
+        }
+    }
+
+    private void writeQuantTables(final ByteArrayOutputStream output, final boolean transposed) {
+        for (int id = 0; id < 4; id++) {
+            if (quantTables[id] == null) {
+                continue;
+            }
+            final int precision = quantPrecision[id];
+            final int length = 2 + 1 + 64 * (precision == 0 ? 1 : 2);
+            output.write(0xFF);
+            output.write(DQT);
+            output.write(length >> 8);
+            output.write(length);
+            output.write((precision << 4) | id);
+            for (int k = 0; k < 64; k++) {
+                final int natural = ZIGZAG[k];
+                final int value = quantTables[id][transposed ? (natural % 8) * 8 + natural / 8 : natural];
+                if (precision != 0) {
+                    output.write(value >> 8);
+                }
+                output.write(value);
+            }
+        }
+    }
+
+    private void writeFrame(final ByteArrayOutputStream output, final Component[] rotated, final int outWidth, final int outHeight) {
+        final int length = 8 + rotated.length * 3;
+        output.write(0xFF);
+        output.write(frameMarker);
+        output.write(length >> 8);
+        output.write(length);
+        output.write(8);
+        output.write(outHeight >> 8);
+        output.write(outHeight);
+        output.write(outWidth >> 8);
+        output.write(outWidth);
+        output.write(rotated.length);
+        for (final Component component : rotated) {
+            output.write(component.id);
+            output.write((component.h << 4) | component.v);
+            output.write(component.quantTable);
+        }
+    }
+
+    /**
+     * Writes the Huffman tables and a single scan of all components. The first component uses
+     * table 0 and the others share table 1, each built from the actual symbol frequencies.
+     */
+    private static void writeScan(final ByteArrayOutputStream output,
+                                  final Component[] rotated,
+                                  final int outWidth,
+                                  final int outHeight,
+                                  final int outMaxH,
+                                  final int outMaxV) throws IIOException {
+        int blocksPerMcu = 0;
+        for (final Component component : rotated) {
+            component.dcTable = component == rotated[0] ? 0 : 1;
+            component.acTable = component.dcTable;
+            blocksPerMcu += component.h * component.v;
+        }
+        if (rotated.length > 1 && blocksPerMcu > 10) {
+            throw new IIOException("The JPEG sampling factors cannot be written as a single scan.");
+        }
+        final int tableCount = rotated.length > 1 ? 2 : 1;
+
+        // First pass counts the symbols, second pass writes them
+        final long[][] dcFrequencies = new long[tableCount][257];
+        final long[][] acFrequencies = new long[tableCount][257];
+        encodeScan(rotated, outWidth, outHeight, outMaxH, outMaxV, new SymbolSink() {
+            @Override
+            public void dc(final int table, final int size, final int bits) {
+                dcFrequencies[table][size]++;
+            }
+
+            @Override
+            public void ac(final int table, final int symbol, final int size, final int bits) {
+                acFrequencies[table][symbol]++;
+            }
+        });
+
+        final HuffmanEncoder[] dcEncoders = new HuffmanEncoder[tableCount];
+        final HuffmanEncoder[] acEncoders = new HuffmanEncoder[tableCount];
+        for (int table = 0; table < tableCount; table++) {
+            dcEncoders[table] = HuffmanEncoder.optimal(dcFrequencies[table]);
+            acEncoders[table] = HuffmanEncoder.optimal(acFrequencies[table]);
+            dcEncoders[table].writeSegment(output, 0, table);
+            acEncoders[table].writeSegment(output, 1, table);
+        }
+
+        final int length = 6 + rotated.length * 2;
+        output.write(0xFF);
+        output.write(SOS);
+        output.write(length >> 8);
+        output.write(length);
+        output.write(rotated.length);
+        for (final Component component : rotated) {
+            output.write(component.id);
+            output.write((component.dcTable << 4) | component.acTable);
+        }
+        output.write(0);
+        output.write(63);
+        output.write(0);
+
+        final BitWriter writer = new BitWriter(output);
+        encodeScan(rotated, outWidth, outHeight, outMaxH, outMaxV, new SymbolSink() {
+            @Override
+            public void dc(final int table, final int size, final int bits) {
+                dcEncoders[table].write(writer, size);
+                writer.write(bits, size);
+            }
+
+            @Override
+            public void ac(final int table, final int symbol, final int size, final int bits) {
+                acEncoders[table].write(writer, symbol);
+                writer.write(bits, size);
+            }
+        });
+        writer.flush();
+    }
+
+    /**
+     * Walks the blocks in scan order and reports each entropy-coded symbol.
+     */
+    private static void encodeScan(final Component[] rotated,
+                                   final int outWidth,
+                                   final int outHeight,
+                                   final int outMaxH,
+                                   final int outMaxV,
+                                   final SymbolSink sink) {
+        final int[] predictions = new int[rotated.length];
+        if (rotated.length == 1) {
+            final Component component = rotated[0];
+            final int blocksX = ceilDiv(outWidth, 8);
+            final int blocksY = ceilDiv(outHeight, 8);
+            for (int by = 0; by < blocksY; by++) {
+                for (int bx = 0; bx < blocksX; bx++) {
+                    predictions[0] = encodeBlock(component, component.block(bx, by), predictions[0], sink);
+                }
+            }
+            return;
+        }
+
+        final int mcusX = ceilDiv(outWidth, 8 * outMaxH);
+        final int mcusY = ceilDiv(outHeight, 8 * outMaxV);
+        for (int my = 0; my < mcusY; my++) {
+            for (int mx = 0; mx < mcusX; mx++) {
+                for (int i = 0; i < rotated.length; i++) {
+                    final Component component = rotated[i];
+                    for (int y = 0; y < component.v; y++) {
+                        for (int x = 0; x < component.h; x++) {
+                            final int block = component.block(mx * component.h + x, my * component.v + y);
+                            predictions[i] = encodeBlock(component, block, predictions[i], sink);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static int encodeBlock(final Component component, final int block, final int prediction, final SymbolSink sink) {
+        final short[] coefficients = component.coefficients;
+        final int base = block * 64;
+        final int table = component.dcTable;
+
+        final int dc = coefficients[base];
+        final int diff = dc - prediction;
+        final int dcSize = magnitudeSize(diff);
+        sink.dc(table, dcSize, diff < 0 ? diff - 1 : diff);
+
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            final int value = coefficients[base + ZIGZAG[k]];
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                sink.ac(table, 0xF0, 0, 0);
+                run -= 16;
+            }
+            final int size = magnitudeSize(value);
+            sink.ac(table, (run << 4) | size, size, value < 0 ? value - 1 : value);
+            run = 0;
+        }
+        if (run > 0) {
+            sink.ac(table, 0x00, 0, 0);
+        }
+        return dc;
+    }
+
+
+    private int u16(final int position) {
+        return ((jpeg[position] & 0xFF) << 8) | (jpeg[position + 1] & 0xFF);
+    }
+
+    private static int ceilDiv(final int a, final int b) {
+        return (a + b - 1) / b;
+    }
+
+    /**
+     * @return The number of bits needed for the magnitude of a value.
+     */
+    private static int magnitudeSize(final int value) {
+        return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+    }
+
+    /**
+     * Converts the received bits of a coefficient to its signed value.
+     */
+    private static int extend(final int bits, final int size) {
+        return size == 0 ? 0 : bits < (1 << (size - 1)) ? bits - (1 << size) + 1 : bits;
+    }
+
+
+    /**
+     * A colour component and its quantized coefficients, block by block in natural order.
+     */
+    private static final class Component {
+        private final int id;
+        private int h;
+        private int v;
+        private final int quantTable;
+        private int dcTable;
+        private int acTable;
+        private int blocksX;
+        private int blocksY;
+        private short[] coefficients;
+
+        private Component(final int id, final int h, final int v, final int quantTable) {
+            this.id = id;
+            this.h = h;
+            this.v = v;
+            this.quantTable = quantTable;
+        }
+
+        private void allocate(final int blocksX, final int blocksY) {
+            this.blocksX = blocksX;
+            this.blocksY = blocksY;
+            this.coefficients = new short[Math.multiplyExact(Math.multiplyExact(blocksX, blocksY), 64)];
+        }
+
+        private int block(final int x, final int y) {
+            return y * blocksX + x;
+        }
+    }
+
+    /**
+     * Receives the symbols of a scan.
+     */
+    private interface SymbolSink {
+        void dc(int table, int size, int bits);
+
+        void ac(int table, int symbol, int size, int bits);
+    }
+
+    /**
+     * A Huffman table for decoding.
+     */
+    private static final class Huffman {
+        private static final int LOOKUP_BITS = 9;
+
+        private final int[] maxCode = new int[18];
+        private final int[] valueOffset = new int[17];
+        private final int[] symbols;
+        private final int[] lookup = new int[1 << LOOKUP_BITS];
+
+        private Huffman(final int[] counts, final int[] symbols) {
+            this.symbols = symbols;
+            int code = 0;
+            int index = 0;
+            for (int length = 1; length <= 16; length++) {
+                valueOffset[length] = index - code;
+                if (counts[length] > 0) {
+                    for (int i = 0; i < counts[length]; i++, index++, code++) {
+                        if (length <= LOOKUP_BITS) {
+                            // Every code that starts with this one maps to the same symbol
+                            final int shift = LOOKUP_BITS - length;
+                            for (int fill = 0; fill < (1 << shift); fill++) {
+                                lookup[(code << shift) | fill] = (length << 8) | symbols[index];
+                            }
+                        }
+                    }
+                    maxCode[length] = code - 1;
+                } else {
+                    maxCode[length] = -1;
+                }
+                code <<= 1;
+            }
+            maxCode[17] = Integer.MAX_VALUE;
+        }
+
+        private int decode(final BitReader reader) throws IOException {
+            final int entry = lookup[reader.peek(LOOKUP_BITS)];
+            if (entry != 0) {
+                reader.skip(entry >> 8);
+                return entry & 0xFF;
+            }
+
+            int code = 0;
+            for (int length = 1; length <= 16; length++) {
+                code = (code << 1) | reader.bits(1);
+                if (code <= maxCode[length]) {
+                    return symbols[valueOffset[length] + code];
+                }
+            }
+            throw new IIOException("Corrupt JPEG data: invalid Huffman code.");
+        }
+    }
+
+    /**
+     * A Huffman table for encoding.
+     */
+    private static final class HuffmanEncoder {
+        private final int[] counts;
+        private final int[] symbols;
+        private final int[] codes = new int[256];
+        private final int[] sizes = new int[256];
+
+        private HuffmanEncoder(final int[] counts, final int[] symbols) {
+            this.counts = counts;
+            this.symbols = symbols;
+            int code = 0;
+            int index = 0;
+            for (int length = 1; length <= 16; length++) {
+                for (int i = 0; i < counts[length]; i++, index++, code++) {
+                    codes[symbols[index]] = code;
+                    sizes[symbols[index]] = length;
+                }
+                code <<= 1;
+            }
+        }
+
+        /**
+         * Builds the optimal table of at most 16-bit codes for symbol frequencies, following
+         * JPEG Annex K.2. A reserved symbol keeps any code from being all ones.
+         *
+         * @param frequencies The frequency of each symbol, with room for the reserved symbol 256.
+         * @return The encoder.
+         */
+        private static HuffmanEncoder optimal(final long[] frequencies) {
+            final long[] frequency = frequencies.clone();
+            final int[] codeSize = new int[257];
+            final int[] others = new int[257];
+            Arrays.fill(others, -1);
+            frequency[256] = 1;
+
+            while (true) {
+                // The two least frequent symbols, preferring the higher one on ties
+                int c1 = -1;
+                int c2 = -1;
+                for (int i = 0; i <= 256; i++) {
+                    if (frequency[i] == 0) {
+                        continue;
+                    }
+                    if (c1 < 0 || frequency[i] <= frequency[c1]) {
+                        c2 = c1;
+                        c1 = i;
+                    } else if (c2 < 0 || frequency[i] <= frequency[c2]) {
+                        c2 = i;
+                    }
+                }
+                if (c2 < 0) {
+                    break;
+                }
+
+                frequency[c1] += frequency[c2];
+                frequency[c2] = 0;
+                codeSize[c1]++;
+                while (others[c1] >= 0) {
+                    c1 = others[c1];
+                    codeSize[c1]++;
+                }
+                others[c1] = c2;
+                codeSize[c2]++;
+                while (others[c2] >= 0) {
+                    c2 = others[c2];
+                    codeSize[c2]++;
+                }
+            }
+
+            final int[] bits = new int[33];
+            for (int i = 0; i <= 256; i++) {
+                if (codeSize[i] > 0) {
+                    bits[codeSize[i]]++;
+                }
+            }
+
+            // Limit code lengths to 16 bits
+            for (int i = 32; i > 16; i--) {
+                while (bits[i] > 0) {
+                    int j = i - 2;
+                    while (bits[j] == 0) {
+                        j--;
+                    }
+                    bits[i] -= 2;
+                    bits[i - 1]++;
+                    bits[j + 1] += 2;
+                    bits[j]--;
+                }
+            }
+
+            // Remove the reserved symbol, which has the longest code
+            int longest = 16;
+            while (bits[longest] == 0) {
+                longest--;
+            }
+            bits[longest]--;
+
+            final int[] counts = Arrays.copyOf(bits, 17);
+            final List<Integer> ordered = new ArrayList<>();
+            for (int length = 1; length <= 32; length++) {
+                for (int symbol = 0; symbol < 256; symbol++) {
+                    if (codeSize[symbol] == length) {
+                        ordered.add(symbol);
+                    }
+                }
+            }
+            final int[] symbols = new int[ordered.size()];
+            for (int i = 0; i < symbols.length; i++) {
+                symbols[i] = ordered.get(i);
+            }
+            return new HuffmanEncoder(counts, symbols);
+        }
+
+        private void write(final BitWriter writer, final int symbol) {
+            writer.write(codes[symbol], sizes[symbol]);
+        }
+
+        private void writeSegment(final ByteArrayOutputStream output, final int tableClass, final int id) {
+            final int length = 2 + 1 + 16 + symbols.length;
+            output.write(0xFF);
+            output.write(DHT);
+            output.write(length >> 8);
+            output.write(length);
+            output.write((tableClass << 4) | id);
+            for (int i = 1; i <= 16; i++) {
+                output.write(counts[i]);
+            }
+            for (final int symbol : symbols) {
+                output.write(symbol);
+            }
+        }
+    }
+
+    /**
+     * Reads entropy-coded bits, removing stuffed zero bytes. Past a marker, it reads zeros.
+     */
+    private static final class BitReader {
+        private final byte[] data;
+        private final int end;
+        private int position;
+        private long buffer;
+        private int count;
+        private boolean atMarker;
+
+        private BitReader(final byte[] data, final int start, final int end) {
+            this.data = data;
+            this.position = start;
+            this.end = end;
+        }
+
+        private void fill() {
+            while (count <= 56) {
+                int value = 0;
+                if (!atMarker && position < end) {
+                    value = data[position] & 0xFF;
+                    if (value == 0xFF) {
+                        if (position + 1 < end && data[position + 1] == 0) {
+                            position += 2;
+                        } else {
+                            atMarker = true;
+                            value = 0;
+                        }
+                    } else {
+                        position++;
+                    }
+                }
+                buffer = (buffer << 8) | value;
+                count += 8;
+            }
+        }
+
+        private int peek(final int n) {
+            if (count < n) {
+                fill();
+            }
+            return (int) (buffer >>> (count - n)) & ((1 << n) - 1);
+        }
+
+        private void skip(final int n) {
+            count -= n;
+        }
+
+        private int bits(final int n) {
+            if (n == 0) {
+                return 0;
+            }
+            final int value = peek(n);
+            count -= n;
+            return value;
+        }
+
+        /**
+         * Discards the rest of the current interval and the restart marker that ends it.
+         */
+        private void restart() throws IIOException {
+            while (position + 1 < end && !((data[position] & 0xFF) == 0xFF && data[position + 1] != 0)) {
+                position++;
+            }
+            if (position + 1 >= end || (data[position + 1] & 0xFF) < 0xD0 || (data[position + 1] & 0xFF) > 0xD7) {
+                throw new IIOException("Corrupt JPEG data: missing restart marker.");
+            }
+            position += 2;
+            atMarker = false;
+            buffer = 0;
+            count = 0;
+        }
+    }
+
+    /**
+     * Writes entropy-coded bits, stuffing a zero byte after every 0xFF.
+     */
+    private static final class BitWriter {
+        private final ByteArrayOutputStream output;
+        private long buffer;
+        private int count;
+
+        private BitWriter(final ByteArrayOutputStream output) {
+            this.output = output;
+        }
+
+        private void write(final int bits, final int size) {
+            if (size == 0) {
+                return;
+            }
+            buffer = (buffer << size) | (bits & ((1L << size) - 1));
+            count += size;
+            while (count >= 8) {
+                final int value = (int) (buffer >>> (count - 8)) & 0xFF;
+                output.write(value);
+                if (value == 0xFF) {
+                    output.write(0);
+                }
+                count -= 8;
+            }
+        }
+
+        /**
+         * Pads the last byte with one bits.
+         */
+        private void flush() {
+            if (count > 0) {
+                write((1 << (8 - count)) - 1, 8 - count);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+package codecs;
+
+import javax.imageio.spi.IIORegistry;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Set;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  An uncompressed (or lightly deflated) raster format for passing images between chained calls.
+ *
+ *  The file is a 32 byte big-endian header followed by the raster's data elements, row by row:
+ *      magic "ITRW" (4), version (1), compression (1), reserved (2),
+ *      width (4), height (4), BufferedImage type (4), row stride in bytes (4), payload length (8).
+ *
+ *  The payload is the image's DataBuffer as-is, so reading it back through ImageIO needs no decode
+ *  pass and returns the same pixels in the same type. The functions convert what they read to a fast
+ *  type (see RasterTypes), so the fast types every function writes chain with no generation loss, but
+ *  a 16-bit gray image reaches them as 8-bit gray and the other types as their compact type.
+ *
+ *  The format is registered with ImageIO under the name and extension "raster", through the service
+ *  files in META-INF/services, so any reader finds it without initializing this class first.
+ */
+public final class RasterFormat {
+
+    public static final String FORMAT_NAME = "raster";
+    public static final String MIME_TYPE = "application/x-image-raster";
+
+    static final byte[] MAGIC = {'I', 'T', 'R', 'W'};
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 32;
+
+    static final int COMPRESSION_NONE = 0;
+    static final int COMPRESSION_DEFLATE = 1;
+
+    /**
+     * Image types stored as-is. Other types are converted to INT_RGB or INT_ARGB when written.
+     */
+    static final Set<Integer> SUPPORTED_TYPES = Set.of(
+            BufferedImage.TYPE_BYTE_GRAY,
+            BufferedImage.TYPE_USHORT_GRAY,
+            BufferedImage.TYPE_3BYTE_BGR,
+            BufferedImage.TYPE_4BYTE_ABGR,
+            BufferedImage.TYPE_4BYTE_ABGR_PRE,
+            BufferedImage.TYPE_INT_RGB,
+            BufferedImage.TYPE_INT_BGR,
+            BufferedImage.TYPE_INT_ARGB,
+            BufferedImage.TYPE_INT_ARGB_PRE
+    );
+
+    private static boolean registered = false;
+
+
+    private RasterFormat() {
+    }
+
+    /**
+     * Registers the raster reader and writer with ImageIO, for a registry that was created before
+     * they were on the class path. Safe to call more than once.
+     */
+    public static synchronized void register() {
+        if (registered) {
+            return;
+        }
+        final IIORegistry registry = IIORegistry.getDefaultInstance();
+        registry.registerServiceProvider(new RasterImageReader.Spi());
+        registry.registerServiceProvider(new RasterImageWriter.Spi());
+        registered = true;
+    }
+
+    /**
+     * @param type A supported BufferedImage type.
+     * @return The number of payload bytes per pixel of the type.
+     */
+    static int bytesPerPixel(final int type) {
+        final DataBuffer pixel = new BufferedImage(1, 1, type).getRaster().getDataBuffer();
+        return pixel.getSize() * DataBuffer.getDataTypeSize(pixel.getDataType()) / 8;
+    }
+
+}
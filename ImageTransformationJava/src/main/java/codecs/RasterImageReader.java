@@ -0,0 +1,375 @@
+package codecs;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.zip.InflaterInputStream;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Reads the raster format. A plain read wraps the payload bytes in a DataBuffer directly; byte
+ *  rasters are not copied at all and int rasters only need a bulk byte order copy.
+ */
+public class RasterImageReader extends ImageReader {
+
+    private Header header;
+    private long payloadStart;
+
+    public RasterImageReader(final ImageReaderSpi spi) {
+        super(spi);
+    }
+
+    @Override
+    public void setInput(final Object input, final boolean seekForwardOnly, final boolean ignoreMetadata) {
+        super.setInput(input, seekForwardOnly, ignoreMetadata);
+        header = null;
+    }
+
+    @Override
+    public int getNumImages(final boolean allowSearch) {
+        return 1;
+    }
+
+    @Override
+    public int getWidth(final int imageIndex) throws IOException {
+        return readHeader(imageIndex).width;
+    }
+
+    @Override
+    public int getHeight(final int imageIndex) throws IOException {
+        return readHeader(imageIndex).height;
+    }
+
+    @Override
+    public Iterator<ImageTypeSpecifier> getImageTypes(final int imageIndex) throws IOException {
+        return Collections.singletonList(ImageTypeSpecifier.createFromBufferedImageType(readHeader(imageIndex).type)).iterator();
+    }
+
+    @Override
+    public IIOMetadata getStreamMetadata() {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata getImageMetadata(final int imageIndex) {
+        return null;
+    }
+
+    @Override
+    public BufferedImage read(final int imageIndex, ImageReadParam param) throws IOException {
+        final Header header = readHeader(imageIndex);
+        if (param == null) {
+            param = getDefaultReadParam();
+        }
+
+        final boolean plain = param.getSourceRegion() == null
+                && param.getSourceXSubsampling() == 1
+                && param.getSourceYSubsampling() == 1
+                && param.getDestination() == null
+                && param.getDestinationOffset().x == 0
+                && param.getDestinationOffset().y == 0;
+        if (plain) {
+            return readRows(header, 0, header.height);
+        }
+
+        final BufferedImage destination = getDestination(param, getImageTypes(imageIndex), header.width, header.height);
+        final Rectangle sourceRegion = new Rectangle();
+        final Rectangle destinationRegion = new Rectangle();
+        computeRegions(param, header.width, header.height, destination, sourceRegion, destinationRegion);
+
+        final BufferedImage rows = readRows(header, sourceRegion.y, sourceRegion.y + sourceRegion.height);
+        final int xStep = param.getSourceXSubsampling();
+        final int yStep = param.getSourceYSubsampling();
+        final boolean sameType = destination.getType() == header.type;
+        final Raster source = rows.getRaster();
+        final WritableRaster target = destination.getRaster();
+
+        // Without subsampling the rows can be copied as a block
+        if (sameType && xStep == 1 && yStep == 1) {
+            target.setRect(destinationRegion.x, destinationRegion.y,
+                    source.createChild(sourceRegion.x, 0, destinationRegion.width, destinationRegion.height, 0, 0, null));
+            return destination;
+        }
+
+        Object pixel = null;
+        for (int dy = 0; dy < destinationRegion.height; dy++) {
+            final int sy = dy * yStep;
+            for (int dx = 0; dx < destinationRegion.width; dx++) {
+                final int sx = sourceRegion.x + dx * xStep;
+                if (sameType) {
+                    pixel = source.getDataElements(sx, sy, pixel);
+                    target.setDataElements(destinationRegion.x + dx, destinationRegion.y + dy, pixel);
+                } else {
+                    destination.setRGB(destinationRegion.x + dx, destinationRegion.y + dy, rows.getRGB(sx, sy));
+                }
+            }
+        }
+        return destination;
+    }
+
+    /**
+     * Reads a range of rows into an image that wraps the payload bytes.
+     *
+     * @param header The file header.
+     * @param start  The first row.
+     * @param end    The row after the last row.
+     * @return An image of the rows.
+     * @throws IOException If the rows could not be read.
+     */
+    private BufferedImage readRows(final Header header, final int start, final int end) throws IOException {
+        final ImageInputStream stream = (ImageInputStream) input;
+        final int rowCount = end - start;
+        final byte[] bytes = new byte[Math.multiplyExact(rowCount, header.stride)];
+
+        if (header.compression == RasterFormat.COMPRESSION_NONE) {
+            stream.seek(payloadStart + (long) start * header.stride);
+            stream.readFully(bytes);
+        } else {
+            stream.seek(payloadStart);
+            try (InputStream inflater = new InflaterInputStream(new BoundedInput(stream, header.payloadLength))) {
+                skipFully(inflater, (long) start * header.stride);
+                readFully(inflater, bytes);
+            }
+        }
+
+        final BufferedImage template = new BufferedImage(1, 1, header.type);
+        final SampleModel templateModel = template.getSampleModel();
+        final int elementSize = DataBuffer.getDataTypeSize(templateModel.getDataType()) / 8;
+        final int strideElements = header.stride / elementSize;
+
+        final DataBuffer dataBuffer;
+        switch (templateModel.getDataType()) {
+            case DataBuffer.TYPE_BYTE:
+                dataBuffer = new DataBufferByte(bytes, bytes.length);
+                break;
+            case DataBuffer.TYPE_USHORT:
+                final short[] shorts = new short[bytes.length / 2];
+                ByteBuffer.wrap(bytes).asShortBuffer().get(shorts);
+                dataBuffer = new DataBufferUShort(shorts, shorts.length);
+                break;
+            case DataBuffer.TYPE_INT:
+                final int[] ints = new int[bytes.length / 4];
+                ByteBuffer.wrap(bytes).asIntBuffer().get(ints);
+                dataBuffer = new DataBufferInt(ints, ints.length);
+                break;
+            default:
+                throw new IIOException("Unsupported raster data type: " + templateModel.getDataType());
+        }
+
+        final SampleModel sampleModel;
+        if (templateModel instanceof SinglePixelPackedSampleModel) {
+            sampleModel = new SinglePixelPackedSampleModel(templateModel.getDataType(), header.width, rowCount,
+                    strideElements, ((SinglePixelPackedSampleModel) templateModel).getBitMasks());
+        } else {
+            final ComponentSampleModel componentModel = (ComponentSampleModel) templateModel;
+            sampleModel = new PixelInterleavedSampleModel(templateModel.getDataType(), header.width, rowCount,
+                    componentModel.getPixelStride(), strideElements, componentModel.getBandOffsets());
+        }
+
+        final WritableRaster raster = Raster.createWritableRaster(sampleModel, dataBuffer, null);
+        return new BufferedImage(template.getColorModel(), raster, template.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * Reads and validates the header, once per input.
+     */
+    private Header readHeader(final int imageIndex) throws IOException {
+        if (imageIndex != 0) {
+            throw new IndexOutOfBoundsException("Raster files hold a single image.");
+        }
+        if (header != null) {
+            return header;
+        }
+        if (input == null) {
+            throw new IllegalStateException("No input set.");
+        }
+
+        final ImageInputStream stream = (ImageInputStream) input;
+        final byte[] magic = new byte[RasterFormat.MAGIC.length];
+        stream.readFully(magic);
+        for (int i = 0; i < magic.length; i++) {
+            if (magic[i] != RasterFormat.MAGIC[i]) {
+                throw new IIOException("Not a raster file.");
+            }
+        }
+
+        final int version = stream.readUnsignedByte();
+        final int compression = stream.readUnsignedByte();
+        stream.readUnsignedShort(); // Reserved
+        final Header read = new Header(stream.readInt(), stream.readInt(), stream.readInt(), stream.readInt(), compression, stream.readLong());
+
+        if (version != RasterFormat.VERSION) {
+            throw new IIOException("Unsupported raster version: " + version);
+        }
+        if (!RasterFormat.SUPPORTED_TYPES.contains(read.type)) {
+            throw new IIOException("Unsupported raster type: " + read.type);
+        }
+        if (read.width <= 0 || read.height <= 0) {
+            throw new IIOException("Invalid raster dimensions.");
+        }
+        if (read.stride < (long) read.width * RasterFormat.bytesPerPixel(read.type)) {
+            throw new IIOException("Invalid raster stride: " + read.stride);
+        }
+
+        payloadStart = stream.getStreamPosition();
+        header = read;
+        return header;
+    }
+
+    private static void skipFully(final InputStream inputStream, long count) throws IOException {
+        while (count > 0) {
+            final long skipped = inputStream.skip(count);
+            if (skipped > 0) {
+                count -= skipped;
+            } else if (inputStream.read() >= 0) {
+                count--;
+            } else {
+                throw new IIOException("Unexpected end of raster data.");
+            }
+        }
+    }
+
+    private static void readFully(final InputStream inputStream, final byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            final int count = inputStream.read(bytes, offset, bytes.length - offset);
+            if (count < 0) {
+                throw new IIOException("Unexpected end of raster data.");
+            }
+            offset += count;
+        }
+    }
+
+
+    /**
+     * The fields of a raster file header.
+     */
+    private static final class Header {
+        private final int width;
+        private final int height;
+        private final int type;
+        private final int stride;
+        private final int compression;
+        private final long payloadLength;
+
+        private Header(final int width, final int height, final int type, final int stride, final int compression, final long payloadLength) {
+            this.width = width;
+            this.height = height;
+            this.type = type;
+            this.stride = stride;
+            this.compression = compression;
+            this.payloadLength = payloadLength;
+        }
+    }
+
+    /**
+     * Exposes a limited number of bytes of an ImageInputStream as an InputStream.
+     */
+    private static final class BoundedInput extends InputStream {
+        private final ImageInputStream stream;
+        private long remaining;
+
+        private BoundedInput(final ImageInputStream stream, final long length) {
+            this.stream = stream;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            remaining--;
+            return stream.read();
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int count = stream.read(bytes, offset, (int) Math.min(length, remaining));
+            if (count > 0) {
+                remaining -= count;
+            }
+            return count;
+        }
+    }
+
+
+    /**
+     * Service provider that registers the reader with ImageIO.
+     */
+    public static class Spi extends ImageReaderSpi {
+
+        public Spi() {
+            super("TCSS 462 Group 7", "1.0",
+                    new String[]{RasterFormat.FORMAT_NAME, RasterFormat.FORMAT_NAME.toUpperCase()},
+                    new String[]{RasterFormat.FORMAT_NAME},
+                    new String[]{RasterFormat.MIME_TYPE},
+                    RasterImageReader.class.getName(),
+                    new Class<?>[]{ImageInputStream.class},
+                    new String[]{RasterImageWriter.Spi.class.getName()},
+                    false, null, null, null, null,
+                    false, null, null, null, null);
+        }
+
+        @Override
+        public boolean canDecodeInput(final Object source) throws IOException {
+            if (!(source instanceof ImageInputStream)) {
+                return false;
+            }
+            final ImageInputStream stream = (ImageInputStream) source;
+            final byte[] magic = new byte[RasterFormat.MAGIC.length];
+            stream.mark();
+            try {
+                stream.readFully(magic);
+            } catch (final IOException e) {
+                return false;
+            } finally {
+                stream.reset();
+            }
+            for (int i = 0; i < magic.length; i++) {
+                if (magic[i] != RasterFormat.MAGIC[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public ImageReader createReaderInstance(final Object extension) {
+            return new RasterImageReader(this);
+        }
+
+        @Override
+        public String getDescription(final Locale locale) {
+            return "Uncompressed intermediate raster reader";
+        }
+    }
+
+}
@@ -0,0 +1,247 @@
+package codecs;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Writes the raster format. The payload is uncompressed unless the write parameters ask for
+ *  explicit compression, which maps the compression quality to a deflate level the same way
+ *  the JDK PNG writer does.
+ */
+public class RasterImageWriter extends ImageWriter {
+
+    public RasterImageWriter(final ImageWriterSpi spi) {
+        super(spi);
+    }
+
+    @Override
+    public ImageWriteParam getDefaultWriteParam() {
+        return new RasterWriteParam(getLocale());
+    }
+
+    @Override
+    public IIOMetadata getDefaultStreamMetadata(final ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata getDefaultImageMetadata(final ImageTypeSpecifier imageType, final ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata convertStreamMetadata(final IIOMetadata inData, final ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public IIOMetadata convertImageMetadata(final IIOMetadata inData, final ImageTypeSpecifier imageType, final ImageWriteParam param) {
+        return null;
+    }
+
+    @Override
+    public void write(final IIOMetadata streamMetadata, final IIOImage iioImage, final ImageWriteParam param) throws IOException {
+        if (output == null) {
+            throw new IllegalStateException("No output set.");
+        }
+        final BufferedImage image = toSupportedImage(iioImage.getRenderedImage());
+        final ImageOutputStream stream = (ImageOutputStream) output;
+
+        int level = 0;
+        if (param != null && param.canWriteCompressed() && param.getCompressionMode() == ImageWriteParam.MODE_EXPLICIT) {
+            level = 9 - Math.round(9 * param.getCompressionQuality());
+        }
+
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int stride = width * RasterFormat.bytesPerPixel(image.getType());
+
+        stream.write(RasterFormat.MAGIC);
+        stream.writeByte(RasterFormat.VERSION);
+        stream.writeByte(level > 0 ? RasterFormat.COMPRESSION_DEFLATE : RasterFormat.COMPRESSION_NONE);
+        stream.writeShort(0);
+        stream.writeInt(width);
+        stream.writeInt(height);
+        stream.writeInt(image.getType());
+        stream.writeInt(stride);
+        final long lengthPosition = stream.getStreamPosition();
+        stream.writeLong(0);
+
+        final long payloadStart = stream.getStreamPosition();
+        if (level > 0) {
+            final Deflater deflater = new Deflater(level);
+            try {
+                final DeflaterOutputStream deflated = new DeflaterOutputStream(new ImageOutput(stream), deflater, 64 * 1024);
+                writePayload(image, stride, deflated);
+                deflated.finish();
+            } finally {
+                deflater.end();
+            }
+        } else {
+            writePayload(image, stride, new ImageOutput(stream));
+        }
+
+        // Fill in the payload length now that it is known
+        final long payloadEnd = stream.getStreamPosition();
+        stream.seek(lengthPosition);
+        stream.writeLong(payloadEnd - payloadStart);
+        stream.seek(payloadEnd);
+        stream.flush();
+    }
+
+    /**
+     * Writes the data elements of an image, row by row, in big-endian order.
+     */
+    private static void writePayload(final BufferedImage image, final int stride, final OutputStream out) throws IOException {
+        final Raster raster = image.getRaster();
+        final DataBuffer buffer = raster.getDataBuffer();
+
+        // A tightly packed byte raster is already the payload
+        if (buffer instanceof DataBufferByte
+                && buffer.getNumBanks() == 1
+                && buffer.getOffset() == 0
+                && raster.getSampleModelTranslateX() == 0
+                && raster.getSampleModelTranslateY() == 0
+                && buffer.getSize() == (long) stride * image.getHeight()) {
+            out.write(((DataBufferByte) buffer).getData());
+            return;
+        }
+
+        // Data elements come in band order, while the payload is in the memory order of the data
+        // buffer, which is the reverse for BGR and ABGR. Each row is packed through a raster with
+        // the same layout, whose buffer is then in payload order.
+        final int width = image.getWidth();
+        final ByteBuffer row = ByteBuffer.allocate(stride);
+        final WritableRaster packedRow = raster.createCompatibleWritableRaster(width, 1);
+        final DataBuffer packedBuffer = packedRow.getDataBuffer();
+        Object elements = null;
+        for (int y = 0; y < image.getHeight(); y++) {
+            elements = raster.getDataElements(0, y, width, 1, elements);
+            packedRow.setDataElements(0, 0, width, 1, elements);
+            row.clear();
+            if (packedBuffer instanceof DataBufferByte) {
+                row.put(((DataBufferByte) packedBuffer).getData(), 0, stride);
+            } else if (packedBuffer instanceof DataBufferUShort) {
+                row.asShortBuffer().put(((DataBufferUShort) packedBuffer).getData(), 0, stride / 2);
+            } else {
+                row.asIntBuffer().put(((DataBufferInt) packedBuffer).getData(), 0, stride / 4);
+            }
+            out.write(row.array(), 0, stride);
+        }
+    }
+
+    /**
+     * Converts an image to a type the raster format stores as-is.
+     */
+    private static BufferedImage toSupportedImage(final RenderedImage rendered) {
+        if (rendered instanceof BufferedImage && RasterFormat.SUPPORTED_TYPES.contains(((BufferedImage) rendered).getType())) {
+            return (BufferedImage) rendered;
+        }
+
+        final boolean hasAlpha = rendered.getColorModel().hasAlpha();
+        final BufferedImage converted = new BufferedImage(rendered.getWidth(), rendered.getHeight(),
+                hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = converted.createGraphics();
+        graphics.drawRenderedImage(rendered, null);
+        graphics.dispose();
+        return converted;
+    }
+
+
+    /**
+     * Write parameters that allow explicit deflate compression.
+     */
+    private static final class RasterWriteParam extends ImageWriteParam {
+        private RasterWriteParam(final Locale locale) {
+            super(locale);
+            canWriteCompressed = true;
+            compressionTypes = new String[]{"Deflate"};
+        }
+
+        @Override
+        public String getCompressionType() {
+            // Deflate is the only compression type, so it is always the selected one
+            super.getCompressionType();
+            return compressionTypes[0];
+        }
+    }
+
+    /**
+     * Exposes an ImageOutputStream as an OutputStream.
+     */
+    private static final class ImageOutput extends OutputStream {
+        private final ImageOutputStream stream;
+
+        private ImageOutput(final ImageOutputStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            stream.write(b);
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+            stream.write(bytes, offset, length);
+        }
+    }
+
+
+    /**
+     * Service provider that registers the writer with ImageIO.
+     */
+    public static class Spi extends ImageWriterSpi {
+
+        public Spi() {
+            super("TCSS 462 Group 7", "1.0",
+                    new String[]{RasterFormat.FORMAT_NAME, RasterFormat.FORMAT_NAME.toUpperCase()},
+                    new String[]{RasterFormat.FORMAT_NAME},
+                    new String[]{RasterFormat.MIME_TYPE},
+                    RasterImageWriter.class.getName(),
+                    new Class<?>[]{ImageOutputStream.class},
+                    new String[]{RasterImageReader.Spi.class.getName()},
+                    false, null, null, null, null,
+                    false, null, null, null, null);
+        }
+
+        @Override
+        public boolean canEncodeImage(final ImageTypeSpecifier type) {
+            return true;
+        }
+
+        @Override
+        public ImageWriter createWriterInstance(final Object extension) {
+            return new RasterImageWriter(this);
+        }
+
+        @Override
+        public String getDescription(final Locale locale) {
+            return "Uncompressed intermediate raster writer";
+        }
+    }
+
+}
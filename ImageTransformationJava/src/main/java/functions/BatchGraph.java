@@ -0,0 +1,446 @@
+package functions;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import utils.Constants;
+import utils.EncoderOptions;
+import utils.FileValidator;
+import utils.ImageAdmission;
+import utils.InlinePayloads;
+import utils.RasterPool;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static utils.Constants.BUCKET_KEY;
+import static utils.Constants.ENCODER_PROFILE_KEY;
+import static utils.Constants.ENCODE_TIME_KEY;
+import static utils.Constants.ERROR_KEY;
+import static utils.Constants.FILE_NAME_KEY;
+import static utils.Constants.GET_DOWNLOAD_KEY;
+import static utils.Constants.IMAGE_FILE_KEY;
+import static utils.Constants.IMAGE_URL_EXPIRATION_SECONDS;
+import static utils.Constants.IMAGE_URL_EXPIRES_IN;
+import static utils.Constants.IMAGE_URL_KEY;
+import static utils.Constants.ImageBatchFunction;
+import static utils.Constants.OUTPUT_BYTES_KEY;
+import static utils.Constants.OUTPUT_FORMAT_KEY;
+import static utils.Constants.SUCCESS_KEY;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Runs a batch request shaped as a graph of named operations over a single decoded image.
+ *
+ *  "nodes" maps a node name to an operation, in the same [name, args] form as the "operations" list.
+ *  "edges" is a list of [from, to] pairs. A node without an incoming edge reads the decoded source,
+ *  which can also be named explicitly as "source". Every node has exactly one input, so the graph
+ *  is a tree rooted at the source; a node with several outgoing edges shares its result with all
+ *  of them.
+ *
+ *  Branches run concurrently once their input is ready. Every leaf is uploaded as soon as it is
+ *  finished, under "batch_<node>_<file name>", except "details" and "pyramid" leaves, which report
+ *  or upload on their own.
+ */
+final class BatchGraph {
+
+    // Request Body Keys
+    static final String NODES_KEY = "nodes";
+    static final String EDGES_KEY = "edges";
+
+    /**
+     * The name of the decoded input image.
+     */
+    private static final String SOURCE = "source";
+
+    /**
+     * Operations that report or upload on their own, so a leaf of them has nothing to upload.
+     */
+    private static final List<String> SIDE_OUTPUT_OPERATIONS = List.of("details", "pyramid");
+
+    /**
+     * Runs branches and uploads. Uploads mostly wait on the network, so there are more threads than cores.
+     */
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(
+            Math.max(4, Runtime.getRuntime().availableProcessors() * 2), runnable -> {
+                final Thread thread = new Thread(runnable, "batch-graph");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+
+    /**
+     * A named operation and its place in the graph.
+     */
+    private static final class Node {
+        private final String name;
+        private final String operation;
+        private final Map<String, Object> args;
+        private String input = SOURCE;
+        private final List<Node> children = new ArrayList<>();
+
+        private Node(final String name, final String operation, final Map<String, Object> args) {
+            this.name = name;
+            this.operation = operation;
+            this.args = args;
+        }
+
+        private boolean isUploaded() {
+            return children.isEmpty() && !SIDE_OUTPUT_OPERATIONS.contains(operation);
+        }
+    }
+
+    /**
+     * The image a node produced, and the format its leaves should be written in.
+     */
+    private static final class Result {
+        private final BufferedImage image;
+        private final String format;
+
+        private Result(final BufferedImage image, final String format) {
+            this.image = image;
+            this.format = format;
+        }
+    }
+
+    /**
+     * Counts the pending consumers of each image, so a shared image goes back to the raster pool
+     * only after its last consumer is done. Images are compared by identity, since a node may pass
+     * its input through unchanged.
+     */
+    private static final class References {
+        private final Map<BufferedImage, Integer> counts = new IdentityHashMap<>();
+
+        private synchronized void retain(final BufferedImage image, final int consumers) {
+            counts.merge(image, consumers, Integer::sum);
+        }
+
+        private synchronized void release(final BufferedImage image) {
+            final int remaining = counts.merge(image, -1, Integer::sum);
+            if (remaining <= 0) {
+                counts.remove(image);
+                RasterPool.release(image);
+            }
+        }
+
+        /**
+         * Releases every image that still has consumers. After a node fails, the nodes below it never
+         * run, so the images they would have released are released here once the graph has settled.
+         */
+        private synchronized void releaseAll() {
+            for (final BufferedImage image : counts.keySet()) {
+                RasterPool.release(image);
+            }
+            counts.clear();
+        }
+    }
+
+
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+    private final List<Node> roots = new ArrayList<>();
+
+    private BatchGraph() {
+    }
+
+    /**
+     * Parses and validates the graph of a batch request.
+     *
+     * @param request The request arguments.
+     * @return The graph.
+     * @throws IllegalArgumentException If the graph is invalid.
+     */
+    @SuppressWarnings("unchecked")
+    static BatchGraph fromRequest(final Map<String, Object> request) {
+        if (!(request.get(NODES_KEY) instanceof Map) || ((Map<String, Object>) request.get(NODES_KEY)).isEmpty()) {
+            throw new IllegalArgumentException("Invalid nodes. Must map node names to [operation, args].");
+        }
+
+        final BatchGraph graph = new BatchGraph();
+        for (final Map.Entry<String, Object> entry : ((Map<String, Object>) request.get(NODES_KEY)).entrySet()) {
+            final String name = entry.getKey();
+            if (name.equals(SOURCE)) {
+                throw new IllegalArgumentException("Invalid node name: \"" + SOURCE + "\" is reserved for the input image.");
+            }
+            if (!(entry.getValue() instanceof List) || ((List<Object>) entry.getValue()).isEmpty()) {
+                throw new IllegalArgumentException("Invalid node " + name + ". Must be [operation, args].");
+            }
+
+            final List<Object> definition = (List<Object>) entry.getValue();
+            final Object operation = definition.get(0);
+            if (!ImageBatchProcessing.FUNCTIONS.containsKey(operation)) {
+                throw new IllegalArgumentException("Invalid operation for node " + name + ": " + operation);
+            }
+            final Object args = definition.size() > 1 ? definition.get(1) : null;
+            graph.nodes.put(name, new Node(name, (String) operation, args instanceof Map ? new HashMap<>((Map<String, Object>) args) : new HashMap<>()));
+        }
+
+        final Object edges = request.getOrDefault(EDGES_KEY, Collections.emptyList());
+        if (!(edges instanceof List)) {
+            throw new IllegalArgumentException("Invalid edges. Must be a list of [from, to] pairs.");
+        }
+        final Map<String, String> inputs = new HashMap<>();
+        for (final Object edge : (List<Object>) edges) {
+            if (!(edge instanceof List) || ((List<Object>) edge).size() != 2) {
+                throw new IllegalArgumentException("Invalid edge " + edge + ". Must be [from, to].");
+            }
+            final String from = String.valueOf(((List<Object>) edge).get(0));
+            final String to = String.valueOf(((List<Object>) edge).get(1));
+            if (!from.equals(SOURCE) && !graph.nodes.containsKey(from)) {
+                throw new IllegalArgumentException("Invalid edge: unknown node " + from);
+            }
+            if (!graph.nodes.containsKey(to)) {
+                throw new IllegalArgumentException("Invalid edge: unknown node " + to);
+            }
+            if (inputs.put(to, from) != null) {
+                throw new IllegalArgumentException("Invalid edge: node " + to + " has more than one input.");
+            }
+            graph.nodes.get(to).input = from;
+        }
+
+        for (final Node node : graph.nodes.values()) {
+            if (node.input.equals(SOURCE)) {
+                graph.roots.add(node);
+            } else {
+                graph.nodes.get(node.input).children.add(node);
+            }
+        }
+
+        // With one input per node, a node is unreachable from the source only if it is on a cycle
+        if (graph.countReachable(graph.roots) != graph.nodes.size()) {
+            throw new IllegalArgumentException("Invalid edges: the graph has a cycle.");
+        }
+        return graph;
+    }
+
+    /**
+     * Builds the admission steps of the graph, forking wherever a result is shared.
+     *
+     * @return The steps.
+     */
+    List<ImageAdmission.Step> steps() {
+        return stepsOf(roots);
+    }
+
+    /**
+     * Runs the graph.
+     *
+     * @param request The request arguments.
+     * @param context The AWS Lambda context.
+     * @return A response object.
+     */
+    HashMap<String, Object> run(final HashMap<String, Object> request, final Context context) {
+        final HashMap<String, Object> inspector = new HashMap<>();
+
+        final References references = new References();
+        final List<CompletableFuture<?>> started = new ArrayList<>();
+        try {
+            final String bucketName = (String) request.get(BUCKET_KEY);
+            final String fileName = (String) request.get(FILE_NAME_KEY);
+            final EncoderOptions encoderOptions = EncoderOptions.fromRequest(request);
+            final RasterPool.Stats poolStart = RasterPool.snapshot();
+
+            // Each leaf of an inline request is returned in the one response, and is expected to be about the size of the source
+            int leaves = 0;
+            for (final Node node : nodes.values()) {
+                leaves += node.isUploaded() ? 1 : 0;
+            }
+            final String inlineMessage = InlinePayloads.checkResponse(request, leaves * InlinePayloads.sourceBytes(request));
+            if (inlineMessage != null) {
+                return Constants.getErrorObject(inlineMessage);
+            }
+
+            // Fetch the shared source image from S3
+            final BufferedImage source = Constants.getImageFromS3AndRecordLatency(bucketName, fileName, inspector, request, steps());
+            if (source == null) {
+                return Constants.getErrorObject("Could not access image from S3.");
+            }
+
+            final String sourceFormat = request.containsKey(OUTPUT_FORMAT_KEY)
+                    ? request.get(OUTPUT_FORMAT_KEY).toString().toLowerCase()
+                    : FileValidator.getFileExtension(fileName);
+            references.retain(source, roots.size());
+            final CompletableFuture<Result> sourceFuture = CompletableFuture.completedFuture(new Result(source, sourceFormat));
+
+            // Chain every node onto its input, so independent branches are scheduled as soon as their input is ready
+            final Map<String, HashMap<String, Object>> nodeOutputs = Collections.synchronizedMap(new LinkedHashMap<>());
+            final List<CompletableFuture<HashMap<String, Object>>> uploads = new ArrayList<>();
+            final List<CompletableFuture<?>> pending = new ArrayList<>();
+            final Map<String, CompletableFuture<Result>> futures = new HashMap<>();
+            futures.put(SOURCE, sourceFuture);
+
+            for (final Node node : topologicalOrder()) {
+                final CompletableFuture<Result> future = futures.get(node.input).thenApplyAsync(
+                        input -> runNode(node, input, bucketName, fileName, context, references, nodeOutputs), POOL);
+                futures.put(node.name, future);
+                pending.add(future);
+                started.add(future);
+
+                if (node.isUploaded()) {
+                    final CompletableFuture<HashMap<String, Object>> upload = future.thenApplyAsync(
+                            result -> upload(node, result, bucketName, fileName, encoderOptions, request, references), POOL);
+                    uploads.add(upload);
+                    started.add(upload);
+                }
+            }
+
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+            CompletableFuture.allOf(uploads.toArray(new CompletableFuture<?>[0])).join();
+
+            final List<HashMap<String, Object>> outputs = new ArrayList<>();
+            long encodeTime = 0;
+            long outputBytes = 0;
+            for (final CompletableFuture<HashMap<String, Object>> upload : uploads) {
+                final HashMap<String, Object> output = upload.join();
+                if (output.containsKey(ERROR_KEY)) {
+                    return Constants.getErrorObject((String) output.get(ERROR_KEY));
+                }
+                encodeTime += ((Number) output.get(ENCODE_TIME_KEY)).longValue();
+                outputBytes += ((Number) output.get(OUTPUT_BYTES_KEY)).longValue();
+                outputs.add(output);
+            }
+
+            final RasterPool.Stats poolStats = RasterPool.snapshot().since(poolStart);
+            inspector.put(SUCCESS_KEY, "Successfully processed image.");
+            inspector.put("batch_operations_count", nodes.size());
+            inspector.put("operation_outputs", new LinkedHashMap<>(nodeOutputs));
+            inspector.put("outputs", outputs);
+            inspector.put(ENCODE_TIME_KEY, encodeTime);
+            inspector.put(OUTPUT_BYTES_KEY, outputBytes);
+            inspector.put(ENCODER_PROFILE_KEY, encoderOptions.getName());
+            inspector.put("raster_pool_hits", poolStats.hits);
+            inspector.put("raster_pool_misses", poolStats.misses);
+
+        } catch (final CompletionException e) {
+            e.getCause().printStackTrace();
+            return Constants.getErrorObject(e.getCause().toString());
+        } catch (final Exception e) {
+            e.printStackTrace();
+            return Constants.getErrorObject(e.toString());
+        } finally {
+            // A failed node fails the join at once, while other branches may still be encoding their
+            // rasters, so every task settles before the rasters go back to the pool
+            CompletableFuture.allOf(started.toArray(new CompletableFuture<?>[0])).exceptionally(error -> null).join();
+            references.releaseAll();
+        }
+
+        return inspector;
+    }
+
+    /**
+     * Runs a single node on the result of its input.
+     */
+    private static Result runNode(final Node node,
+                                  final Result input,
+                                  final String bucketName,
+                                  final String fileName,
+                                  final Context context,
+                                  final References references,
+                                  final Map<String, HashMap<String, Object>> nodeOutputs) {
+        // Add required params to the operation arguments
+        final HashMap<String, Object> operationArgs = new HashMap<>(node.args);
+        operationArgs.put(BUCKET_KEY, bucketName);
+        operationArgs.put(FILE_NAME_KEY, fileName);
+
+        final ImageBatchFunction operationFunction = ImageBatchProcessing.FUNCTIONS.get(node.operation);
+        final HashMap<String, Object> responseObject = operationFunction.process(input.image, operationArgs, context);
+
+        String format = input.format;
+        if (responseObject.containsKey(ERROR_KEY)) {
+            System.out.println("Pipeline error: Error executing node " + node.name);
+        } else if (node.operation.equals("transform")) {
+            format = ((String) operationArgs.get("target_format")).toLowerCase();
+        }
+
+        // A failed step passes its input through, as in the linear pipeline
+        final BufferedImage image = responseObject.containsKey(IMAGE_FILE_KEY) ? (BufferedImage) responseObject.get(IMAGE_FILE_KEY) : input.image;
+        references.retain(image, node.children.size() + (node.isUploaded() ? 1 : 0));
+        references.release(input.image);
+
+        final HashMap<String, Object> output = new HashMap<>(responseObject);
+        output.remove(IMAGE_FILE_KEY);
+        nodeOutputs.put(node.name, output);
+        return new Result(image, format);
+    }
+
+    /**
+     * Uploads the result of a leaf node.
+     */
+    private static HashMap<String, Object> upload(final Node node,
+                                                  final Result result,
+                                                  final String bucketName,
+                                                  final String fileName,
+                                                  final EncoderOptions encoderOptions,
+                                                  final Map<String, Object> request,
+                                                  final References references) {
+        final int dotIndex = fileName.lastIndexOf('.');
+        final String baseName = dotIndex == -1 ? fileName : fileName.substring(0, dotIndex);
+        final String outputFileName = "batch_" + node.name + "_" + baseName + "." + result.format;
+
+        final HashMap<String, Object> output = new HashMap<>();
+        output.put("node", node.name);
+        output.put(FILE_NAME_KEY, outputFileName);
+        try {
+            if (!Constants.saveImageToS3(bucketName, outputFileName, result.format, result.image, encoderOptions, output, request)) {
+                return Constants.getErrorObject("Failed to save image to S3: " + outputFileName);
+            }
+        } finally {
+            references.release(result.image);
+        }
+        output.remove(ENCODER_PROFILE_KEY);
+
+        if ((boolean) request.get(GET_DOWNLOAD_KEY)) {
+            output.put(IMAGE_URL_KEY, Constants.getDownloadableImageURL(bucketName, outputFileName));
+            output.put(IMAGE_URL_EXPIRES_IN, IMAGE_URL_EXPIRATION_SECONDS);
+        }
+        return output;
+    }
+
+    /**
+     * @return The nodes, each after its input.
+     */
+    private List<Node> topologicalOrder() {
+        final List<Node> order = new ArrayList<>(roots);
+        for (int i = 0; i < order.size(); i++) {
+            order.addAll(order.get(i).children);
+        }
+        return order;
+    }
+
+    private int countReachable(final List<Node> from) {
+        int count = 0;
+        for (final Node node : from) {
+            count += 1 + countReachable(node.children);
+        }
+        return count;
+    }
+
+    private static List<ImageAdmission.Step> stepsOf(final List<Node> siblings) {
+        if (siblings.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (siblings.size() == 1) {
+            final Node node = siblings.get(0);
+            final List<ImageAdmission.Step> steps = new ArrayList<>();
+            steps.add(new ImageAdmission.Step(node.operation, node.args));
+            steps.addAll(stepsOf(node.children));
+            return steps;
+        }
+
+        final List<List<ImageAdmission.Step>> branches = new ArrayList<>();
+        for (final Node sibling : siblings) {
+            branches.add(stepsOf(Collections.singletonList(sibling)));
+        }
+        return Collections.singletonList(ImageAdmission.Step.fork(branches));
+    }
+
+}
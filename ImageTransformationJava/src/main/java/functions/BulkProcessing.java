@@ -0,0 +1,596 @@
+package functions;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import utils.Constants;
+import utils.EncoderOptions;
+import utils.FileValidator;
+import utils.JsonStreams;
+import utils.Manifest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static utils.Constants.BUCKET_KEY;
+import static utils.Constants.ERROR_KEY;
+import static utils.Constants.FILE_NAME_KEY;
+import static utils.Constants.GET_DOWNLOAD_KEY;
+import static utils.Constants.OUTPUT_FORMAT_KEY;
+import static utils.Constants.SUCCESS_KEY;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Applies a batch "operations" list to every image under a bucket prefix.
+ *
+ *  The prefix is listed a page at a time, in key order, and every image is run through the batch
+ *  pipeline with at most "concurrency" images at once. Keys the pipeline cannot read and the
+ *  "batch_" outputs of the pipeline itself are skipped.
+ *
+ *  A job stops dispatching before the invocation runs out of time, or after "time_budget_ms", and
+ *  reports "complete": false. Its checkpoint, a small JSON object in the bucket, holds the last
+ *  dispatched key and the keys that were still in flight, and is rewritten every
+ *  "checkpoint_interval_ms" while the job runs. Sending the same request again resumes the job:
+ *  the keys that were in flight are processed again, and the listing carries on after the last
+ *  dispatched key. The checkpoint belongs to the prefix and the plan (the operations and output
+ *  settings), so a different plan starts over, as does "restart": true.
+ *
+ *  With a "manifest" location, a listed image whose ETag matches the manifest entry for its key
+ *  and the plan is counted as "unchanged" and not processed, and every processed image is added
+ *  to the manifest (see Manifest). The manifest is flushed with every checkpoint, so a job run
+ *  again after new uploads only processes what is new or changed.
+ */
+public class BulkProcessing {
+
+    // Request Body Keys
+    static final String OPERATIONS_KEY = "operations";
+    static final String PREFIX_KEY = "prefix";
+    static final String CONCURRENCY_KEY = "concurrency";
+    static final String CHECKPOINT_KEY_KEY = "checkpoint_key";
+    static final String CHECKPOINT_INTERVAL_KEY = "checkpoint_interval_ms";
+    static final String TIME_BUDGET_KEY = "time_budget_ms";
+    static final String RESTART_KEY = "restart";
+
+    // Checkpoint Keys
+    private static final String JOB_KEY = "job";
+    private static final String LAST_DISPATCHED_KEY = "last_dispatched_key";
+    private static final String IN_FLIGHT_KEY = "in_flight";
+    private static final String PROCESSED_KEY = "processed";
+    private static final String FAILED_KEY = "failed";
+    private static final String PROCESSED_BYTES_KEY = "processed_bytes";
+    private static final String COMPLETE_KEY = "complete";
+
+    /**
+     * The request keys that decide what a job produces, and so make up its plan.
+     */
+    static final List<String> PLAN_KEYS = List.of(OPERATIONS_KEY, OUTPUT_FORMAT_KEY,
+            EncoderOptions.PROFILE_KEY, EncoderOptions.JPEG_QUALITY_KEY, EncoderOptions.PROGRESSIVE_KEY,
+            EncoderOptions.OPTIMIZE_HUFFMAN_KEY, EncoderOptions.PNG_COMPRESSION_LEVEL_KEY, EncoderOptions.PNG_ENCODER_KEY,
+            EncoderOptions.PNG_THREADS_KEY, EncoderOptions.PNG_PRIME_DICTIONARY_KEY);
+
+    /**
+     * The prefix of the outputs of the batch pipeline, which are never inputs of a job.
+     */
+    private static final String OUTPUT_PREFIX = "batch_";
+
+    private static final int DEFAULT_CONCURRENCY = 4;
+    private static final int MAX_CONCURRENCY = 64;
+    private static final int PAGE_SIZE = 1000;
+    private static final long DEFAULT_CHECKPOINT_INTERVAL_MS = 5000;
+
+    /**
+     * The time kept back at the end of an invocation for the images in flight and the last checkpoint.
+     */
+    private static final long DEADLINE_MARGIN_MS = 15_000;
+
+    /**
+     * The time kept back at the very end of an invocation for the final manifest flush and checkpoint.
+     */
+    private static final long FINAL_CHECKPOINT_MS = 3_000;
+
+    /**
+     * The most failures listed in a response. All of them are counted.
+     */
+    private static final int MAX_REPORTED_FAILURES = 20;
+
+
+    private BulkProcessing() {
+    }
+
+    /**
+     * The progress of a job, shared by the dispatching thread and the workers.
+     */
+    private static final class Progress {
+        private String lastDispatched;
+        private final TreeSet<String> inFlight = new TreeSet<>();
+        private long dispatchedNow;
+        private long processed;
+        private long failed;
+        private long processedBytes;
+        private long processedNow;
+        private long processedBytesNow;
+        private long failedNow;
+        private final List<Map<String, Object>> failures = new ArrayList<>();
+        private long lastCheckpoint = System.currentTimeMillis();
+
+        /**
+         * Held while a checkpoint is written. Once the final checkpoint is written, the workers
+         * that are still running may not write an older one over it.
+         */
+        private final Object checkpointLock = new Object();
+        private boolean checkpointsClosed = false;
+
+        private synchronized void dispatched(final String key, final boolean listed) {
+            inFlight.add(key);
+            dispatchedNow++;
+            if (listed) {
+                lastDispatched = key;
+            }
+        }
+
+        private synchronized void finished(final String key, final long bytes, final String error) {
+            inFlight.remove(key);
+            if (error == null) {
+                processed++;
+                processedNow++;
+                processedBytes += bytes;
+                processedBytesNow += bytes;
+            } else {
+                failed++;
+                failedNow++;
+                if (failures.size() < MAX_REPORTED_FAILURES) {
+                    final Map<String, Object> failure = new HashMap<>();
+                    failure.put(FILE_NAME_KEY, key);
+                    failure.put(ERROR_KEY, error);
+                    failures.add(failure);
+                }
+            }
+        }
+
+        private synchronized Map<String, Object> toCheckpoint(final String job, final boolean complete) {
+            final Map<String, Object> checkpoint = new HashMap<>();
+            checkpoint.put(JOB_KEY, job);
+            checkpoint.put(LAST_DISPATCHED_KEY, lastDispatched);
+            checkpoint.put(IN_FLIGHT_KEY, new ArrayList<>(inFlight));
+            checkpoint.put(PROCESSED_KEY, processed);
+            checkpoint.put(FAILED_KEY, failed);
+            checkpoint.put(PROCESSED_BYTES_KEY, processedBytes);
+            checkpoint.put(COMPLETE_KEY, complete);
+            return checkpoint;
+        }
+    }
+
+    /**
+     * Bulk function: Execute a list of transformations on every image under a prefix.
+     *
+     * @param request The job arguments.
+     * @param context The AWS Lambda context.
+     * @return A response object.
+     */
+    @SuppressWarnings("unchecked")
+    public static HashMap<String, Object> handleRequest(final HashMap<String, Object> request, final Context context) {
+        final HashMap<String, Object> inspector = new HashMap<>();
+
+        // Validate input
+        final String validateMessage = Constants.validateRequestMap(request, BUCKET_KEY, PREFIX_KEY, OPERATIONS_KEY);
+        if (validateMessage != null) {
+            return Constants.getErrorObject(validateMessage);
+        }
+        if (!(request.get(OPERATIONS_KEY) instanceof List)) {
+            return Constants.getErrorObject("Invalid operations. Must be a list of [name, arguments].");
+        }
+
+        ExecutorService pool = null;
+        try {
+            final String bucketName = (String) request.get(BUCKET_KEY);
+            final String prefix = (String) request.get(PREFIX_KEY);
+            final int concurrency = Constants.getIntArgument(request, CONCURRENCY_KEY, DEFAULT_CONCURRENCY);
+            if (concurrency < 1 || concurrency > MAX_CONCURRENCY) {
+                return Constants.getErrorObject("Invalid concurrency. Must be between 1 and " + MAX_CONCURRENCY + ".");
+            }
+            final long checkpointInterval = Constants.getIntArgument(request, CHECKPOINT_INTERVAL_KEY, (int) DEFAULT_CHECKPOINT_INTERVAL_MS);
+            final long startTime = System.currentTimeMillis();
+            final long deadline = deadline(request, context, startTime);
+
+            final String plan = planHash(request);
+            final String job = hash(prefix + "\n" + plan);
+            final String checkpointKey = request.get(CHECKPOINT_KEY_KEY) instanceof String
+                    ? (String) request.get(CHECKPOINT_KEY_KEY)
+                    : "bulk_checkpoints/" + job + ".json";
+            final AmazonS3 s3 = Constants.getS3Client();
+            final Manifest manifest = request.get(Manifest.MANIFEST_KEY) instanceof String
+                    ? Manifest.open(bucketName, (String) request.get(Manifest.MANIFEST_KEY))
+                    : null;
+
+            // Resume from the checkpoint of this job, if there is one
+            final Progress progress = new Progress();
+            final List<String> resumed = new ArrayList<>();
+            final Map<String, Object> checkpoint = Boolean.TRUE.equals(request.get(RESTART_KEY)) ? null : readCheckpoint(s3, bucketName, checkpointKey);
+            if (checkpoint != null && job.equals(checkpoint.get(JOB_KEY))) {
+                if (Boolean.TRUE.equals(checkpoint.get(COMPLETE_KEY))) {
+                    inspector.put(SUCCESS_KEY, "Job already complete. Add \"restart\": true to run it again.");
+                    inspector.put(COMPLETE_KEY, true);
+                    inspector.put("total_processed", checkpoint.get(PROCESSED_KEY));
+                    inspector.put("total_failed", checkpoint.get(FAILED_KEY));
+                    inspector.put("checkpoint_key", checkpointKey);
+                    return inspector;
+                }
+                progress.lastDispatched = (String) checkpoint.get(LAST_DISPATCHED_KEY);
+                progress.processed = ((Number) checkpoint.get(PROCESSED_KEY)).longValue();
+                progress.failed = ((Number) checkpoint.get(FAILED_KEY)).longValue();
+                progress.processedBytes = ((Number) checkpoint.get(PROCESSED_BYTES_KEY)).longValue();
+                resumed.addAll((List<String>) checkpoint.get(IN_FLIGHT_KEY));
+            }
+
+            pool = Executors.newFixedThreadPool(concurrency, runnable -> {
+                final Thread thread = new Thread(runnable, "bulk-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+            final Semaphore slots = new Semaphore(concurrency);
+            final ExecutorService workers = pool;
+            final Runnable checkpointIfDue = () -> {
+                synchronized (progress) {
+                    if (System.currentTimeMillis() - progress.lastCheckpoint < checkpointInterval) {
+                        return;
+                    }
+                    progress.lastCheckpoint = System.currentTimeMillis();
+                }
+                synchronized (progress.checkpointLock) {
+                    if (progress.checkpointsClosed) {
+                        return;
+                    }
+                    flushManifest(manifest);
+                    writeCheckpoint(s3, bucketName, checkpointKey, progress.toCheckpoint(job, false));
+                }
+            };
+
+            // The images that were in flight when the last invocation stopped go first. They stay in
+            // flight until they finish, so any this invocation has no time to dispatch are checkpointed again.
+            // Every invocation dispatches at least one image, so a job always moves forward
+            synchronized (progress) {
+                progress.inFlight.addAll(resumed);
+            }
+            long listed = 0;
+            long skipped = 0;
+            long unchanged = 0;
+            boolean stopped = false;
+            for (final String key : resumed) {
+                if (System.currentTimeMillis() >= deadline && dispatchedAny(progress)) {
+                    stopped = true;
+                    break;
+                }
+                slots.acquire();
+                progress.dispatched(key, false);
+                workers.execute(() -> process(request, bucketName, key, -1, null, s3, manifest, plan, progress, slots, checkpointIfDue));
+            }
+
+            // Then the listing, a page at a time, after the last dispatched key
+            final ListObjectsV2Request listing = new ListObjectsV2Request()
+                    .withBucketName(bucketName)
+                    .withPrefix(prefix)
+                    .withMaxKeys(PAGE_SIZE)
+                    .withStartAfter(progress.lastDispatched);
+            while (!stopped) {
+                final ListObjectsV2Result page = s3.listObjectsV2(listing);
+                for (final S3ObjectSummary summary : page.getObjectSummaries()) {
+                    if (System.currentTimeMillis() >= deadline && dispatchedAny(progress)) {
+                        stopped = true;
+                        break;
+                    }
+                    listed++;
+                    final String key = summary.getKey();
+                    if (!isInput(key, checkpointKey)) {
+                        skipped++;
+                        synchronized (progress) {
+                            progress.lastDispatched = key;
+                        }
+                        continue;
+                    }
+                    if (manifest != null && manifest.lookup(key, summary.getETag(), plan) != null) {
+                        unchanged++;
+                        synchronized (progress) {
+                            progress.lastDispatched = key;
+                        }
+                        continue;
+                    }
+                    slots.acquire();
+                    progress.dispatched(key, true);
+                    workers.execute(() -> process(request, bucketName, key, summary.getSize(), summary.getETag(), s3, manifest, plan, progress, slots, checkpointIfDue));
+                }
+                if (stopped || !page.isTruncated()) {
+                    break;
+                }
+                listing.setContinuationToken(page.getNextContinuationToken());
+            }
+
+            // Wait for the images in flight, then record where the job stands. Workers that outlive
+            // the wait can no longer checkpoint, and the images they hold stay in flight for the next run.
+            pool.shutdown();
+            pool.awaitTermination(awaitMillis(deadline, context), TimeUnit.MILLISECONDS);
+            final boolean complete;
+            synchronized (progress.checkpointLock) {
+                progress.checkpointsClosed = true;
+                synchronized (progress) {
+                    complete = !stopped && progress.inFlight.isEmpty();
+                }
+                flushManifest(manifest);
+                writeCheckpoint(s3, bucketName, checkpointKey, progress.toCheckpoint(job, complete));
+            }
+
+            final double seconds = Math.max(1, System.currentTimeMillis() - startTime) / 1000.0;
+            synchronized (progress) {
+                inspector.put(SUCCESS_KEY, complete ? "Job complete." : "Job stopped before the time limit. Send the same request to resume it.");
+                inspector.put(COMPLETE_KEY, complete);
+                inspector.put("listed", listed);
+                inspector.put("skipped", skipped);
+                if (manifest != null) {
+                    inspector.put("unchanged", unchanged);
+                }
+                inspector.put(PROCESSED_KEY, progress.processedNow);
+                inspector.put(FAILED_KEY, progress.failedNow);
+                inspector.put(PROCESSED_BYTES_KEY, progress.processedBytesNow);
+                inspector.put("resumed_in_flight", resumed.size());
+                inspector.put("objects_per_second", progress.processedNow / seconds);
+                inspector.put("bytes_per_second", progress.processedBytesNow / seconds);
+                inspector.put("total_processed", progress.processed);
+                inspector.put("total_failed", progress.failed);
+                inspector.put("failures", new ArrayList<>(progress.failures));
+                inspector.put("checkpoint_key", checkpointKey);
+                inspector.put(LAST_DISPATCHED_KEY, progress.lastDispatched);
+            }
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Constants.getErrorObject(e.toString());
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+
+        return inspector;
+    }
+
+    /**
+     * @return True if this invocation has dispatched an image.
+     */
+    private static boolean dispatchedAny(final Progress progress) {
+        synchronized (progress) {
+            return progress.dispatchedNow > 0;
+        }
+    }
+
+    /**
+     * Runs one image through the batch pipeline and records the outcome.
+     *
+     * @param size The size of the source in bytes, or -1 if it was not listed.
+     * @param etag The ETag of the source, or null if it was not listed.
+     */
+    private static void process(final Map<String, Object> request,
+                                final String bucketName,
+                                final String key,
+                                final long size,
+                                final String etag,
+                                final AmazonS3 s3,
+                                final Manifest manifest,
+                                final String plan,
+                                final Progress progress,
+                                final Semaphore slots,
+                                final Runnable checkpointIfDue) {
+        String error = null;
+        long bytes = size;
+        try {
+            String sourceETag = etag;
+            if (bytes < 0) {
+                final ObjectMetadata metadata = s3.getObjectMetadata(bucketName, key);
+                bytes = metadata.getContentLength();
+                sourceETag = metadata.getETag();
+            }
+            final HashMap<String, Object> result = ImageBatchProcessing.handleRequest(objectRequest(request, bucketName, key), null);
+            if (result.containsKey(ERROR_KEY)) {
+                error = String.valueOf(result.get(ERROR_KEY));
+            } else if (manifest != null) {
+                manifest.record(key, sourceETag, plan, (String) result.get(ImageBatchProcessing.OUTPUT_KEY));
+            }
+        } catch (final Exception e) {
+            error = e.toString();
+        } finally {
+            progress.finished(key, Math.max(0, bytes), error);
+            slots.release();
+        }
+        checkpointIfDue.run();
+    }
+
+    /**
+     * Builds the batch request of one image. The batch pipeline adds to the arguments of each
+     * operation, so every image gets its own copy of them.
+     */
+    @SuppressWarnings("unchecked")
+    static HashMap<String, Object> objectRequest(final Map<String, Object> request, final String bucketName, final String key) {
+        final HashMap<String, Object> objectRequest = new HashMap<>();
+        for (final String planKey : PLAN_KEYS) {
+            if (request.containsKey(planKey)) {
+                objectRequest.put(planKey, request.get(planKey));
+            }
+        }
+        final ArrayList<Object> operations = new ArrayList<>();
+        for (final Object operation : (List<Object>) request.get(OPERATIONS_KEY)) {
+            final ArrayList<Object> copy = new ArrayList<>();
+            for (final Object part : (List<Object>) operation) {
+                copy.add(part instanceof Map ? new HashMap<>((Map<String, Object>) part) : part);
+            }
+            operations.add(copy);
+        }
+        objectRequest.put(OPERATIONS_KEY, operations);
+        objectRequest.put(BUCKET_KEY, bucketName);
+        objectRequest.put(FILE_NAME_KEY, key);
+        objectRequest.put(GET_DOWNLOAD_KEY, false);
+        return objectRequest;
+    }
+
+    /**
+     * @return True if a listed key is an image the job should process.
+     */
+    static boolean isInput(final String key, final String checkpointKey) {
+        final String name = key.substring(key.lastIndexOf('/') + 1);
+        return !key.equals(checkpointKey) && !key.startsWith(OUTPUT_PREFIX) && !name.startsWith(OUTPUT_PREFIX) && FileValidator.isValidFileType(key);
+    }
+
+    /**
+     * @return The time to stop dispatching: the time budget of the request, or the end of the
+     *         invocation less a margin for the images in flight, whichever is sooner.
+     */
+    private static long deadline(final Map<String, Object> request, final Context context, final long startTime) {
+        long deadline = Long.MAX_VALUE;
+        if (request.get(TIME_BUDGET_KEY) instanceof Number) {
+            deadline = saturatedAdd(startTime, Math.max(0, ((Number) request.get(TIME_BUDGET_KEY)).longValue()));
+        }
+        if (context != null) {
+            deadline = Math.min(deadline, startTime + context.getRemainingTimeInMillis() - DEADLINE_MARGIN_MS);
+        }
+        return deadline;
+    }
+
+    /**
+     * @return How long to wait for the images in flight: until the margin after the deadline, but
+     *         never so long that the invocation ends before the final checkpoint is written. Without a
+     *         deadline or an invocation, the wait has no end.
+     */
+    static long awaitMillis(final long deadline, final Context context) {
+        final long now = System.currentTimeMillis();
+        long end = saturatedAdd(deadline, DEADLINE_MARGIN_MS);
+        if (context != null) {
+            end = Math.min(end, now + context.getRemainingTimeInMillis() - FINAL_CHECKPOINT_MS);
+        }
+        return end == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(1, end - now);
+    }
+
+    /**
+     * @return The sum of a time and a non-negative duration, or Long.MAX_VALUE if it overflows.
+     */
+    private static long saturatedAdd(final long time, final long duration) {
+        return time > Long.MAX_VALUE - duration ? Long.MAX_VALUE : time + duration;
+    }
+
+    private static void flushManifest(final Manifest manifest) {
+        if (manifest == null) {
+            return;
+        }
+        try {
+            manifest.flush();
+        } catch (final Exception e) {
+            // The entries stay pending for the next flush, and at worst their images are processed again
+            e.printStackTrace();
+        }
+    }
+
+    private static Map<String, Object> readCheckpoint(final AmazonS3 s3, final String bucketName, final String key) throws IOException {
+        try (S3Object object = s3.getObject(bucketName, key)) {
+            return JsonStreams.readRequest(object.getObjectContent());
+        } catch (final AmazonS3Exception e) {
+            if (e.getStatusCode() == 404) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private static void writeCheckpoint(final AmazonS3 s3, final String bucketName, final String key, final Map<String, Object> checkpoint) {
+        try {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            JsonStreams.writeResponse(checkpoint, outputStream);
+            final ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(outputStream.size());
+            metadata.setContentType("application/json");
+            s3.putObject(bucketName, key, new ByteArrayInputStream(outputStream.toByteArray()), metadata);
+        } catch (final Exception e) {
+            // A missed checkpoint only means more work is repeated on resume
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Hashes what a request produces: its operations and output settings. Map keys are sorted, so
+     * the same plan hashes the same however its request was parsed.
+     *
+     * @param request The request arguments.
+     * @return The plan hash, as 16 hex digits.
+     */
+    static String planHash(final Map<String, Object> request) {
+        final Map<String, Object> plan = new TreeMap<>();
+        for (final String key : PLAN_KEYS) {
+            if (request.get(key) != null) {
+                plan.put(key, request.get(key));
+            }
+        }
+        final StringBuilder canonical = new StringBuilder();
+        appendCanonical(plan, canonical);
+        return hash(canonical.toString());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void appendCanonical(final Object value, final StringBuilder out) {
+        if (value instanceof Map) {
+            out.append('{');
+            for (final Map.Entry<String, Object> entry : new TreeMap<>((Map<String, Object>) value).entrySet()) {
+                out.append('"').append(entry.getKey()).append("\":");
+                appendCanonical(entry.getValue(), out);
+                out.append(',');
+            }
+            out.append('}');
+        } else if (value instanceof List) {
+            out.append('[');
+            for (final Object element : (List<?>) value) {
+                appendCanonical(element, out);
+                out.append(',');
+            }
+            out.append(']');
+        } else if (value instanceof String) {
+            out.append('"').append(value).append('"');
+        } else if (value instanceof Number && ((Number) value).doubleValue() == Math.rint(((Number) value).doubleValue())) {
+            // 90 and 90.0 are the same argument
+            out.append(((Number) value).longValue());
+        } else {
+            out.append(value);
+        }
+    }
+
+    /**
+     * @return The first 16 hex digits of the SHA-256 of a string.
+     */
+    static String hash(final String text) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder hex = new StringBuilder(16);
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
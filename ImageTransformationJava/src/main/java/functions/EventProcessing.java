@@ -0,0 +1,405 @@
+package functions;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import utils.Constants;
+import utils.JsonStreams;
+import utils.Manifest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static utils.Constants.BUCKET_KEY;
+import static utils.Constants.ERROR_KEY;
+import static utils.Constants.FILE_NAME_KEY;
+import static utils.Constants.SUCCESS_KEY;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Runs the batch pipeline on the objects named by an S3 event notification, or by an SQS batch
+ *  of them, so an upload-triggered pipeline handles many objects per invocation.
+ *
+ *  An SQS message body is an S3 event, or an SNS notification with an S3 event as its message.
+ *  Only "ObjectCreated" records are processed, and of those only images that are not outputs of
+ *  the pipeline itself, so its own uploads never trigger it again.
+ *
+ *  The plan, the "operations", output settings and optional "manifest" of a batch request, is
+ *  the "plan" object of the event, or else the JSON in the IMAGE_EVENT_PLAN environment variable
+ *  or image_event_plan system property. The objects run "concurrency" at a time through one S3
+ *  client. Records that name the same key share one fetch, decode and run of its newest version
+ *  (by the S3 sequencer), and the objects of a bucket share one manifest, which is flushed once
+ *  for the whole batch.
+ *
+ *  The response lists the SQS messages with a failed object in "batchItemFailures", so only they
+ *  are retried. Objects still waiting when the invocation is about to run out of time fail too.
+ */
+public class EventProcessing {
+
+    // Request Body Keys
+    static final String RECORDS_KEY = "Records";
+    static final String PLAN_KEY = "plan";
+    static final String CONCURRENCY_KEY = "concurrency";
+
+    // Response Body Keys
+    static final String BATCH_ITEM_FAILURES_KEY = "batchItemFailures";
+    static final String ITEM_IDENTIFIER_KEY = "itemIdentifier";
+
+    /**
+     * The environment variable and system property that hold the default plan.
+     */
+    public static final String PLAN_ENVIRONMENT_KEY = "IMAGE_EVENT_PLAN";
+    public static final String PLAN_PROPERTY_KEY = "image_event_plan";
+
+    private static final String CREATED_EVENT_PREFIX = "ObjectCreated:";
+
+    private static final int DEFAULT_CONCURRENCY = 4;
+    private static final int MAX_CONCURRENCY = 64;
+
+    /**
+     * The time kept back at the end of an invocation for the objects in flight.
+     */
+    private static final long DEADLINE_MARGIN_MS = 10_000;
+
+    /**
+     * The most failures listed in a response. All of them are counted.
+     */
+    private static final int MAX_REPORTED_FAILURES = 20;
+
+
+    private EventProcessing() {
+    }
+
+    /**
+     * One version of an object, and the SQS messages that name it.
+     */
+    private static final class ObjectEvent {
+        private final String bucketName;
+        private final String key;
+        private final String etag;
+        private final String sequencer;
+        private final Set<String> messageIds = new LinkedHashSet<>();
+        private String error;
+        private boolean unchanged;
+
+        private ObjectEvent(final String bucketName, final String key, final String etag, final String sequencer) {
+            this.bucketName = bucketName;
+            this.key = key;
+            this.etag = etag;
+            this.sequencer = sequencer;
+        }
+
+        /**
+         * S3 orders the events of a key by their sequencers, hex strings that compare by length
+         * and then lexically. An event without one counts as the latest so far.
+         *
+         * @return True if this event is newer than another event for the same key.
+         */
+        private boolean isNewerThan(final ObjectEvent other) {
+            if (sequencer == null || other.sequencer == null) {
+                return true;
+            }
+            return sequencer.length() != other.sequencer.length()
+                    ? sequencer.length() > other.sequencer.length()
+                    : sequencer.compareToIgnoreCase(other.sequencer) >= 0;
+        }
+    }
+
+    /**
+     * Event function: Execute the batch pipeline on every object an S3 event or SQS batch names.
+     *
+     * @param request The S3 event or SQS event.
+     * @param context The AWS Lambda context.
+     * @return The SQS messages to retry in "batchItemFailures", and what happened to the objects.
+     */
+    @SuppressWarnings("unchecked")
+    public static HashMap<String, Object> handleRequest(final HashMap<String, Object> request, final Context context) {
+        final HashMap<String, Object> response = new HashMap<>();
+        final long startTime = System.currentTimeMillis();
+        if (!(request.get(RECORDS_KEY) instanceof List)) {
+            return Constants.getErrorObject("Invalid event. Must have a list of Records.");
+        }
+
+        // Collect the objects by bucket, and the messages that could not be read
+        final Map<String, Map<String, ObjectEvent>> buckets = new TreeMap<>();
+        final Set<String> failedMessages = new LinkedHashSet<>();
+        final List<Map<String, Object>> failures = new ArrayList<>();
+        int records = 0;
+        int skipped = 0;
+        int invalid = 0;
+        for (final Object element : (List<Object>) request.get(RECORDS_KEY)) {
+            final Map<String, Object> record = element instanceof Map ? (Map<String, Object>) element : new HashMap<>();
+            final String messageId = record.get("messageId") instanceof String ? (String) record.get("messageId") : null;
+            try {
+                for (final Map<String, Object> s3Record : s3Records(record)) {
+                    records++;
+                    final ObjectEvent object = objectEvent(s3Record);
+                    if (object == null) {
+                        skipped++;
+                        continue;
+                    }
+                    if (messageId != null) {
+                        object.messageIds.add(messageId);
+                    }
+
+                    // Only the newest version of a key is processed, for every message that names the key
+                    final Map<String, ObjectEvent> objects = buckets.computeIfAbsent(object.bucketName, name -> new LinkedHashMap<>());
+                    final ObjectEvent previous = objects.get(object.key);
+                    if (previous == null) {
+                        objects.put(object.key, object);
+                    } else if (object.isNewerThan(previous)) {
+                        object.messageIds.addAll(previous.messageIds);
+                        objects.put(object.key, object);
+                    } else {
+                        previous.messageIds.addAll(object.messageIds);
+                    }
+                }
+            } catch (final IOException | RuntimeException e) {
+                invalid++;
+                if (messageId != null) {
+                    failedMessages.add(messageId);
+                }
+                addFailure(failures, null, null, "Invalid record: " + e.getMessage());
+            }
+        }
+
+        ExecutorService pool = null;
+        int objectCount = 0;
+        int processed = 0;
+        int unchanged = 0;
+        int failed = invalid;
+        try {
+            final Map<String, Object> plan = plan(request);
+            final int concurrency = Constants.getIntArgument(plan, CONCURRENCY_KEY, DEFAULT_CONCURRENCY);
+            if (concurrency < 1 || concurrency > MAX_CONCURRENCY) {
+                return Constants.getErrorObject("Invalid concurrency. Must be between 1 and " + MAX_CONCURRENCY + ".");
+            }
+            final String planHash = BulkProcessing.planHash(plan);
+            final long deadline = context == null ? Long.MAX_VALUE : startTime + context.getRemainingTimeInMillis() - DEADLINE_MARGIN_MS;
+            pool = Executors.newFixedThreadPool(concurrency, runnable -> {
+                final Thread thread = new Thread(runnable, "event-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            // Process every bucket's objects concurrently, then flush the bucket's manifest once
+            final List<CompletableFuture<Void>> bucketRuns = new ArrayList<>();
+            for (final Map.Entry<String, Map<String, ObjectEvent>> bucket : buckets.entrySet()) {
+                final String bucketName = bucket.getKey();
+                final Manifest manifest = plan.get(Manifest.MANIFEST_KEY) instanceof String
+                        ? Manifest.open(bucketName, (String) plan.get(Manifest.MANIFEST_KEY))
+                        : null;
+                final List<CompletableFuture<Void>> objectRuns = new ArrayList<>();
+                for (final ObjectEvent object : bucket.getValue().values()) {
+                    objectCount++;
+                    objectRuns.add(CompletableFuture.runAsync(() -> process(plan, planHash, object, manifest, deadline), pool));
+                }
+                bucketRuns.add(CompletableFuture.allOf(objectRuns.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+                    if (manifest != null) {
+                        try {
+                            manifest.flush();
+                        } catch (final IOException e) {
+                            // The objects are done, and at worst they are processed again on their next event
+                            e.printStackTrace();
+                        }
+                    }
+                }));
+            }
+            CompletableFuture.allOf(bucketRuns.toArray(new CompletableFuture<?>[0])).join();
+
+            for (final Map<String, ObjectEvent> objects : buckets.values()) {
+                for (final ObjectEvent object : objects.values()) {
+                    if (object.error != null) {
+                        failed++;
+                        failedMessages.addAll(object.messageIds);
+                        addFailure(failures, object.bucketName, object.key, object.error);
+                    } else if (object.unchanged) {
+                        unchanged++;
+                    } else {
+                        processed++;
+                    }
+                }
+            }
+
+        } catch (final Exception e) {
+            // Nothing was processed, so every message is retried
+            e.printStackTrace();
+            for (final Map<String, ObjectEvent> objects : buckets.values()) {
+                for (final ObjectEvent object : objects.values()) {
+                    failedMessages.addAll(object.messageIds);
+                }
+            }
+            response.putAll(Constants.getErrorObject(e instanceof IllegalArgumentException ? e.getMessage() : e.toString()));
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+
+        final List<Map<String, Object>> batchItemFailures = new ArrayList<>();
+        for (final String messageId : failedMessages) {
+            final Map<String, Object> itemFailure = new HashMap<>();
+            itemFailure.put(ITEM_IDENTIFIER_KEY, messageId);
+            batchItemFailures.add(itemFailure);
+        }
+        response.put(BATCH_ITEM_FAILURES_KEY, batchItemFailures);
+        if (!response.containsKey(ERROR_KEY)) {
+            response.put(SUCCESS_KEY, failed == 0 ? "Processed every record." : "Processed the records, with failures.");
+        }
+        response.put("records", records);
+        response.put("objects", objectCount);
+        response.put("buckets", buckets.size());
+        response.put("processed", processed);
+        response.put("unchanged", unchanged);
+        response.put("skipped", skipped);
+        response.put("failed", failed);
+        response.put("failures", failures);
+        response.put("elapsed_ms", System.currentTimeMillis() - startTime);
+        return response;
+    }
+
+    /**
+     * Runs one object through the batch pipeline, unless the manifest has it or time is up.
+     */
+    private static void process(final Map<String, Object> plan,
+                                final String planHash,
+                                final ObjectEvent object,
+                                final Manifest manifest,
+                                final long deadline) {
+        if (System.currentTimeMillis() >= deadline) {
+            object.error = "Not started before the invocation ran out of time.";
+            return;
+        }
+        try {
+            if (manifest != null && object.etag != null && manifest.lookup(object.key, object.etag, planHash) != null) {
+                object.unchanged = true;
+                return;
+            }
+            final HashMap<String, Object> batchRequest = BulkProcessing.objectRequest(plan, object.bucketName, object.key);
+            if (object.etag != null) {
+                batchRequest.put(ImageBatchProcessing.SOURCE_ETAG_KEY, object.etag);
+            }
+            final HashMap<String, Object> result = ImageBatchProcessing.handleRequest(batchRequest, null);
+            if (result.containsKey(ERROR_KEY)) {
+                object.error = String.valueOf(result.get(ERROR_KEY));
+            } else if (manifest != null && object.etag != null) {
+                manifest.record(object.key, object.etag, planHash, (String) result.get(ImageBatchProcessing.OUTPUT_KEY));
+            }
+        } catch (final Exception e) {
+            object.error = e.toString();
+        }
+    }
+
+    /**
+     * @return The S3 records of an event record: the record itself, or the S3 event in the body
+     *         of an SQS message, which may itself be wrapped in an SNS notification.
+     * @throws IOException If an SQS message body is not JSON.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> s3Records(final Map<String, Object> record) throws IOException {
+        if (record.containsKey("s3")) {
+            return List.of(record);
+        }
+        if (!"aws:sqs".equals(record.get("eventSource"))) {
+            throw new IllegalArgumentException("Not an S3 or SQS record.");
+        }
+        Map<String, Object> body = parse((String) record.get("body"));
+        if ("Notification".equals(body.get("Type")) && body.get("Message") instanceof String) {
+            body = parse((String) body.get("Message"));
+        }
+        if (body.containsKey("Event") && !body.containsKey(RECORDS_KEY)) {
+            // A test event from setting up the notification carries no objects
+            return List.of();
+        }
+        if (!(body.get(RECORDS_KEY) instanceof List)) {
+            throw new IllegalArgumentException("Message body is not an S3 event.");
+        }
+        return (List<Map<String, Object>>) body.get(RECORDS_KEY);
+    }
+
+    /**
+     * @return The object an S3 record names, or null if the record does not need processing.
+     */
+    @SuppressWarnings("unchecked")
+    private static ObjectEvent objectEvent(final Map<String, Object> s3Record) throws UnsupportedEncodingException {
+        final Object eventName = s3Record.get("eventName");
+        if (eventName instanceof String && !((String) eventName).startsWith(CREATED_EVENT_PREFIX)) {
+            return null;
+        }
+        final Map<String, Object> s3 = (Map<String, Object>) s3Record.get("s3");
+        final Map<String, Object> bucket = (Map<String, Object>) s3.get("bucket");
+        final Map<String, Object> object = (Map<String, Object>) s3.get("object");
+        if (bucket == null || object == null || !(bucket.get("name") instanceof String) || !(object.get("key") instanceof String)) {
+            throw new IllegalArgumentException("S3 record has no bucket name or object key.");
+        }
+
+        // Keys arrive URL-encoded, with spaces as "+"
+        final String key = URLDecoder.decode((String) object.get("key"), StandardCharsets.UTF_8.name());
+        if (!BulkProcessing.isInput(key, null)) {
+            return null;
+        }
+        final Object etag = object.get("eTag");
+        final Object sequencer = object.get("sequencer");
+        return new ObjectEvent((String) bucket.get("name"), key,
+                etag instanceof String ? (String) etag : null,
+                sequencer instanceof String ? (String) sequencer : null);
+    }
+
+    /**
+     * @return The plan of the event, or else the configured plan.
+     * @throws IOException If the configured plan is not JSON.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> plan(final Map<String, Object> request) throws IOException {
+        if (request.get(PLAN_KEY) instanceof Map) {
+            return validatePlan((Map<String, Object>) request.get(PLAN_KEY));
+        }
+        String configured = System.getProperty(PLAN_PROPERTY_KEY);
+        if (configured == null || configured.isEmpty()) {
+            configured = System.getenv(PLAN_ENVIRONMENT_KEY);
+        }
+        if (configured == null || configured.isEmpty()) {
+            throw new IllegalArgumentException("No plan. Add a \"plan\" to the event or set " + PLAN_ENVIRONMENT_KEY + ".");
+        }
+        return validatePlan(parse(configured));
+    }
+
+    private static Map<String, Object> validatePlan(final Map<String, Object> plan) {
+        if (!(plan.get(BulkProcessing.OPERATIONS_KEY) instanceof List)) {
+            throw new IllegalArgumentException("Invalid plan operations. Must be a list of [name, arguments].");
+        }
+        return plan;
+    }
+
+    private static Map<String, Object> parse(final String json) throws IOException {
+        if (json == null) {
+            throw new IllegalArgumentException("Missing JSON.");
+        }
+        return JsonStreams.readRequest(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void addFailure(final List<Map<String, Object>> failures, final String bucketName, final String key, final String error) {
+        if (failures.size() < MAX_REPORTED_FAILURES) {
+            final Map<String, Object> failure = new HashMap<>();
+            failure.put(BUCKET_KEY, bucketName);
+            failure.put(FILE_NAME_KEY, key);
+            failure.put(ERROR_KEY, error);
+            failures.add(failure);
+        }
+    }
+
+}
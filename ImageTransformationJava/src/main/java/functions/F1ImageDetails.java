@@ -2,10 +2,14 @@ package functions;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import utils.Constants;
+import utils.FileValidator;
+import utils.ImageAdmission;
+import utils.RasterPool;
 
 import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
 import java.util.HashMap;
+import java.util.List;
 
 import static utils.Constants.BUCKET_KEY;
 import static utils.Constants.FILE_NAME_KEY;
@@ -56,17 +60,18 @@ public class F1ImageDetails {
         }
 
 
+        BufferedImage imageObject = null;
         try {
             final String bucketName = (String) request.get(BUCKET_KEY);
             final String fileName = (String) request.get(FILE_NAME_KEY);
 
 
             // Validate file extension
-            if (!fileName.toLowerCase().endsWith(".jpeg") && !fileName.toLowerCase().endsWith(".jpg") && !fileName.toLowerCase().endsWith(".png")) {
-                return Constants.getErrorObject("Unsupported file format. Only JPEG and PNG are allowed.");
+            if (!FileValidator.isValidFileType(fileName)) {
+                return Constants.getErrorObject("Unsupported file format. Only JPEG, PNG and RASTER are allowed.");
             }
 
-            final BufferedImage imageObject = isBatch ? image : Constants.getImageFromS3AndRecordLatency(bucketName, fileName, inspector);
+            imageObject = isBatch ? image : Constants.getImageFromS3AndRecordLatency(bucketName, fileName, inspector, request, List.of(new ImageAdmission.Step("details", request)));
             if (imageObject == null) {
                 return Constants.getErrorObject("Could not access image from S3.");
             }
@@ -88,6 +93,11 @@ public class F1ImageDetails {
         } catch (final Exception e) {
             e.printStackTrace();
             return Constants.getErrorObject(e.toString());
+        } finally {
+            // A fetched image may be shared with other requests, so it is released on every path
+            if (!isBatch) {
+                RasterPool.release(imageObject);
+            }
         }
 
         return inspector;
@@ -1,18 +1,28 @@
 package functions;
 
+import codecs.ExifOrientation;
+import codecs.JpegLosslessRotation;
 import com.amazonaws.services.lambda.runtime.Context;
 import utils.Constants;
+import utils.EncoderOptions;
 import utils.FileValidator;
+import utils.ImageAdmission;
+import utils.RasterPool;
+import utils.RasterTypes;
 
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 
+import static utils.Constants.ENCODE_TIME_KEY;
 import static utils.Constants.GET_DOWNLOAD_KEY;
 import static utils.Constants.IMAGE_URL_EXPIRATION_SECONDS;
 import static utils.Constants.IMAGE_URL_EXPIRES_IN;
 import static utils.Constants.IMAGE_URL_KEY;
+import static utils.Constants.OUTPUT_BYTES_KEY;
 import static utils.Constants.SUCCESS_KEY;
 
 /**
@@ -20,9 +30,31 @@ import static utils.Constants.SUCCESS_KEY;
  * Group 7
  * <p>
  * Rotates an image 90, 180, or 270 degrees.
+ * <p>
+ * "rotation_mode" selects how:
+ * - "pixels" (default): decode, rotate every pixel, and encode again.
+ * - "exif": JPEG only. Rewrite the EXIF orientation tag and copy the compressed data as-is.
+ * - "lossless": baseline JPEG only. Move the quantized DCT blocks, without decoding the pixels.
+ *   "lossless_edges" decides whether partial edge MCUs are trimmed ("trim", default) or refused ("error").
+ * - "auto": "exif" when the input and output are JPEG, "pixels" otherwise.
  */
 public class F2ImageRotation {
 
+    /**
+     * Request key of the rotation mode, also reported in the response.
+     */
+    private static final String ROTATION_MODE_KEY = "rotation_mode";
+
+    /**
+     * Request key of the edge handling of the lossless mode.
+     */
+    private static final String LOSSLESS_EDGES_KEY = "lossless_edges";
+
+    private static final String MODE_PIXELS = "pixels";
+    private static final String MODE_EXIF = "exif";
+    private static final String MODE_LOSSLESS = "lossless";
+    private static final String MODE_AUTO = "auto";
+
     /**
      * Function 2: Image Rotation
      *
@@ -48,6 +80,7 @@ public class F2ImageRotation {
 
         final HashMap<String, Object> inspector = new HashMap<>();
 
+        BufferedImage originalImage = null;
         try {
             // Validate request parameters
             if (!request.containsKey(Constants.BUCKET_KEY) || !request.containsKey(Constants.FILE_NAME_KEY) || !request.containsKey("rotation_angle")) {
@@ -57,12 +90,11 @@ public class F2ImageRotation {
             final String bucketName = request.get(Constants.BUCKET_KEY).toString();
             final String fileName = request.get(Constants.FILE_NAME_KEY).toString();
             final Integer rotationAngle = (Integer) request.get("rotation_angle");
-            final String outputFileName = "rotated_" + fileName;
+            final String outputFileName = Constants.getOutputFileName("rotated_", fileName, request);
 
             // Validate file format
-            String fileExtension = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase();
-            if (!(fileExtension.equals("jpeg") || fileExtension.equals("jpg") || fileExtension.equals("png"))) {
-                return Constants.getErrorObject("Unsupported file format. Only JPEG and PNG are allowed.");
+            if (!FileValidator.isValidFileType(fileName)) {
+                return Constants.getErrorObject("Unsupported file format. Only JPEG, PNG and RASTER are allowed.");
             }
 
             // Validate rotation angle
@@ -70,7 +102,21 @@ public class F2ImageRotation {
                 return Constants.getErrorObject("Invalid rotation_angle. Only 90, 180, or 270 degrees are supported.");
             }
 
-            final BufferedImage originalImage = isBatch ? image : Constants.getImageFromS3AndRecordLatency(bucketName, fileName, inspector);
+            // Pick the rotation mode. A batch step already has decoded pixels, so it always rotates those.
+            final String requestedMode = request.getOrDefault(ROTATION_MODE_KEY, MODE_PIXELS).toString().toLowerCase();
+            if (!List.of(MODE_PIXELS, MODE_EXIF, MODE_LOSSLESS, MODE_AUTO).contains(requestedMode)) {
+                return Constants.getErrorObject("Invalid rotation_mode. Must be pixels, exif, lossless, or auto.");
+            }
+            final boolean jpegInAndOut = isJpegFileName(fileName) && isJpegFileName(outputFileName);
+            if ((requestedMode.equals(MODE_EXIF) || requestedMode.equals(MODE_LOSSLESS)) && (isBatch || !jpegInAndOut)) {
+                return Constants.getErrorObject("rotation_mode " + requestedMode + " needs a JPEG input and output, outside of batch requests.");
+            }
+            if (!isBatch && jpegInAndOut && !requestedMode.equals(MODE_PIXELS)) {
+                return rotateCompressed(requestedMode.equals(MODE_LOSSLESS) ? MODE_LOSSLESS : MODE_EXIF,
+                        bucketName, fileName, outputFileName, rotationAngle, request, inspector);
+            }
+
+            originalImage = isBatch ? image : Constants.getImageFromS3AndRecordLatency(bucketName, fileName, inspector, request, List.of(new ImageAdmission.Step("rotate", request)));
             if (originalImage == null) {
                 return Constants.getErrorObject("Could not access image from S3.");
             }
@@ -80,7 +126,8 @@ public class F2ImageRotation {
 
             // Upload rotated image to S3
             if (!isBatch) {
-                final boolean uploadSuccess = Constants.saveImageToS3(bucketName, outputFileName, FileValidator.getFileExtension(outputFileName), rotatedImage);
+                final boolean uploadSuccess = Constants.saveImageToS3(bucketName, outputFileName, FileValidator.getFileExtension(outputFileName), rotatedImage, EncoderOptions.fromRequest(request), inspector, request);
+                RasterPool.release(rotatedImage);
                 if (!uploadSuccess) {
                     return Constants.getErrorObject("Failed to save image to S3");
                 }
@@ -95,10 +142,16 @@ public class F2ImageRotation {
             }
             inspector.put(SUCCESS_KEY, "Image rotated successfully.");
             inspector.put("rotation_angle", rotationAngle);
+            inspector.put(ROTATION_MODE_KEY, MODE_PIXELS);
 
         } catch (Exception e) {
             e.printStackTrace();
             return Constants.getErrorObject(e.toString());
+        } finally {
+            // A fetched image may be shared with other requests, so it is released on every path
+            if (!isBatch) {
+                RasterPool.release(originalImage);
+            }
         }
 
         // Return all metrics
@@ -106,6 +159,77 @@ public class F2ImageRotation {
     }
 
 
+    /**
+     * Rotates a JPEG without decoding its pixels, either by rewriting its EXIF orientation or by
+     * moving its DCT blocks.
+     *
+     * @param mode           MODE_EXIF or MODE_LOSSLESS.
+     * @param bucketName     The bucket of the image.
+     * @param fileName       The name of the image.
+     * @param outputFileName The name to save the rotated image as.
+     * @param rotationAngle  The clockwise rotation.
+     * @param request        The request arguments.
+     * @param inspector      The response object to fill in.
+     * @return The response object, or an error object.
+     * @throws IOException If the image is not a JPEG that the mode can rotate.
+     */
+    private static HashMap<String, Object> rotateCompressed(final String mode,
+                                                            final String bucketName,
+                                                            final String fileName,
+                                                            final String outputFileName,
+                                                            final int rotationAngle,
+                                                            final HashMap<String, Object> request,
+                                                            final HashMap<String, Object> inspector) throws IOException {
+        final byte[] original = Constants.getBytesFromS3AndRecordLatency(bucketName, fileName, inspector, request);
+        if (original == null) {
+            return Constants.getErrorObject("Could not access image from S3.");
+        }
+
+        final long rewriteStartTime = System.currentTimeMillis();
+        final byte[] rotated;
+        if (mode.equals(MODE_LOSSLESS)) {
+            final String edges = request.getOrDefault(LOSSLESS_EDGES_KEY, "trim").toString().toUpperCase();
+            if (!edges.equals("TRIM") && !edges.equals("ERROR")) {
+                return Constants.getErrorObject("Invalid lossless_edges. Must be trim or error.");
+            }
+            final JpegLosslessRotation.Result result = JpegLosslessRotation.rotate(original, rotationAngle, JpegLosslessRotation.EdgeMode.valueOf(edges));
+            rotated = result.bytes;
+            inspector.put("output_width", result.width);
+            inspector.put("output_height", result.height);
+            inspector.put("trimmed_width", result.trimmedWidth);
+            inspector.put("trimmed_height", result.trimmedHeight);
+        } else {
+            final int originalOrientation = ExifOrientation.read(original);
+            rotated = ExifOrientation.withOrientation(original, ExifOrientation.compose(originalOrientation, rotationAngle));
+            inspector.put("original_orientation", originalOrientation);
+            inspector.put("orientation", ExifOrientation.compose(originalOrientation, rotationAngle));
+        }
+        inspector.put(ENCODE_TIME_KEY, System.currentTimeMillis() - rewriteStartTime);
+        inspector.put(OUTPUT_BYTES_KEY, rotated.length);
+
+        if (!Constants.saveBytesToS3(bucketName, outputFileName, FileValidator.getFileExtension(outputFileName), rotated, inspector, request)) {
+            return Constants.getErrorObject("Failed to save image to S3");
+        }
+        if ((boolean) request.get(GET_DOWNLOAD_KEY)) {
+            inspector.put(IMAGE_URL_KEY, Constants.getDownloadableImageURL(bucketName, outputFileName));
+            inspector.put(IMAGE_URL_EXPIRES_IN, IMAGE_URL_EXPIRATION_SECONDS);
+        }
+
+        inspector.put(SUCCESS_KEY, "Image rotated successfully.");
+        inspector.put("rotation_angle", rotationAngle);
+        inspector.put(ROTATION_MODE_KEY, mode);
+        return inspector;
+    }
+
+    /**
+     * @param fileName The name of a file.
+     * @return True if the file has a JPEG extension.
+     */
+    private static boolean isJpegFileName(final String fileName) {
+        final String extension = FileValidator.getFileExtension(fileName).toLowerCase();
+        return extension.equals("jpg") || extension.equals("jpeg");
+    }
+
     /***
      *  Helper method for image rotation.
      *
@@ -117,8 +241,8 @@ public class F2ImageRotation {
         final int width = image.getWidth();
         final int height = image.getHeight();
 
-        // Create a new BufferedImage with appropriate dimensions and type
-        final BufferedImage rotatedImage = new BufferedImage((rotationAngle == 90 || rotationAngle == 270) ? height : width, (rotationAngle == 90 || rotationAngle == 270) ? width : height, BufferedImage.TYPE_INT_ARGB);
+        // Acquire a BufferedImage with appropriate dimensions and type
+        final BufferedImage rotatedImage = RasterPool.acquire((rotationAngle == 90 || rotationAngle == 270) ? height : width, (rotationAngle == 90 || rotationAngle == 270) ? width : height, RasterTypes.outputType(image));
 
         final Graphics2D graphics = rotatedImage.createGraphics();
         graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
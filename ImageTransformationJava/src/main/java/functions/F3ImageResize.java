@@ -2,12 +2,17 @@ package functions;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import utils.Constants;
+import utils.EncoderOptions;
 import utils.FileValidator;
+import utils.ImageAdmission;
+import utils.RasterPool;
+import utils.RasterTypes;
 
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.image.BufferedImage;
 import java.util.HashMap;
+import java.util.List;
 
 import static utils.Constants.BUCKET_KEY;
 import static utils.Constants.FILE_NAME_KEY;
@@ -59,6 +64,7 @@ public class F3ImageResize {
         final boolean isBatch = image != null;
         final HashMap<String, Object> inspector = new HashMap<>();
 
+        BufferedImage originalImage = null;
         try {
             // Validate input request
             String validationError = Constants.validateRequestMap(request, BUCKET_KEY, FILE_NAME_KEY, "target_width", "target_height");
@@ -73,8 +79,8 @@ public class F3ImageResize {
             Integer targetHeight = (Integer) request.get("target_height");
 
             // Validate image format
-            if (!fileName.endsWith(".png") && !fileName.endsWith(".jpg") && !fileName.endsWith(".jpeg")) {
-                return Constants.getErrorObject("Unsupported image format. Only PNG and JPEG are supported.");
+            if (!FileValidator.isValidFileType(fileName)) {
+                return Constants.getErrorObject("Unsupported image format. Only PNG, JPEG and RASTER are supported.");
             }
 
             // Validate dimensions
@@ -83,7 +89,7 @@ public class F3ImageResize {
             }
 
             // Fetch the image from S3 and measure network latency
-            final BufferedImage originalImage = isBatch ? image : Constants.getImageFromS3AndRecordLatency(bucketName, fileName, inspector);
+            originalImage = isBatch ? image : Constants.getImageFromS3AndRecordLatency(bucketName, fileName, inspector, request, List.of(new ImageAdmission.Step("resize", request)));
             if (originalImage == null) {
                 return Constants.getErrorObject("Could not access image from S3.");
             }
@@ -94,14 +100,15 @@ public class F3ImageResize {
 
 
             Image resizedImage = originalImage.getScaledInstance(targetWidth, targetHeight, Image.SCALE_SMOOTH);
-            BufferedImage outputImage = new BufferedImage(targetWidth, targetHeight, originalImage.getType() == 0 ? BufferedImage.TYPE_INT_ARGB : originalImage.getType());
+            BufferedImage outputImage = RasterPool.acquire(targetWidth, targetHeight, RasterTypes.outputType(originalImage));
             Graphics2D graphics = outputImage.createGraphics();
             graphics.drawImage(resizedImage, 0, 0, null);
             graphics.dispose();
 
             if (!isBatch) {
-                String resizedFileName = "resized_" + fileName;
-                boolean savedSuccessfully = Constants.saveImageToS3(bucketName, resizedFileName, FileValidator.getFileExtension(resizedFileName), outputImage);
+                String resizedFileName = Constants.getOutputFileName("resized_", fileName, request);
+                boolean savedSuccessfully = Constants.saveImageToS3(bucketName, resizedFileName, FileValidator.getFileExtension(resizedFileName), outputImage, EncoderOptions.fromRequest(request), inspector, request);
+                RasterPool.release(outputImage);
                 if (!savedSuccessfully) {
                     return Constants.getErrorObject("Failed to save image to S3.");
                 }
@@ -125,6 +132,11 @@ public class F3ImageResize {
             // Handle unexpected errors
             e.printStackTrace();
             return Constants.getErrorObject(e.toString());
+        } finally {
+            // A fetched image may be shared with other requests, so it is released on every path
+            if (!isBatch) {
+                RasterPool.release(originalImage);
+            }
         }
 
         return inspector; // Return collected metrics
@@ -2,10 +2,14 @@ package functions;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import utils.Constants;
+import utils.EncoderOptions;
 import utils.FileValidator;
+import utils.ImageAdmission;
+import utils.RasterPool;
 
 import java.awt.image.BufferedImage;
 import java.util.HashMap;
+import java.util.List;
 
 import static utils.Constants.BUCKET_KEY;
 import static utils.Constants.FILE_NAME_KEY;
@@ -48,6 +52,7 @@ public class F4ImageGrayscale {
         final boolean isBatch = image != null;
         final HashMap<String, Object> inspector = new HashMap<>();
 
+        BufferedImage originalImage = null;
         try {
             // Validate request parameters
             String validateMessage = Constants.validateRequestMap(request, BUCKET_KEY, FILE_NAME_KEY);
@@ -59,19 +64,19 @@ public class F4ImageGrayscale {
             final String fileName = (String) request.get(FILE_NAME_KEY);
 
             // Check if file format is supported
-            if (!fileName.endsWith(".jpeg") && !fileName.endsWith(".jpg") && !fileName.endsWith(".png")) {
-                return Constants.getErrorObject("Unsupported file format. Only JPEG and PNG are allowed.");
+            if (!FileValidator.isValidFileType(fileName)) {
+                return Constants.getErrorObject("Unsupported file format. Only JPEG, PNG and RASTER are allowed.");
             }
 
-            final String outputFileName = "grayscaled_" + fileName;
+            final String outputFileName = Constants.getOutputFileName("grayscaled_", fileName, request);
 
-            final BufferedImage originalImage = isBatch ? image : Constants.getImageFromS3AndRecordLatency(bucketName, fileName, inspector);
+            originalImage = isBatch ? image : Constants.getImageFromS3AndRecordLatency(bucketName, fileName, inspector, request, List.of(new ImageAdmission.Step("grayscale", request)));
             if (originalImage == null) {
                 return Constants.getErrorObject("Could not access image from S3.");
             }
 
             // Convert image to grayscale
-            BufferedImage grayscaleImage = new BufferedImage(
+            BufferedImage grayscaleImage = RasterPool.acquire(
                     originalImage.getWidth(),
                     originalImage.getHeight(),
                     BufferedImage.TYPE_BYTE_GRAY
@@ -80,7 +85,8 @@ public class F4ImageGrayscale {
 
             // Upload grayscale image to S3
             if (!isBatch) {
-                boolean uploadSuccess = Constants.saveImageToS3(bucketName, outputFileName, FileValidator.getFileExtension(outputFileName), grayscaleImage);
+                boolean uploadSuccess = Constants.saveImageToS3(bucketName, outputFileName, FileValidator.getFileExtension(outputFileName), grayscaleImage, EncoderOptions.fromRequest(request), inspector, request);
+                RasterPool.release(grayscaleImage);
                 if (!uploadSuccess) {
                     return Constants.getErrorObject("Failed to save image to S3");
                 }
@@ -97,6 +103,11 @@ public class F4ImageGrayscale {
         } catch (Exception e) {
             e.printStackTrace();
             return Constants.getErrorObject(e.toString());
+        } finally {
+            // A fetched image may be shared with other requests, so it is released on every path
+            if (!isBatch) {
+                RasterPool.release(originalImage);
+            }
         }
 
         return inspector;
@@ -2,12 +2,16 @@ package functions;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import utils.Constants;
+import utils.EncoderOptions;
 import utils.FileValidator;
+import utils.ImageAdmission;
+import utils.RasterPool;
+import utils.RasterTypes;
 
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.RescaleOp;
 import java.util.HashMap;
+import java.util.List;
 
 import static utils.Constants.BUCKET_KEY;
 import static utils.Constants.FILE_NAME_KEY;
@@ -67,12 +71,13 @@ public class F5ImageBrightness {
             return Constants.getErrorObject(validateMessage);
         }
 
+        BufferedImage originalImage = null;
         try {
             // Extract input parameters
             final String bucketName = (String) request.get(BUCKET_KEY);
             final String fileName = (String) request.get(FILE_NAME_KEY);
             final Integer brightnessDelta = (Integer) request.get("brightness_delta");
-            final String outputFileName = "brightness_" + fileName;
+            final String outputFileName = Constants.getOutputFileName("brightness_", fileName, request);
 
 
             // Validate brightness_delta
@@ -83,7 +88,7 @@ public class F5ImageBrightness {
             // Map brightness_delta (1–100) to RescaleOp factor (0.0–2.0)
             final float brightnessFactor = brightnessDelta / 50.0f;
 
-            final BufferedImage originalImage = isBatch ? image : Constants.getImageFromS3AndRecordLatency(bucketName, fileName, inspector);
+            originalImage = isBatch ? image : Constants.getImageFromS3AndRecordLatency(bucketName, fileName, inspector, request, List.of(new ImageAdmission.Step("brightness", request)));
             if (originalImage == null) {
                 return Constants.getErrorObject("Could not access image from S3.");
             }
@@ -92,7 +97,8 @@ public class F5ImageBrightness {
             final BufferedImage brightenedImage = adjustBrightness(originalImage, brightnessFactor);
 
             if (!isBatch) {
-                final boolean successfulWriteToS3 = Constants.saveImageToS3(bucketName, outputFileName, FileValidator.getFileExtension(outputFileName), brightenedImage);
+                final boolean successfulWriteToS3 = Constants.saveImageToS3(bucketName, outputFileName, FileValidator.getFileExtension(outputFileName), brightenedImage, EncoderOptions.fromRequest(request), inspector, request);
+                RasterPool.release(brightenedImage);
                 if (!successfulWriteToS3) {
                     return Constants.getErrorObject("Failed to save image to S3");
                 }
@@ -111,6 +117,11 @@ public class F5ImageBrightness {
         } catch (Exception e) {
             e.printStackTrace();
             return Constants.getErrorObject(e.toString());
+        } finally {
+            // A fetched image may be shared with other requests, so it is released on every path
+            if (!isBatch) {
+                RasterPool.release(originalImage);
+            }
         }
 
 
@@ -126,13 +137,15 @@ public class F5ImageBrightness {
      * @return The modified image with adjusted brightness.
      */
     private static BufferedImage adjustBrightness(final BufferedImage image, final float brightnessFactor) {
-        final BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
-        final Graphics2D g = result.createGraphics();
-        g.drawImage(image, 0, 0, null);
-        g.dispose();
+        final BufferedImage source = RasterTypes.toFastType(image);
+        final BufferedImage result = RasterPool.acquireUncleared(image.getWidth(), image.getHeight(), source.getType());
 
+        // A single factor scales the color bands only, so the output keeps the type and alpha of its input
         final RescaleOp rescaleOp = new RescaleOp(brightnessFactor, 0, null);
-        rescaleOp.filter(result, result);
-        return result;
+        final BufferedImage filtered = rescaleOp.filter(source, result);
+        if (source != image) {
+            RasterPool.release(source);
+        }
+        return filtered;
     }
 }
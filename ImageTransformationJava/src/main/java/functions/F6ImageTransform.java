@@ -2,13 +2,16 @@ package functions;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import utils.Constants;
+import utils.EncoderOptions;
+import utils.FileValidator;
+import utils.ImageAdmission;
+import utils.RasterPool;
 
-import javax.imageio.ImageIO;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.util.HashMap;
+import java.util.List;
 
 import static utils.Constants.BUCKET_KEY;
 import static utils.Constants.FILE_NAME_KEY;
@@ -52,6 +55,7 @@ public class F6ImageTransform {
 
         final boolean isBatch = image != null;
 
+        BufferedImage sourceImage = null;
         try {
             // Validate request parameters
             String validateMessage = Constants.validateRequestMap(request, BUCKET_KEY, FILE_NAME_KEY);
@@ -62,40 +66,47 @@ public class F6ImageTransform {
             // Extract input parameters
             final String bucketName = (String) request.get(BUCKET_KEY);
             final String fileName = (String) request.get(FILE_NAME_KEY);
-            final String fileExtension = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase();
-
-            if (!fileExtension.equals("jpeg") && !fileExtension.equals("jpg") && !fileExtension.equals("png")) {
-                return Constants.getErrorObject("Only JPEG and PNG formats are supported.");
+            if (!FileValidator.isValidFileType(fileName)) {
+                return Constants.getErrorObject("Only JPEG, PNG and RASTER formats are supported.");
             }
 
             final String targetFormat = ((String) request.getOrDefault("target_format", "JPEG")).toUpperCase();
-            if (!targetFormat.equals("JPEG") && !targetFormat.equals("PNG")) {
-                return Constants.getErrorObject("Target format must be JPEG or PNG.");
+            if (!targetFormat.equals("JPEG") && !targetFormat.equals("PNG") && !targetFormat.equals("RASTER")) {
+                return Constants.getErrorObject("Target format must be JPEG, PNG or RASTER.");
             }
 
 
             final String outputFileName = "transformed_" + fileName.substring(0, fileName.lastIndexOf('.')) + "." + targetFormat.toLowerCase();
 
             // Read the original image
-            BufferedImage originalImage = isBatch ? image : Constants.getImageFromS3AndRecordLatency(bucketName, fileName, inspector);
-            if (originalImage == null) {
+            sourceImage = isBatch ? image : Constants.getImageFromS3AndRecordLatency(bucketName, fileName, inspector, request, List.of(new ImageAdmission.Step("transform", request)));
+            if (sourceImage == null) {
                 return Constants.getErrorObject("Could not access image from S3.");
             }
 
-            if (fileExtension.equalsIgnoreCase("png") && targetFormat.equalsIgnoreCase("jpeg")) {
+            // Raster files and batch inputs can carry alpha as well as PNGs, and JPEG cannot
+            BufferedImage originalImage = sourceImage;
+            if (targetFormat.equals("JPEG")) {
                 originalImage = removeAlphaChannel(originalImage);
             }
 
             // Transform the image to the target format
+            final EncoderOptions encoderOptions = EncoderOptions.fromRequest(request);
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            if (!ImageIO.write(originalImage, targetFormat, outputStream)) {
+            if (!encoderOptions.write(originalImage, targetFormat, outputStream)) {
                 throw new IllegalArgumentException("Unsupported target format: " + targetFormat);
             }
-            BufferedImage transformedImage = ImageIO.read(new ByteArrayInputStream(outputStream.toByteArray()));
+
+            // The alpha-free copy is only needed for encoding
+            if (originalImage != sourceImage) {
+                RasterPool.release(originalImage);
+            }
+            BufferedImage transformedImage = Constants.readImage(outputStream.toByteArray());
 
             // Upload transformed image to S3 (if not in batch mode)
             if (!isBatch) {
-                boolean uploadSuccess = Constants.saveImageToS3(bucketName, outputFileName, targetFormat.toLowerCase(), transformedImage);
+                boolean uploadSuccess = Constants.saveImageToS3(bucketName, outputFileName, targetFormat.toLowerCase(), transformedImage, encoderOptions, inspector, request);
+                RasterPool.release(transformedImage);
                 if (!uploadSuccess) {
                     return Constants.getErrorObject("Failed to save image to S3");
                 }
@@ -114,6 +125,11 @@ public class F6ImageTransform {
         } catch (Exception e) {
             e.printStackTrace();
             return Constants.getErrorObject(e.toString());
+        } finally {
+            // A fetched image may be shared with other requests, so it is released on every path
+            if (!isBatch) {
+                RasterPool.release(sourceImage);
+            }
         }
 
         return inspector;
@@ -131,7 +147,7 @@ public class F6ImageTransform {
             return image;
         }
 
-        final BufferedImage target = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        final BufferedImage target = RasterPool.acquire(image.getWidth(), image.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
         final Graphics2D g = target.createGraphics();
         g.fillRect(0, 0, image.getWidth(), image.getHeight());
         g.drawImage(image, 0, 0, null);
@@ -0,0 +1,342 @@
+package functions;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import utils.Constants;
+import utils.EncoderOptions;
+import utils.FileValidator;
+import utils.ImageAdmission;
+import utils.InlinePayloads;
+import utils.RasterPool;
+import utils.RasterTypes;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static utils.Constants.BUCKET_KEY;
+import static utils.Constants.ENCODE_TIME_KEY;
+import static utils.Constants.ENCODER_PROFILE_KEY;
+import static utils.Constants.ERROR_KEY;
+import static utils.Constants.FILE_NAME_KEY;
+import static utils.Constants.GET_DOWNLOAD_KEY;
+import static utils.Constants.IMAGE_FILE_KEY;
+import static utils.Constants.IMAGE_URL_EXPIRATION_SECONDS;
+import static utils.Constants.IMAGE_URL_EXPIRES_IN;
+import static utils.Constants.IMAGE_URL_KEY;
+import static utils.Constants.OUTPUT_BYTES_KEY;
+import static utils.Constants.SUCCESS_KEY;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Produces an image at several sizes in a single cascade.
+ *
+ *  Each level is derived from the next larger one: repeated 2x2 box reductions bring it to within
+ *  a factor of two of the target, and a final bilinear resample gives the exact size. Every level
+ *  is encoded and uploaded in the background while the next one is computed, so the whole pyramid
+ *  costs about as much CPU as a single reduction of the full image.
+ */
+public class F7ImagePyramid {
+
+    /**
+     * Request key of the level sizes, as the length of the longest side in pixels.
+     */
+    private static final String SIZES_KEY = "sizes";
+
+    /**
+     * Level sizes used when the request does not give any.
+     */
+    private static final List<Integer> DEFAULT_SIZES = List.of(2048, 1024, 512, 256, 128);
+
+    /**
+     * Encodes and uploads finished levels while later levels are computed.
+     */
+    private static final ExecutorService UPLOADS = Executors.newFixedThreadPool(2, runnable -> {
+        final Thread thread = new Thread(runnable, "pyramid-upload");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Function #7: Image pyramid.
+     *
+     * @param request The image arguments, with an optional "sizes" list.
+     * @param context The AWS Lambda context.
+     * @return A response object.
+     */
+    public static HashMap<String, Object> handleRequest(final HashMap<String, Object> request, final Context context) {
+        return imagePyramid(null, request, context);
+    }
+
+    /**
+     * Function #7: Image Pyramid Batch Method.
+     * The levels are uploaded as a side output; the batch pipeline continues with the unchanged input image.
+     *
+     * @param image   The image to build the pyramid from.
+     * @param request The request arguments.
+     * @param context The AWS Lambda Context.
+     * @return A response object.
+     */
+    @SuppressWarnings("unchecked")
+    public static HashMap<String, Object> imagePyramid(final BufferedImage image, final HashMap<String, Object> request, final Context context) {
+        final boolean isBatch = image != null;
+        final HashMap<String, Object> inspector = new HashMap<>();
+
+        final String validateMessage = Constants.validateRequestMap(request, BUCKET_KEY, FILE_NAME_KEY);
+        if (validateMessage != null) {
+            return Constants.getErrorObject(validateMessage);
+        }
+
+        BufferedImage originalImage = null;
+        final List<CompletableFuture<HashMap<String, Object>>> uploads = new ArrayList<>();
+        try {
+            final String bucketName = (String) request.get(BUCKET_KEY);
+            final String fileName = (String) request.get(FILE_NAME_KEY);
+
+            if (!FileValidator.isValidFileType(fileName)) {
+                return Constants.getErrorObject("Unsupported file format. Only JPEG, PNG and RASTER are allowed.");
+            }
+
+            // Largest level first, without duplicates
+            final TreeSet<Integer> sizes = new TreeSet<>((a, b) -> Integer.compare(b, a));
+            final Object requestedSizes = request.getOrDefault(SIZES_KEY, DEFAULT_SIZES);
+            if (!(requestedSizes instanceof List) || ((List<Object>) requestedSizes).isEmpty()) {
+                return Constants.getErrorObject("Invalid sizes. Must be a list of positive integers.");
+            }
+            for (final Object size : (List<Object>) requestedSizes) {
+                if (!(size instanceof Number) || ((Number) size).intValue() <= 0) {
+                    return Constants.getErrorObject("Invalid sizes. Must be a list of positive integers.");
+                }
+                sizes.add(((Number) size).intValue());
+            }
+
+            originalImage = isBatch ? image : Constants.getImageFromS3AndRecordLatency(bucketName, fileName, inspector, request, List.of(new ImageAdmission.Step("pyramid", request)));
+            if (originalImage == null) {
+                return Constants.getErrorObject("Could not access image from S3.");
+            }
+
+            // Every level of an inline request is returned in the one response, and is expected to shrink with its area
+            final int longSide = Math.max(originalImage.getWidth(), originalImage.getHeight());
+            long estimatedBytes = 0;
+            for (final int size : sizes) {
+                final double scale = Math.min(1.0, (double) size / longSide);
+                estimatedBytes += (long) (InlinePayloads.sourceBytes(request) * scale * scale);
+            }
+            final String inlineMessage = InlinePayloads.checkResponse(request, estimatedBytes);
+            if (inlineMessage != null) {
+                return Constants.getErrorObject(inlineMessage);
+            }
+
+            final EncoderOptions encoderOptions = EncoderOptions.fromRequest(request);
+            final String extension = FileValidator.getFileExtension(Constants.getOutputFileName("", fileName, request));
+            final long reductionStart = System.currentTimeMillis();
+
+            // The cascade works on a fast type so a reduction can read the pixel arrays directly
+            BufferedImage previous = RasterTypes.toFastType(originalImage);
+            for (final int size : sizes) {
+                final BufferedImage level = reduce(previous, size);
+                if (previous != originalImage && previous != level) {
+                    releaseAfter(uploads, previous);
+                }
+                previous = level;
+
+                final String levelFileName = Constants.getOutputFileName("pyramid_" + size + "_", fileName, request);
+                uploads.add(CompletableFuture.supplyAsync(() -> upload(bucketName, levelFileName, extension, size, level, encoderOptions, request), UPLOADS));
+            }
+            final long reductionTime = System.currentTimeMillis() - reductionStart;
+            if (previous != originalImage) {
+                releaseAfter(uploads, previous);
+            }
+
+            final List<HashMap<String, Object>> levels = new ArrayList<>();
+            long encodeTime = 0;
+            long outputBytes = 0;
+            for (final CompletableFuture<HashMap<String, Object>> upload : uploads) {
+                final HashMap<String, Object> level = upload.join();
+                if (level.containsKey(ERROR_KEY)) {
+                    return Constants.getErrorObject((String) level.get(ERROR_KEY));
+                }
+                encodeTime += ((Number) level.get(ENCODE_TIME_KEY)).longValue();
+                outputBytes += ((Number) level.get(OUTPUT_BYTES_KEY)).longValue();
+                levels.add(level);
+            }
+
+            if (isBatch) {
+                inspector.put(IMAGE_FILE_KEY, originalImage);
+            }
+
+            inspector.put(SUCCESS_KEY, "Successfully generated image pyramid.");
+            inspector.put("original_width", originalImage.getWidth());
+            inspector.put("original_height", originalImage.getHeight());
+            inspector.put("levels", levels);
+            inspector.put("reduction_time_ms", reductionTime);
+            inspector.put(ENCODE_TIME_KEY, encodeTime);
+            inspector.put(OUTPUT_BYTES_KEY, outputBytes);
+            inspector.put(ENCODER_PROFILE_KEY, encoderOptions.getName());
+
+        } catch (final Exception e) {
+            e.printStackTrace();
+            return Constants.getErrorObject(e.toString());
+        } finally {
+            // A fetched image may be shared with other requests, and uploads still running after an error may read it
+            if (!isBatch) {
+                releaseAfter(uploads, originalImage);
+            }
+        }
+
+        return inspector;
+    }
+
+    /**
+     * Encodes and uploads a single level.
+     *
+     * @return The level's output, or an error object.
+     */
+    private static HashMap<String, Object> upload(final String bucketName,
+                                                  final String fileName,
+                                                  final String extension,
+                                                  final int size,
+                                                  final BufferedImage level,
+                                                  final EncoderOptions encoderOptions,
+                                                  final HashMap<String, Object> request) {
+        final HashMap<String, Object> output = new HashMap<>();
+        output.put("size", size);
+        output.put("width", level.getWidth());
+        output.put("height", level.getHeight());
+        output.put(FILE_NAME_KEY, fileName);
+
+        if (!Constants.saveImageToS3(bucketName, fileName, extension, level, encoderOptions, output, request)) {
+            return Constants.getErrorObject("Failed to save image to S3: " + fileName);
+        }
+        output.remove(ENCODER_PROFILE_KEY);
+
+        if ((boolean) request.getOrDefault(GET_DOWNLOAD_KEY, false)) {
+            output.put(IMAGE_URL_KEY, Constants.getDownloadableImageURL(bucketName, fileName));
+            output.put(IMAGE_URL_EXPIRES_IN, IMAGE_URL_EXPIRATION_SECONDS);
+        }
+        return output;
+    }
+
+    /**
+     * Returns an image to the raster pool once the uploads started so far are done. A level that
+     * could not be reduced any further is shared by several uploads.
+     */
+    private static void releaseAfter(final List<CompletableFuture<HashMap<String, Object>>> uploads, final BufferedImage image) {
+        CompletableFuture.allOf(uploads.toArray(new CompletableFuture<?>[0])).whenComplete((output, error) -> RasterPool.release(image));
+    }
+
+    /**
+     * Reduces an image so its longest side matches a size. Images are never enlarged.
+     *
+     * @param image The packed image to reduce.
+     * @param size  The target length of the longest side.
+     * @return The reduced image, or the input image if it is already small enough.
+     */
+    private static BufferedImage reduce(final BufferedImage image, final int size) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        if (Math.max(width, height) <= size) {
+            return image;
+        }
+
+        final int targetWidth = width >= height ? size : Math.max(1, (int) Math.round((double) width * size / height));
+        final int targetHeight = width >= height ? Math.max(1, (int) Math.round((double) height * size / width)) : size;
+
+        // Halve while the result is still at least as large as the target
+        BufferedImage current = image;
+        while (current.getWidth() / 2 >= targetWidth && current.getHeight() / 2 >= targetHeight) {
+            final BufferedImage halved = halve(current);
+            if (current != image) {
+                RasterPool.release(current);
+            }
+            current = halved;
+        }
+        if (current.getWidth() == targetWidth && current.getHeight() == targetHeight) {
+            return current;
+        }
+
+        // The remaining factor is below two, so a bilinear resample samples every source pixel
+        final BufferedImage resampled = RasterPool.acquire(targetWidth, targetHeight, current.getType());
+        final Graphics2D graphics = resampled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        graphics.drawImage(current, 0, 0, targetWidth, targetHeight, null);
+        graphics.dispose();
+        if (current != image) {
+            RasterPool.release(current);
+        }
+        return resampled;
+    }
+
+    /**
+     * Halves both dimensions of an image by averaging each 2x2 block. A trailing odd row or column
+     * is averaged with itself.
+     *
+     * @param image An image of one of the fast types of RasterTypes.
+     * @return The halved image.
+     */
+    private static BufferedImage halve(final BufferedImage image) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int halfWidth = Math.max(1, width / 2);
+        final int halfHeight = Math.max(1, height / 2);
+        final BufferedImage halved = RasterPool.acquireUncleared(halfWidth, halfHeight, image.getType());
+        final BufferedImage output = halved != null ? halved : new BufferedImage(halfWidth, halfHeight, image.getType());
+
+        if (image.getRaster().getDataBuffer() instanceof DataBufferByte) {
+            // Gray and interleaved BGR/ABGR pixels are averaged one byte channel at a time
+            final int bands = image.getRaster().getNumBands();
+            final byte[] source = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            final byte[] target = ((DataBufferByte) output.getRaster().getDataBuffer()).getData();
+            for (int y = 0; y < halfHeight; y++) {
+                final int row0 = 2 * y * width * bands;
+                final int row1 = Math.min(2 * y + 1, height - 1) * width * bands;
+                for (int x = 0; x < halfWidth; x++) {
+                    final int x0 = 2 * x * bands;
+                    final int x1 = Math.min(2 * x + 1, width - 1) * bands;
+                    final int out = (y * halfWidth + x) * bands;
+                    for (int band = 0; band < bands; band++) {
+                        final int sum = (source[row0 + x0 + band] & 0xFF) + (source[row0 + x1 + band] & 0xFF)
+                                + (source[row1 + x0 + band] & 0xFF) + (source[row1 + x1 + band] & 0xFF);
+                        target[out + band] = (byte) ((sum + 2) >> 2);
+                    }
+                }
+            }
+            return output;
+        }
+
+        final int[] source = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        final int[] target = ((DataBufferInt) output.getRaster().getDataBuffer()).getData();
+        for (int y = 0; y < halfHeight; y++) {
+            final int row0 = 2 * y * width;
+            final int row1 = Math.min(2 * y + 1, height - 1) * width;
+            for (int x = 0; x < halfWidth; x++) {
+                final int x0 = 2 * x;
+                final int x1 = Math.min(x0 + 1, width - 1);
+                final int a = source[row0 + x0];
+                final int b = source[row0 + x1];
+                final int c = source[row1 + x0];
+                final int d = source[row1 + x1];
+
+                // Average the four channels of the packed pixels separately
+                final int alpha = ((a >>> 24) + (b >>> 24) + (c >>> 24) + (d >>> 24) + 2) >> 2;
+                final int red = (((a >> 16) & 0xFF) + ((b >> 16) & 0xFF) + ((c >> 16) & 0xFF) + ((d >> 16) & 0xFF) + 2) >> 2;
+                final int green = (((a >> 8) & 0xFF) + ((b >> 8) & 0xFF) + ((c >> 8) & 0xFF) + ((d >> 8) & 0xFF) + 2) >> 2;
+                final int blue = ((a & 0xFF) + (b & 0xFF) + (c & 0xFF) + (d & 0xFF) + 2) >> 2;
+                target[y * halfWidth + x] = (alpha << 24) | (red << 16) | (green << 8) | blue;
+            }
+        }
+        return output;
+    }
+
+}
@@ -0,0 +1,190 @@
+package functions;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import utils.Constants;
+import utils.Convolution;
+import utils.EncoderOptions;
+import utils.FileValidator;
+import utils.ImageAdmission;
+import utils.RasterPool;
+
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static utils.Constants.BUCKET_KEY;
+import static utils.Constants.FILE_NAME_KEY;
+import static utils.Constants.GET_DOWNLOAD_KEY;
+import static utils.Constants.IMAGE_FILE_KEY;
+import static utils.Constants.IMAGE_URL_EXPIRATION_SECONDS;
+import static utils.Constants.IMAGE_URL_EXPIRES_IN;
+import static utils.Constants.IMAGE_URL_KEY;
+import static utils.Constants.SUCCESS_KEY;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Blurs an image, with a Gaussian or a box of "blur_radius" pixels (see Convolution). A Gaussian
+ *  reaches "blur_radius" at three standard deviations, so its sigma is a third of the radius.
+ */
+public class F8ImageBlur {
+
+    // Request Body Keys
+    static final String RADIUS_KEY = "blur_radius";
+    static final String TYPE_KEY = "blur_type";
+    static final String EDGE_MODE_KEY = "edge_mode";
+
+    // Response Body Keys
+    static final String SIGMA_KEY = "blur_sigma";
+
+    static final String TYPE_GAUSSIAN = "gaussian";
+    static final String TYPE_BOX = "box";
+
+    /**
+     *  The minimum blur radius.
+     */
+    private static final int MIN_RADIUS = 1;
+
+    /**
+     *  The maximum blur radius.
+     */
+    private static final int MAX_RADIUS = 500;
+
+    /**
+     *  The number of standard deviations of a Gaussian blur that its radius spans.
+     */
+    private static final double RADIUS_SIGMAS = 3.0;
+
+
+    /**
+     *  Function 8: Image Blur
+     *
+     *  @param request  The image arguments.
+     *  @param context  The AWS Lambda context.
+     *  @return A response object.
+     */
+    public static HashMap<String, Object> handleRequest(final HashMap<String, Object> request, final Context context) {
+        return imageBlur(null, request, context);
+    }
+
+    /**
+     *  Function #8: Blur Batch Method.
+     *      This function should only be called by the batch handler, which passes in a buffered image to use.
+     *
+     *  @param image    The image to modify.
+     *  @param request  The request arguments.
+     *  @param context  The AWS Lambda Context
+     *  @return A response object.
+     */
+    public static HashMap<String, Object> imageBlur(final BufferedImage image, final HashMap<String, Object> request, final Context context) {
+        final boolean isBatch = image != null;
+
+        final HashMap<String, Object> inspector = new HashMap<>();
+
+        final String validateMessage = Constants.validateRequestMap(request, BUCKET_KEY, FILE_NAME_KEY, RADIUS_KEY);
+        if (validateMessage != null) {
+            return Constants.getErrorObject(validateMessage);
+        }
+
+        BufferedImage originalImage = null;
+        try {
+            // Extract input parameters
+            final String bucketName = (String) request.get(BUCKET_KEY);
+            final String fileName = (String) request.get(FILE_NAME_KEY);
+            final String outputFileName = Constants.getOutputFileName("blur_", fileName, request);
+            final int radius = radius(request);
+            final String type = type(request);
+            final Convolution.EdgeMode edgeMode = edgeMode(request);
+
+            originalImage = isBatch ? image : Constants.getImageFromS3AndRecordLatency(bucketName, fileName, inspector, request, List.of(new ImageAdmission.Step("blur", request)));
+            if (originalImage == null) {
+                return Constants.getErrorObject("Could not access image from S3.");
+            }
+
+            // Blur
+            final BufferedImage blurredImage = type.equals(TYPE_BOX)
+                    ? Convolution.boxBlur(originalImage, radius, edgeMode)
+                    : Convolution.gaussianBlur(originalImage, sigma(radius), edgeMode);
+
+            if (!isBatch) {
+                final boolean successfulWriteToS3 = Constants.saveImageToS3(bucketName, outputFileName, FileValidator.getFileExtension(outputFileName), blurredImage, EncoderOptions.fromRequest(request), inspector, request);
+                RasterPool.release(blurredImage);
+                if (!successfulWriteToS3) {
+                    return Constants.getErrorObject("Failed to save image to S3");
+                }
+                if ((boolean) request.get(GET_DOWNLOAD_KEY)) {
+                    inspector.put(IMAGE_URL_KEY, Constants.getDownloadableImageURL(bucketName, outputFileName));
+                    inspector.put(IMAGE_URL_EXPIRES_IN, IMAGE_URL_EXPIRATION_SECONDS);
+                }
+            } else {
+                inspector.put(IMAGE_FILE_KEY, blurredImage);
+            }
+
+            // Populate response attributes
+            inspector.put(SUCCESS_KEY, "Successfully blurred image.");
+            inspector.put(RADIUS_KEY, radius);
+            inspector.put(TYPE_KEY, type);
+            if (type.equals(TYPE_GAUSSIAN)) {
+                inspector.put(SIGMA_KEY, sigma(radius));
+            }
+            inspector.put(EDGE_MODE_KEY, edgeMode.name().toLowerCase());
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Constants.getErrorObject(e.toString());
+        } finally {
+            // A fetched image may be shared with other requests, so it is released on every path
+            if (!isBatch) {
+                RasterPool.release(originalImage);
+            }
+        }
+
+
+        return inspector;
+    }
+
+    /**
+     *  @param arguments The blur arguments.
+     *  @return The distance in pixels a blurred pixel reads from, on each side.
+     *  @throws IllegalArgumentException If the arguments are invalid.
+     */
+    static int support(final Map<String, Object> arguments) {
+        final int radius = radius(arguments);
+        return type(arguments).equals(TYPE_BOX) ? radius : Convolution.gaussianSupport(sigma(radius));
+    }
+
+    /**
+     *  @param arguments The blur or sharpen arguments.
+     *  @return The edge mode, clamp unless the arguments say otherwise.
+     *  @throws IllegalArgumentException If there is no such edge mode.
+     */
+    static Convolution.EdgeMode edgeMode(final Map<String, Object> arguments) {
+        return Convolution.EdgeMode.fromName(String.valueOf(arguments.getOrDefault(EDGE_MODE_KEY, "clamp")));
+    }
+
+    private static int radius(final Map<String, Object> arguments) {
+        final int radius = Constants.getIntArgument(arguments, RADIUS_KEY, 0);
+        if (radius < MIN_RADIUS || radius > MAX_RADIUS) {
+            throw new IllegalArgumentException(String.format("Invalid blur_radius. Must be between %d and %d.", MIN_RADIUS, MAX_RADIUS));
+        }
+        return radius;
+    }
+
+    /**
+     *  @param radius The blur radius.
+     *  @return The standard deviation of the Gaussian that blurs to the radius.
+     */
+    static double sigma(final int radius) {
+        return radius / RADIUS_SIGMAS;
+    }
+
+    private static String type(final Map<String, Object> arguments) {
+        final String type = String.valueOf(arguments.getOrDefault(TYPE_KEY, TYPE_GAUSSIAN)).toLowerCase();
+        if (!type.equals(TYPE_GAUSSIAN) && !type.equals(TYPE_BOX)) {
+            throw new IllegalArgumentException("Invalid blur_type. Must be gaussian or box.");
+        }
+        return type;
+    }
+}
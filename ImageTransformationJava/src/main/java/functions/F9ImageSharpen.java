@@ -0,0 +1,155 @@
+package functions;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import utils.Constants;
+import utils.Convolution;
+import utils.EncoderOptions;
+import utils.FileValidator;
+import utils.ImageAdmission;
+import utils.RasterPool;
+
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static utils.Constants.BUCKET_KEY;
+import static utils.Constants.FILE_NAME_KEY;
+import static utils.Constants.GET_DOWNLOAD_KEY;
+import static utils.Constants.IMAGE_FILE_KEY;
+import static utils.Constants.IMAGE_URL_EXPIRATION_SECONDS;
+import static utils.Constants.IMAGE_URL_EXPIRES_IN;
+import static utils.Constants.IMAGE_URL_KEY;
+import static utils.Constants.SUCCESS_KEY;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Sharpens an image by unsharp masking (see Convolution). "sharpen_amount" is the percentage of
+ *  the detail to add back, "sharpen_radius" the reach of the Gaussian the detail is measured
+ *  against, which as in F8ImageBlur is three of its standard deviations, and differences below
+ *  "sharpen_threshold" are left alone, which keeps noise in flat areas down.
+ */
+public class F9ImageSharpen {
+
+    // Request Body Keys
+    static final String AMOUNT_KEY = "sharpen_amount";
+    static final String RADIUS_KEY = "sharpen_radius";
+    static final String THRESHOLD_KEY = "sharpen_threshold";
+
+    private static final int MIN_AMOUNT = 1;
+    private static final int MAX_AMOUNT = 500;
+    private static final int DEFAULT_RADIUS = 1;
+    private static final int MIN_RADIUS = 1;
+    private static final int MAX_RADIUS = 100;
+    private static final int MAX_THRESHOLD = 255;
+
+
+    /**
+     *  Function 9: Image Sharpen
+     *
+     *  @param request  The image arguments.
+     *  @param context  The AWS Lambda context.
+     *  @return A response object.
+     */
+    public static HashMap<String, Object> handleRequest(final HashMap<String, Object> request, final Context context) {
+        return imageSharpen(null, request, context);
+    }
+
+    /**
+     *  Function #9: Sharpen Batch Method.
+     *      This function should only be called by the batch handler, which passes in a buffered image to use.
+     *
+     *  @param image    The image to modify.
+     *  @param request  The request arguments.
+     *  @param context  The AWS Lambda Context
+     *  @return A response object.
+     */
+    public static HashMap<String, Object> imageSharpen(final BufferedImage image, final HashMap<String, Object> request, final Context context) {
+        final boolean isBatch = image != null;
+
+        final HashMap<String, Object> inspector = new HashMap<>();
+
+        final String validateMessage = Constants.validateRequestMap(request, BUCKET_KEY, FILE_NAME_KEY, AMOUNT_KEY);
+        if (validateMessage != null) {
+            return Constants.getErrorObject(validateMessage);
+        }
+
+        BufferedImage originalImage = null;
+        try {
+            // Extract input parameters
+            final String bucketName = (String) request.get(BUCKET_KEY);
+            final String fileName = (String) request.get(FILE_NAME_KEY);
+            final String outputFileName = Constants.getOutputFileName("sharpen_", fileName, request);
+            final int amount = Constants.getIntArgument(request, AMOUNT_KEY, 0);
+            if (amount < MIN_AMOUNT || amount > MAX_AMOUNT) {
+                throw new IllegalArgumentException(String.format("Invalid sharpen_amount. Must be between %d and %d.", MIN_AMOUNT, MAX_AMOUNT));
+            }
+            final int radius = radius(request);
+            final int threshold = Constants.getIntArgument(request, THRESHOLD_KEY, 0);
+            if (threshold < 0 || threshold > MAX_THRESHOLD) {
+                throw new IllegalArgumentException(String.format("Invalid sharpen_threshold. Must be between 0 and %d.", MAX_THRESHOLD));
+            }
+            final Convolution.EdgeMode edgeMode = F8ImageBlur.edgeMode(request);
+
+            originalImage = isBatch ? image : Constants.getImageFromS3AndRecordLatency(bucketName, fileName, inspector, request, List.of(new ImageAdmission.Step("sharpen", request)));
+            if (originalImage == null) {
+                return Constants.getErrorObject("Could not access image from S3.");
+            }
+
+            // Sharpen
+            final BufferedImage sharpenedImage = Convolution.unsharpMask(originalImage, F8ImageBlur.sigma(radius), amount / 100.0, threshold, edgeMode);
+
+            if (!isBatch) {
+                final boolean successfulWriteToS3 = Constants.saveImageToS3(bucketName, outputFileName, FileValidator.getFileExtension(outputFileName), sharpenedImage, EncoderOptions.fromRequest(request), inspector, request);
+                RasterPool.release(sharpenedImage);
+                if (!successfulWriteToS3) {
+                    return Constants.getErrorObject("Failed to save image to S3");
+                }
+                if ((boolean) request.get(GET_DOWNLOAD_KEY)) {
+                    inspector.put(IMAGE_URL_KEY, Constants.getDownloadableImageURL(bucketName, outputFileName));
+                    inspector.put(IMAGE_URL_EXPIRES_IN, IMAGE_URL_EXPIRATION_SECONDS);
+                }
+            } else {
+                inspector.put(IMAGE_FILE_KEY, sharpenedImage);
+            }
+
+            // Populate response attributes
+            inspector.put(SUCCESS_KEY, "Successfully sharpened image.");
+            inspector.put(AMOUNT_KEY, amount);
+            inspector.put(RADIUS_KEY, radius);
+            inspector.put(THRESHOLD_KEY, threshold);
+            inspector.put(F8ImageBlur.EDGE_MODE_KEY, edgeMode.name().toLowerCase());
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Constants.getErrorObject(e.toString());
+        } finally {
+            // A fetched image may be shared with other requests, so it is released on every path
+            if (!isBatch) {
+                RasterPool.release(originalImage);
+            }
+        }
+
+
+        return inspector;
+    }
+
+    /**
+     *  @param arguments The sharpen arguments.
+     *  @return The distance in pixels a sharpened pixel reads from, on each side.
+     *  @throws IllegalArgumentException If the radius is invalid.
+     */
+    static int support(final Map<String, Object> arguments) {
+        return Convolution.gaussianSupport(F8ImageBlur.sigma(radius(arguments)));
+    }
+
+    private static int radius(final Map<String, Object> arguments) {
+        final int radius = Constants.getIntArgument(arguments, RADIUS_KEY, DEFAULT_RADIUS);
+        if (radius < MIN_RADIUS || radius > MAX_RADIUS) {
+            throw new IllegalArgumentException(String.format("Invalid sharpen_radius. Must be between %d and %d.", MIN_RADIUS, MAX_RADIUS));
+        }
+        return radius;
+    }
+}
@@ -2,7 +2,12 @@ package functions;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import utils.Constants;
+import utils.EncoderOptions;
 import utils.FileValidator;
+import utils.ImageAdmission;
+import utils.InlinePayloads;
+import utils.Manifest;
+import utils.RasterPool;
 
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
@@ -26,6 +31,14 @@ import static utils.Constants.SUCCESS_KEY;
  *  Group 7
  *
  *  Conducts multiple image transformations on a single image.
+ *
+ *  The transformations are either a linear "operations" list with a single output, or a graph of
+ *  named "nodes" and "edges" with an output per leaf (see BatchGraph).
+ *
+ *  A linear request with a "manifest" location skips a source the manifest says was already
+ *  processed with the same plan since it last changed, and records the source once it is processed
+ *  (see Manifest). The ETag of the source is taken from "source_etag", as an S3 event carries it,
+ *  or else from the metadata of the source.
  */
 public class ImageBatchProcessing {
 
@@ -34,10 +47,20 @@ public class ImageBatchProcessing {
      */
     private static final String OPERATIONS_KEY = "operations";
 
+    /**
+     * Key of the ETag of the source in the request body.
+     */
+    static final String SOURCE_ETAG_KEY = "source_etag";
+
+    /**
+     * Key of the output in the response.
+     */
+    static final String OUTPUT_KEY = "output_key";
+
     /**
      * Holds the functions in a map.
      */
-    private static final Map<String, ImageBatchFunction> FUNCTIONS = new HashMap<>();
+    static final Map<String, ImageBatchFunction> FUNCTIONS = new HashMap<>();
 
     static {
         FUNCTIONS.put("details", F1ImageDetails::imageDetails);
@@ -46,6 +69,9 @@ public class ImageBatchProcessing {
         FUNCTIONS.put("grayscale", F4ImageGrayscale::imageGrayscale);
         FUNCTIONS.put("brightness", F5ImageBrightness::imageBrightness);
         FUNCTIONS.put("transform", F6ImageTransform::imageTransform);
+        FUNCTIONS.put("pyramid", F7ImagePyramid::imagePyramid);
+        FUNCTIONS.put("blur", F8ImageBlur::imageBlur);
+        FUNCTIONS.put("sharpen", F9ImageSharpen::imageSharpen);
     }
 
     /**
@@ -58,21 +84,59 @@ public class ImageBatchProcessing {
     public static HashMap<String, Object> handleRequest(final HashMap<String, Object> request, final Context context) {
         final HashMap<String, Object> inspector = new HashMap<>();
 
+        // A request with nodes runs as a graph instead of a linear list
+        if (request.containsKey(BatchGraph.NODES_KEY)) {
+            final String validateMessage = Constants.validateRequestMap(request, BUCKET_KEY, FILE_NAME_KEY);
+            if (validateMessage != null) {
+                return Constants.getErrorObject(validateMessage);
+            }
+            try {
+                return BatchGraph.fromRequest(request).run(request, context);
+            } catch (final IllegalArgumentException e) {
+                return Constants.getErrorObject(e.toString());
+            }
+        }
+
         // Validate input
         final String validateMessage = Constants.validateRequestMap(request, BUCKET_KEY, FILE_NAME_KEY, OPERATIONS_KEY);
         if (validateMessage != null) {
             return Constants.getErrorObject(validateMessage);
         }
 
+        BufferedImage image = null;
         try {
             final String bucketName = (String) request.get(BUCKET_KEY);
             final String fileName = (String) request.get(FILE_NAME_KEY);
             final ArrayList<ArrayList<Object>> operations = (ArrayList<ArrayList<Object>>) request.get(OPERATIONS_KEY);
-            String outputFileName = "batch_" + fileName;
+            String outputFileName = Constants.getOutputFileName("batch_", fileName, request);
             final List<HashMap<String, Object>> operationsOutput = new ArrayList<>();
+            final RasterPool.Stats poolStart = RasterPool.snapshot();
+
+            // Skip a source that is unchanged since it was processed with this plan
+            Manifest manifest = null;
+            String sourceETag = null;
+            String plan = null;
+            if (request.get(Manifest.MANIFEST_KEY) instanceof String && !InlinePayloads.isInline(request)) {
+                manifest = Manifest.open(bucketName, (String) request.get(Manifest.MANIFEST_KEY));
+                sourceETag = request.get(SOURCE_ETAG_KEY) instanceof String
+                        ? (String) request.get(SOURCE_ETAG_KEY)
+                        : Constants.getS3Client().getObjectMetadata(bucketName, fileName).getETag();
+                plan = BulkProcessing.planHash(request);
+                final String previousOutput = manifest.lookup(fileName, sourceETag, plan);
+                if (previousOutput != null) {
+                    inspector.put(SUCCESS_KEY, "Image unchanged since it was last processed.");
+                    inspector.put(Manifest.SKIPPED_KEY, true);
+                    inspector.put(OUTPUT_KEY, previousOutput);
+                    if ((boolean) request.get(GET_DOWNLOAD_KEY)) {
+                        inspector.put(IMAGE_URL_KEY, Constants.getDownloadableImageURL(bucketName, previousOutput));
+                        inspector.put(IMAGE_URL_EXPIRES_IN, IMAGE_URL_EXPIRATION_SECONDS);
+                    }
+                    return inspector;
+                }
+            }
 
             // Fetch the initial image from S3
-            BufferedImage image = Constants.getImageFromS3AndRecordLatency(bucketName, fileName, inspector);
+            image = Constants.getImageFromS3AndRecordLatency(bucketName, fileName, inspector, request, ImageAdmission.stepsOf(operations));
             if (image == null) {
                 return Constants.getErrorObject("Could not access image from S3.");
             }
@@ -104,7 +168,12 @@ public class ImageBatchProcessing {
                     }
                 }
 
-                image = responseObject.containsKey(IMAGE_FILE_KEY) ? (BufferedImage) responseObject.get(IMAGE_FILE_KEY) : image;
+                // Hand the previous buffer back so the next step can reuse it
+                final BufferedImage nextImage = responseObject.containsKey(IMAGE_FILE_KEY) ? (BufferedImage) responseObject.get(IMAGE_FILE_KEY) : image;
+                if (nextImage != image) {
+                    RasterPool.release(image);
+                }
+                image = nextImage;
                 final HashMap<String, Object> appendedOutput = new HashMap<>(responseObject);
                 appendedOutput.remove(IMAGE_FILE_KEY);
                 operationsOutput.add(appendedOutput);
@@ -112,14 +181,23 @@ public class ImageBatchProcessing {
             }
 
             // Save the final processed image to S3
-            final boolean successfulWriteToS3 = Constants.saveImageToS3(bucketName, outputFileName, FileValidator.getFileExtension(outputFileName), image);
+            final boolean successfulWriteToS3 = Constants.saveImageToS3(bucketName, outputFileName, FileValidator.getFileExtension(outputFileName), image, EncoderOptions.fromRequest(request), inspector, request);
             if (!successfulWriteToS3) {
                 return Constants.getErrorObject("Failed to save image to S3");
             }
+            if (manifest != null) {
+                manifest.record(fileName, sourceETag, plan, outputFileName);
+                manifest.flush();
+                inspector.put(Manifest.SKIPPED_KEY, false);
+            }
 
+            final RasterPool.Stats poolStats = RasterPool.snapshot().since(poolStart);
             inspector.put(SUCCESS_KEY, "Successfully processed image.");
             inspector.put("batch_operations_count", operations.size());
+            inspector.put(OUTPUT_KEY, outputFileName);
             inspector.put("operation_outputs", operationsOutput);
+            inspector.put("raster_pool_hits", poolStats.hits);
+            inspector.put("raster_pool_misses", poolStats.misses);
 
 
             if ((boolean) request.get(GET_DOWNLOAD_KEY)) {
@@ -130,6 +208,9 @@ public class ImageBatchProcessing {
         } catch (Exception e) {
             e.printStackTrace();
             return Constants.getErrorObject(e.toString());
+        } finally {
+            // The current image may still be the fetched one, shared with other requests
+            RasterPool.release(image);
         }
 
         return inspector;
@@ -0,0 +1,445 @@
+package functions;
+
+import utils.Constants;
+import utils.Constants.ImageBatchFunction;
+import utils.Convolution;
+import utils.RasterPool;
+import utils.RasterTypes;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  The operations that can run on tiles of an image, and the chain that runs them on one tile.
+ *
+ *  A kernel maps every output pixel to the source pixels it reads, so an output tile can be
+ *  computed from a source tile grown by the kernel's support. Grayscale and brightness read only
+ *  the pixel under them, and rotation by a right angle reads one pixel somewhere else; these run
+ *  the batch functions on the tile, so a tile comes out exactly as the same pixels would from the
+ *  whole image. Resize averages every source pixel an output pixel covers, the filter that
+ *  SCALE_SMOOTH applies, so its support is the footprint of the output tile. Blur and sharpen
+ *  read every pixel within the support of their filter, so they run the batch functions on the
+ *  tile grown by it and keep its middle; only at the edges of the image does the edge mode come
+ *  into play, as it would on the whole image. Wrapping reads across the image, so a wrapped
+ *  filter reads the whole of it.
+ */
+final class TileKernels {
+
+    /**
+     * The operations that can be tiled.
+     */
+    static final List<String> OPERATIONS = List.of("rotate", "resize", "grayscale", "brightness", "blur", "sharpen");
+
+
+    private TileKernels() {
+    }
+
+    /**
+     * An operation on tiles.
+     */
+    interface Kernel {
+
+        /**
+         * @return The width and height of the output, for an input of the given size.
+         */
+        int[] outputSize(int width, int height);
+
+        /**
+         * @param tile   A region of the output.
+         * @param width  The width of the input.
+         * @param height The height of the input.
+         * @return The region of the input that the output region reads.
+         */
+        Rectangle sourceRegion(Rectangle tile, int width, int height);
+
+        /**
+         * Computes a region of the output.
+         *
+         * @param source       The pixels of the input region, at (0, 0).
+         * @param sourceRegion The region of the input the pixels come from.
+         * @param tile         The region of the output to compute.
+         * @param width        The width of the input.
+         * @param height       The height of the input.
+         * @return The pixels of the output region, from the raster pool.
+         * @throws IllegalArgumentException If the operation rejects its arguments.
+         */
+        BufferedImage apply(BufferedImage source, Rectangle sourceRegion, Rectangle tile, int width, int height);
+    }
+
+    /**
+     * Creates the kernel of an operation.
+     *
+     * @param operation The operation name.
+     * @param arguments The operation arguments, as in a batch request.
+     * @param fileName  The name of the image, which the batch functions validate.
+     * @return The kernel.
+     * @throws IllegalArgumentException If the operation cannot be tiled or its arguments are invalid.
+     */
+    static Kernel of(final String operation, final Map<String, Object> arguments, final String fileName) {
+        switch (operation) {
+            case "grayscale":
+            case "brightness":
+                return new Pointwise(operation, arguments, fileName);
+            case "rotate":
+                final Object angle = arguments.get("rotation_angle");
+                if (!(angle instanceof Integer) || ((Integer) angle) % 90 != 0 || (Integer) angle <= 0 || (Integer) angle >= 360) {
+                    throw new IllegalArgumentException("Invalid rotation_angle. Only 90, 180, or 270 degrees are supported.");
+                }
+                return new Rotation((Integer) angle, arguments, fileName);
+            case "resize":
+                final Object targetWidth = arguments.get("target_width");
+                final Object targetHeight = arguments.get("target_height");
+                if (!(targetWidth instanceof Integer) || !(targetHeight instanceof Integer) || (Integer) targetWidth <= 0 || (Integer) targetHeight <= 0) {
+                    throw new IllegalArgumentException("Target dimensions must be positive integers.");
+                }
+                return new AreaResize((Integer) targetWidth, (Integer) targetHeight);
+            case "blur":
+                return new Neighborhood(operation, F8ImageBlur.support(arguments), F8ImageBlur.edgeMode(arguments), arguments, fileName);
+            case "sharpen":
+                return new Neighborhood(operation, F9ImageSharpen.support(arguments), F8ImageBlur.edgeMode(arguments), arguments, fileName);
+            default:
+                throw new IllegalArgumentException("Operation cannot be tiled: " + operation + ". Must be one of " + OPERATIONS + ".");
+        }
+    }
+
+    /**
+     * The input size of every kernel of a chain, followed by the size of its output.
+     *
+     * @param kernels The chain.
+     * @param width   The width of the source.
+     * @param height  The height of the source.
+     * @return The sizes, as {width, height} pairs.
+     */
+    static int[][] sizes(final List<Kernel> kernels, final int width, final int height) {
+        final int[][] sizes = new int[kernels.size() + 1][];
+        sizes[0] = new int[]{width, height};
+        for (int i = 0; i < kernels.size(); i++) {
+            sizes[i + 1] = kernels.get(i).outputSize(sizes[i][0], sizes[i][1]);
+        }
+        return sizes;
+    }
+
+    /**
+     * Works back from a region of the final output to the region every kernel of a chain reads.
+     *
+     * @param kernels The chain.
+     * @param sizes   The sizes of the chain.
+     * @param tile    The region of the final output.
+     * @return The region of each kernel's input, followed by the tile itself.
+     */
+    static Rectangle[] regions(final List<Kernel> kernels, final int[][] sizes, final Rectangle tile) {
+        final Rectangle[] regions = new Rectangle[kernels.size() + 1];
+        regions[kernels.size()] = tile;
+        for (int i = kernels.size() - 1; i >= 0; i--) {
+            regions[i] = kernels.get(i).sourceRegion(regions[i + 1], sizes[i][0], sizes[i][1]);
+        }
+        return regions;
+    }
+
+    /**
+     * Runs a chain on one tile. Every intermediate image is released to the raster pool.
+     *
+     * @param kernels The chain.
+     * @param sizes   The sizes of the chain.
+     * @param regions The regions of the chain for the tile.
+     * @param source  The pixels of the first region, which are only read.
+     * @return The pixels of the tile, from the raster pool.
+     */
+    static BufferedImage render(final List<Kernel> kernels, final int[][] sizes, final Rectangle[] regions, final BufferedImage source) {
+        BufferedImage image = source;
+        for (int i = 0; i < kernels.size(); i++) {
+            final BufferedImage next = kernels.get(i).apply(image, regions[i], regions[i + 1], sizes[i][0], sizes[i][1]);
+            if (image != source) {
+                RasterPool.release(image);
+            }
+            image = next;
+        }
+        return image;
+    }
+
+    /**
+     * Parses the operations of a request into a chain.
+     *
+     * @param operations The operations, as [name, arguments] pairs.
+     * @param fileName   The name of the image.
+     * @return The chain.
+     * @throws IllegalArgumentException If there are no operations, or one cannot be tiled.
+     */
+    @SuppressWarnings("unchecked")
+    static List<Kernel> chain(final List<?> operations, final String fileName) {
+        if (operations.isEmpty()) {
+            throw new IllegalArgumentException("Invalid operations. Must not be empty.");
+        }
+        final List<Kernel> kernels = new ArrayList<>();
+        for (final Object entry : operations) {
+            if (!(entry instanceof List) || ((List<?>) entry).isEmpty()) {
+                throw new IllegalArgumentException("Invalid operation: " + entry + ". Must be [name, arguments].");
+            }
+            final List<Object> pair = (List<Object>) entry;
+            final Map<String, Object> arguments = pair.size() > 1 && pair.get(1) instanceof Map ? (Map<String, Object>) pair.get(1) : new HashMap<>();
+            kernels.add(of(String.valueOf(pair.get(0)), arguments, fileName));
+        }
+        return kernels;
+    }
+
+    /**
+     * Runs a batch function on a tile and takes its output image.
+     */
+    private static BufferedImage runBatchFunction(final ImageBatchFunction function,
+                                                  final BufferedImage source,
+                                                  final Map<String, Object> arguments,
+                                                  final String fileName) {
+        final HashMap<String, Object> request = new HashMap<>(arguments);
+        request.put(Constants.BUCKET_KEY, "");
+        request.put(Constants.FILE_NAME_KEY, fileName);
+        final HashMap<String, Object> output = function.process(source, request, null);
+        if (!(output.get(Constants.IMAGE_FILE_KEY) instanceof BufferedImage)) {
+            throw new IllegalArgumentException(String.valueOf(output.get(Constants.ERROR_KEY)));
+        }
+        return (BufferedImage) output.get(Constants.IMAGE_FILE_KEY);
+    }
+
+    /**
+     * An operation that reads only the pixel under each output pixel.
+     */
+    private static final class Pointwise implements Kernel {
+        private final ImageBatchFunction function;
+        private final Map<String, Object> arguments;
+        private final String fileName;
+
+        private Pointwise(final String operation, final Map<String, Object> arguments, final String fileName) {
+            this.function = ImageBatchProcessing.FUNCTIONS.get(operation);
+            this.arguments = arguments;
+            this.fileName = fileName;
+        }
+
+        @Override
+        public int[] outputSize(final int width, final int height) {
+            return new int[]{width, height};
+        }
+
+        @Override
+        public Rectangle sourceRegion(final Rectangle tile, final int width, final int height) {
+            return new Rectangle(tile);
+        }
+
+        @Override
+        public BufferedImage apply(final BufferedImage source, final Rectangle sourceRegion, final Rectangle tile, final int width, final int height) {
+            return runBatchFunction(function, source, arguments, fileName);
+        }
+    }
+
+    /**
+     * An operation that reads the pixels within a distance of each output pixel.
+     */
+    private static final class Neighborhood implements Kernel {
+        private final ImageBatchFunction function;
+        private final int support;
+        private final Convolution.EdgeMode edgeMode;
+        private final Map<String, Object> arguments;
+        private final String fileName;
+
+        private Neighborhood(final String operation,
+                              final int support,
+                              final Convolution.EdgeMode edgeMode,
+                              final Map<String, Object> arguments,
+                              final String fileName) {
+            this.function = ImageBatchProcessing.FUNCTIONS.get(operation);
+            this.support = support;
+            this.edgeMode = edgeMode;
+            this.arguments = arguments;
+            this.fileName = fileName;
+        }
+
+        @Override
+        public int[] outputSize(final int width, final int height) {
+            return new int[]{width, height};
+        }
+
+        @Override
+        public Rectangle sourceRegion(final Rectangle tile, final int width, final int height) {
+            if (edgeMode == Convolution.EdgeMode.WRAP) {
+                return new Rectangle(0, 0, width, height);
+            }
+            final Rectangle grown = new Rectangle(tile);
+            grown.grow(support, support);
+            return grown.intersection(new Rectangle(0, 0, width, height));
+        }
+
+        @Override
+        public BufferedImage apply(final BufferedImage source, final Rectangle sourceRegion, final Rectangle tile, final int width, final int height) {
+            final BufferedImage filtered = runBatchFunction(function, source, arguments, fileName);
+            if (sourceRegion.equals(tile)) {
+                return filtered;
+            }
+
+            // Keep the part of the grown region that is the tile
+            final BufferedImage pooled = RasterPool.acquireUncleared(tile.width, tile.height, filtered.getType());
+            final BufferedImage output = pooled != null ? pooled : new BufferedImage(tile.width, tile.height, filtered.getType());
+            final Object pixels = filtered.getRaster().getDataElements(tile.x - sourceRegion.x, tile.y - sourceRegion.y, tile.width, tile.height, null);
+            output.getRaster().setDataElements(0, 0, tile.width, tile.height, pixels);
+            RasterPool.release(filtered);
+            return output;
+        }
+    }
+
+    /**
+     * A clockwise rotation by a right angle, which moves every pixel without resampling it.
+     */
+    private static final class Rotation implements Kernel {
+        private final int angle;
+        private final Map<String, Object> arguments;
+        private final String fileName;
+
+        private Rotation(final int angle, final Map<String, Object> arguments, final String fileName) {
+            this.angle = angle;
+            this.arguments = arguments;
+            this.fileName = fileName;
+        }
+
+        @Override
+        public int[] outputSize(final int width, final int height) {
+            return angle == 180 ? new int[]{width, height} : new int[]{height, width};
+        }
+
+        @Override
+        public Rectangle sourceRegion(final Rectangle tile, final int width, final int height) {
+            switch (angle) {
+                case 90:
+                    return new Rectangle(tile.y, height - tile.x - tile.width, tile.height, tile.width);
+                case 180:
+                    return new Rectangle(width - tile.x - tile.width, height - tile.y - tile.height, tile.width, tile.height);
+                default:
+                    return new Rectangle(width - tile.y - tile.height, tile.x, tile.height, tile.width);
+            }
+        }
+
+        @Override
+        public BufferedImage apply(final BufferedImage source, final Rectangle sourceRegion, final Rectangle tile, final int width, final int height) {
+            return runBatchFunction(ImageBatchProcessing.FUNCTIONS.get("rotate"), source, arguments, fileName);
+        }
+    }
+
+    /**
+     * Resizing by area averaging: every output pixel is the mean of the source area it covers,
+     * with the source pixels on its edges weighted by how much of them it covers.
+     */
+    private static final class AreaResize implements Kernel {
+        private final int targetWidth;
+        private final int targetHeight;
+
+        private AreaResize(final int targetWidth, final int targetHeight) {
+            this.targetWidth = targetWidth;
+            this.targetHeight = targetHeight;
+        }
+
+        @Override
+        public int[] outputSize(final int width, final int height) {
+            return new int[]{targetWidth, targetHeight};
+        }
+
+        @Override
+        public Rectangle sourceRegion(final Rectangle tile, final int width, final int height) {
+            final double scaleX = (double) width / targetWidth;
+            final double scaleY = (double) height / targetHeight;
+            final int x0 = (int) Math.floor(tile.x * scaleX);
+            final int y0 = (int) Math.floor(tile.y * scaleY);
+            final int x1 = Math.min(width, (int) Math.ceil((tile.x + tile.width) * scaleX));
+            final int y1 = Math.min(height, (int) Math.ceil((tile.y + tile.height) * scaleY));
+            return new Rectangle(x0, y0, Math.max(1, x1 - x0), Math.max(1, y1 - y0));
+        }
+
+        @Override
+        public BufferedImage apply(final BufferedImage image, final Rectangle sourceRegion, final Rectangle tile, final int width, final int height) {
+            final BufferedImage source = RasterTypes.toFastType(image);
+            final Raster in = source.getRaster();
+            final int bands = in.getNumBands();
+            final double scaleX = (double) width / targetWidth;
+            final double scaleY = (double) height / targetHeight;
+
+            // The source columns each output column covers, and how much of each it covers
+            final int[] firstColumn = new int[tile.width];
+            final double[][] columnWeights = new double[tile.width][];
+            for (int x = 0; x < tile.width; x++) {
+                final double start = (tile.x + x) * scaleX;
+                final double end = Math.min(width, (tile.x + x + 1) * scaleX);
+                firstColumn[x] = (int) Math.floor(start);
+                columnWeights[x] = coverage(start, end);
+            }
+
+            final BufferedImage pooled = RasterPool.acquireUncleared(tile.width, tile.height, source.getType());
+            final BufferedImage output = pooled != null ? pooled : new BufferedImage(tile.width, tile.height, source.getType());
+            final WritableRaster out = output.getRaster();
+            final int maxValue = (1 << in.getSampleModel().getSampleSize(0)) - 1;
+            final int[] sourceRow = new int[sourceRegion.width * bands];
+            final double[] accumulator = new double[tile.width * bands];
+            final int[] outputRow = new int[tile.width * bands];
+
+            for (int y = 0; y < tile.height; y++) {
+                final double start = (tile.y + y) * scaleY;
+                final double end = Math.min(height, (tile.y + y + 1) * scaleY);
+                final int firstRow = (int) Math.floor(start);
+                final double[] rowWeights = coverage(start, end);
+                Arrays.fill(accumulator, 0);
+
+                for (int r = 0; r < rowWeights.length; r++) {
+                    in.getPixels(0, Math.min(firstRow + r - sourceRegion.y, sourceRegion.height - 1), sourceRegion.width, 1, sourceRow);
+                    for (int x = 0; x < tile.width; x++) {
+                        final double[] weights = columnWeights[x];
+                        final int column = firstColumn[x] - sourceRegion.x;
+                        for (int c = 0; c < weights.length; c++) {
+                            final double weight = weights[c] * rowWeights[r];
+                            final int offset = Math.min(column + c, sourceRegion.width - 1) * bands;
+                            for (int b = 0; b < bands; b++) {
+                                accumulator[x * bands + b] += weight * sourceRow[offset + b];
+                            }
+                        }
+                    }
+                }
+
+                final double rowArea = end - start;
+                for (int x = 0; x < tile.width; x++) {
+                    final double columnArea = Math.min(width, (tile.x + x + 1) * scaleX) - (tile.x + x) * scaleX;
+                    for (int b = 0; b < bands; b++) {
+                        final int value = (int) Math.round(accumulator[x * bands + b] / (rowArea * columnArea));
+                        outputRow[x * bands + b] = Math.max(0, Math.min(maxValue, value));
+                    }
+                }
+                out.setPixels(0, y, tile.width, 1, outputRow);
+            }
+
+            if (source != image) {
+                RasterPool.release(source);
+            }
+            return output;
+        }
+
+        /**
+         * @param start The start of a span, in source pixels.
+         * @param end   The end of the span.
+         * @return How much of each source pixel from floor(start) the span covers.
+         */
+        private static double[] coverage(final double start, final double end) {
+            final int first = (int) Math.floor(start);
+            final int last = Math.max(first, (int) Math.ceil(end) - 1);
+            final double[] weights = new double[last - first + 1];
+            for (int i = 0; i < weights.length; i++) {
+                final double pixelStart = Math.max(start, first + i);
+                final double pixelEnd = Math.min(end, first + i + 1);
+                weights[i] = Math.max(0, pixelEnd - pixelStart);
+            }
+            return weights;
+        }
+    }
+
+}
@@ -0,0 +1,590 @@
+package functions;
+
+import utils.Constants;
+import utils.EncoderOptions;
+import utils.ImageAdmission;
+import utils.ImageCodecs;
+import utils.JsonStreams;
+import utils.RasterPool;
+
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  The workers that compute tiles for TiledProcessing.
+ *
+ *  A tile job is a header (the operations, the name and size of the source image, and the output
+ *  tile) and the pixels of the source region the tile reads. The worker works the regions out
+ *  again from the header, so only the output tile has to be sent. Workers run as:
+ *      - threads:  in this JVM, on the source pixels themselves.
+ *      - jvm:      in child JVMs on this machine, at most one per processor, which are started on
+ *                  first use and kept until they have been idle for a minute. Each child gets an
+ *                  equal share of half the parent's maximum heap. A job is a frame on the child's
+ *                  stdin: the header length, the header JSON, the tile length and the tile in the
+ *                  raster format. The answer comes back the same way.
+ *      - remote:   in another function reached over HTTP, such as the tile entry point behind a
+ *                  function URL. The job is a JSON object with the tile in "tile_base64", and the
+ *                  answer carries the tile the same way in its "function_output". The URL is
+ *                  configured by the TILE_WORKER_URL environment variable or tile_worker_url system
+ *                  property, never by the request, so a caller cannot send tiles to an address of
+ *                  its choosing.
+ *
+ *  Run as a main class, this is the loop of a child JVM.
+ */
+public final class TileWorkers {
+
+    // Worker modes
+    static final String MODE_THREADS = "threads";
+    static final String MODE_JVM = "jvm";
+    static final String MODE_REMOTE = "remote";
+    static final List<String> MODES = List.of(MODE_THREADS, MODE_JVM, MODE_REMOTE);
+
+    // Tile job keys
+    static final String WIDTH_KEY = "width";
+    static final String HEIGHT_KEY = "height";
+    static final String OUTPUT_TILE_KEY = "output_tile";
+    static final String TILE_BASE64_KEY = "tile_base64";
+    static final String COMPUTE_MS_KEY = "compute_ms";
+    static final String FUNCTION_OUTPUT_KEY = "function_output";
+
+    /**
+     * The environment variable and system property of the URL of the remote workers.
+     */
+    public static final String WORKER_URL_ENVIRONMENT_KEY = "TILE_WORKER_URL";
+    public static final String WORKER_URL_PROPERTY_KEY = "tile_worker_url";
+
+    /**
+     * The deflate level of tiles sent over the network. Tiles to a child JVM are not compressed.
+     */
+    private static final int REMOTE_COMPRESSION_LEVEL = 1;
+
+    private static final int CONNECT_TIMEOUT_MS = 10_000;
+    private static final int READ_TIMEOUT_MS = 120_000;
+
+    /**
+     * The most child JVMs that run at once, and so the most that are kept idle.
+     */
+    private static final int MAX_CHILDREN = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+    private static final long MIN_CHILD_HEAP_MB = 64;
+    private static final long CHILD_IDLE_TIMEOUT_MS = 60_000;
+
+
+    private TileWorkers() {
+    }
+
+    /**
+     * The time the stages of a tiled run spent, summed over its tiles.
+     */
+    static final class Timings {
+        final AtomicLong splitNanos = new AtomicLong();
+        final AtomicLong computeNanos = new AtomicLong();
+        final AtomicLong stitchNanos = new AtomicLong();
+    }
+
+    /**
+     * Computes tiles.
+     */
+    interface Worker {
+
+        /**
+         * Computes one tile.
+         *
+         * @param job     The tile job header.
+         * @param source  The pixels of the source region, which are only read.
+         * @param timings The timings to add the cost of the tile to.
+         * @return The pixels of the tile, from the raster pool.
+         * @throws Exception If the tile could not be computed.
+         */
+        BufferedImage compute(Map<String, Object> job, BufferedImage source, Timings timings) throws Exception;
+    }
+
+    /**
+     * Creates the worker of a mode.
+     *
+     * @param mode The worker mode.
+     * @return The worker.
+     * @throws IllegalArgumentException If the mode is unknown, or the remote mode has no configured URL.
+     */
+    static Worker of(final String mode) {
+        switch (mode) {
+            case MODE_THREADS:
+                return TileWorkers::computeInProcess;
+            case MODE_JVM:
+                return TileWorkers::computeInChild;
+            case MODE_REMOTE:
+                final String url = workerUrl();
+                if (url == null || !(url.startsWith("http://") || url.startsWith("https://"))) {
+                    throw new IllegalArgumentException("The remote worker mode needs an http or https URL in " + WORKER_URL_ENVIRONMENT_KEY + ".");
+                }
+                return (job, source, timings) -> computeRemotely(url, job, source, timings);
+            default:
+                throw new IllegalArgumentException("Invalid worker_mode. Must be one of " + MODES + ".");
+        }
+    }
+
+    /**
+     * @return The configured URL of the remote workers, or null if there is none.
+     */
+    private static String workerUrl() {
+        final String url = System.getProperty(WORKER_URL_PROPERTY_KEY);
+        return url == null || url.isEmpty() ? System.getenv(WORKER_URL_ENVIRONMENT_KEY) : url;
+    }
+
+    /**
+     * The chain of a tile job, with its sizes and the region every kernel reads for the tile.
+     */
+    static final class Plan {
+        final List<TileKernels.Kernel> kernels;
+        final int[][] sizes;
+        final Rectangle[] regions;
+
+        private Plan(final List<TileKernels.Kernel> kernels, final int[][] sizes, final Rectangle[] regions) {
+            this.kernels = kernels;
+            this.sizes = sizes;
+            this.regions = regions;
+        }
+
+        /**
+         * Every kernel holds its input region and its output region, so the sum of the regions as
+         * int ARGB bounds what rendering the tile allocates.
+         *
+         * @return The bytes the rasters of the tile take at most.
+         */
+        long rasterBytes() {
+            long bytes = 0;
+            for (final Rectangle region : regions) {
+                bytes += 4L * region.width * region.height;
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Works out the chain and regions of a tile job from its header.
+     *
+     * @param job The tile job header.
+     * @return The plan of the job.
+     * @throws IllegalArgumentException If the job is invalid, or its tile lies outside the output.
+     */
+    @SuppressWarnings("unchecked")
+    static Plan plan(final Map<String, Object> job) {
+        if (!(job.get(TiledProcessing.OPERATIONS_KEY) instanceof List) || !(job.get(Constants.FILE_NAME_KEY) instanceof String)
+                || !(job.get(WIDTH_KEY) instanceof Integer) || !(job.get(HEIGHT_KEY) instanceof Integer)
+                || !(job.get(OUTPUT_TILE_KEY) instanceof List) || ((List<?>) job.get(OUTPUT_TILE_KEY)).size() != 4) {
+            throw new IllegalArgumentException("Invalid tile job. Must have operations, filename, width, height and output_tile.");
+        }
+        final int width = (Integer) job.get(WIDTH_KEY);
+        final int height = (Integer) job.get(HEIGHT_KEY);
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid tile job. Must have a positive width and height.");
+        }
+
+        final List<TileKernels.Kernel> kernels = TileKernels.chain((List<?>) job.get(TiledProcessing.OPERATIONS_KEY), (String) job.get(Constants.FILE_NAME_KEY));
+        final int[][] sizes = TileKernels.sizes(kernels, width, height);
+        final List<Object> tile = (List<Object>) job.get(OUTPUT_TILE_KEY);
+        for (final Object value : tile) {
+            if (!(value instanceof Number)) {
+                throw new IllegalArgumentException("Invalid output_tile. Must be [x, y, width, height].");
+            }
+        }
+        final Rectangle outputTile = new Rectangle(
+                ((Number) tile.get(0)).intValue(), ((Number) tile.get(1)).intValue(),
+                ((Number) tile.get(2)).intValue(), ((Number) tile.get(3)).intValue());
+        final int[] outputSize = sizes[kernels.size()];
+        if (outputTile.x < 0 || outputTile.y < 0 || outputTile.width <= 0 || outputTile.height <= 0
+                || (long) outputTile.x + outputTile.width > outputSize[0] || (long) outputTile.y + outputTile.height > outputSize[1]) {
+            throw new IllegalArgumentException("Invalid output_tile. Must lie within the " + outputSize[0] + "x" + outputSize[1] + " output.");
+        }
+        return new Plan(kernels, sizes, TileKernels.regions(kernels, sizes, outputTile));
+    }
+
+    /**
+     * Computes a tile job. This is the work every worker mode does in the end.
+     *
+     * @param job    The tile job header.
+     * @param source The pixels of the source region.
+     * @return The pixels of the tile, from the raster pool.
+     * @throws IllegalArgumentException If the job is invalid.
+     */
+    static BufferedImage render(final Map<String, Object> job, final BufferedImage source) {
+        final Plan plan = plan(job);
+        checkSourceSize(plan, source.getWidth(), source.getHeight());
+        return TileKernels.render(plan.kernels, plan.sizes, plan.regions, source);
+    }
+
+    /**
+     * @throws IllegalArgumentException If the source pixels do not cover the first region of the plan.
+     */
+    private static void checkSourceSize(final Plan plan, final int width, final int height) {
+        if (width != plan.regions[0].width || height != plan.regions[0].height) {
+            throw new IllegalArgumentException("Invalid tile. Expected " + plan.regions[0].width + "x" + plan.regions[0].height
+                    + " source pixels, got " + width + "x" + height + ".");
+        }
+    }
+
+    private static BufferedImage computeInProcess(final Map<String, Object> job, final BufferedImage source, final Timings timings) {
+        final long start = System.nanoTime();
+        final BufferedImage tile = render(job, source);
+        timings.computeNanos.addAndGet(System.nanoTime() - start);
+        return tile;
+    }
+
+    /**
+     * Encodes tile pixels in the raster format.
+     */
+    static byte[] encode(final BufferedImage image, final int compressionLevel) throws IOException {
+        final Map<String, Object> settings = new HashMap<>();
+        settings.put(EncoderOptions.PNG_COMPRESSION_LEVEL_KEY, compressionLevel);
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        EncoderOptions.fromRequest(settings).write(image, "raster", outputStream);
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Reads the size of tile pixels from the header of the raster format, without decoding them.
+     */
+    static Dimension dimensions(final byte[] bytes) throws IOException {
+        try (ImageInputStream stream = ImageCodecs.openInput(bytes)) {
+            final ImageReader reader = ImageCodecs.acquireReader(stream);
+            if (reader == null) {
+                throw new IOException("Invalid tile. Must be in the raster format.");
+            }
+            try {
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                ImageCodecs.releaseReader(reader);
+            }
+        }
+    }
+
+    /**
+     * Decodes tile pixels from the raster format.
+     */
+    static BufferedImage decode(final byte[] bytes) throws IOException {
+        final BufferedImage image = Constants.readImage(bytes);
+        if (image == null) {
+            throw new IOException("Invalid tile. Must be in the raster format.");
+        }
+        return image;
+    }
+
+
+    // ---------------------------------------------------------------- Child JVMs
+
+    /**
+     * The child JVMs that are not computing a tile right now.
+     */
+    private static final ConcurrentLinkedQueue<Child> IDLE_CHILDREN = new ConcurrentLinkedQueue<>();
+
+    /**
+     * A slot for every child JVM that may compute a tile at once.
+     */
+    private static final Semaphore CHILD_SLOTS = new Semaphore(MAX_CHILDREN);
+
+    /**
+     * A child JVM running the loop in main.
+     */
+    private static final class Child {
+        private final Process process;
+        private final DataOutputStream input;
+        private final DataInputStream output;
+        private volatile long idleSince;
+
+        private Child() throws IOException {
+            final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            final long heapMb = Math.max(MIN_CHILD_HEAP_MB, Runtime.getRuntime().maxMemory() / 2 / MAX_CHILDREN >> 20);
+            process = new ProcessBuilder(java, "-Xmx" + heapMb + "m", "-cp", System.getProperty("java.class.path"), TileWorkers.class.getName())
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            input = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            output = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+        }
+
+        /**
+         * Ends the child. Closing its stdin ends its loop, and destroying it ends a child that is stuck.
+         */
+        private void close() {
+            try {
+                input.close();
+            } catch (final IOException e) {
+                // The child has gone already
+            }
+            process.destroy();
+        }
+    }
+
+    /**
+     * Ends the child JVMs that have been idle for longer than the idle timeout. Started with the first child.
+     */
+    private static ScheduledExecutorService reaper;
+
+    private static synchronized void startReaper() {
+        if (reaper != null) {
+            return;
+        }
+        reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "tile-child-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleWithFixedDelay(() -> {
+            final long now = System.currentTimeMillis();
+            for (final Child child : IDLE_CHILDREN) {
+                if (now - child.idleSince > CHILD_IDLE_TIMEOUT_MS && IDLE_CHILDREN.remove(child)) {
+                    child.close();
+                }
+            }
+        }, CHILD_IDLE_TIMEOUT_MS, CHILD_IDLE_TIMEOUT_MS / 4, TimeUnit.MILLISECONDS);
+    }
+
+    private static BufferedImage computeInChild(final Map<String, Object> job, final BufferedImage source, final Timings timings) throws IOException {
+        long start = System.nanoTime();
+        final byte[] header = toJson(job);
+        final byte[] tile = encode(source, 0);
+        timings.splitNanos.addAndGet(System.nanoTime() - start);
+
+        try {
+            CHILD_SLOTS.acquire();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a child JVM", e);
+        }
+        final Map<String, Object> answer;
+        final byte[] answerTile;
+        try {
+            Child child = IDLE_CHILDREN.poll();
+            while (child != null && !child.process.isAlive()) {
+                child = IDLE_CHILDREN.poll();
+            }
+            if (child == null) {
+                startReaper();
+                child = new Child();
+            }
+            try {
+                writeFrame(child.input, header, tile);
+                answer = JsonStreams.readRequest(new ByteArrayInputStream(readBlock(child.output)));
+                answerTile = readBlock(child.output);
+            } catch (final IOException e) {
+                child.close();
+                throw e;
+            }
+            child.idleSince = System.currentTimeMillis();
+            if (IDLE_CHILDREN.size() < MAX_CHILDREN) {
+                IDLE_CHILDREN.offer(child);
+            } else {
+                child.close();
+            }
+        } finally {
+            CHILD_SLOTS.release();
+        }
+
+        if (answer.containsKey(Constants.ERROR_KEY)) {
+            throw new IllegalArgumentException(String.valueOf(answer.get(Constants.ERROR_KEY)));
+        }
+        timings.computeNanos.addAndGet((long) (((Number) answer.get(COMPUTE_MS_KEY)).doubleValue() * 1e6));
+        start = System.nanoTime();
+        final BufferedImage result = decode(answerTile);
+        timings.stitchNanos.addAndGet(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * The loop of a child JVM: reads tile jobs from stdin until it closes, and answers each on stdout.
+     * Anything the functions print goes to stderr, so it cannot corrupt the answers.
+     *
+     * @param args Unused.
+     * @throws IOException If stdin or stdout fails.
+     */
+    public static void main(final String[] args) throws IOException {
+        final DataInputStream jobs = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+        final DataOutputStream answers = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.err), true));
+
+        while (true) {
+            final byte[] header;
+            try {
+                header = readBlock(jobs);
+            } catch (final EOFException e) {
+                return;
+            }
+            final byte[] tile = readBlock(jobs);
+
+            final HashMap<String, Object> answer = new HashMap<>();
+            byte[] answerTile = new byte[0];
+            try {
+                final long start = System.nanoTime();
+                final BufferedImage source = decode(tile);
+                final BufferedImage result = render(JsonStreams.readRequest(new ByteArrayInputStream(header)), source);
+                answer.put(COMPUTE_MS_KEY, (System.nanoTime() - start) / 1e6);
+                RasterPool.release(source);
+                answerTile = encode(result, 0);
+                RasterPool.release(result);
+            } catch (final Exception e) {
+                answer.put(Constants.ERROR_KEY, e.toString());
+            }
+            writeFrame(answers, toJson(answer), answerTile);
+        }
+    }
+
+    private static void writeFrame(final DataOutputStream stream, final byte[] header, final byte[] tile) throws IOException {
+        stream.writeInt(header.length);
+        stream.write(header);
+        stream.writeInt(tile.length);
+        stream.write(tile);
+        stream.flush();
+    }
+
+    private static byte[] readBlock(final DataInputStream stream) throws IOException {
+        final byte[] block = new byte[stream.readInt()];
+        stream.readFully(block);
+        return block;
+    }
+
+    private static byte[] toJson(final Map<String, ?> object) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        JsonStreams.writeResponse(object, outputStream);
+        return outputStream.toByteArray();
+    }
+
+
+    // ---------------------------------------------------------------- Remote workers
+
+    @SuppressWarnings("unchecked")
+    private static BufferedImage computeRemotely(final String url,
+                                                 final Map<String, Object> job,
+                                                 final BufferedImage source,
+                                                 final Timings timings) throws IOException {
+        long start = System.nanoTime();
+        final Map<String, Object> request = new HashMap<>(job);
+        request.put(TILE_BASE64_KEY, Base64.getEncoder().encodeToString(encode(source, REMOTE_COMPRESSION_LEVEL)));
+        final byte[] body = toJson(request);
+        timings.splitNanos.addAndGet(System.nanoTime() - start);
+
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(body);
+        }
+
+        final int status = connection.getResponseCode();
+        Map<String, Object> answer;
+        try (InputStream inputStream = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (inputStream == null) {
+                throw new IOException("Remote tile worker answered HTTP " + status + ".");
+            }
+            if (status >= 400) {
+                throw new IOException("Remote tile worker answered HTTP " + status + ": "
+                        + new String(inputStream.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            answer = JsonStreams.readRequest(inputStream);
+        } finally {
+            connection.disconnect();
+        }
+        // The tile entry point answers with its metrics, and the tile in the function output
+        if (answer.get(FUNCTION_OUTPUT_KEY) instanceof Map) {
+            answer = (Map<String, Object>) answer.get(FUNCTION_OUTPUT_KEY);
+        }
+        if (answer.containsKey(Constants.ERROR_KEY)) {
+            throw new IllegalArgumentException(String.valueOf(answer.get(Constants.ERROR_KEY)));
+        }
+        if (!(answer.get(TILE_BASE64_KEY) instanceof String)) {
+            throw new IOException("Remote tile worker answered without a tile.");
+        }
+
+        timings.computeNanos.addAndGet((long) (((Number) answer.getOrDefault(COMPUTE_MS_KEY, 0)).doubleValue() * 1e6));
+        start = System.nanoTime();
+        final BufferedImage result = decode(Base64.getDecoder().decode((String) answer.get(TILE_BASE64_KEY)));
+        timings.stitchNanos.addAndGet(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Computes the tile job of a remote worker request. A request through a function URL carries the
+     * job as its "body", which is base64 encoded when "isBase64Encoded" is true.
+     *
+     * @param request The tile job, with the tile in "tile_base64", or a function URL event.
+     * @return The tile in "tile_base64" and the time it took in "compute_ms", or an error object.
+     */
+    static HashMap<String, Object> handleRemoteJob(final Map<String, Object> request) {
+        try {
+            Map<String, Object> job = request;
+            if (request.get("body") instanceof String) {
+                final String body = (String) request.get("body");
+                final byte[] json = Boolean.TRUE.equals(request.get("isBase64Encoded"))
+                        ? Base64.getDecoder().decode(body)
+                        : body.getBytes(StandardCharsets.UTF_8);
+                job = JsonStreams.readRequest(new ByteArrayInputStream(json));
+            }
+            if (!(job.get(TILE_BASE64_KEY) instanceof String)) {
+                return Constants.getErrorObject("Missing request parameters: " + TILE_BASE64_KEY);
+            }
+
+            // The header of the job and the header of its tile decide every raster the job allocates,
+            // so both are checked against the heap before any pixels are decoded
+            final Plan plan = plan(job);
+            final byte[] tile = Base64.getMimeDecoder().decode((String) job.get(TILE_BASE64_KEY));
+            final Dimension tileSize = dimensions(tile);
+            checkSourceSize(plan, tileSize.width, tileSize.height);
+            final String rejection = ImageAdmission.checkAllocation(tileSize.width, tileSize.height, plan.rasterBytes());
+            if (rejection != null) {
+                return Constants.getErrorObject(rejection);
+            }
+
+            final long start = System.nanoTime();
+            final BufferedImage source = decode(tile);
+            final BufferedImage result = TileKernels.render(plan.kernels, plan.sizes, plan.regions, source);
+            final double computeMs = (System.nanoTime() - start) / 1e6;
+            RasterPool.release(source);
+
+            final HashMap<String, Object> answer = new HashMap<>();
+            answer.put(TILE_BASE64_KEY, Base64.getEncoder().encodeToString(encode(result, REMOTE_COMPRESSION_LEVEL)));
+            answer.put(COMPUTE_MS_KEY, computeMs);
+            RasterPool.release(result);
+            return answer;
+
+        } catch (final Exception e) {
+            return Constants.getErrorObject(e.toString());
+        }
+    }
+
+}
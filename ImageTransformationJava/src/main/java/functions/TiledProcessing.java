@@ -0,0 +1,337 @@
+package functions;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import utils.Constants;
+import utils.EncoderOptions;
+import utils.FileValidator;
+import utils.ImageAdmission;
+import utils.ImageCodecs;
+import utils.RasterPool;
+import utils.RasterTypes;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static utils.Constants.BUCKET_KEY;
+import static utils.Constants.FILE_NAME_KEY;
+import static utils.Constants.GET_DOWNLOAD_KEY;
+import static utils.Constants.IMAGE_URL_EXPIRATION_SECONDS;
+import static utils.Constants.IMAGE_URL_EXPIRES_IN;
+import static utils.Constants.IMAGE_URL_KEY;
+import static utils.Constants.SUCCESS_KEY;
+import static utils.Constants.TILE_COMPUTE_MS_KEY;
+import static utils.Constants.TILE_SPLIT_MS_KEY;
+import static utils.Constants.TILE_STITCH_MS_KEY;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Runs a linear list of operations over a very large image as a scatter-gather of tiles.
+ *
+ *  The output is cut into tiles of "tile_size" pixels. Every tile reads the source region its
+ *  operations need, which overlaps its neighbours by the support of the operations (see
+ *  TileKernels), and the tiles are computed by "tile_workers" workers at once (see TileWorkers for
+ *  the "worker_mode"s). The finished tiles are stitched into the output, which is encoded and
+ *  uploaded as "tiled_<file name>".
+ *
+ *  The source is never decoded whole. Each row of tiles decodes only the band of the source its
+ *  tiles read, as a source region of the decoder, while the workers compute the row before it, so
+ *  at most two bands are held next to the output.
+ *
+ *  The stage metrics are the time spent decoding the bands and cutting them into tile jobs
+ *  (tile_split_ms), computing the tiles, summed over the workers (tile_compute_ms), and putting
+ *  the tiles back together (tile_stitch_ms). The wall time of the scatter-gather is reported as
+ *  tile_wall_ms.
+ */
+public class TiledProcessing {
+
+    // Request Body Keys
+    static final String OPERATIONS_KEY = "operations";
+    static final String TILE_SIZE_KEY = "tile_size";
+    static final String WORKERS_KEY = "tile_workers";
+    static final String WORKER_MODE_KEY = "worker_mode";
+
+    private static final int DEFAULT_TILE_SIZE = 1024;
+    private static final int MIN_TILE_SIZE = 64;
+    private static final int MAX_WORKERS = 64;
+
+
+    private TiledProcessing() {
+    }
+
+    /**
+     * Tiled function: Execute a list of transformations on a very large image, tile by tile.
+     *
+     * @param request The image arguments.
+     * @param context The AWS Lambda context.
+     * @return A response object.
+     */
+    @SuppressWarnings("unchecked")
+    public static HashMap<String, Object> handleRequest(final HashMap<String, Object> request, final Context context) {
+        final HashMap<String, Object> inspector = new HashMap<>();
+
+        // Validate input
+        final String validateMessage = Constants.validateRequestMap(request, BUCKET_KEY, FILE_NAME_KEY, OPERATIONS_KEY);
+        if (validateMessage != null) {
+            return Constants.getErrorObject(validateMessage);
+        }
+
+        ExecutorService pool = null;
+        ImageInputStream stream = null;
+        ImageReader reader = null;
+        try {
+            final String bucketName = (String) request.get(BUCKET_KEY);
+            final String fileName = (String) request.get(FILE_NAME_KEY);
+            final String outputFileName = Constants.getOutputFileName("tiled_", fileName, request);
+            if (!(request.get(OPERATIONS_KEY) instanceof List)) {
+                return Constants.getErrorObject("Invalid operations. Must be a list of [name, arguments].");
+            }
+            final List<Object> operations = (List<Object>) request.get(OPERATIONS_KEY);
+            final List<TileKernels.Kernel> kernels = TileKernels.chain(operations, fileName);
+
+            final int tileSize = Constants.getIntArgument(request, TILE_SIZE_KEY, DEFAULT_TILE_SIZE);
+            if (tileSize < MIN_TILE_SIZE) {
+                return Constants.getErrorObject("Invalid tile_size. Must be at least " + MIN_TILE_SIZE + ".");
+            }
+            final int workers = Constants.getIntArgument(request, WORKERS_KEY, Runtime.getRuntime().availableProcessors());
+            if (workers < 1 || workers > MAX_WORKERS) {
+                return Constants.getErrorObject("Invalid tile_workers. Must be between 1 and " + MAX_WORKERS + ".");
+            }
+            final String mode = request.getOrDefault(WORKER_MODE_KEY, TileWorkers.MODE_THREADS).toString().toLowerCase();
+            final TileWorkers.Worker worker = TileWorkers.of(mode);
+
+            // Fetch the encoded image. Only its header is read here, and its pixels are decoded band by band below
+            final byte[] encoded = Constants.getBytesFromS3AndRecordLatency(bucketName, fileName, inspector, request);
+            if (encoded == null) {
+                return Constants.getErrorObject("Could not access image from S3.");
+            }
+            stream = ImageCodecs.openInput(encoded);
+            reader = ImageCodecs.acquireReader(stream);
+            if (reader == null) {
+                return Constants.getErrorObject("Could not decode image.");
+            }
+            final int sourceWidth = reader.getWidth(0);
+            final int sourceHeight = reader.getHeight(0);
+
+            // Split: cut the output into rows of tiles, and work out the source band each row reads
+            final TileWorkers.Timings timings = new TileWorkers.Timings();
+            final long splitStart = System.nanoTime();
+            final int[][] sizes = TileKernels.sizes(kernels, sourceWidth, sourceHeight);
+            final int outputWidth = sizes[kernels.size()][0];
+            final int outputHeight = sizes[kernels.size()][1];
+            final List<List<Rectangle>> rows = new ArrayList<>();
+            final List<Rectangle> bands = new ArrayList<>();
+            int tileCount = 0;
+            long largestBand = 0;
+            for (int y = 0; y < outputHeight; y += tileSize) {
+                final List<Rectangle> row = new ArrayList<>();
+                Rectangle band = null;
+                for (int x = 0; x < outputWidth; x += tileSize) {
+                    final Rectangle tile = new Rectangle(x, y, Math.min(tileSize, outputWidth - x), Math.min(tileSize, outputHeight - y));
+                    final Rectangle region = TileKernels.regions(kernels, sizes, tile)[0];
+                    band = band == null ? region : band.union(region);
+                    row.add(tile);
+                }
+                rows.add(row);
+                bands.add(band);
+                tileCount += row.size();
+                largestBand = Math.max(largestBand, (long) band.width * band.height);
+            }
+            timings.splitNanos.addAndGet(System.nanoTime() - splitStart);
+
+            // The output is held whole, next to the band being computed and the band being decoded
+            final String rejection = ImageAdmission.checkAllocation(sourceWidth, sourceHeight,
+                    4L * ((long) outputWidth * outputHeight + 2 * largestBand));
+            if (rejection != null) {
+                return Constants.getErrorObject(rejection);
+            }
+
+            // Scatter the tiles over the workers, and stitch each into the output as it comes back
+            final Stitcher stitcher = new Stitcher(outputWidth, outputHeight);
+            final int threads = Math.min(workers, tileCount);
+            pool = Executors.newFixedThreadPool(threads, runnable -> {
+                final Thread thread = new Thread(runnable, "tile-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+            final long scatterStart = System.nanoTime();
+            final List<CompletableFuture<Void>> started = new ArrayList<>();
+            List<CompletableFuture<Void>> previousRow = new ArrayList<>();
+            BufferedImage previousBand = null;
+            BufferedImage currentBand = null;
+            try {
+                for (int i = 0; i < rows.size(); i++) {
+                    // Decode the band of this row while the workers compute the row before it
+                    final long decodeStart = System.nanoTime();
+                    final Rectangle bandRegion = bands.get(i);
+                    final ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceRegion(bandRegion);
+                    final BufferedImage band = RasterTypes.toFastType(reader.read(0, param));
+                    currentBand = band;
+                    timings.splitNanos.addAndGet(System.nanoTime() - decodeStart);
+
+                    final List<CompletableFuture<Void>> row = new ArrayList<>();
+                    for (final Rectangle tile : rows.get(i)) {
+                        row.add(CompletableFuture.runAsync(() -> {
+                            long start = System.nanoTime();
+                            final Rectangle region = TileKernels.regions(kernels, sizes, tile)[0];
+                            final BufferedImage sourceTile = band.getSubimage(region.x - bandRegion.x, region.y - bandRegion.y, region.width, region.height);
+                            final Map<String, Object> job = new HashMap<>();
+                            job.put(OPERATIONS_KEY, operations);
+                            job.put(FILE_NAME_KEY, fileName);
+                            job.put(TileWorkers.WIDTH_KEY, sourceWidth);
+                            job.put(TileWorkers.HEIGHT_KEY, sourceHeight);
+                            job.put(TileWorkers.OUTPUT_TILE_KEY, List.of(tile.x, tile.y, tile.width, tile.height));
+                            timings.splitNanos.addAndGet(System.nanoTime() - start);
+
+                            final BufferedImage result;
+                            try {
+                                result = worker.compute(job, sourceTile, timings);
+                            } catch (final RuntimeException e) {
+                                throw e;
+                            } catch (final Exception e) {
+                                throw new CompletionException(e);
+                            }
+
+                            start = System.nanoTime();
+                            stitcher.stitch(tile, result);
+                            RasterPool.release(result);
+                            timings.stitchNanos.addAndGet(System.nanoTime() - start);
+                        }, pool));
+                    }
+                    started.addAll(row);
+
+                    CompletableFuture.allOf(previousRow.toArray(new CompletableFuture<?>[0])).join();
+                    RasterPool.release(previousBand);
+                    previousRow = row;
+                    previousBand = band;
+                    currentBand = null;
+                }
+                CompletableFuture.allOf(previousRow.toArray(new CompletableFuture<?>[0])).join();
+            } catch (final CompletionException e) {
+                // The tiles still running read their bands and write the output, so they settle before those go back to the pool
+                CompletableFuture.allOf(started.toArray(new CompletableFuture<?>[0])).exceptionally(error -> null).join();
+                stitcher.release();
+                // A rejected operation argument is already reported with its exception type by the batch function
+                final Throwable cause = e.getCause();
+                return Constants.getErrorObject("Tile failed: " + (cause instanceof IllegalArgumentException ? cause.getMessage() : cause));
+            } finally {
+                // A band that failed to decode leaves the tiles of the row before it still running
+                CompletableFuture.allOf(started.toArray(new CompletableFuture<?>[0])).exceptionally(error -> null).join();
+                RasterPool.release(previousBand);
+                RasterPool.release(currentBand);
+            }
+            final long wallNanos = System.nanoTime() - scatterStart;
+
+            // Save the stitched image to S3
+            final BufferedImage output = stitcher.output;
+            final boolean successfulWriteToS3 = Constants.saveImageToS3(bucketName, outputFileName, FileValidator.getFileExtension(outputFileName),
+                    output, EncoderOptions.fromRequest(request), inspector, request);
+            RasterPool.release(output);
+            if (!successfulWriteToS3) {
+                return Constants.getErrorObject("Failed to save image to S3");
+            }
+
+            inspector.put(SUCCESS_KEY, "Successfully processed image in tiles.");
+            inspector.put(TILE_SPLIT_MS_KEY, timings.splitNanos.get() / 1e6);
+            inspector.put(TILE_COMPUTE_MS_KEY, timings.computeNanos.get() / 1e6);
+            inspector.put(TILE_STITCH_MS_KEY, timings.stitchNanos.get() / 1e6);
+            inspector.put("tile_wall_ms", wallNanos / 1e6);
+            inspector.put("tile_count", tileCount);
+            inspector.put(TILE_SIZE_KEY, tileSize);
+            inspector.put(WORKERS_KEY, threads);
+            inspector.put(WORKER_MODE_KEY, mode);
+            inspector.put("output_width", outputWidth);
+            inspector.put("output_height", outputHeight);
+
+            if ((boolean) request.get(GET_DOWNLOAD_KEY)) {
+                inspector.put(IMAGE_URL_KEY, Constants.getDownloadableImageURL(bucketName, outputFileName));
+                inspector.put(IMAGE_URL_EXPIRES_IN, IMAGE_URL_EXPIRATION_SECONDS);
+            }
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Constants.getErrorObject(e.toString());
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            if (reader != null) {
+                ImageCodecs.releaseReader(reader);
+            }
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (final IOException e) {
+                    // An in-memory stream has nothing to release
+                }
+            }
+        }
+
+        return inspector;
+    }
+
+    /**
+     * Tile worker function: Compute a single tile for a remote coordinator. This is the function
+     * behind the TILE_WORKER_URL of the remote worker mode.
+     *
+     * @param request The tile job, or a function URL event carrying it as its body.
+     * @param context The AWS Lambda context.
+     * @return The tile in "tile_base64" and the time it took in "compute_ms", or an error object.
+     */
+    public static HashMap<String, Object> handleTileRequest(final HashMap<String, Object> request, final Context context) {
+        return TileWorkers.handleRemoteJob(request);
+    }
+
+    /**
+     * Puts finished tiles into the output. The output takes the type of the first tile, so it is
+     * created when that tile arrives. Tiles cover disjoint regions, so they are copied in concurrently.
+     */
+    private static final class Stitcher {
+        private final int width;
+        private final int height;
+        private volatile BufferedImage output;
+
+        private Stitcher(final int width, final int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        private void stitch(final Rectangle tile, final BufferedImage image) {
+            BufferedImage target = output;
+            if (target == null) {
+                synchronized (this) {
+                    if (output == null) {
+                        final BufferedImage pooled = RasterPool.acquireUncleared(width, height, image.getType());
+                        output = pooled != null ? pooled : new BufferedImage(width, height, image.getType());
+                    }
+                    target = output;
+                }
+            }
+            if (target.getType() != image.getType()) {
+                throw new IllegalStateException("Tile at " + tile.x + "," + tile.y + " has a different type than the output.");
+            }
+            target.getRaster().setRect(tile.x, tile.y, image.getRaster());
+        }
+
+        private void release() {
+            if (output != null) {
+                RasterPool.release(output);
+            }
+        }
+    }
+
+}
@@ -1,19 +1,38 @@
 package lambda;
 
 import com.amazonaws.services.lambda.runtime.Context;
+import functions.BulkProcessing;
+import functions.EventProcessing;
 import functions.F1ImageDetails;
 import functions.F2ImageRotation;
 import functions.F3ImageResize;
 import functions.F4ImageGrayscale;
 import functions.F5ImageBrightness;
 import functions.F6ImageTransform;
+import functions.F7ImagePyramid;
+import functions.F8ImageBlur;
+import functions.F9ImageSharpen;
 import functions.ImageBatchProcessing;
+import functions.TiledProcessing;
 import saaf.Inspector;
+import utils.ColdStart;
 import utils.Constants;
 import utils.Constants.ImageProcessFunction;
+import utils.ConcurrencyLimiter;
 import utils.FileValidator;
+import utils.ImageCodecs;
+import utils.ImageFetches;
+import utils.InlinePayloads;
+import utils.JsonStreams;
+import utils.JvmAccounting;
+import utils.Manifest;
+import utils.RasterPool;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.HashMap;
+import java.util.Set;
 
 /***
  *  TCSS 462 Image Transformation
@@ -23,22 +42,64 @@ import java.util.HashMap;
  */
 public class Main {
 
+    /**
+     * Handlers that run for up to the whole invocation. They bypass the concurrency limiter, since
+     * holding a slot that long and feeding it their latency would collapse the limit for every
+     * ordinary request.
+     */
+    private static final Set<String> UNLIMITED_HANDLERS = Set.of("bulk");
+
+    /**
+     * Metrics recorded by the functions that belong with the top-level metrics.
+     */
+    private static final String[] STAGE_METRIC_KEYS = {
+            Constants.EXECUTION_PATH_KEY,
+            Constants.ESTIMATED_PEAK_MEMORY_MB_KEY,
+            Constants.ENCODE_TIME_KEY,
+            Constants.UPLOAD_LATENCY_KEY,
+            Constants.OUTPUT_BYTES_KEY,
+            Constants.ENCODER_PROFILE_KEY,
+            Constants.TILE_SPLIT_MS_KEY,
+            Constants.TILE_COMPUTE_MS_KEY,
+            Constants.TILE_STITCH_MS_KEY
+    };
+
     /***
      *  Handles the request.
      *
      *  @param request  The request parameters.
      *  @param context  AWS Lambda context.
+     *  @param handler  The name of the handler, which the concurrency limiter keeps latencies by.
      *  @param function The function to execute.
      *  @return         The function output alongside metrics.
      */
     private HashMap<String, Object> handleCall(final HashMap<String, Object> request,
                                                final Context context,
+                                               final String handler,
                                                final ImageProcessFunction function) {
+        return handleCall(request, context, handler, function, true);
+    }
 
+    /***
+     *  Handles the request.
+     *
+     *  @param request          The request parameters.
+     *  @param context          AWS Lambda context.
+     *  @param handler          The name of the handler, which the concurrency limiter keeps latencies by.
+     *  @param function         The function to execute.
+     *  @param validateFileName False for functions that take no single file, such as bulk jobs.
+     *  @return                 The function output alongside metrics.
+     */
+    private HashMap<String, Object> handleCall(final HashMap<String, Object> request,
+                                               final Context context,
+                                               final String handler,
+                                               final ImageProcessFunction function,
+                                               final boolean validateFileName) {
+        ColdStart.onHandlerEntry();
 
         // Validate file type
         final String fileName = (String) request.get(Constants.FILE_NAME_KEY);
-        if (!FileValidator.isValidFileType(fileName)) {
+        if (validateFileName && !FileValidator.isValidFileType(fileName)) {
             return Constants.getErrorObject("Unsupported file format. Only JPEG, JPG and PNG are allowed.");
         }
 
@@ -46,8 +107,14 @@ public class Main {
         final boolean returnOnlyMetrics = (boolean) request.getOrDefault(Constants.ONLY_METRICS_KEY, false);
 
         // To get a download URL, add "get_download": true to request body. Defaults to false.
+        // An inline result is only in S3, and has a URL, when the request also uploads it.
         final boolean getDownloadURL = (boolean) request.getOrDefault(Constants.GET_DOWNLOAD_KEY, false);
-        request.put(Constants.GET_DOWNLOAD_KEY, getDownloadURL);
+        request.put(Constants.GET_DOWNLOAD_KEY, getDownloadURL && InlinePayloads.shouldUpload(request));
+
+        // An inline image does not need a bucket unless its result is uploaded
+        if (InlinePayloads.isInline(request)) {
+            request.putIfAbsent(Constants.BUCKET_KEY, "");
+        }
 
         // Record function start time
         final long roundTripStart = System.currentTimeMillis();
@@ -55,68 +122,346 @@ public class Main {
         // Use Inspector for metrics collection
         final Inspector inspector = new Inspector(returnOnlyMetrics);
 
+        // Wait for a slot under the concurrency limit, or shed the request
+        ConcurrencyLimiter.Permit permit = null;
+        if (!UNLIMITED_HANDLERS.contains(handler)) {
+            try {
+                permit = ConcurrencyLimiter.SHARED.acquire(handler, request);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Constants.getErrorObject(e.toString());
+            }
+            if (permit == null) {
+                final HashMap<String, Object> rejection = Constants.getErrorObject("Too many requests in progress. Try again later.");
+                ConcurrencyLimiter.SHARED.record(rejection);
+                return rejection;
+            }
+        }
+
         // Execute function
-        final HashMap<String, Object> functionOutput = function.process(request, context);
+        final RasterPool.Stats poolStart = RasterPool.snapshot();
+        final ImageFetches.Stats fetchStart = ImageFetches.snapshot();
+        final ImageCodecs.Stats codecStart = ImageCodecs.snapshot();
+        final JvmAccounting.Snapshot jvmStart = JvmAccounting.snapshot();
+        HashMap<String, Object> functionOutput = null;
+        try {
+            functionOutput = function.process(request, context);
+        } finally {
+            jvmStart.end();
+            if (permit != null) {
+                // Errors and skipped images return before doing the work, so they are not latency samples
+                permit.release(functionOutput != null
+                        && !functionOutput.containsKey(Constants.ERROR_KEY)
+                        && !Boolean.TRUE.equals(functionOutput.get(Manifest.SKIPPED_KEY)));
+            }
+        }
+        final RasterPool.Stats poolStats = RasterPool.snapshot().since(poolStart);
+        final ImageFetches.Stats fetchStats = ImageFetches.snapshot().since(fetchStart);
+        final ImageCodecs.Stats codecStats = ImageCodecs.snapshot().since(codecStart);
 
         // Move network latency to top-level inspector and remove from function output
         inspector.addAttribute(Constants.NETWORK_LATENCY_KEY, functionOutput.get(Constants.NETWORK_LATENCY_KEY));
         functionOutput.remove(Constants.NETWORK_LATENCY_KEY);
 
+        // Move stage metrics to top-level inspector and remove from function output
+        for (final String key : STAGE_METRIC_KEYS) {
+            if (functionOutput.containsKey(key)) {
+                inspector.addAttribute(key, functionOutput.remove(key));
+            }
+        }
+
+        // Record what this invocation allocated and collected, and the peak heap and resident set size
+        final HashMap<String, Object> jvmUsage = new HashMap<>();
+        jvmStart.record(jvmUsage);
+        jvmUsage.forEach(inspector::addAttribute);
+
         // Append function output to inspector
         inspector.addAttribute("function_output", functionOutput);
 
+        // Record how much allocation the raster pool saved during this invocation
+        inspector.addAttribute(Constants.RASTER_POOL_HIT_RATE_KEY, poolStats.hitRate());
+        inspector.addAttribute(Constants.RASTER_POOL_BYTES_AVOIDED_KEY, poolStats.bytesAvoided);
+
+        // Raster bytes this invocation used in compact types, and what the same rasters would take as int ARGB
+        inspector.addAttribute(Constants.RASTER_BYTES_ACQUIRED_KEY, poolStats.bytesAcquired);
+        inspector.addAttribute(Constants.RASTER_BYTES_ACQUIRED_AS_ARGB_KEY, poolStats.argbBytesAcquired);
+
+        // Record how many fetches joined one already in flight, and the download and decode bytes that saved
+        inspector.addAttribute(Constants.COALESCED_FETCHES_KEY, fetchStats.coalesced);
+        inspector.addAttribute(Constants.COALESCED_BYTES_SAVED_KEY, fetchStats.bytesSaved);
+
+        // Record the time spent preparing decoders and encoders, and how many were reused
+        inspector.addAttribute(Constants.DECODE_SETUP_MS_KEY, codecStats.decodeSetupMs());
+        inspector.addAttribute(Constants.ENCODE_SETUP_MS_KEY, codecStats.encodeSetupMs());
+        inspector.addAttribute(Constants.CODECS_REUSED_KEY, codecStats.reused);
+
+        // Record the state of the concurrency limiter after this request
+        final HashMap<String, Object> limiterState = new HashMap<>();
+        ConcurrencyLimiter.SHARED.record(limiterState);
+        limiterState.forEach(inspector::addAttribute);
+        inspector.addAttribute(Constants.QUEUE_WAIT_MS_KEY, permit != null ? permit.getQueueWaitMs() : 0);
+
         // Inspect metrics
         inspector.inspectMetrics(roundTripStart);
 
+        // The first response of this JVM reports where its cold start went
+        final HashMap<String, Object> coldStartBreakdown = ColdStart.takeBreakdown();
+        if (coldStartBreakdown != null) {
+            inspector.addAttribute(Constants.COLD_START_BREAKDOWN_KEY, coldStartBreakdown);
+        }
+
         return inspector.finish();
     }
 
+    /***
+     *  Handles a request streamed as JSON, and streams the response back as JSON. The request is
+     *  parsed straight into the request map and the response written straight from the response
+     *  map, without the Lambda runtime serializing either.
+     *
+     *  @param inputStream  The request JSON.
+     *  @param outputStream The stream to write the response JSON to.
+     *  @param context      AWS Lambda context.
+     *  @param handler      The name of the handler, which the concurrency limiter keeps latencies by.
+     *  @param function     The function to execute.
+     *  @throws IOException If the response could not be written.
+     */
+    private void handleStream(final InputStream inputStream,
+                              final OutputStream outputStream,
+                              final Context context,
+                              final String handler,
+                              final ImageProcessFunction function) throws IOException {
+        handleStream(inputStream, outputStream, context, handler, function, true);
+    }
+
+    /***
+     *  Handles a request streamed as JSON, and streams the response back as JSON.
+     *
+     *  @param inputStream      The request JSON.
+     *  @param outputStream     The stream to write the response JSON to.
+     *  @param context          AWS Lambda context.
+     *  @param handler          The name of the handler, which the concurrency limiter keeps latencies by.
+     *  @param function         The function to execute.
+     *  @param validateFileName False for functions that take no single file, such as bulk jobs.
+     *  @throws IOException If the response could not be written.
+     */
+    private void handleStream(final InputStream inputStream,
+                              final OutputStream outputStream,
+                              final Context context,
+                              final String handler,
+                              final ImageProcessFunction function,
+                              final boolean validateFileName) throws IOException {
+        HashMap<String, Object> response;
+        try {
+            response = handleCall(JsonStreams.readRequest(inputStream), context, handler, function, validateFileName);
+        } catch (final IllegalArgumentException e) {
+            response = Constants.getErrorObject(e.getMessage());
+        }
+        JsonStreams.writeResponse(response, outputStream);
+    }
+
     /**
      * AWS Lambda entry point for Function 1.
      */
     public HashMap<String, Object> imageDetails(final HashMap<String, Object> request, final Context context) {
-        return handleCall(request, context, F1ImageDetails::handleRequest);
+        return handleCall(request, context, "details", F1ImageDetails::handleRequest);
     }
 
     /**
      * AWS Lambda entry point for Function 2.
      */
     public HashMap<String, Object> imageRotate(final HashMap<String, Object> request, final Context context) {
-        return handleCall(request, context, F2ImageRotation::handleRequest);
+        return handleCall(request, context, "rotate", F2ImageRotation::handleRequest);
     }
 
     /**
      * AWS Lambda entry point for Function 3.
      */
     public HashMap<String, Object> imageResize(final HashMap<String, Object> request, final Context context) {
-        return handleCall(request, context, F3ImageResize::handleRequest);
+        return handleCall(request, context, "resize", F3ImageResize::handleRequest);
     }
 
     /**
      * AWS Lambda entry point for Function 4.
      */
     public HashMap<String, Object> imageGrayscale(final HashMap<String, Object> request, final Context context) {
-        return handleCall(request, context, F4ImageGrayscale::handleRequest);
+        return handleCall(request, context, "grayscale", F4ImageGrayscale::handleRequest);
     }
 
     /**
      * AWS Lambda entry point for Function 5.
      */
     public HashMap<String, Object> imageBrightness(final HashMap<String, Object> request, final Context context) {
-        return handleCall(request, context, F5ImageBrightness::handleRequest);
+        return handleCall(request, context, "brightness", F5ImageBrightness::handleRequest);
     }
 
     /**
      * AWS Lambda entry point for Function 6.
      */
     public HashMap<String, Object> imageTransform(final HashMap<String, Object> request, final Context context) {
-        return handleCall(request, context, F6ImageTransform::handleRequest);
+        return handleCall(request, context, "transform", F6ImageTransform::handleRequest);
+    }
+
+    /**
+     * AWS Lambda entry point for Function 7.
+     */
+    public HashMap<String, Object> imagePyramid(final HashMap<String, Object> request, final Context context) {
+        return handleCall(request, context, "pyramid", F7ImagePyramid::handleRequest);
+    }
+
+    /**
+     * AWS Lambda entry point for Function 8.
+     */
+    public HashMap<String, Object> imageBlur(final HashMap<String, Object> request, final Context context) {
+        return handleCall(request, context, "blur", F8ImageBlur::handleRequest);
+    }
+
+    /**
+     * AWS Lambda entry point for Function 9.
+     */
+    public HashMap<String, Object> imageSharpen(final HashMap<String, Object> request, final Context context) {
+        return handleCall(request, context, "sharpen", F9ImageSharpen::handleRequest);
     }
 
     /**
      * AWS Lambda entry point for the batch pipeline.
      */
     public HashMap<String, Object> imageBatch(final HashMap<String, Object> request, final Context context) {
-        return handleCall(request, context, ImageBatchProcessing::handleRequest);
+        return handleCall(request, context, "batch", ImageBatchProcessing::handleRequest);
+    }
+
+    /**
+     * AWS Lambda entry point for bulk jobs over a prefix.
+     */
+    public HashMap<String, Object> imageBulk(final HashMap<String, Object> request, final Context context) {
+        return handleCall(request, context, "bulk", BulkProcessing::handleRequest, false);
+    }
+
+    /**
+     * AWS Lambda entry point for the tiled pipeline.
+     */
+    public HashMap<String, Object> imageTiled(final HashMap<String, Object> request, final Context context) {
+        return handleCall(request, context, "tiled", TiledProcessing::handleRequest);
+    }
+
+    /**
+     * AWS Lambda entry point for the tile workers of the tiled pipeline. A tile job names the
+     * source of its tile, not a file to read, and a function URL event carries the job in its body.
+     */
+    public HashMap<String, Object> imageTile(final HashMap<String, Object> request, final Context context) {
+        return handleCall(request, context, "tile", TiledProcessing::handleTileRequest, false);
+    }
+
+    /**
+     * AWS Lambda entry point for S3 event notifications and SQS batches of them. The response is
+     * answered as-is, without metrics, so Lambda can read its "batchItemFailures".
+     */
+    public HashMap<String, Object> imageEvents(final HashMap<String, Object> request, final Context context) {
+        ColdStart.onHandlerEntry();
+        return EventProcessing.handleRequest(request, context);
+    }
+
+    /**
+     * Streaming AWS Lambda entry point for Function 1.
+     */
+    public void imageDetailsStream(final InputStream inputStream, final OutputStream outputStream, final Context context) throws IOException {
+        handleStream(inputStream, outputStream, context, "details", F1ImageDetails::handleRequest);
+    }
+
+    /**
+     * Streaming AWS Lambda entry point for Function 2.
+     */
+    public void imageRotateStream(final InputStream inputStream, final OutputStream outputStream, final Context context) throws IOException {
+        handleStream(inputStream, outputStream, context, "rotate", F2ImageRotation::handleRequest);
+    }
+
+    /**
+     * Streaming AWS Lambda entry point for Function 3.
+     */
+    public void imageResizeStream(final InputStream inputStream, final OutputStream outputStream, final Context context) throws IOException {
+        handleStream(inputStream, outputStream, context, "resize", F3ImageResize::handleRequest);
+    }
+
+    /**
+     * Streaming AWS Lambda entry point for Function 4.
+     */
+    public void imageGrayscaleStream(final InputStream inputStream, final OutputStream outputStream, final Context context) throws IOException {
+        handleStream(inputStream, outputStream, context, "grayscale", F4ImageGrayscale::handleRequest);
+    }
+
+    /**
+     * Streaming AWS Lambda entry point for Function 5.
+     */
+    public void imageBrightnessStream(final InputStream inputStream, final OutputStream outputStream, final Context context) throws IOException {
+        handleStream(inputStream, outputStream, context, "brightness", F5ImageBrightness::handleRequest);
+    }
+
+    /**
+     * Streaming AWS Lambda entry point for Function 6.
+     */
+    public void imageTransformStream(final InputStream inputStream, final OutputStream outputStream, final Context context) throws IOException {
+        handleStream(inputStream, outputStream, context, "transform", F6ImageTransform::handleRequest);
+    }
+
+    /**
+     * Streaming AWS Lambda entry point for Function 7.
+     */
+    public void imagePyramidStream(final InputStream inputStream, final OutputStream outputStream, final Context context) throws IOException {
+        handleStream(inputStream, outputStream, context, "pyramid", F7ImagePyramid::handleRequest);
+    }
+
+    /**
+     * Streaming AWS Lambda entry point for Function 8.
+     */
+    public void imageBlurStream(final InputStream inputStream, final OutputStream outputStream, final Context context) throws IOException {
+        handleStream(inputStream, outputStream, context, "blur", F8ImageBlur::handleRequest);
+    }
+
+    /**
+     * Streaming AWS Lambda entry point for Function 9.
+     */
+    public void imageSharpenStream(final InputStream inputStream, final OutputStream outputStream, final Context context) throws IOException {
+        handleStream(inputStream, outputStream, context, "sharpen", F9ImageSharpen::handleRequest);
+    }
+
+    /**
+     * Streaming AWS Lambda entry point for the batch pipeline.
+     */
+    public void imageBatchStream(final InputStream inputStream, final OutputStream outputStream, final Context context) throws IOException {
+        handleStream(inputStream, outputStream, context, "batch", ImageBatchProcessing::handleRequest);
+    }
+
+    /**
+     * Streaming AWS Lambda entry point for bulk jobs over a prefix.
+     */
+    public void imageBulkStream(final InputStream inputStream, final OutputStream outputStream, final Context context) throws IOException {
+        handleStream(inputStream, outputStream, context, "bulk", BulkProcessing::handleRequest, false);
+    }
+
+    /**
+     * Streaming AWS Lambda entry point for the tiled pipeline.
+     */
+    public void imageTiledStream(final InputStream inputStream, final OutputStream outputStream, final Context context) throws IOException {
+        handleStream(inputStream, outputStream, context, "tiled", TiledProcessing::handleRequest);
+    }
+
+    /**
+     * Streaming AWS Lambda entry point for the tile workers of the tiled pipeline.
+     */
+    public void imageTileStream(final InputStream inputStream, final OutputStream outputStream, final Context context) throws IOException {
+        handleStream(inputStream, outputStream, context, "tile", TiledProcessing::handleTileRequest, false);
+    }
+
+    /**
+     * Streaming AWS Lambda entry point for S3 event notifications and SQS batches of them.
+     */
+    public void imageEventsStream(final InputStream inputStream, final OutputStream outputStream, final Context context) throws IOException {
+        ColdStart.onHandlerEntry();
+        HashMap<String, Object> response;
+        try {
+            response = EventProcessing.handleRequest(JsonStreams.readRequest(inputStream), context);
+        } catch (final IllegalArgumentException e) {
+            response = Constants.getErrorObject(e.getMessage());
+        }
+        JsonStreams.writeResponse(response, outputStream);
     }
 }
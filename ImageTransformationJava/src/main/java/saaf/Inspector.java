@@ -14,6 +14,7 @@ import java.util.HashMap;
 import java.util.UUID;
 
 import utils.Constants;
+import utils.CostModel;
 
 /**
  * SAAF
@@ -73,7 +74,7 @@ public class Inspector {
         // Add language (static or dynamic)
         this.addAttribute(Constants.LANGUAGE_KEY, "Java");
 
-        // Inspect memory usage
+        // Inspect system-wide memory usage; the JVM accounting keys cover what this invocation used
         this.inspectMemory();
         int totalMemory = Integer.parseInt((String) this.getAttribute("totalMemory"));
         int freeMemory = Integer.parseInt((String) this.getAttribute("freeMemory"));
@@ -94,9 +95,14 @@ public class Inspector {
         double throughput = functionRuntime > 0 ? 1000.0 / functionRuntime : 0;
         this.addAttribute(Constants.PROCESSING_THROUGHPUT_KEY, throughput);
 
-        // Estimate cost
+        // Estimate cost at the configured memory size, and split it by stage
         double cost = Constants.estimateCost(functionRuntime);
         this.addAttribute(Constants.ESTIMATED_COST_KEY, cost);
+        this.addAttribute(Constants.MEMORY_SIZE_MB_KEY, CostModel.memorySizeMb());
+        Object encodeTime = this.getAttribute(Constants.ENCODE_TIME_KEY);
+        this.addAttribute(Constants.COST_BREAKDOWN_KEY, CostModel.stageCosts(functionRuntime,
+                networkLatency != null ? networkLatency : 0,
+                encodeTime instanceof Number ? ((Number) encodeTime).longValue() : 0));
 
         // Record end time
         this.addAttribute(Constants.END_TIME_KEY, System.currentTimeMillis());
@@ -531,11 +537,47 @@ public class Inspector {
                 Constants.END_TIME_KEY,
                 Constants.FUNCTION_RUN_TIME_KEY,
                 Constants.COLD_START_KEY,
+                Constants.COLD_START_BREAKDOWN_KEY,
                 Constants.NETWORK_LATENCY_KEY,
                 Constants.PROCESSING_THROUGHPUT_KEY,
                 Constants.MEMORY_USED_MB_KEY,
                 Constants.ESTIMATED_COST_KEY,
-                Constants.LANGUAGE_KEY
+                Constants.COST_BREAKDOWN_KEY,
+                Constants.MEMORY_SIZE_MB_KEY,
+                Constants.LANGUAGE_KEY,
+                Constants.RASTER_POOL_HIT_RATE_KEY,
+                Constants.RASTER_POOL_BYTES_AVOIDED_KEY,
+                Constants.RASTER_BYTES_ACQUIRED_KEY,
+                Constants.RASTER_BYTES_ACQUIRED_AS_ARGB_KEY,
+                Constants.COALESCED_FETCHES_KEY,
+                Constants.COALESCED_BYTES_SAVED_KEY,
+                Constants.DECODE_SETUP_MS_KEY,
+                Constants.ENCODE_SETUP_MS_KEY,
+                Constants.CODECS_REUSED_KEY,
+                Constants.CONCURRENCY_LIMIT_KEY,
+                Constants.REQUESTS_IN_FLIGHT_KEY,
+                Constants.QUEUE_DEPTH_KEY,
+                Constants.QUEUE_WAIT_MS_KEY,
+                Constants.REJECTED_REQUESTS_KEY,
+                Constants.ALLOCATED_BYTES_KEY,
+                Constants.ALLOCATED_BYTES_ALL_THREADS_KEY,
+                Constants.GC_COUNT_KEY,
+                Constants.GC_TIME_MS_KEY,
+                Constants.HEAP_USED_BEFORE_MB_KEY,
+                Constants.HEAP_USED_AFTER_MB_KEY,
+                Constants.PEAK_RSS_MB_KEY,
+                Constants.PEAK_RSS_SCOPE_KEY,
+                Constants.EXECUTION_PATH_KEY,
+                Constants.ESTIMATED_PEAK_MEMORY_MB_KEY,
+                Constants.ACTUAL_PEAK_HEAP_MB_KEY,
+                Constants.ACTUAL_PEAK_HEAP_SCOPE_KEY,
+                Constants.ENCODE_TIME_KEY,
+                Constants.UPLOAD_LATENCY_KEY,
+                Constants.OUTPUT_BYTES_KEY,
+                Constants.ENCODER_PROFILE_KEY,
+                Constants.TILE_SPLIT_MS_KEY,
+                Constants.TILE_COMPUTE_MS_KEY,
+                Constants.TILE_STITCH_MS_KEY
         };
 
         for (final String key : desiredKeys) {
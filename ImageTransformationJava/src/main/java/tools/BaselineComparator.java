@@ -0,0 +1,238 @@
+package tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Compares a benchmark run against the reference numbers recorded by MeasureFunctions.
+ *
+ *  Usage: java -cp target/lambda_test-1.0-SNAPSHOT.jar [-Dsummary=comparison.csv] [-Dmin_change=0.05]
+ *         [-Dinclude_cold=false] tools.BaselineComparator [baseline] candidate
+ *
+ *  Both arguments are a CSV file or a directory of them, in the format MeasureFunctions writes: a
+ *  block per test named function_size_language, a header row, one row per call, and blank lines.
+ *  The baseline defaults to ../MeasureFunctions/tests. For every test present in both runs and
+ *  every compared metric, the comparator reports the median and p95 of each run and a bootstrap
+ *  95% confidence interval for the change in each. A change is flagged as a regression or an
+ *  improvement when the interval of the median change excludes zero and the median moved by at
+ *  least the minimum relative change. Cold starts are left out unless include_cold is set.
+ */
+public class BaselineComparator {
+
+    /**
+     * The metrics compared. Lower is better for all of them.
+     */
+    private static final String[] METRICS = {"function_runtime_ms", "memory_used_mb", "network_latency_ms"};
+
+    private static final int BOOTSTRAP_SAMPLES = 2000;
+    private static final double CONFIDENCE = 0.95;
+
+    /**
+     * A fixed seed, so the same runs always give the same summary.
+     */
+    private static final long SEED = 462;
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: tools.BaselineComparator [baseline] candidate");
+            System.exit(2);
+        }
+        final File baselinePath = new File(args.length == 2 ? args[0] : "../MeasureFunctions/tests");
+        final File candidatePath = new File(args[args.length - 1]);
+        final double minChange = Double.parseDouble(System.getProperty("min_change", "0.05"));
+        final boolean includeCold = Boolean.getBoolean("include_cold");
+
+        final Map<String, Map<String, List<Double>>> baseline = readRuns(baselinePath, includeCold);
+        final Map<String, Map<String, List<Double>>> candidate = readRuns(candidatePath, includeCold);
+
+        final File summaryFile = new File(System.getProperty("summary", "comparison_summary.csv"));
+        int regressions = 0;
+        int improvements = 0;
+        try (PrintWriter summary = new PrintWriter(summaryFile, "UTF-8")) {
+            summary.println("function,size,language,metric,baseline_n,candidate_n,baseline_median,candidate_median,"
+                    + "median_change_pct,median_ci_low,median_ci_high,baseline_p95,candidate_p95,p95_ci_low,p95_ci_high,verdict");
+            System.out.printf("%-30s %-20s %10s %10s %9s %21s %10s %10s  %s%n",
+                    "test", "metric", "base_p50", "cand_p50", "change", "95% ci", "base_p95", "cand_p95", "verdict");
+
+            final Random random = new Random(SEED);
+            for (final Map.Entry<String, Map<String, List<Double>>> test : baseline.entrySet()) {
+                final Map<String, List<Double>> candidateMetrics = candidate.get(test.getKey());
+                if (candidateMetrics == null) {
+                    continue;
+                }
+
+                for (final String metric : METRICS) {
+                    final List<Double> before = test.getValue().get(metric);
+                    final List<Double> after = candidateMetrics.get(metric);
+                    if (before == null || after == null || before.isEmpty() || after.isEmpty()) {
+                        continue;
+                    }
+
+                    final double beforeMedian = percentile(before, 0.5);
+                    final double afterMedian = percentile(after, 0.5);
+                    final double[] medianInterval = bootstrapChange(before, after, 0.5, random);
+                    final double[] p95Interval = bootstrapChange(before, after, 0.95, random);
+                    final double change = beforeMedian == 0 ? 0 : (afterMedian - beforeMedian) / beforeMedian;
+
+                    String verdict = "unchanged";
+                    if (Math.abs(change) >= minChange && (medianInterval[0] > 0 || medianInterval[1] < 0)) {
+                        verdict = change > 0 ? "REGRESSION" : "improvement";
+                    }
+                    if (verdict.equals("REGRESSION")) {
+                        regressions++;
+                    } else if (verdict.equals("improvement")) {
+                        improvements++;
+                    }
+
+                    final String[] name = splitTestName(test.getKey());
+                    summary.printf("%s,%s,%s,%s,%d,%d,%.3f,%.3f,%.2f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%s%n",
+                            name[0], name[1], name[2], metric, before.size(), after.size(), beforeMedian, afterMedian,
+                            change * 100, medianInterval[0], medianInterval[1],
+                            percentile(before, 0.95), percentile(after, 0.95), p95Interval[0], p95Interval[1], verdict);
+                    System.out.printf("%-30s %-20s %10.1f %10.1f %8.1f%% [%9.1f, %9.1f] %10.1f %10.1f  %s%n",
+                            test.getKey(), metric, beforeMedian, afterMedian, change * 100, medianInterval[0], medianInterval[1],
+                            percentile(before, 0.95), percentile(after, 0.95), verdict);
+                }
+            }
+        }
+
+        System.out.println(regressions + " regression(s), " + improvements + " improvement(s). Summary written to " + summaryFile.getPath());
+    }
+
+    /**
+     * Reads every test block of a CSV file, or of all CSV files in a directory.
+     *
+     * @param path        A CSV file or a directory.
+     * @param includeCold Whether to keep rows of cold starts.
+     * @return The values of each column, by test name and column name.
+     */
+    private static Map<String, Map<String, List<Double>>> readRuns(final File path, final boolean includeCold) throws IOException {
+        final File[] files = path.isDirectory() ? path.listFiles((dir, name) -> name.endsWith(".csv")) : new File[]{path};
+        if (files == null) {
+            throw new IOException("Could not read " + path);
+        }
+        Arrays.sort(files);
+
+        final Map<String, Map<String, List<Double>>> runs = new TreeMap<>();
+        for (final File file : files) {
+            String test = null;
+            String[] header = null;
+            for (final String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                final String[] fields = line.split(",", -1);
+                if (line.trim().isEmpty()) {
+                    test = null;
+                    header = null;
+                } else if (test == null) {
+                    test = line.trim();
+                } else if (header == null) {
+                    header = fields;
+                } else if (fields.length == header.length) {
+                    addRow(runs.computeIfAbsent(test, k -> new TreeMap<>()), header, fields, includeCold);
+                }
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Adds the numeric fields of a row to the columns of its test.
+     */
+    private static void addRow(final Map<String, List<Double>> columns,
+                               final String[] header,
+                               final String[] fields,
+                               final boolean includeCold) {
+        for (int i = 0; i < header.length; i++) {
+            if (!includeCold && header[i].equals("cold_start") && fields[i].trim().equals("1")) {
+                return;
+            }
+        }
+        for (int i = 0; i < header.length; i++) {
+            try {
+                final double value = Double.parseDouble(fields[i].trim());
+                columns.computeIfAbsent(header[i].trim(), k -> new ArrayList<>()).add(value);
+            } catch (final NumberFormatException e) {
+                // Text columns, such as the language, are not compared
+            }
+        }
+    }
+
+    /**
+     * Bootstraps a confidence interval for the change of a percentile between two samples, by
+     * resampling both with replacement.
+     *
+     * @param before   The baseline sample.
+     * @param after    The candidate sample.
+     * @param fraction The percentile, between 0 and 1.
+     * @param random   The random source.
+     * @return The lower and upper bound of the change, in the unit of the metric.
+     */
+    private static double[] bootstrapChange(final List<Double> before,
+                                            final List<Double> after,
+                                            final double fraction,
+                                            final Random random) {
+        final double[] changes = new double[BOOTSTRAP_SAMPLES];
+        for (int i = 0; i < BOOTSTRAP_SAMPLES; i++) {
+            changes[i] = percentile(resample(after, random), fraction) - percentile(resample(before, random), fraction);
+        }
+        Arrays.sort(changes);
+        final double tail = (1 - CONFIDENCE) / 2;
+        return new double[]{
+                changes[(int) Math.floor(tail * (BOOTSTRAP_SAMPLES - 1))],
+                changes[(int) Math.ceil((1 - tail) * (BOOTSTRAP_SAMPLES - 1))]
+        };
+    }
+
+    /**
+     * @return A sample of the same size drawn with replacement.
+     */
+    private static List<Double> resample(final List<Double> values, final Random random) {
+        final List<Double> sample = new ArrayList<>(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            sample.add(values.get(random.nextInt(values.size())));
+        }
+        return sample;
+    }
+
+    /**
+     * @param values   The values.
+     * @param fraction The percentile, between 0 and 1.
+     * @return The percentile, interpolated between the closest ranks.
+     */
+    private static double percentile(final List<Double> values, final double fraction) {
+        final List<Double> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        final double rank = fraction * (sorted.size() - 1);
+        final int lower = (int) Math.floor(rank);
+        final int upper = (int) Math.ceil(rank);
+        return sorted.get(lower) + (rank - lower) * (sorted.get(upper) - sorted.get(lower));
+    }
+
+    /**
+     * @param test A test name, such as rotate_medium_java.
+     * @return The function, size and language of the test.
+     */
+    private static String[] splitTestName(final String test) {
+        final String[] parts = test.split("_");
+        if (parts.length < 3) {
+            return new String[]{test, "", ""};
+        }
+        final String language = parts[parts.length - 1];
+        final String size = parts[parts.length - 2];
+        final String function = String.join("_", Arrays.asList(parts).subList(0, parts.length - 2));
+        return new String[]{function, size, language};
+    }
+
+}
@@ -0,0 +1,159 @@
+package tools;
+
+import utils.ImageCodecs;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Compares the setup cost of a decode and an encode through plain ImageIO against the pooled codecs.
+ *
+ *  Usage: java -cp target/lambda_test-1.0-SNAPSHOT.jar [-Druns=50] tools.CodecSetupBenchmark [image ...]
+ *  Setup is everything before the first pixel: opening the image stream, finding and creating the
+ *  reader or writer, and attaching the stream. Plain ImageIO does all of it per call and, with its
+ *  default settings, caches the streams on disk. The pooled codecs reuse a reader and writer per
+ *  thread over in-memory streams. Reports the median setup and total time of each, and checks
+ *  that both decode the same pixels.
+ */
+public class CodecSetupBenchmark {
+
+    public static void main(final String[] args) throws IOException {
+        final String[] paths = args.length > 0 ? args : new String[]{"../sample images/small.jpg", "../sample images/medium.jpg"};
+        final int runs = Integer.getInteger("runs", 50);
+
+        System.out.printf("%-16s %-8s %-8s %14s %14s%n", "image", "stage", "codecs", "setup_ms", "total_ms");
+        for (final String path : paths) {
+            final byte[] encoded = Files.readAllBytes(new File(path).toPath());
+            final String name = new File(path).getName();
+            final String format = name.substring(name.lastIndexOf('.') + 1);
+
+            final double[][] imageio = new double[2][runs];
+            final double[][] pooled = new double[2][runs];
+            BufferedImage expected = null;
+            BufferedImage actual = null;
+            for (int i = -1; i < runs; i++) {
+                final int slot = Math.max(i, 0);
+                ImageIO.setUseCache(true);
+                expected = decodeImageIO(encoded, imageio, slot);
+                ImageIO.setUseCache(false);
+                actual = decodePooled(encoded, pooled, slot);
+            }
+            print(name, "decode", "imageio", imageio);
+            print(name, "decode", "pooled", pooled);
+            if (!samePixels(expected, actual)) {
+                System.err.println("Decoded pixels differ for " + name);
+            }
+
+            for (int i = -1; i < runs; i++) {
+                final int slot = Math.max(i, 0);
+                ImageIO.setUseCache(true);
+                encodeImageIO(expected, format, imageio, slot);
+                ImageIO.setUseCache(false);
+                encodePooled(expected, format, pooled, slot);
+            }
+            print(name, "encode", "imageio", imageio);
+            print(name, "encode", "pooled", pooled);
+        }
+    }
+
+    private static BufferedImage decodeImageIO(final byte[] encoded, final double[][] times, final int slot) throws IOException {
+        final long start = System.nanoTime();
+        try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(encoded))) {
+            final ImageReader reader = ImageIO.getImageReaders(stream).next();
+            reader.setInput(stream, false, true);
+            times[0][slot] = (System.nanoTime() - start) / 1e6;
+            try {
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+                times[1][slot] = (System.nanoTime() - start) / 1e6;
+            }
+        }
+    }
+
+    private static BufferedImage decodePooled(final byte[] encoded, final double[][] times, final int slot) throws IOException {
+        final long start = System.nanoTime();
+        try (ImageInputStream stream = ImageCodecs.openInput(encoded)) {
+            final ImageReader reader = ImageCodecs.acquireReader(stream);
+            times[0][slot] = (System.nanoTime() - start) / 1e6;
+            try {
+                return reader.read(0);
+            } finally {
+                ImageCodecs.releaseReader(reader);
+                times[1][slot] = (System.nanoTime() - start) / 1e6;
+            }
+        }
+    }
+
+    private static void encodeImageIO(final BufferedImage image, final String format, final double[][] times, final int slot) throws IOException {
+        final long start = System.nanoTime();
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final ImageWriter writer = ImageIO.getImageWriters(ImageTypeSpecifier.createFromRenderedImage(image), format).next();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(outputStream)) {
+            writer.setOutput(stream);
+            times[0][slot] = (System.nanoTime() - start) / 1e6;
+            writer.write(null, new IIOImage(image, null, null), writer.getDefaultWriteParam());
+        } finally {
+            writer.dispose();
+        }
+        times[1][slot] = (System.nanoTime() - start) / 1e6;
+    }
+
+    private static void encodePooled(final BufferedImage image, final String format, final double[][] times, final int slot) throws IOException {
+        final long start = System.nanoTime();
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final ImageWriter writer = ImageCodecs.acquireWriter(image, format);
+        try (ImageCodecs.MemoryOutput stream = ImageCodecs.openOutput()) {
+            writer.setOutput(stream);
+            times[0][slot] = (System.nanoTime() - start) / 1e6;
+            writer.write(null, new IIOImage(image, null, null), writer.getDefaultWriteParam());
+            stream.writeTo(outputStream);
+        } finally {
+            ImageCodecs.releaseWriter(format, writer);
+        }
+        times[1][slot] = (System.nanoTime() - start) / 1e6;
+    }
+
+    /**
+     * Prints the median setup and total time of a stage.
+     */
+    private static void print(final String name, final String stage, final String codecs, final double[][] times) {
+        System.out.printf("%-16s %-8s %-8s %14.3f %14.3f%n", name, stage, codecs, median(times[0]), median(times[1]));
+    }
+
+    private static double median(final double[] values) {
+        final double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static boolean samePixels(final BufferedImage a, final BufferedImage b) {
+        if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight()) {
+            return false;
+        }
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                if (a.getRGB(x, y) != b.getRGB(x, y)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+}
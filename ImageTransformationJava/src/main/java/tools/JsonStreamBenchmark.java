@@ -0,0 +1,120 @@
+package tools;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import utils.Constants;
+import utils.JsonStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Compares the serialization cost of the map handlers against the streaming handlers.
+ *
+ *  Usage: java -cp target/lambda_test-1.0-SNAPSHOT.jar [-Druns=2000] tools.JsonStreamBenchmark
+ *
+ *  The map handlers are modelled by object binding: the request is read into a string and bound
+ *  to a map, and the response is bound back to a string and encoded. The streaming handlers parse
+ *  the request from the input stream and write the response to the output stream. Both run on a
+ *  batch request and a full response with the metrics of a batch invocation, and the median time
+ *  and the bytes allocated per invocation are reported for each.
+ */
+public class JsonStreamBenchmark {
+
+    private static final Type MAP_TYPE = new TypeToken<HashMap<String, Object>>() { }.getType();
+
+    public static void main(final String[] args) throws IOException {
+        final int runs = Integer.getInteger("runs", 2000);
+        final byte[] request = ("{\"bucketname\":\"tcss462-images\",\"filename\":\"medium.jpg\",\"return_only_metrics\":false,"
+                + "\"output_format\":\"png\",\"encoder_profile\":\"balanced\",\"operations\":[[\"rotate\",{\"rotation_angle\":90}],"
+                + "[\"resize\",{\"target_width\":640,\"target_height\":480}],[\"grayscale\",{}],[\"brightness\",{\"brightness_delta\":40}]]}")
+                .getBytes(StandardCharsets.UTF_8);
+        final HashMap<String, Object> response = sampleResponse();
+        final Gson gson = new GsonBuilder().serializeNulls().serializeSpecialFloatingPointValues().create();
+
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        System.out.printf("%-10s %12s %16s%n", "handler", "median_us", "bytes_allocated");
+        for (final String mode : new String[]{"binding", "streaming", "binding", "streaming"}) {
+            final long[] times = new long[runs];
+            long allocated = 0;
+            for (int i = 0; i < runs; i++) {
+                final long allocatedStart = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+                final long start = System.nanoTime();
+                final ByteArrayOutputStream output = new ByteArrayOutputStream(4096);
+                if (mode.equals("binding")) {
+                    final String json = new String(new ByteArrayInputStream(request).readAllBytes(), StandardCharsets.UTF_8);
+                    final HashMap<String, Object> parsed = gson.fromJson(json, MAP_TYPE);
+                    parsed.isEmpty();
+                    output.write(gson.toJson(response).getBytes(StandardCharsets.UTF_8));
+                } else {
+                    JsonStreams.readRequest(new ByteArrayInputStream(request)).isEmpty();
+                    JsonStreams.writeResponse(response, output);
+                }
+                times[i] = System.nanoTime() - start;
+                allocated += threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedStart;
+            }
+            Arrays.sort(times);
+            System.out.printf("%-10s %12.1f %16d%n", mode, times[runs / 2] / 1e3, allocated / runs);
+        }
+    }
+
+    /**
+     * @return A response shaped like the one of a batch invocation.
+     */
+    private static HashMap<String, Object> sampleResponse() {
+        final HashMap<String, Object> response = new HashMap<>();
+        final String[] metrics = {
+                Constants.START_TIME_KEY, Constants.END_TIME_KEY, Constants.FUNCTION_RUN_TIME_KEY, Constants.NETWORK_LATENCY_KEY,
+                Constants.PROCESSING_THROUGHPUT_KEY, Constants.MEMORY_USED_MB_KEY, Constants.ESTIMATED_COST_KEY,
+                Constants.MEMORY_SIZE_MB_KEY, Constants.RASTER_POOL_HIT_RATE_KEY, Constants.RASTER_POOL_BYTES_AVOIDED_KEY,
+                Constants.RASTER_BYTES_ACQUIRED_KEY, Constants.RASTER_BYTES_ACQUIRED_AS_ARGB_KEY, Constants.COALESCED_FETCHES_KEY,
+                Constants.COALESCED_BYTES_SAVED_KEY, Constants.DECODE_SETUP_MS_KEY, Constants.ENCODE_SETUP_MS_KEY,
+                Constants.CODECS_REUSED_KEY, Constants.CONCURRENCY_LIMIT_KEY, Constants.REQUESTS_IN_FLIGHT_KEY,
+                Constants.QUEUE_DEPTH_KEY, Constants.QUEUE_WAIT_MS_KEY, Constants.ALLOCATED_BYTES_KEY,
+                Constants.ALLOCATED_BYTES_ALL_THREADS_KEY, Constants.GC_COUNT_KEY, Constants.GC_TIME_MS_KEY,
+                Constants.HEAP_USED_BEFORE_MB_KEY, Constants.HEAP_USED_AFTER_MB_KEY, Constants.PEAK_RSS_MB_KEY,
+                Constants.ESTIMATED_PEAK_MEMORY_MB_KEY, Constants.ACTUAL_PEAK_HEAP_MB_KEY, Constants.ENCODE_TIME_KEY,
+                Constants.OUTPUT_BYTES_KEY
+        };
+        for (int i = 0; i < metrics.length; i++) {
+            response.put(metrics[i], i % 2 == 0 ? (Object) (1_700_000_000_000L + i) : (Object) (i * 1.25));
+        }
+        response.put(Constants.LANGUAGE_KEY, "Java");
+        response.put(Constants.COLD_START_KEY, 0);
+        response.put(Constants.EXECUTION_PATH_KEY, "in_memory");
+
+        final Map<String, Object> costs = new HashMap<>();
+        costs.put("fetch_decode", 1.2e-7);
+        costs.put("processing", 3.4e-7);
+        costs.put("encode", 0.9e-7);
+        costs.put("request", 2e-7);
+        response.put(Constants.COST_BREAKDOWN_KEY, costs);
+
+        final HashMap<String, Object> output = new HashMap<>();
+        final List<Object> steps = new ArrayList<>();
+        for (final String step : new String[]{"rotate", "resize", "grayscale", "brightness"}) {
+            final Map<String, Object> result = new HashMap<>();
+            result.put("operation", step);
+            result.put("time_ms", 12.5);
+            steps.add(result);
+        }
+        output.put("operations", steps);
+        output.put("image_url", "https://tcss462-images.s3.amazonaws.com/batch_medium.png?X-Amz-Expires=3600&X-Amz-Signature=0123456789abcdef");
+        response.put("function_output", output);
+        return response;
+    }
+
+}
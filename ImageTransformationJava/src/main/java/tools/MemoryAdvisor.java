@@ -0,0 +1,242 @@
+package tools;
+
+import functions.F1ImageDetails;
+import functions.F2ImageRotation;
+import functions.F3ImageResize;
+import functions.F4ImageGrayscale;
+import functions.F5ImageBrightness;
+import functions.F6ImageTransform;
+import utils.Constants;
+import utils.Constants.ImageBatchFunction;
+import utils.CostModel;
+import utils.EncoderOptions;
+import utils.FileValidator;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Recommends a Lambda memory size for a workload.
+ *
+ *  Usage: java -cp target/lambda_test-1.0-SNAPSHOT.jar [-Dtiers=128,512,1769] [-Dtarget_ms=1000]
+ *         [-Doperations=rotate,resize] [-Druns=5] tools.MemoryAdvisor [image ...]
+ *
+ *  Each memory tier replays the workload in a child JVM whose heap and processor count match the
+ *  tier: the heap is a fixed fraction of the memory size and the processor count is the tier's vCPU
+ *  share rounded up. A fractional vCPU share cannot be enforced locally, so the CPU time of a run
+ *  is stretched by the share instead. Tiers above the cores of this machine are measured at the
+ *  cores available. The advisor prints the p50 and p95 latency and the cost per request of each
+ *  tier, then recommends the cheapest tier whose p95 meets the latency target.
+ */
+public class MemoryAdvisor {
+
+    /**
+     * The fraction of a tier's memory given to the heap, leaving the rest to the runtime.
+     */
+    private static final double HEAP_FRACTION = 0.85;
+
+    /**
+     * The operations a workload can replay, with the arguments each one runs with.
+     */
+    static final Map<String, ImageBatchFunction> OPERATIONS = new LinkedHashMap<>();
+    private static final Map<String, Object[]> ARGUMENTS = new HashMap<>();
+
+    static {
+        OPERATIONS.put("details", F1ImageDetails::imageDetails);
+        OPERATIONS.put("rotate", F2ImageRotation::imageRotate);
+        OPERATIONS.put("resize", F3ImageResize::imageResize);
+        OPERATIONS.put("grayscale", F4ImageGrayscale::imageGrayscale);
+        OPERATIONS.put("brightness", F5ImageBrightness::imageBrightness);
+        OPERATIONS.put("transform", F6ImageTransform::imageTransform);
+        ARGUMENTS.put("rotate", new Object[]{"rotation_angle", 90});
+        ARGUMENTS.put("resize", new Object[]{"target_width", 640, "target_height", 480});
+        ARGUMENTS.put("brightness", new Object[]{"brightness_delta", 60});
+        ARGUMENTS.put("transform", new Object[]{"target_format", "png"});
+    }
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--replay")) {
+            replay(List.of(args).subList(1, args.length));
+            return;
+        }
+
+        final List<String> images = args.length > 0 ? List.of(args) : List.of("../sample images/small.jpg", "../sample images/medium.jpg");
+        final long targetMs = Long.getLong("target_ms", 1000);
+
+        System.out.printf("%8s %6s %8s %10s %10s %14s%n", "memory", "vcpus", "heap_mb", "p50_ms", "p95_ms", "usd_per_1m");
+        int recommended = -1;
+        double recommendedCost = Double.MAX_VALUE;
+        for (final String tier : System.getProperty("tiers", "128,256,512,1024,1769,3008").split(",")) {
+            final int memorySizeMb = Integer.parseInt(tier.trim());
+            final List<Double> latencies = measure(memorySizeMb, images);
+            if (latencies == null) {
+                System.out.printf("%8d %6.2f %8d %10s %10s %14s%n", memorySizeMb, CostModel.vcpus(memorySizeMb), heapMb(memorySizeMb), "-", "-", "out of memory");
+                continue;
+            }
+
+            double total = 0;
+            for (final double latency : latencies) {
+                total += CostModel.invocationCost(latency, memorySizeMb);
+            }
+            final double cost = total / latencies.size();
+            final double p95 = percentile(latencies, 0.95);
+            System.out.printf("%8d %6.2f %8d %10.1f %10.1f %14.2f%n", memorySizeMb, CostModel.vcpus(memorySizeMb),
+                    heapMb(memorySizeMb), percentile(latencies, 0.5), p95, cost * 1_000_000);
+
+            if (p95 <= targetMs && cost < recommendedCost) {
+                recommended = memorySizeMb;
+                recommendedCost = cost;
+            }
+        }
+
+        if (recommended < 0) {
+            System.out.println("No tier meets a p95 of " + targetMs + " ms.");
+        } else {
+            System.out.println("Recommended: " + recommended + " MB, the cheapest tier with a p95 under " + targetMs + " ms.");
+        }
+    }
+
+    /**
+     * Replays the workload in a child JVM sized for a memory tier.
+     *
+     * @param memorySizeMb The memory tier.
+     * @param images       The images of the workload.
+     * @return The simulated latency of each run, or null if the workload ran out of memory.
+     */
+    private static List<Double> measure(final int memorySizeMb, final List<String> images) throws IOException, InterruptedException {
+        final double vcpus = CostModel.vcpus(memorySizeMb);
+        final List<String> command = new ArrayList<>(List.of(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-Xmx" + heapMb(memorySizeMb) + "m",
+                "-XX:ActiveProcessorCount=" + (int) Math.ceil(vcpus),
+                "-Doperations=" + System.getProperty("operations", "rotate,resize,brightness"),
+                "-Druns=" + Integer.getInteger("runs", 5),
+                "-cp", System.getProperty("java.class.path"),
+                MemoryAdvisor.class.getName(), "--replay"));
+        command.addAll(images);
+
+        final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        final List<Double> latencies = new ArrayList<>();
+        boolean outOfMemory = false;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("RUN ")) {
+                    final String[] fields = line.split(" ");
+                    final double wallMs = Double.parseDouble(fields[1]);
+                    final double cpuMs = Double.parseDouble(fields[2]);
+
+                    // Below one vCPU, the CPU work of a run is spread over the tier's share of a core
+                    latencies.add(vcpus < 1 ? Math.max(wallMs, cpuMs / vcpus) : wallMs);
+                } else if (line.contains("OutOfMemoryError")) {
+                    outOfMemory = true;
+                }
+            }
+        }
+        return process.waitFor() != 0 || outOfMemory || latencies.isEmpty() ? null : latencies;
+    }
+
+    /**
+     * Runs the workload in this JVM and prints the wall time and process CPU time of each run.
+     * One untimed run per image warms up the JIT.
+     *
+     * @param images The images of the workload.
+     */
+    private static void replay(final List<String> images) throws IOException {
+        final com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        final String[] operations = System.getProperty("operations", "").split(",");
+        final int runs = Integer.getInteger("runs", 5);
+
+        for (final String path : images) {
+            final byte[] encoded = Files.readAllBytes(new File(path).toPath());
+            for (int i = -1; i < runs; i++) {
+                final long wallStart = System.nanoTime();
+                final long cpuStart = os.getProcessCpuTime();
+                runOnce(encoded, new File(path).getName(), operations);
+                if (i >= 0) {
+                    System.out.printf("RUN %.3f %.3f%n", (System.nanoTime() - wallStart) / 1e6, (os.getProcessCpuTime() - cpuStart) / 1e6);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes an image, applies the operations and encodes the result, as one invocation would.
+     */
+    private static void runOnce(final byte[] encoded, final String fileName, final String[] operations) throws IOException {
+        BufferedImage image = Constants.readImage(encoded);
+        for (final String operation : operations) {
+            image = apply(operation.trim(), image, fileName);
+        }
+
+        EncoderOptions.fromRequest(Collections.emptyMap()).write(image, FileValidator.getFileExtension(fileName), new ByteArrayOutputStream());
+    }
+
+    /**
+     * Runs one operation on an image in batch mode, with the arguments the workloads use.
+     *
+     * @param operation The operation name.
+     * @param image     The input image.
+     * @param fileName  The name the image is processed under.
+     * @return The output image, or the input if the operation does not produce one.
+     * @throws IllegalArgumentException If the operation is unknown.
+     * @throws IllegalStateException    If the operation fails.
+     */
+    static BufferedImage apply(final String operation, final BufferedImage image, final String fileName) {
+        final ImageBatchFunction function = OPERATIONS.get(operation);
+        if (function == null) {
+            throw new IllegalArgumentException("Unknown operation: " + operation);
+        }
+
+        final HashMap<String, Object> request = new HashMap<>();
+        request.put(Constants.BUCKET_KEY, "");
+        request.put(Constants.FILE_NAME_KEY, fileName);
+        final Object[] arguments = ARGUMENTS.getOrDefault(operation, new Object[0]);
+        for (int i = 0; i < arguments.length; i += 2) {
+            request.put((String) arguments[i], arguments[i + 1]);
+        }
+
+        final HashMap<String, Object> output = function.process(image, request, null);
+        if (output.containsKey(Constants.ERROR_KEY)) {
+            throw new IllegalStateException(operation + ": " + output.get(Constants.ERROR_KEY));
+        }
+        return output.get(Constants.IMAGE_FILE_KEY) instanceof BufferedImage ? (BufferedImage) output.get(Constants.IMAGE_FILE_KEY) : image;
+    }
+
+    /**
+     * @param memorySizeMb A memory tier.
+     * @return The heap size that simulates the tier.
+     */
+    static int heapMb(final int memorySizeMb) {
+        return (int) (memorySizeMb * HEAP_FRACTION);
+    }
+
+    /**
+     * @param values   The values.
+     * @param fraction The percentile, between 0 and 1.
+     * @return The nearest-rank percentile of the values.
+     */
+    static double percentile(final List<Double> values, final double fraction) {
+        final List<Double> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(Math.max(0, (int) Math.ceil(fraction * sorted.size()) - 1));
+    }
+
+}
@@ -0,0 +1,109 @@
+package tools;
+
+import utils.EncoderOptions;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Compares the JDK PNG writer against the parallel PNG encoder at 1, 2 and 4 threads.
+ *
+ *  Usage: java -cp target/lambda_test-1.0-SNAPSHOT.jar tools.PngEncoderBenchmark [image ...]
+ *  Reports the median encode time, the output size and the compression ratio against the raw
+ *  RGB(A) size, and checks that every output decodes back to the same pixels.
+ */
+public class PngEncoderBenchmark {
+
+    /**
+     * The number of timed runs per encoder. One extra untimed run warms up the JIT.
+     */
+    private static final int RUNS = 5;
+
+    /**
+     * The thread counts to benchmark the parallel encoder at, up to the number of processors.
+     */
+    private static final int[] THREAD_COUNTS = {1, 2, 4};
+
+    public static void main(final String[] args) throws IOException {
+        final String[] paths = args.length > 0 ? args : new String[]{"../sample images/small.jpg", "../sample images/medium.jpg"};
+        final int level = Integer.getInteger("level", 4);
+
+        System.out.printf("%-24s %-10s %8s %8s %12s %8s%n", "image", "encoder", "threads", "ms", "bytes", "ratio");
+        for (final String path : paths) {
+            final BufferedImage image = ImageIO.read(new File(path));
+            if (image == null) {
+                System.err.println("Could not read " + path);
+                continue;
+            }
+            final long rawBytes = (long) image.getWidth() * image.getHeight() * (image.getColorModel().hasAlpha() ? 4 : 3);
+            final String name = new File(path).getName();
+
+            final HashMap<String, Object> request = new HashMap<>();
+            request.put(EncoderOptions.PNG_COMPRESSION_LEVEL_KEY, level);
+            run(name, "imageio", 1, EncoderOptions.fromRequest(request), image, rawBytes);
+
+            for (final int threads : THREAD_COUNTS) {
+                if (threads > Runtime.getRuntime().availableProcessors()) {
+                    break;
+                }
+                run(name, "parallel", threads, EncoderOptions.parallelPng(level, threads, true), image, rawBytes);
+            }
+        }
+    }
+
+    /**
+     * Times one encoder and prints a result row.
+     */
+    private static void run(final String name,
+                            final String encoder,
+                            final int threads,
+                            final EncoderOptions options,
+                            final BufferedImage image,
+                            final long rawBytes) throws IOException {
+        final long[] times = new long[RUNS];
+        byte[] output = null;
+        for (int i = -1; i < RUNS; i++) {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            final long start = System.nanoTime();
+            options.write(image, "png", outputStream);
+            if (i >= 0) {
+                times[i] = System.nanoTime() - start;
+            }
+            output = outputStream.toByteArray();
+        }
+        Arrays.sort(times);
+
+        final BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(output));
+        final boolean lossless = decoded != null && samePixels(image, decoded);
+
+        System.out.printf("%-24s %-10s %8d %8.1f %12d %8.2f%s%n",
+                name, encoder, threads, times[RUNS / 2] / 1e6, output.length, (double) rawBytes / output.length,
+                lossless ? "" : "  MISMATCH");
+    }
+
+    private static boolean samePixels(final BufferedImage expected, final BufferedImage actual) {
+        if (expected.getWidth() != actual.getWidth() || expected.getHeight() != actual.getHeight()) {
+            return false;
+        }
+        final int width = expected.getWidth();
+        final int[] a = new int[width];
+        final int[] b = new int[width];
+        for (int y = 0; y < expected.getHeight(); y++) {
+            expected.getRGB(0, y, width, 1, a, 0, width);
+            actual.getRGB(0, y, width, 1, b, 0, width);
+            if (!Arrays.equals(a, b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
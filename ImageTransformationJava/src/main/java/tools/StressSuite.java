@@ -0,0 +1,267 @@
+package tools;
+
+import utils.Constants;
+import utils.ImageAdmission;
+import utils.JvmAccounting;
+import utils.RasterPool;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Finds where each operation stops scaling, and where it runs out of memory, per memory tier.
+ *
+ *  Usage: java -cp target/lambda_test-1.0-SNAPSHOT.jar [-Dtiers=512,1024,3008] [-Dsizes=0.1,1,10,100]
+ *         [-Doperations=rotate,resize,batch] [-Dtypes=gray,bgr,argb] [-Dprofiles=noise,gradient,photo]
+ *         [-Doutput=stress_results.csv] tools.StressSuite
+ *
+ *  Every operation runs in a child JVM with the heap of a memory tier, the same heap the memory
+ *  advisor simulates. The child generates deterministic synthetic images of increasing megapixel
+ *  counts, in each raster type and content profile, and runs the operation on each in batch mode.
+ *  "batch" runs rotate, resize, grayscale and brightness as one pipeline. For every run it records
+ *  the time, the bytes allocated and the peak heap. The first failure of a type and profile ends
+ *  its series, and is recorded as the failure point: "generate" if the input alone did not fit,
+ *  otherwise the error of the operation.
+ *
+ *  The results are written as CSV. The largest size each operation handled per tier and raster
+ *  type in every profile, with the slowest time per megapixel, is printed as the documented limit.
+ */
+public class StressSuite {
+
+    /**
+     * The raster types the images are generated in.
+     */
+    private static final Map<String, Integer> TYPES = new LinkedHashMap<>();
+
+    static {
+        TYPES.put("gray", BufferedImage.TYPE_BYTE_GRAY);
+        TYPES.put("bgr", BufferedImage.TYPE_3BYTE_BGR);
+        TYPES.put("argb", BufferedImage.TYPE_INT_ARGB);
+    }
+
+    /**
+     * The operations of the "batch" pipeline.
+     */
+    private static final String[] PIPELINE = {"rotate", "resize", "grayscale", "brightness"};
+
+    private static final String HEADER = "memory_mb,heap_mb,operation,type,profile,megapixels,status,time_ms,allocated_mb,peak_heap_mb";
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        if (args.length == 2 && args[0].equals("--run")) {
+            run(args[1]);
+            return;
+        }
+
+        final String[] tiers = System.getProperty("tiers", "512,1024,1769,3008").split(",");
+        final String[] operations = System.getProperty("operations", "details,rotate,resize,grayscale,brightness,transform,batch").split(",");
+        final File output = new File(System.getProperty("output", "stress_results.csv"));
+
+        // The largest passing size and its time per megapixel, by tier, operation, type and profile
+        final Map<String, Map<String, double[]>> limits = new LinkedHashMap<>();
+        try (PrintWriter results = new PrintWriter(output, "UTF-8")) {
+            results.println(HEADER);
+            for (final String tier : tiers) {
+                final int memorySizeMb = Integer.parseInt(tier.trim());
+                for (final String operation : operations) {
+                    for (final String row : runChild(memorySizeMb, operation.trim())) {
+                        final String line = memorySizeMb + "," + MemoryAdvisor.heapMb(memorySizeMb) + "," + row;
+                        results.println(line);
+                        System.out.println(line);
+
+                        final String[] fields = row.split(",");
+                        final double megapixels = Double.parseDouble(fields[3]);
+                        final double[] limit = limits.computeIfAbsent(memorySizeMb + " MB " + fields[0] + " " + fields[1], k -> new LinkedHashMap<>())
+                                .computeIfAbsent(fields[2], k -> new double[]{0, 0});
+                        if (fields[4].equals("ok") && megapixels >= limit[0]) {
+                            limit[0] = megapixels;
+                            limit[1] = Double.parseDouble(fields[5]) / megapixels;
+                        }
+                    }
+                }
+            }
+        }
+
+        // A documented limit has to hold for every content profile
+        System.out.printf("%n%-32s %10s %12s%n", "tier, operation and type", "max_mp", "ms_per_mp");
+        for (final Map.Entry<String, Map<String, double[]>> limit : limits.entrySet()) {
+            double maxMegapixels = Double.MAX_VALUE;
+            double msPerMegapixel = 0;
+            for (final double[] profile : limit.getValue().values()) {
+                maxMegapixels = Math.min(maxMegapixels, profile[0]);
+                msPerMegapixel = Math.max(msPerMegapixel, profile[1]);
+            }
+            System.out.printf("%-32s %10.1f %12.1f%n", limit.getKey(), maxMegapixels, msPerMegapixel);
+        }
+        System.out.println("Results written to " + output.getPath());
+    }
+
+    /**
+     * Runs an operation's series in a child JVM sized for a memory tier.
+     *
+     * @param memorySizeMb The memory tier.
+     * @param operation    The operation.
+     * @return The result rows of the child, without the tier columns.
+     */
+    private static List<String> runChild(final int memorySizeMb, final String operation) throws IOException, InterruptedException {
+        final List<String> command = List.of(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-Xmx" + MemoryAdvisor.heapMb(memorySizeMb) + "m",
+                "-Dsizes=" + System.getProperty("sizes", "0.1,0.5,1,2,5,10,25,50,100,200"),
+                "-Dtypes=" + System.getProperty("types", String.join(",", TYPES.keySet())),
+                "-Dprofiles=" + System.getProperty("profiles", "noise,gradient,photo"),
+                "-cp", System.getProperty("java.class.path"),
+                StressSuite.class.getName(), "--run", operation);
+
+        final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        final List<String> rows = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("ROW ")) {
+                    rows.add(line.substring(4));
+                }
+            }
+        }
+        process.waitFor();
+        return rows;
+    }
+
+    /**
+     * Runs the series of one operation in this JVM, printing a row per run.
+     *
+     * @param operation The operation.
+     */
+    private static void run(final String operation) {
+        final String[] sizes = System.getProperty("sizes").split(",");
+        for (final String type : System.getProperty("types").split(",")) {
+            for (final String profile : System.getProperty("profiles").split(",")) {
+                for (final String size : sizes) {
+                    final double megapixels = Double.parseDouble(size.trim());
+                    final String status = runOnce(operation, type.trim(), profile.trim(), megapixels);
+                    if (!status.startsWith("ok")) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates one image and runs the operation on it.
+     *
+     * @return The status of the run: "ok", or the failure point.
+     */
+    private static String runOnce(final String operation, final String type, final String profile, final double megapixels) {
+        final String prefix = String.join(",", operation, type, profile, String.valueOf(megapixels));
+        BufferedImage image;
+        try {
+            image = generate(TYPES.get(type), profile, megapixels);
+        } catch (final OutOfMemoryError e) {
+            return print(prefix + ",generate,,,");
+        }
+
+        System.gc();
+        final JvmAccounting.Snapshot start = JvmAccounting.snapshot();
+        final long startNanos = System.nanoTime();
+        String status = "ok";
+        try {
+            if (operation.equals("batch")) {
+                for (final String step : PIPELINE) {
+                    final BufferedImage next = MemoryAdvisor.apply(step, image, "stress.png");
+                    if (next != image) {
+                        RasterPool.release(image);
+                    }
+                    image = next;
+                }
+            } else {
+                image = MemoryAdvisor.apply(operation, image, "stress.png");
+            }
+        } catch (final OutOfMemoryError e) {
+            status = "out_of_memory";
+        } catch (final RuntimeException e) {
+            status = e.getClass().getSimpleName();
+        }
+        final double timeMs = (System.nanoTime() - startNanos) / 1e6;
+        image = null;
+
+        final Map<String, Object> usage = new HashMap<>();
+        start.record(usage);
+        final Object allocated = usage.get(Constants.ALLOCATED_BYTES_ALL_THREADS_KEY);
+        return print(String.format("%s,%s,%.1f,%s,%d", prefix, status, timeMs,
+                allocated == null ? "" : String.valueOf(ImageAdmission.toMegabytes((Long) allocated)),
+                ImageAdmission.toMegabytes(ImageAdmission.peakHeapBytes())));
+    }
+
+    /**
+     * Prints a result row for the parent process.
+     *
+     * @param row The row.
+     * @return The status of the row.
+     */
+    private static String print(final String row) {
+        System.out.println("ROW " + row);
+        return row.split(",")[4];
+    }
+
+    /**
+     * Generates a deterministic 4:3 image.
+     *
+     * @param type       The BufferedImage type.
+     * @param profile    "noise" for uniform random pixels, "gradient" for smooth ramps, or "photo" for
+     *                   smooth shapes with mild grain, which compresses like a photograph.
+     * @param megapixels The size of the image.
+     * @return The image.
+     */
+    static BufferedImage generate(final int type, final String profile, final double megapixels) {
+        final int width = Math.max(1, (int) Math.round(Math.sqrt(megapixels * 1e6 * 4 / 3)));
+        final int height = Math.max(1, (int) Math.round(megapixels * 1e6 / width));
+        final BufferedImage image = new BufferedImage(width, height, type);
+        final Random random = new Random(462);
+        final int[] row = new int[width];
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                switch (profile) {
+                    case "noise":
+                        row[x] = random.nextInt();
+                        break;
+                    case "gradient":
+                        row[x] = 0xFF000000 | (255 * x / width) << 16 | (255 * y / height) << 8 | (255 * (x + y) / (width + height));
+                        break;
+                    case "photo":
+                        final double u = (double) x / width;
+                        final double v = (double) y / height;
+                        final int grain = random.nextInt(9) - 4;
+                        final int red = clamp((int) (128 + 90 * Math.sin(6 * u + 2 * v)) + grain);
+                        final int green = clamp((int) (128 + 80 * Math.cos(5 * v - 3 * u)) + grain);
+                        final int blue = clamp((int) (110 + 70 * Math.sin(4 * (u + v))) + grain);
+                        row[x] = 0xFF000000 | red << 16 | green << 8 | blue;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown profile: " + profile);
+                }
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    private static int clamp(final int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+}
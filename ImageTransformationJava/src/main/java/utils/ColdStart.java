@@ -0,0 +1,108 @@
+package utils;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Breaks the first invocation of a JVM down into the phases that make up its cold start.
+ *
+ *  The JVM state is captured when the handler is first entered, and the one-time initializations
+ *  of the first invocation time themselves: building the first S3 client, scanning the ImageIO
+ *  plugin registry, and the first ImageIO reader lookup. The breakdown is reported once, on the first response.
+ *
+ *  The JVM exposes class loading as counts only, so class loading is measured as the classes
+ *  loaded before the handler and during the first invocation, next to the JIT compile time.
+ */
+public final class ColdStart {
+
+    public static final String JVM_UPTIME_AT_HANDLER_KEY = "jvm_uptime_at_handler_ms";
+    public static final String CLASSES_LOADED_AT_HANDLER_KEY = "classes_loaded_at_handler";
+    public static final String CLASSES_LOADED_FIRST_INVOCATION_KEY = "classes_loaded_first_invocation";
+    public static final String JIT_TIME_AT_HANDLER_KEY = "jit_time_at_handler_ms";
+    public static final String JIT_TIME_AT_FIRST_RESPONSE_KEY = "jit_time_at_first_response_ms";
+    public static final String S3_CLIENT_BUILD_KEY = "s3_client_build_ms";
+    public static final String IMAGEIO_REGISTRY_KEY = "imageio_registry_ms";
+    public static final String IMAGEIO_LOOKUP_KEY = "imageio_lookup_ms";
+
+    /**
+     * The phases recorded so far.
+     */
+    private static final Map<String, Object> PHASES = new HashMap<>();
+
+    private static final AtomicBoolean ENTERED = new AtomicBoolean(false);
+    private static final AtomicBoolean REPORTED = new AtomicBoolean(false);
+
+
+    private ColdStart() {
+    }
+
+    /**
+     * Captures the JVM state on the first entry into a handler. Later calls do nothing.
+     */
+    public static void onHandlerEntry() {
+        if (!ENTERED.compareAndSet(false, true)) {
+            return;
+        }
+
+        final ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+        synchronized (PHASES) {
+            PHASES.put(JVM_UPTIME_AT_HANDLER_KEY, ManagementFactory.getRuntimeMXBean().getUptime());
+            PHASES.put(CLASSES_LOADED_AT_HANDLER_KEY, classLoading.getTotalLoadedClassCount());
+            PHASES.put(JIT_TIME_AT_HANDLER_KEY, compilationTimeMs());
+        }
+    }
+
+    /**
+     * Records the duration of a one-time initialization, if it has not been recorded yet.
+     *
+     * @param phase      The key of the phase.
+     * @param startNanos The System.nanoTime() at which the phase started.
+     */
+    public static void recordFirst(final String phase, final long startNanos) {
+        if (REPORTED.get()) {
+            return;
+        }
+        final double durationMs = (System.nanoTime() - startNanos) / 1e6;
+        synchronized (PHASES) {
+            PHASES.putIfAbsent(phase, durationMs);
+        }
+    }
+
+    /**
+     * Returns the breakdown on the first response of the JVM, and null on every later response.
+     *
+     * @return The cold-start phases, or null if this is not the first response.
+     */
+    public static HashMap<String, Object> takeBreakdown() {
+        if (!ENTERED.get() || !REPORTED.compareAndSet(false, true)) {
+            return null;
+        }
+
+        final long loadedAtHandler;
+        final HashMap<String, Object> breakdown;
+        synchronized (PHASES) {
+            breakdown = new HashMap<>(PHASES);
+            loadedAtHandler = (Long) PHASES.get(CLASSES_LOADED_AT_HANDLER_KEY);
+        }
+        breakdown.put(CLASSES_LOADED_FIRST_INVOCATION_KEY,
+                ManagementFactory.getClassLoadingMXBean().getTotalLoadedClassCount() - loadedAtHandler);
+        breakdown.put(JIT_TIME_AT_FIRST_RESPONSE_KEY, compilationTimeMs());
+        return breakdown;
+    }
+
+    /**
+     * @return The total JIT compile time, or -1 if the JVM does not report it.
+     */
+    private static long compilationTimeMs() {
+        final CompilationMXBean compilation = ManagementFactory.getCompilationMXBean();
+        return compilation != null && compilation.isCompilationTimeMonitoringSupported() ? compilation.getTotalCompilationTime() : -1;
+    }
+
+}
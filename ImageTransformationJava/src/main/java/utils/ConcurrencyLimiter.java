@@ -0,0 +1,267 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  An adaptive concurrency limit for handlers that share a JVM.
+ *
+ *  The limit follows AIMD: it grows by one for every limit's worth of requests that complete while
+ *  the limit is in use, and shrinks by a constant factor when latency or heap shows overload.
+ *  Overload is a short-term latency average rising well above the baseline latency, or the live heap
+ *  filling past a threshold. Each handler keeps its own averages, since a details call and a large
+ *  resize differ in latency by orders of magnitude without either being overloaded. Only successful
+ *  requests are sampled, since an error or a skipped image returns long before the work it stands
+ *  for. A baseline drops to a low percentile of the recent samples and only creeps up, so it tracks
+ *  the unloaded latency of the handler's current workload rather than following queueing delay, and
+ *  a single unusually fast request does not move it. The live heap is the heap in
+ *  use after the last collection, less the idle rasters the raster pool keeps for reuse.
+ *  A request over the limit waits in a bounded queue for up to its queue timeout, and is rejected
+ *  immediately if the queue is full.
+ */
+public final class ConcurrencyLimiter {
+
+    /**
+     * The request key of the longest time a request may wait for a slot, in milliseconds.
+     */
+    public static final String QUEUE_TIMEOUT_KEY = "queue_timeout_ms";
+
+    /**
+     * The limiter in front of the Lambda handlers.
+     */
+    public static final ConcurrencyLimiter SHARED = new ConcurrencyLimiter(
+            Math.max(2, Runtime.getRuntime().availableProcessors() * 2));
+
+    private static final long DEFAULT_QUEUE_TIMEOUT_MS = 2000;
+    private static final int MIN_LIMIT = 1;
+    private static final int MAX_LIMIT = 256;
+
+    /**
+     * The factor the limit shrinks by on overload.
+     */
+    private static final double BACKOFF = 0.9;
+
+    /**
+     * How far the short-term latency may rise above the baseline latency before it counts as overload.
+     */
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    /**
+     * The fraction of the maximum heap live that counts as overload.
+     */
+    private static final double HEAP_PRESSURE = 0.85;
+
+    /**
+     * The weights of a new latency sample in the short-term average, and in the baseline when it is slower.
+     */
+    private static final double SHORT_SMOOTHING = 0.5;
+    private static final double BASELINE_SMOOTHING = 0.01;
+
+    /**
+     * The number of recent samples the baseline can drop to, and the percentile of them it drops to.
+     */
+    private static final int BASELINE_WINDOW = 32;
+    private static final double BASELINE_PERCENTILE = 0.1;
+
+    /**
+     * The size of the queue as a multiple of the limit.
+     */
+    private static final int QUEUE_FACTOR = 2;
+
+    private double limit;
+    private int inFlight = 0;
+    private int queued = 0;
+    private long rejected = 0;
+    private final Map<String, Latency> latencies = new HashMap<>();
+    private long lastBackoffNanos = 0;
+
+
+    /**
+     * @param initialLimit The concurrency limit to start at.
+     */
+    public ConcurrencyLimiter(final int initialLimit) {
+        this.limit = Math.max(MIN_LIMIT, Math.min(MAX_LIMIT, initialLimit));
+    }
+
+    /**
+     * The latency averages of one handler.
+     */
+    private static final class Latency {
+        private double shortMs = -1;
+        private double baselineMs = -1;
+        private final double[] window = new double[BASELINE_WINDOW];
+        private int samples = 0;
+
+        /**
+         * Adds a sample to the window, replacing the oldest once it is full.
+         *
+         * @param latencyMs The latency of a successful request.
+         * @return The low percentile of the samples in the window.
+         */
+        private double addToWindow(final double latencyMs) {
+            window[samples % BASELINE_WINDOW] = latencyMs;
+            samples++;
+            final double[] sorted = Arrays.copyOf(window, Math.min(samples, BASELINE_WINDOW));
+            Arrays.sort(sorted);
+            return sorted[(int) (sorted.length * BASELINE_PERCENTILE)];
+        }
+    }
+
+    /**
+     * A slot held by a running request. Releasing it after a success feeds the request's latency to the limiter.
+     */
+    public final class Permit {
+        private final long startNanos = System.nanoTime();
+        private final String handler;
+        private final long queueWaitMs;
+        private boolean released = false;
+
+        private Permit(final String handler, final long queueWaitMs) {
+            this.handler = handler;
+            this.queueWaitMs = queueWaitMs;
+        }
+
+        /**
+         * @return How long the request waited for its slot.
+         */
+        public long getQueueWaitMs() {
+            return queueWaitMs;
+        }
+
+        /**
+         * Frees the slot. Only the first call has an effect.
+         *
+         * @param succeeded True if the request did its work, so its latency is a sample of the handler's latency.
+         */
+        public void release(final boolean succeeded) {
+            release(succeeded, (System.nanoTime() - startNanos) / 1e6);
+        }
+
+        /**
+         * Frees the slot with a given latency. Only the first call has an effect.
+         *
+         * @param succeeded True if the latency is a sample of the handler's latency.
+         * @param latencyMs The processing latency of the request.
+         */
+        void release(final boolean succeeded, final double latencyMs) {
+            synchronized (ConcurrencyLimiter.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                if (succeeded) {
+                    onComplete(handler, latencyMs);
+                } else {
+                    inFlight--;
+                    ConcurrencyLimiter.this.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes a slot, waiting in the queue while the limit is reached.
+     *
+     * @param handler The name of the handler the request runs, whose latency it is compared with.
+     * @param request The request arguments, optionally holding a "queue_timeout_ms".
+     * @return The slot, or null if the request was rejected.
+     * @throws InterruptedException If the thread was interrupted while queued.
+     */
+    public synchronized Permit acquire(final String handler, final Map<String, Object> request) throws InterruptedException {
+        final Object timeout = request.get(QUEUE_TIMEOUT_KEY);
+        final long timeoutMs = timeout instanceof Number ? Math.max(0, ((Number) timeout).longValue()) : DEFAULT_QUEUE_TIMEOUT_MS;
+
+        final long queueStart = System.nanoTime();
+        if (inFlight < currentLimit()) {
+            inFlight++;
+            return new Permit(handler, 0);
+        }
+
+        // Shed load straight away rather than queueing more than the server can drain in time
+        if (timeoutMs == 0 || queued >= currentLimit() * QUEUE_FACTOR) {
+            rejected++;
+            return null;
+        }
+
+        final long deadline = queueStart + timeoutMs * 1_000_000L;
+        queued++;
+        try {
+            while (inFlight >= currentLimit()) {
+                final long remainingMs = (deadline - System.nanoTime()) / 1_000_000L;
+                if (remainingMs <= 0) {
+                    rejected++;
+                    return null;
+                }
+                wait(remainingMs);
+            }
+        } finally {
+            queued--;
+        }
+
+        inFlight++;
+        return new Permit(handler, (System.nanoTime() - queueStart) / 1_000_000L);
+    }
+
+    /**
+     * Records the current state of the limiter.
+     *
+     * @param inspector The map to record to.
+     */
+    public synchronized void record(final Map<String, Object> inspector) {
+        inspector.put(Constants.CONCURRENCY_LIMIT_KEY, currentLimit());
+        inspector.put(Constants.REQUESTS_IN_FLIGHT_KEY, inFlight);
+        inspector.put(Constants.QUEUE_DEPTH_KEY, queued);
+        inspector.put(Constants.REJECTED_REQUESTS_KEY, rejected);
+    }
+
+    /**
+     * Updates the latency averages of a handler and the limit after a request succeeds.
+     *
+     * @param handler   The name of the handler the request ran.
+     * @param latencyMs The processing latency of the request.
+     */
+    private void onComplete(final String handler, final double latencyMs) {
+        final boolean saturated = inFlight * 2 >= currentLimit();
+        inFlight--;
+
+        final Latency latency = latencies.computeIfAbsent(handler, name -> new Latency());
+        final double lowMs = latency.addToWindow(latencyMs);
+        if (latency.baselineMs < 0) {
+            latency.shortMs = latencyMs;
+            latency.baselineMs = latencyMs;
+        } else {
+            latency.shortMs += SHORT_SMOOTHING * (latencyMs - latency.shortMs);
+            latency.baselineMs = lowMs < latency.baselineMs
+                    ? lowMs
+                    : latency.baselineMs + BASELINE_SMOOTHING * (latencyMs - latency.baselineMs);
+        }
+
+        final double heapLive = (double) (ImageAdmission.liveHeapBytes() - RasterPool.retainedBytes()) / Runtime.getRuntime().maxMemory();
+        final boolean overloaded = latency.shortMs > latency.baselineMs * LATENCY_TOLERANCE || heapLive > HEAP_PRESSURE;
+
+        // Back off at most once per typical request, so a burst of slow completions counts as one signal
+        final long now = System.nanoTime();
+        if (overloaded) {
+            if (now - lastBackoffNanos > latency.shortMs * 1e6) {
+                limit = Math.max(MIN_LIMIT, limit * BACKOFF);
+                lastBackoffNanos = now;
+            }
+        } else if (saturated) {
+            limit = Math.min(MAX_LIMIT, limit + 1 / limit);
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * @return The limit, rounded down to whole requests.
+     */
+    private int currentLimit() {
+        return (int) limit;
+    }
+
+}
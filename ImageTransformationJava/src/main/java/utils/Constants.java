@@ -1,17 +1,24 @@
 package utils;
 
+import codecs.RasterFormat;
 import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /***
@@ -27,17 +34,54 @@ public class Constants {
     public static final String NETWORK_LATENCY_KEY = "network_latency_ms";
     public static final String FUNCTION_RUN_TIME_KEY = "function_runtime_ms";
     public static final String ESTIMATED_COST_KEY = "cost_usd";
+    public static final String COST_BREAKDOWN_KEY = "cost_breakdown_usd";
+    public static final String MEMORY_SIZE_MB_KEY = "memory_size_mb";
+    public static final String COLD_START_BREAKDOWN_KEY = "cold_start_breakdown";
     public static final String COLD_START_KEY = "cold_start";
     public static final String START_TIME_KEY = "start_time";
     public static final String END_TIME_KEY = "end_time";
     public static final String PROCESSING_THROUGHPUT_KEY = "processing_throughput";
     public static final String MEMORY_USED_MB_KEY = "memory_used_mb";
+    public static final String RASTER_POOL_HIT_RATE_KEY = "raster_pool_hit_rate";
+    public static final String RASTER_POOL_BYTES_AVOIDED_KEY = "raster_pool_bytes_avoided";
+    public static final String RASTER_BYTES_ACQUIRED_KEY = "raster_bytes_acquired";
+    public static final String RASTER_BYTES_ACQUIRED_AS_ARGB_KEY = "raster_bytes_acquired_as_argb";
+    public static final String COALESCED_FETCHES_KEY = "coalesced_fetches";
+    public static final String COALESCED_BYTES_SAVED_KEY = "coalesced_bytes_saved";
+    public static final String DECODE_SETUP_MS_KEY = "decode_setup_ms";
+    public static final String ENCODE_SETUP_MS_KEY = "encode_setup_ms";
+    public static final String CODECS_REUSED_KEY = "codecs_reused";
+    public static final String CONCURRENCY_LIMIT_KEY = "concurrency_limit";
+    public static final String REQUESTS_IN_FLIGHT_KEY = "requests_in_flight";
+    public static final String QUEUE_DEPTH_KEY = "queue_depth";
+    public static final String QUEUE_WAIT_MS_KEY = "queue_wait_ms";
+    public static final String REJECTED_REQUESTS_KEY = "rejected_requests";
+    public static final String ALLOCATED_BYTES_KEY = "allocated_bytes";
+    public static final String ALLOCATED_BYTES_ALL_THREADS_KEY = "allocated_bytes_all_threads";
+    public static final String GC_COUNT_KEY = "gc_count";
+    public static final String GC_TIME_MS_KEY = "gc_time_ms";
+    public static final String HEAP_USED_BEFORE_MB_KEY = "heap_used_before_mb";
+    public static final String HEAP_USED_AFTER_MB_KEY = "heap_used_after_mb";
+    public static final String PEAK_RSS_MB_KEY = "peak_rss_mb";
+    public static final String PEAK_RSS_SCOPE_KEY = "peak_rss_scope";
+    public static final String EXECUTION_PATH_KEY = "execution_path";
+    public static final String ESTIMATED_PEAK_MEMORY_MB_KEY = "estimated_peak_memory_mb";
+    public static final String ACTUAL_PEAK_HEAP_MB_KEY = "actual_peak_heap_mb";
+    public static final String ACTUAL_PEAK_HEAP_SCOPE_KEY = "actual_peak_heap_scope";
+    public static final String ENCODE_TIME_KEY = "encode_time_ms";
+    public static final String UPLOAD_LATENCY_KEY = "upload_latency_ms";
+    public static final String OUTPUT_BYTES_KEY = "output_bytes";
+    public static final String ENCODER_PROFILE_KEY = "encoder_profile";
+    public static final String TILE_SPLIT_MS_KEY = "tile_split_ms";
+    public static final String TILE_COMPUTE_MS_KEY = "tile_compute_ms";
+    public static final String TILE_STITCH_MS_KEY = "tile_stitch_ms";
 
     // Request Body Keys
     public static final String BUCKET_KEY = "bucketname";
     public static final String FILE_NAME_KEY = "filename";
     public static final String ONLY_METRICS_KEY = "return_only_metrics";
     public static final String GET_DOWNLOAD_KEY = "get_download";
+    public static final String OUTPUT_FORMAT_KEY = "output_format";
 
     // Response Body Keys
     public static final String SUCCESS_KEY = "success";
@@ -51,6 +95,22 @@ public class Constants {
 
     public static final int IMAGE_URL_EXPIRATION_SECONDS = 3600;
 
+    /**
+     * The S3 client of this process, built on first use.
+     */
+    private static volatile AmazonS3 s3Client;
+
+    static {
+        // Makes the intermediate raster format readable and writable through ImageIO. This is the
+        // first use of the ImageIO registry, so it includes the plugin scan
+        final long registryStart = System.nanoTime();
+        RasterFormat.register();
+        ColdStart.recordFirst(ColdStart.IMAGEIO_REGISTRY_KEY, registryStart);
+
+        // Images are only ever streamed from memory, so ImageIO must never cache a stream on disk
+        ImageIO.setUseCache(false);
+    }
+
 
     /**
      *  Saves an image to a specified S3 bucket.
@@ -66,6 +126,54 @@ public class Constants {
             final String fileName,
             final String imageExtension, // Maybe we can default this to PNG?
             final BufferedImage image) {
+        return saveImageToS3(bucketName, fileName, imageExtension, image, EncoderOptions.DEFAULT, new HashMap<>());
+    }
+
+    /**
+     *  Saves an image to a specified S3 bucket with specific encoder settings.
+     *  Records the encode time, output size and encoder profile.
+     *
+     *  @param bucketName       The name of the bucket.
+     *  @param fileName         The name of the image.
+     *  @param imageExtension   The file extension of the image.
+     *  @param image            The image to save.
+     *  @param encoderOptions   The encoder settings.
+     *  @param inspector        A map to record the encode metrics to.
+     *  @return True if the image was saved, false otherwise.
+     */
+    public static boolean saveImageToS3(
+            final String bucketName,
+            final String fileName,
+            final String imageExtension,
+            final BufferedImage image,
+            final EncoderOptions encoderOptions,
+            final Map<String, Object> inspector) {
+        return saveImageToS3(bucketName, fileName, imageExtension, image, encoderOptions, inspector, Collections.emptyMap());
+    }
+
+    /**
+     *  Saves an image to a specified S3 bucket with specific encoder settings, or returns it inline
+     *  when the request carries its image inline. Records the encode time, output size, encoder
+     *  profile and upload latency.
+     *
+     *  @param bucketName       The name of the bucket.
+     *  @param fileName         The name of the image.
+     *  @param imageExtension   The file extension of the image.
+     *  @param image            The image to save.
+     *  @param encoderOptions   The encoder settings.
+     *  @param inspector        A map to record the encode metrics and any inline image to.
+     *  @param request          The request arguments.
+     *  @return True if the image was saved, false otherwise.
+     *  @throws IllegalArgumentException If the image is too large to return inline.
+     */
+    public static boolean saveImageToS3(
+            final String bucketName,
+            final String fileName,
+            final String imageExtension,
+            final BufferedImage image,
+            final EncoderOptions encoderOptions,
+            final Map<String, Object> inspector,
+            final Map<String, Object> request) {
 
         // Use FileValidator to validate the output file type
         if (!FileValidator.isValidOutputFile(fileName)) {
@@ -73,17 +181,43 @@ public class Constants {
         }
 
         try {
+            final long encodeStartTime = System.currentTimeMillis();
             final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            ImageIO.write(image, imageExtension, outputStream);
+            encoderOptions.write(image, imageExtension, outputStream);
             final byte[] imageBytes = outputStream.toByteArray();
+            inspector.put(ENCODE_TIME_KEY, System.currentTimeMillis() - encodeStartTime);
+            inspector.put(OUTPUT_BYTES_KEY, imageBytes.length);
+            inspector.put(ENCODER_PROFILE_KEY, encoderOptions.getName());
 
-            // Save the image back to S3
+            // Save the image back to S3, or return it inline
+            return saveBytesToS3(bucketName, fileName, imageExtension, imageBytes, inspector, request);
+
+        } catch (final IllegalArgumentException e) {
+            throw e;
+        } catch (final Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     *  Saves an already encoded image to a specified S3 bucket.
+     *
+     *  @param bucketName       The name of the bucket.
+     *  @param fileName         The name of the image.
+     *  @param imageExtension   The file extension of the image.
+     *  @param imageBytes       The encoded image.
+     *  @return True if the image was saved, false otherwise.
+     */
+    public static boolean saveBytesToS3(final String bucketName,
+                                        final String fileName,
+                                        final String imageExtension,
+                                        final byte[] imageBytes) {
+        try {
             final ObjectMetadata metadata = new ObjectMetadata();
             metadata.setContentLength(imageBytes.length);
-            metadata.setContentType("image/" + imageExtension);
-            AmazonS3ClientBuilder
-                    .defaultClient()
-                    .putObject(bucketName, fileName, new ByteArrayInputStream(imageBytes), metadata);
+            metadata.setContentType(imageExtension.equalsIgnoreCase(RasterFormat.FORMAT_NAME) ? RasterFormat.MIME_TYPE : "image/" + imageExtension);
+            getS3Client().putObject(bucketName, fileName, new ByteArrayInputStream(imageBytes), metadata);
 
         } catch (final Exception e) {
             e.printStackTrace();
@@ -92,6 +226,106 @@ public class Constants {
         return true;
     }
 
+    /**
+     *  Saves an already encoded image to a specified S3 bucket, or returns it inline when the
+     *  request carries its image inline. An inline request uploads only when it asks to, so its
+     *  upload latency is zero otherwise.
+     *
+     *  @param bucketName       The name of the bucket.
+     *  @param fileName         The name of the image.
+     *  @param imageExtension   The file extension of the image.
+     *  @param imageBytes       The encoded image.
+     *  @param inspector        A map to record the upload latency and any inline image to.
+     *  @param request          The request arguments.
+     *  @return True if the image was saved, false otherwise.
+     *  @throws IllegalArgumentException If the image is too large to return inline.
+     */
+    public static boolean saveBytesToS3(final String bucketName,
+                                        final String fileName,
+                                        final String imageExtension,
+                                        final byte[] imageBytes,
+                                        final Map<String, Object> inspector,
+                                        final Map<String, Object> request) {
+        if (InlinePayloads.isInline(request)) {
+            InlinePayloads.attach(imageBytes, inspector, request);
+        }
+        if (!InlinePayloads.shouldUpload(request)) {
+            inspector.put(UPLOAD_LATENCY_KEY, 0L);
+            return true;
+        }
+
+        final long uploadStartTime = System.currentTimeMillis();
+        final boolean saved = saveBytesToS3(bucketName, fileName, imageExtension, imageBytes);
+        inspector.put(UPLOAD_LATENCY_KEY, System.currentTimeMillis() - uploadStartTime);
+        return saved;
+    }
+
+    /**
+     *  Returns the S3 client of this process, built from the default configuration on first use
+     *  and shared by every request and thread after that. Times the build for the cold-start
+     *  breakdown. A local object store takes the place of S3 when one is configured.
+     *
+     *  @return The client.
+     */
+    public static AmazonS3 getS3Client() {
+        final LocalObjectStore localStore = LocalObjectStore.fromEnvironment();
+        if (localStore != null) {
+            return localStore;
+        }
+
+        AmazonS3 client = s3Client;
+        if (client == null) {
+            synchronized (Constants.class) {
+                if (s3Client == null) {
+                    final long buildStart = System.nanoTime();
+                    s3Client = AmazonS3ClientBuilder.defaultClient();
+                    ColdStart.recordFirst(ColdStart.S3_CLIENT_BUILD_KEY, buildStart);
+                }
+                client = s3Client;
+            }
+        }
+        return client;
+    }
+
+    /**
+     *  Builds the name of an output file. The extension of the input is kept unless the request
+     *  asks for a different "output_format", such as "raster" for a step in a chain of calls.
+     *
+     *  @param prefix   The prefix of the output name.
+     *  @param fileName The name of the input file.
+     *  @param request  The request arguments.
+     *  @return The output file name.
+     */
+    public static String getOutputFileName(final String prefix, final String fileName, final Map<String, Object> request) {
+        final Object outputFormat = request.get(OUTPUT_FORMAT_KEY);
+        if (outputFormat == null) {
+            return prefix + fileName;
+        }
+        final int dotIndex = fileName.lastIndexOf('.');
+        final String baseName = dotIndex == -1 ? fileName : fileName.substring(0, dotIndex);
+        return prefix + baseName + "." + outputFormat.toString().toLowerCase();
+    }
+
+    /**
+     *  Reads an optional integer argument of a request.
+     *
+     *  @param request  The request arguments.
+     *  @param key      The key of the argument.
+     *  @param fallback The value when the argument is absent.
+     *  @return The argument, or the fallback.
+     *  @throws IllegalArgumentException If the argument is not an integer.
+     */
+    public static int getIntArgument(final Map<String, Object> request, final String key, final int fallback) {
+        final Object value = request.get(key);
+        if (value == null) {
+            return fallback;
+        }
+        if (!(value instanceof Integer)) {
+            throw new IllegalArgumentException("Invalid " + key + ". Must be an integer.");
+        }
+        return (Integer) value;
+    }
+
     /**
      *  Checks if a request map has all required keys.
      *
@@ -123,20 +357,172 @@ public class Constants {
     public static BufferedImage getImageFromS3AndRecordLatency(final String bucketName,
                                                                final String fileName,
                                                                final HashMap<String, Object> inspector) {
+        return getImageFromS3AndRecordLatency(bucketName, fileName, inspector, Collections.emptyMap(), Collections.emptyList());
+    }
+
+    /**
+     *  Retrieves an image from S3 after admitting it against the available heap. Records the latency
+     *  and the admission decision. Concurrent requests for the same object share one fetch, so the
+     *  image must be treated as read-only. A request that carries its image inline is decoded from
+     *  the request instead, with a latency of zero.
+     *
+     *  @param bucketName   The bucket to get an image from.
+     *  @param fileName     The name of the image.
+     *  @param inspector    A map to record the latency and admission decision to.
+     *  @param request      The request arguments.
+     *  @param steps        The operations that will run on the image.
+     *  @return The image, or null if an error occurs.
+     *  @throws IllegalArgumentException If the image is too large to process.
+     */
+    public static BufferedImage getImageFromS3AndRecordLatency(final String bucketName,
+                                                               final String fileName,
+                                                               final HashMap<String, Object> inspector,
+                                                               final Map<String, Object> request,
+                                                               final List<ImageAdmission.Step> steps) {
         try {
-            // Fetch the image from S3
-            final long s3StartTime = System.currentTimeMillis();
-            final S3Object s3Object = AmazonS3ClientBuilder.defaultClient().getObject(bucketName, fileName);
-            final InputStream objectData = s3Object.getObjectContent();
+            // An inline image skips the S3 stage entirely
+            if (InlinePayloads.isInline(request)) {
+                inspector.put(NETWORK_LATENCY_KEY, 0L);
+                return readImage(InlinePayloads.decode(request), steps, request, inspector);
+            }
 
-            final BufferedImage image = ImageIO.read(objectData);
+            // Fetch the image from S3, sharing the download with concurrent requests for the same object
+            final long s3StartTime = System.currentTimeMillis();
+            final BufferedImage image = ImageFetches.fetch(bucketName, fileName, inspector, request, steps);
             inspector.put(NETWORK_LATENCY_KEY, System.currentTimeMillis() - s3StartTime);
             return image;
 
+        } catch (final IllegalArgumentException e) {
+            throw e;
+        } catch (final Exception e) {
+            return null;
+        }
+
+    }
+
+    /**
+     *  Retrieves the encoded bytes of an image from S3, without decoding it. Records the latency.
+     *
+     *  @param bucketName   The bucket to get an image from.
+     *  @param fileName     The name of the image.
+     *  @param inspector    A map to record the latency to.
+     *  @return The encoded image, or null if an error occurs.
+     */
+    public static byte[] getBytesFromS3AndRecordLatency(final String bucketName,
+                                                        final String fileName,
+                                                        final Map<String, Object> inspector) {
+        return getBytesFromS3AndRecordLatency(bucketName, fileName, inspector, Collections.emptyMap());
+    }
+
+    /**
+     *  Retrieves the encoded bytes of an image from S3, or from the request when it carries its
+     *  image inline, without decoding it. Records the latency, which is zero for an inline image.
+     *
+     *  @param bucketName   The bucket to get an image from.
+     *  @param fileName     The name of the image.
+     *  @param inspector    A map to record the latency to.
+     *  @param request      The request arguments.
+     *  @return The encoded image, or null if an error occurs.
+     *  @throws IllegalArgumentException If the inline image is not valid.
+     */
+    public static byte[] getBytesFromS3AndRecordLatency(final String bucketName,
+                                                        final String fileName,
+                                                        final Map<String, Object> inspector,
+                                                        final Map<String, Object> request) {
+        if (InlinePayloads.isInline(request)) {
+            inspector.put(NETWORK_LATENCY_KEY, 0L);
+            return InlinePayloads.decode(request);
+        }
+
+        final long s3StartTime = System.currentTimeMillis();
+        try (S3Object s3Object = getS3Client().getObject(bucketName, fileName)) {
+            final byte[] bytes = s3Object.getObjectContent().readAllBytes();
+            inspector.put(NETWORK_LATENCY_KEY, System.currentTimeMillis() - s3StartTime);
+            return bytes;
+
         } catch (final Exception e) {
             return null;
         }
+    }
+
+    /**
+     *  Decodes an image from a stream.
+     *
+     *  @param inputStream  The encoded image.
+     *  @return The decoded image, or null if no decoder could read it.
+     *  @throws IOException If the stream could not be read.
+     */
+    public static BufferedImage readImage(final InputStream inputStream) throws IOException {
+        return readImage(ImageCodecs.openInput(inputStream), Collections.emptyList(), Collections.emptyMap(), null);
+    }
 
+    /**
+     *  Decodes an image from its encoded bytes.
+     *
+     *  @param bytes        The encoded image.
+     *  @return The decoded image, or null if no decoder could read it.
+     *  @throws IOException If the bytes could not be read.
+     */
+    public static BufferedImage readImage(final byte[] bytes) throws IOException {
+        return readImage(ImageCodecs.openInput(bytes), Collections.emptyList(), Collections.emptyMap(), null);
+    }
+
+    /**
+     *  Decodes an image from its encoded bytes, admitting it for the operations that will run on it.
+     *
+     *  @param bytes        The encoded image.
+     *  @param steps        The operations that will run on the image.
+     *  @param request      The request arguments.
+     *  @param inspector    A map to record the admission decision to, or null.
+     *  @return The decoded image, or null if no decoder could read it.
+     *  @throws IOException If the bytes could not be read.
+     *  @throws IllegalArgumentException If the image is too large to process.
+     */
+    public static BufferedImage readImage(final byte[] bytes,
+                                          final List<ImageAdmission.Step> steps,
+                                          final Map<String, Object> request,
+                                          final Map<String, Object> inspector) throws IOException {
+        return readImage(ImageCodecs.openInput(bytes), steps, request, inspector);
+    }
+
+    /**
+     *  Decodes an image from an in-memory image stream. Only the header is read before the image is
+     *  admitted, and the admission decision selects how the pixels are decoded. On the in-memory path,
+     *  the pixels are decoded straight into a pooled raster when the decoder offers a standard image
+     *  type. Any other decode is converted once to its compact type, so the operations never see
+     *  TYPE_CUSTOM. The reader is reused from, and returned to, the codecs of this thread.
+     *
+     *  @param imageStream  The encoded image. It is closed once the image is decoded.
+     *  @param steps        The operations that will run on the image.
+     *  @param request      The request arguments.
+     *  @param inspector    A map to record the admission decision to, or null.
+     *  @return The decoded image, or null if no decoder could read it.
+     *  @throws IOException If the stream could not be read.
+     *  @throws IllegalArgumentException If the image is too large to process.
+     */
+    private static BufferedImage readImage(final ImageInputStream imageStream,
+                                           final List<ImageAdmission.Step> steps,
+                                           final Map<String, Object> request,
+                                           final Map<String, Object> inspector) throws IOException {
+        try (ImageInputStream stream = imageStream) {
+            final ImageReader reader = ImageCodecs.acquireReader(stream);
+            if (reader == null) {
+                return null;
+            }
+
+            try {
+                final ImageAdmission.Decision decision = ImageAdmission.admit(reader, steps, request);
+                if (inspector != null) {
+                    decision.record(inspector);
+                }
+                if (decision.path == ImageAdmission.ExecutionPath.REJECTED) {
+                    throw new IllegalArgumentException(decision.reason);
+                }
+                return RasterTypes.toFastType(ImageAdmission.decode(reader, decision));
+            } finally {
+                ImageCodecs.releaseReader(reader);
+            }
+        }
     }
 
     /**
@@ -151,19 +537,18 @@ public class Constants {
         final long expTimeMillis = expiration.getTime() + 1000 * IMAGE_URL_EXPIRATION_SECONDS;
         expiration.setTime(expTimeMillis);
 
-        return AmazonS3ClientBuilder.defaultClient().generatePresignedUrl(bucketName, fileName, expiration).toString();
+        return getS3Client().generatePresignedUrl(bucketName, fileName, expiration).toString();
     }
 
     /**
-     *  Estimates the cost of a function based on a provided runtime.
+     *  Estimates the cost of a function based on a provided runtime, at the function's configured
+     *  memory size.
      *
      *  @param runTime  The runtime of a function.
      *  @return The estimated cost of the function.
      */
     public static double estimateCost(final long runTime) {
-        final double memorySizeGB = 0.512; // Lambda memory size in GB
-        final double pricePerGBSecond = 0.00001667; // Pricing for Lambda
-        return (runTime / 1000.0) * memorySizeGB * pricePerGBSecond;
+        return CostModel.invocationCost(runTime, CostModel.memorySizeMb());
     }
 
     /**
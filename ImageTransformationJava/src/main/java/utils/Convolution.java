@@ -0,0 +1,654 @@
+package utils;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  A separable convolution engine for 8-bit images.
+ *
+ *  Every filter is a horizontal pass over the rows followed by a vertical pass over the columns,
+ *  working straight on the interleaved bytes of the rasters. A box pass keeps a running sum over
+ *  its window, adding the sample that enters and subtracting the one that leaves, and divides by
+ *  multiplying with a 32-bit fixed-point reciprocal, so it costs the same at any radius and a flat
+ *  area stays exactly flat. A Gaussian is three stacked box passes each way, whose widths are
+ *  chosen to match its variance. Small Gaussians, where boxes are too coarse, run as a true
+ *  sampled kernel with 14-bit fixed-point weights instead.
+ *
+ *  Pixels beyond the edges are taken from the image by an edge mode: clamped to the nearest edge
+ *  pixel, reflected about the edge, or wrapped around to the other side.
+ *
+ *  An image with straight alpha is premultiplied into a copy before its passes and divided back
+ *  after them, so the colour of a transparent pixel, which is not seen, does not bleed into its
+ *  neighbours.
+ *
+ *  Large images are split into bands that run on a shared pool: bands of rows for the horizontal
+ *  passes, and strips of columns for the vertical passes, which walk down their strip a row at a
+ *  time so every pass reads memory in order.
+ */
+public final class Convolution {
+
+    /**
+     * How a pass reads the pixels beyond the edges of the image.
+     */
+    public enum EdgeMode {
+        CLAMP, REFLECT, WRAP;
+
+        /**
+         * @param name The edge mode name, in any case.
+         * @return The edge mode.
+         * @throws IllegalArgumentException If there is no such edge mode.
+         */
+        public static EdgeMode fromName(final String name) {
+            for (final EdgeMode mode : values()) {
+                if (mode.name().equalsIgnoreCase(name)) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("Invalid edge_mode. Must be clamp, reflect or wrap.");
+        }
+
+        /**
+         * @param index  An index along a line, which may be outside it.
+         * @param length The length of the line.
+         * @return The index of the pixel to read.
+         */
+        int index(final int index, final int length) {
+            if (index >= 0 && index < length) {
+                return index;
+            }
+            switch (this) {
+                case REFLECT:
+                    final int period = Math.floorMod(index, 2 * length);
+                    return period < length ? period : 2 * length - 1 - period;
+                case WRAP:
+                    return Math.floorMod(index, length);
+                default:
+                    return index < 0 ? 0 : length - 1;
+            }
+        }
+    }
+
+    /**
+     * The number of box passes that approximate a Gaussian.
+     */
+    private static final int GAUSSIAN_BOX_PASSES = 3;
+
+    /**
+     * The largest sigma that runs as a sampled kernel. Above it the boxes are fine enough.
+     */
+    private static final double MAX_EXACT_SIGMA = 1.0;
+
+    /**
+     * The fractional bits of a kernel weight.
+     */
+    private static final int WEIGHT_BITS = 14;
+
+    /**
+     * The number of bands per thread. More bands than threads evens out the work.
+     */
+    private static final int BANDS_PER_THREAD = 2;
+
+    /**
+     * Images smaller than this run on the calling thread.
+     */
+    private static final int MIN_PARALLEL_PIXELS = 256 * 256;
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(THREADS, runnable -> {
+        final Thread thread = new Thread(runnable, "convolution");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+
+    private Convolution() {
+    }
+
+    /**
+     * Blurs an image with a box: every pixel becomes the mean of the square around it.
+     *
+     * @param image  The image, which is only read.
+     * @param radius The distance from the center of the box to its edge, in pixels.
+     * @param edge   How pixels beyond the edges are read.
+     * @return The blurred image, from the raster pool.
+     */
+    public static BufferedImage boxBlur(final BufferedImage image, final int radius, final EdgeMode edge) {
+        return blur(image, new int[]{radius}, edge);
+    }
+
+    /**
+     * Blurs an image with a Gaussian.
+     *
+     * @param image The image, which is only read.
+     * @param sigma The standard deviation of the Gaussian, in pixels.
+     * @param edge  How pixels beyond the edges are read.
+     * @return The blurred image, from the raster pool.
+     */
+    public static BufferedImage gaussianBlur(final BufferedImage image, final double sigma, final EdgeMode edge) {
+        if (sigma <= MAX_EXACT_SIGMA) {
+            final int[] kernel = gaussianKernel(sigma);
+            return convolve(image, kernel, kernel, edge);
+        }
+        return blur(image, gaussianBoxRadii(sigma), edge);
+    }
+
+    /**
+     * Sharpens an image by unsharp masking: every pixel moves away from a Gaussian blur of
+     * itself by "amount" times its difference from it. Alpha is left as it is.
+     *
+     * @param image     The image, which is only read.
+     * @param sigma     The standard deviation of the blur, in pixels.
+     * @param amount    How much of the difference to add, where 1 doubles it.
+     * @param threshold The smallest difference that is sharpened, from 0 to 255.
+     * @param edge      How pixels beyond the edges are read.
+     * @return The sharpened image, from the raster pool.
+     */
+    public static BufferedImage unsharpMask(final BufferedImage image, final double sigma, final double amount, final int threshold, final EdgeMode edge) {
+        final BufferedImage source = toByteType(image);
+        final BufferedImage output = gaussianBlur(source, sigma, edge);
+        final Plane in = Plane.of(source);
+        final Plane out = Plane.of(output);
+        final int alpha = alphaChannel(source);
+        final int fixedAmount = (int) Math.round(amount * 256);
+
+        inBands(in.height, in.width * in.height, (start, end) -> {
+            for (int y = start; y < end; y++) {
+                int inOffset = in.offset + y * in.scanline;
+                int outOffset = out.offset + y * out.scanline;
+                for (int x = 0; x < in.width; x++) {
+                    for (int c = 0; c < in.channels; c++) {
+                        final int original = in.data[inOffset + c] & 0xFF;
+                        final int difference = original - (out.data[outOffset + c] & 0xFF);
+                        int value = original;
+                        if (c != alpha && Math.abs(difference) >= threshold) {
+                            value = original + ((difference * fixedAmount + 128) >> 8);
+                        }
+                        out.data[outOffset + c] = (byte) (value < 0 ? 0 : value > 255 ? 255 : value);
+                    }
+                    inOffset += in.channels;
+                    outOffset += out.channels;
+                }
+            }
+        });
+        if (source != image) {
+            RasterPool.release(source);
+        }
+        return output;
+    }
+
+    /**
+     * @param sigma The standard deviation of a Gaussian blur.
+     * @return The distance in pixels a blurred pixel reads from, on each side.
+     */
+    public static int gaussianSupport(final double sigma) {
+        if (sigma <= MAX_EXACT_SIGMA) {
+            return gaussianKernel(sigma).length / 2;
+        }
+        int support = 0;
+        for (final int radius : gaussianBoxRadii(sigma)) {
+            support += radius;
+        }
+        return support;
+    }
+
+    /**
+     * Convolves an image with a separable kernel, the outer product of a horizontal and a
+     * vertical kernel of odd lengths, with weights in 14-bit fixed point.
+     *
+     * @param image      The image, which is only read.
+     * @param horizontal The horizontal kernel, centered.
+     * @param vertical   The vertical kernel, centered.
+     * @param edge       How pixels beyond the edges are read.
+     * @return The convolved image, from the raster pool.
+     */
+    public static BufferedImage convolve(final BufferedImage image, final int[] horizontal, final int[] vertical, final EdgeMode edge) {
+        final BufferedImage source = toPremultipliedBytes(image);
+        final BufferedImage scratch = acquire(source);
+        final BufferedImage output = acquire(source);
+        final Plane in = Plane.of(source);
+        final Plane middle = Plane.of(scratch);
+        final Plane out = Plane.of(output);
+
+        inBands(in.height, in.width * in.height, (start, end) -> kernelRows(in, middle, start, end, horizontal, edge));
+        inBands(in.width, in.width * in.height, (start, end) -> kernelColumns(middle, out, start, end, vertical, edge));
+        unpremultiply(source, output);
+
+        RasterPool.release(scratch);
+        if (source != image) {
+            RasterPool.release(source);
+        }
+        return output;
+    }
+
+    /**
+     * Runs box passes of the given radii along the rows, then along the columns.
+     */
+    private static BufferedImage blur(final BufferedImage image, final int[] radii, final EdgeMode edge) {
+        final BufferedImage source = toPremultipliedBytes(image);
+        final BufferedImage scratch = acquire(source);
+        final BufferedImage output = acquire(source);
+        final int pixels = source.getWidth() * source.getHeight();
+
+        // Passes alternate between the two buffers, starting with the scratch, so the last of the
+        // even number of passes writes the output
+        final Plane[] buffers = {Plane.of(scratch), Plane.of(output)};
+        Plane from = Plane.of(source);
+        int pass = 0;
+        for (final int radius : radii) {
+            final Plane in = from;
+            final Plane out = buffers[pass++ % 2];
+            inBands(in.height, pixels, (start, end) -> boxRows(in, out, start, end, radius, edge));
+            from = out;
+        }
+        for (final int radius : radii) {
+            final Plane in = from;
+            final Plane out = buffers[pass++ % 2];
+            inBands(in.width, pixels, (start, end) -> boxColumns(in, out, start, end, radius, edge));
+            from = out;
+        }
+        unpremultiply(source, output);
+
+        RasterPool.release(scratch);
+        if (source != image) {
+            RasterPool.release(source);
+        }
+        return output;
+    }
+
+    /**
+     * A box pass along rows [start, end).
+     */
+    private static void boxRows(final Plane in, final Plane out, final int start, final int end, final int radius, final EdgeMode edge) {
+        final int width = in.width;
+        final int channels = in.channels;
+        final long reciprocal = reciprocal(2 * radius + 1);
+        for (int y = start; y < end; y++) {
+            final int inRow = in.offset + y * in.scanline;
+            final int outRow = out.offset + y * out.scanline;
+            for (int c = 0; c < channels; c++) {
+                final int inBase = inRow + c;
+                int sum = 0;
+                for (int k = -radius; k <= radius; k++) {
+                    sum += in.data[inBase + edge.index(k, width) * channels] & 0xFF;
+                }
+                int outIndex = outRow + c;
+                for (int x = 0; x < width; x++) {
+                    out.data[outIndex] = (byte) ((sum * reciprocal + (1L << 31)) >>> 32);
+                    outIndex += channels;
+                    sum += (in.data[inBase + edge.index(x + radius + 1, width) * channels] & 0xFF)
+                            - (in.data[inBase + edge.index(x - radius, width) * channels] & 0xFF);
+                }
+            }
+        }
+    }
+
+    /**
+     * A box pass along columns [start, end), a row at a time.
+     */
+    private static void boxColumns(final Plane in, final Plane out, final int start, final int end, final int radius, final EdgeMode edge) {
+        final int height = in.height;
+        final int first = start * in.channels;
+        final int length = (end - start) * in.channels;
+        final long reciprocal = reciprocal(2 * radius + 1);
+        final int[] sums = new int[length];
+        for (int k = -radius; k <= radius; k++) {
+            final int row = in.offset + edge.index(k, height) * in.scanline + first;
+            for (int i = 0; i < length; i++) {
+                sums[i] += in.data[row + i] & 0xFF;
+            }
+        }
+        for (int y = 0; y < height; y++) {
+            final int outRow = out.offset + y * out.scanline + first;
+            for (int i = 0; i < length; i++) {
+                out.data[outRow + i] = (byte) ((sums[i] * reciprocal + (1L << 31)) >>> 32);
+            }
+            final int entering = in.offset + edge.index(y + radius + 1, height) * in.scanline + first;
+            final int leaving = in.offset + edge.index(y - radius, height) * in.scanline + first;
+            for (int i = 0; i < length; i++) {
+                sums[i] += (in.data[entering + i] & 0xFF) - (in.data[leaving + i] & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * A kernel pass along rows [start, end).
+     */
+    private static void kernelRows(final Plane in, final Plane out, final int start, final int end, final int[] kernel, final EdgeMode edge) {
+        final int width = in.width;
+        final int channels = in.channels;
+        final int radius = kernel.length / 2;
+
+        // The pixel each tap of each output pixel reads, which only differ near the edges
+        final int[] taps = new int[width * kernel.length];
+        for (int x = 0; x < width; x++) {
+            for (int k = 0; k < kernel.length; k++) {
+                taps[x * kernel.length + k] = edge.index(x + k - radius, width) * channels;
+            }
+        }
+        for (int y = start; y < end; y++) {
+            final int inRow = in.offset + y * in.scanline;
+            int outIndex = out.offset + y * out.scanline;
+            for (int x = 0; x < width; x++) {
+                final int tapStart = x * kernel.length;
+                for (int c = 0; c < channels; c++) {
+                    int sum = 0;
+                    for (int k = 0; k < kernel.length; k++) {
+                        sum += kernel[k] * (in.data[inRow + taps[tapStart + k] + c] & 0xFF);
+                    }
+                    out.data[outIndex++] = clamp(sum);
+                }
+            }
+        }
+    }
+
+    /**
+     * A kernel pass along columns [start, end), a row at a time.
+     */
+    private static void kernelColumns(final Plane in, final Plane out, final int start, final int end, final int[] kernel, final EdgeMode edge) {
+        final int height = in.height;
+        final int first = start * in.channels;
+        final int length = (end - start) * in.channels;
+        final int radius = kernel.length / 2;
+        final int[] sums = new int[length];
+        for (int y = 0; y < height; y++) {
+            Arrays.fill(sums, 0);
+            for (int k = 0; k < kernel.length; k++) {
+                final int row = in.offset + edge.index(y + k - radius, height) * in.scanline + first;
+                final int weight = kernel[k];
+                for (int i = 0; i < length; i++) {
+                    sums[i] += weight * (in.data[row + i] & 0xFF);
+                }
+            }
+            final int outRow = out.offset + y * out.scanline + first;
+            for (int i = 0; i < length; i++) {
+                out.data[outRow + i] = clamp(sums[i]);
+            }
+        }
+    }
+
+    /**
+     * @return A weighted sum in fixed point, rounded to a byte.
+     */
+    private static byte clamp(final int sum) {
+        final int value = (sum + (1 << (WEIGHT_BITS - 1))) >> WEIGHT_BITS;
+        return (byte) (value < 0 ? 0 : value > 255 ? 255 : value);
+    }
+
+    /**
+     * @param count The number of samples a box averages.
+     * @return 1 / count in 32-bit fixed point, rounded.
+     */
+    private static long reciprocal(final int count) {
+        return ((1L << 32) + count / 2) / count;
+    }
+
+    /**
+     * The radii of the stacked boxes whose variance is closest to a Gaussian's: each box is one of
+     * two odd widths two apart, as many of the narrower as brings the variance nearest.
+     *
+     * @param sigma The standard deviation of the Gaussian.
+     * @return The radius of every box pass.
+     */
+    static int[] gaussianBoxRadii(final double sigma) {
+        final int passes = GAUSSIAN_BOX_PASSES;
+        final double variance = sigma * sigma;
+        int lower = (int) Math.floor(Math.sqrt(12 * variance / passes + 1));
+        if (lower % 2 == 0) {
+            lower--;
+        }
+        final int upper = lower + 2;
+        final long narrower = Math.round((12 * variance - passes * lower * lower - 4.0 * passes * lower - 3 * passes) / (-4.0 * lower - 4));
+        final int[] radii = new int[passes];
+        for (int i = 0; i < passes; i++) {
+            radii[i] = ((i < narrower ? lower : upper) - 1) / 2;
+        }
+        return radii;
+    }
+
+    /**
+     * A sampled Gaussian over three standard deviations each side, in 14-bit fixed point. The
+     * rounding error goes to the center weight, so the weights sum to exactly one.
+     */
+    private static int[] gaussianKernel(final double sigma) {
+        final int radius = Math.max(1, (int) Math.ceil(3 * sigma));
+        final double[] weights = new double[2 * radius + 1];
+        double total = 0;
+        for (int k = -radius; k <= radius; k++) {
+            weights[k + radius] = Math.exp(-(k * k) / (2 * sigma * sigma));
+            total += weights[k + radius];
+        }
+        final int[] kernel = new int[weights.length];
+        int sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            kernel[i] = (int) Math.round(weights[i] / total * (1 << WEIGHT_BITS));
+            sum += kernel[i];
+        }
+        kernel[radius] += (1 << WEIGHT_BITS) - sum;
+        return kernel;
+    }
+
+    /**
+     * Work on a range of rows or columns.
+     */
+    private interface Band {
+        void run(int start, int end);
+    }
+
+    /**
+     * Splits [0, count) into bands and runs them on the pool, or on the calling thread for a
+     * small image.
+     */
+    private static void inBands(final int count, final int pixels, final Band band) {
+        final int bandCount = pixels < MIN_PARALLEL_PIXELS ? 1 : Math.max(1, Math.min(count, THREADS * BANDS_PER_THREAD));
+        if (bandCount == 1) {
+            band.run(0, count);
+            return;
+        }
+        final List<Future<?>> jobs = new ArrayList<>();
+        for (int i = 0; i < bandCount; i++) {
+            final int start = (int) ((long) count * i / bandCount);
+            final int end = (int) ((long) count * (i + 1) / bandCount);
+            jobs.add(POOL.submit(() -> band.run(start, end)));
+        }
+        for (final Future<?> job : jobs) {
+            try {
+                job.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while convolving", e);
+            } catch (final ExecutionException e) {
+                throw new IllegalStateException("Failed to convolve", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * @return An image of the same size and type, from the raster pool.
+     */
+    private static BufferedImage acquire(final BufferedImage image) {
+        final BufferedImage pooled = RasterPool.acquireUncleared(image.getWidth(), image.getHeight(), image.getType());
+        return pooled != null ? pooled : new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+    }
+
+    /**
+     * Converts an image to interleaved bytes, a byte per channel, unless it already is.
+     *
+     * @return The image itself, or a pooled copy as gray, BGR or ABGR bytes.
+     */
+    private static BufferedImage toByteType(final BufferedImage image) {
+        if (Plane.isByteInterleaved(image)) {
+            return image;
+        }
+        final int type = image.getColorModel().hasAlpha()
+                ? BufferedImage.TYPE_4BYTE_ABGR
+                : image.getColorModel().getNumComponents() == 1 ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_3BYTE_BGR;
+        final BufferedImage converted = RasterPool.acquire(image.getWidth(), image.getHeight(), type);
+        final Graphics2D graphics = converted.createGraphics();
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return converted;
+    }
+
+    /**
+     * Converts an image to interleaved bytes, and premultiplies straight alpha into the colour.
+     *
+     * @return The image itself if it has no straight alpha, or a pooled copy.
+     */
+    private static BufferedImage toPremultipliedBytes(final BufferedImage image) {
+        final BufferedImage bytes = toByteType(image);
+        final int alpha = straightAlphaChannel(bytes);
+        if (alpha < 0) {
+            return bytes;
+        }
+        final BufferedImage premultiplied = bytes != image ? bytes : acquire(bytes);
+        final Plane in = Plane.of(bytes);
+        final Plane out = Plane.of(premultiplied);
+        inBands(in.height, in.width * in.height, (start, end) -> {
+            for (int y = start; y < end; y++) {
+                int inOffset = in.offset + y * in.scanline;
+                int outOffset = out.offset + y * out.scanline;
+                for (int x = 0; x < in.width; x++) {
+                    final int a = in.data[inOffset + alpha] & 0xFF;
+                    for (int c = 0; c < in.channels; c++) {
+                        final int value = in.data[inOffset + c] & 0xFF;
+                        out.data[outOffset + c] = (byte) (c == alpha ? value : (value * a + 127) / 255);
+                    }
+                    inOffset += in.channels;
+                    outOffset += out.channels;
+                }
+            }
+        });
+        return premultiplied;
+    }
+
+    /**
+     * Divides the alpha back out of the colour of a convolved image, in place, if its source was
+     * premultiplied by toPremultipliedBytes. A fully transparent pixel is left black.
+     *
+     * @param source The convolved image.
+     * @param output The result of convolving it.
+     */
+    private static void unpremultiply(final BufferedImage source, final BufferedImage output) {
+        final int alpha = straightAlphaChannel(source);
+        if (alpha < 0) {
+            return;
+        }
+        final Plane out = Plane.of(output);
+        inBands(out.height, out.width * out.height, (start, end) -> {
+            for (int y = start; y < end; y++) {
+                int offset = out.offset + y * out.scanline;
+                for (int x = 0; x < out.width; x++) {
+                    final int a = out.data[offset + alpha] & 0xFF;
+                    for (int c = 0; c < out.channels; c++) {
+                        if (c != alpha) {
+                            final int value = a == 0 ? 0 : ((out.data[offset + c] & 0xFF) * 255 + a / 2) / a;
+                            out.data[offset + c] = (byte) Math.min(value, 255);
+                        }
+                    }
+                    offset += out.channels;
+                }
+            }
+        });
+    }
+
+    /**
+     * @return The byte of a pixel that holds its alpha, or -1 if it has none or its colour is
+     *         already premultiplied.
+     */
+    private static int straightAlphaChannel(final BufferedImage image) {
+        return image.getColorModel().isAlphaPremultiplied() ? -1 : alphaChannel(image);
+    }
+
+    /**
+     * @return The byte of a pixel that holds its alpha, or -1 if it has none.
+     */
+    private static int alphaChannel(final BufferedImage image) {
+        if (!image.getColorModel().hasAlpha()) {
+            return -1;
+        }
+        final PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel) image.getRaster().getSampleModel();
+        final int[] bandOffsets = sampleModel.getBandOffsets();
+        int first = Integer.MAX_VALUE;
+        for (final int offset : bandOffsets) {
+            first = Math.min(first, offset);
+        }
+        return bandOffsets[bandOffsets.length - 1] - first;
+    }
+
+    /**
+     * The bytes of an interleaved 8-bit raster: pixel (x, y) starts at offset + y * scanline +
+     * x * channels, and holds one byte per channel.
+     */
+    private static final class Plane {
+        private final byte[] data;
+        private final int offset;
+        private final int scanline;
+        private final int channels;
+        private final int width;
+        private final int height;
+
+        private Plane(final byte[] data, final int offset, final int scanline, final int channels, final int width, final int height) {
+            this.data = data;
+            this.offset = offset;
+            this.scanline = scanline;
+            this.channels = channels;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * @return True if every pixel is its channels in consecutive bytes, as in the gray, BGR
+         *         and ABGR byte types and their subimages.
+         */
+        private static boolean isByteInterleaved(final BufferedImage image) {
+            final WritableRaster raster = image.getRaster();
+            if (!(image.getColorModel() instanceof ComponentColorModel)
+                    || !(raster.getSampleModel() instanceof PixelInterleavedSampleModel)
+                    || !(raster.getDataBuffer() instanceof DataBufferByte)) {
+                return false;
+            }
+            final PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel) raster.getSampleModel();
+            final int[] bandOffsets = sampleModel.getBandOffsets().clone();
+            Arrays.sort(bandOffsets);
+            for (int i = 0; i < bandOffsets.length; i++) {
+                if (bandOffsets[i] != bandOffsets[0] + i) {
+                    return false;
+                }
+            }
+            return sampleModel.getPixelStride() == bandOffsets.length && raster.getDataBuffer().getNumBanks() == 1;
+        }
+
+        private static Plane of(final BufferedImage image) {
+            final WritableRaster raster = image.getRaster();
+            final PixelInterleavedSampleModel sampleModel = (PixelInterleavedSampleModel) raster.getSampleModel();
+            final DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+            int firstBand = Integer.MAX_VALUE;
+            for (final int offset : sampleModel.getBandOffsets()) {
+                firstBand = Math.min(firstBand, offset);
+            }
+
+            // A subimage shares the data of its parent, offset by where it starts in it
+            final int offset = buffer.getOffset() + firstBand
+                    + (raster.getMinX() - raster.getSampleModelTranslateX()) * sampleModel.getPixelStride()
+                    + (raster.getMinY() - raster.getSampleModelTranslateY()) * sampleModel.getScanlineStride();
+            return new Plane(buffer.getData(), offset, sampleModel.getScanlineStride(), sampleModel.getPixelStride(),
+                    image.getWidth(), image.getHeight());
+        }
+    }
+
+}
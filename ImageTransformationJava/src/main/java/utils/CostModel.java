@@ -0,0 +1,125 @@
+package utils;
+
+import java.util.HashMap;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  The Lambda cost model: duration billed per GB-second at the function's configured memory size,
+ *  plus a flat charge per request.
+ *
+ *  Lambda allocates CPU in proportion to memory, reaching one full vCPU at 1769 MB, so the memory
+ *  size also decides how fast the CPU-bound stages run. The advisor tool uses the same model to
+ *  price a workload replayed at other memory sizes.
+ */
+public final class CostModel {
+
+    /**
+     * The environment variable Lambda sets to the configured memory size, in MB.
+     */
+    public static final String MEMORY_SIZE_ENV = "AWS_LAMBDA_FUNCTION_MEMORY_SIZE";
+
+    /**
+     * The memory size assumed outside Lambda, matching the deployed configuration.
+     */
+    public static final int DEFAULT_MEMORY_SIZE_MB = 512;
+
+    /**
+     * The memory size at which a function gets one full vCPU, and the most vCPUs a function gets.
+     */
+    public static final int MB_PER_VCPU = 1769;
+    public static final int MAX_VCPUS = 6;
+
+    private static final double X86_PRICE_PER_GB_SECOND = 0.0000166667;
+    private static final double ARM_PRICE_PER_GB_SECOND = 0.0000133334;
+    private static final double PRICE_PER_REQUEST = 0.20 / 1_000_000;
+
+    /**
+     * The memory size of this function.
+     */
+    private static final int MEMORY_SIZE_MB = readMemorySize();
+
+
+    private CostModel() {
+    }
+
+    /**
+     * @return The configured memory size of this function, in MB.
+     */
+    public static int memorySizeMb() {
+        return MEMORY_SIZE_MB;
+    }
+
+    /**
+     * @param memorySizeMb A memory size.
+     * @return The vCPU share Lambda allocates at that memory size.
+     */
+    public static double vcpus(final int memorySizeMb) {
+        return Math.min(MAX_VCPUS, (double) memorySizeMb / MB_PER_VCPU);
+    }
+
+    /**
+     * Prices a stage of an invocation. Lambda bills duration in whole milliseconds.
+     *
+     * @param durationMs   The duration of the stage.
+     * @param memorySizeMb The memory size the function runs at.
+     * @return The duration cost in USD.
+     */
+    public static double durationCost(final double durationMs, final int memorySizeMb) {
+        return Math.ceil(durationMs) / 1000.0 * (memorySizeMb / 1024.0) * pricePerGbSecond();
+    }
+
+    /**
+     * Prices a whole invocation, including the request charge.
+     *
+     * @param runTimeMs    The runtime of the invocation.
+     * @param memorySizeMb The memory size the function runs at.
+     * @return The cost in USD.
+     */
+    public static double invocationCost(final double runTimeMs, final int memorySizeMb) {
+        return durationCost(runTimeMs, memorySizeMb) + PRICE_PER_REQUEST;
+    }
+
+    /**
+     * Splits the cost of an invocation at this function's memory size into its stages. Whatever
+     * runtime the fetch and encode stages do not account for counts as processing.
+     *
+     * @param runTimeMs The runtime of the invocation.
+     * @param fetchMs   The time spent downloading and decoding, or 0.
+     * @param encodeMs  The time spent encoding, or 0.
+     * @return The cost of each stage in USD.
+     */
+    public static HashMap<String, Object> stageCosts(final long runTimeMs, final long fetchMs, final long encodeMs) {
+        final long processingMs = Math.max(0, runTimeMs - fetchMs - encodeMs);
+        final HashMap<String, Object> costs = new HashMap<>();
+        costs.put("fetch_decode", durationCost(fetchMs, MEMORY_SIZE_MB));
+        costs.put("processing", durationCost(processingMs, MEMORY_SIZE_MB));
+        costs.put("encode", durationCost(encodeMs, MEMORY_SIZE_MB));
+        costs.put("request", PRICE_PER_REQUEST);
+        return costs;
+    }
+
+    /**
+     * Graviton functions are billed at a lower rate per GB-second.
+     *
+     * @return The duration price for the architecture this JVM runs on.
+     */
+    private static double pricePerGbSecond() {
+        final String arch = System.getProperty("os.arch", "");
+        return arch.equals("aarch64") || arch.equals("arm64") ? ARM_PRICE_PER_GB_SECOND : X86_PRICE_PER_GB_SECOND;
+    }
+
+    /**
+     * @return The memory size from the Lambda environment, or the default outside Lambda.
+     */
+    private static int readMemorySize() {
+        try {
+            final String value = System.getenv(MEMORY_SIZE_ENV);
+            return value == null ? DEFAULT_MEMORY_SIZE_MB : Integer.parseInt(value.trim());
+        } catch (final NumberFormatException e) {
+            return DEFAULT_MEMORY_SIZE_MB;
+        }
+    }
+
+}
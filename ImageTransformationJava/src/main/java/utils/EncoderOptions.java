@@ -0,0 +1,240 @@
+package utils;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Writer settings that trade output size for encode speed.
+ *
+ *  A request may name a profile with "encoder_profile" (fastest, balanced or smallest), and override
+ *  individual settings with "jpeg_quality" (1-100), "progressive", "optimize_huffman" and
+ *  "png_compression_level" (0-9). Settings that are not given keep the writer's defaults.
+ *
+ *  PNG output can be switched from the JDK writer to the multi-threaded encoder with
+ *  "png_encoder": "parallel", tuned by "png_threads" and "png_prime_dictionary".
+ */
+public final class EncoderOptions {
+
+    // Request Body Keys
+    public static final String PROFILE_KEY = "encoder_profile";
+    public static final String JPEG_QUALITY_KEY = "jpeg_quality";
+    public static final String PROGRESSIVE_KEY = "progressive";
+    public static final String OPTIMIZE_HUFFMAN_KEY = "optimize_huffman";
+    public static final String PNG_COMPRESSION_LEVEL_KEY = "png_compression_level";
+    public static final String PNG_ENCODER_KEY = "png_encoder";
+    public static final String PNG_THREADS_KEY = "png_threads";
+    public static final String PNG_PRIME_DICTIONARY_KEY = "png_prime_dictionary";
+
+    /**
+     * Options that leave every writer setting at its default.
+     */
+    public static final EncoderOptions DEFAULT = new EncoderOptions("default", null, null, null, null, 0, true);
+
+
+    /**
+     * Named presets. Smallest gives up JPEG quality as well as encode time, where fastest keeps
+     * the quality of the JDK default and skips the extra passes.
+     */
+    public enum Profile {
+        FASTEST(75, false, false, 1),
+        BALANCED(85, false, true, 4),
+        SMALLEST(60, true, true, 9);
+
+        private final int jpegQuality;
+        private final boolean progressive;
+        private final boolean optimizeHuffman;
+        private final int pngCompressionLevel;
+
+        Profile(final int jpegQuality, final boolean progressive, final boolean optimizeHuffman, final int pngCompressionLevel) {
+            this.jpegQuality = jpegQuality;
+            this.progressive = progressive;
+            this.optimizeHuffman = optimizeHuffman;
+            this.pngCompressionLevel = pngCompressionLevel;
+        }
+    }
+
+
+    private final String name;
+    private final Integer jpegQuality;
+    private final Boolean progressive;
+    private final Boolean optimizeHuffman;
+    private final Integer pngCompressionLevel;
+    private final int pngThreads;
+    private final boolean pngPrimeDictionary;
+
+    private EncoderOptions(final String name,
+                           final Integer jpegQuality,
+                           final Boolean progressive,
+                           final Boolean optimizeHuffman,
+                           final Integer pngCompressionLevel,
+                           final int pngThreads,
+                           final boolean pngPrimeDictionary) {
+        this.name = name;
+        this.jpegQuality = jpegQuality;
+        this.progressive = progressive;
+        this.optimizeHuffman = optimizeHuffman;
+        this.pngCompressionLevel = pngCompressionLevel;
+        this.pngThreads = pngThreads;
+        this.pngPrimeDictionary = pngPrimeDictionary;
+    }
+
+    /**
+     * Reads the encoder settings from a request.
+     *
+     * @param request The request arguments.
+     * @return The encoder options.
+     * @throws IllegalArgumentException If a setting is invalid.
+     */
+    public static EncoderOptions fromRequest(final Map<String, Object> request) {
+        String name = "default";
+        Integer jpegQuality = null;
+        Boolean progressive = null;
+        Boolean optimizeHuffman = null;
+        Integer pngCompressionLevel = null;
+
+        final Object profileName = request.get(PROFILE_KEY);
+        if (profileName != null) {
+            final Profile profile;
+            try {
+                profile = Profile.valueOf(profileName.toString().toUpperCase());
+            } catch (final IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid encoder_profile. Must be fastest, balanced, or smallest.");
+            }
+            name = profile.name().toLowerCase();
+            jpegQuality = profile.jpegQuality;
+            progressive = profile.progressive;
+            optimizeHuffman = profile.optimizeHuffman;
+            pngCompressionLevel = profile.pngCompressionLevel;
+        }
+
+        if (request.get(JPEG_QUALITY_KEY) instanceof Number) {
+            jpegQuality = ((Number) request.get(JPEG_QUALITY_KEY)).intValue();
+            if (jpegQuality < 1 || jpegQuality > 100) {
+                throw new IllegalArgumentException("Invalid jpeg_quality. Must be between 1 and 100.");
+            }
+        }
+        if (request.get(PNG_COMPRESSION_LEVEL_KEY) instanceof Number) {
+            pngCompressionLevel = ((Number) request.get(PNG_COMPRESSION_LEVEL_KEY)).intValue();
+            if (pngCompressionLevel < 0 || pngCompressionLevel > 9) {
+                throw new IllegalArgumentException("Invalid png_compression_level. Must be between 0 and 9.");
+            }
+        }
+        if (request.get(PROGRESSIVE_KEY) instanceof Boolean) {
+            progressive = (Boolean) request.get(PROGRESSIVE_KEY);
+        }
+        if (request.get(OPTIMIZE_HUFFMAN_KEY) instanceof Boolean) {
+            optimizeHuffman = (Boolean) request.get(OPTIMIZE_HUFFMAN_KEY);
+        }
+
+        // 0 threads selects the JDK writer
+        int pngThreads = 0;
+        final Object pngEncoder = request.get(PNG_ENCODER_KEY);
+        if (pngEncoder != null && !"imageio".equalsIgnoreCase(pngEncoder.toString())) {
+            if (!"parallel".equalsIgnoreCase(pngEncoder.toString())) {
+                throw new IllegalArgumentException("Invalid png_encoder. Must be imageio or parallel.");
+            }
+            pngThreads = request.get(PNG_THREADS_KEY) instanceof Number
+                    ? ((Number) request.get(PNG_THREADS_KEY)).intValue()
+                    : Runtime.getRuntime().availableProcessors();
+            final int processors = Runtime.getRuntime().availableProcessors();
+            if (pngThreads < 1 || pngThreads > processors) {
+                throw new IllegalArgumentException(String.format("Invalid png_threads. Must be between 1 and %d.", processors));
+            }
+        }
+        final boolean pngPrimeDictionary = !Boolean.FALSE.equals(request.get(PNG_PRIME_DICTIONARY_KEY));
+
+        return new EncoderOptions(name, jpegQuality, progressive, optimizeHuffman, pngCompressionLevel, pngThreads, pngPrimeDictionary);
+    }
+
+    /**
+     * Creates options that use the parallel PNG encoder.
+     *
+     * @param compressionLevel The deflate level, 0 to 9.
+     * @param threads          The number of threads to encode with.
+     * @param primeDictionary  True to prime each band with the data before it.
+     * @return The encoder options.
+     */
+    public static EncoderOptions parallelPng(final int compressionLevel, final int threads, final boolean primeDictionary) {
+        return new EncoderOptions("parallel", null, null, null, compressionLevel, threads, primeDictionary);
+    }
+
+    /**
+     * @return The name of the profile these options are based on.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Encodes an image with these options.
+     *
+     * @param image        The image to encode.
+     * @param format       The format name, such as "png" or "jpeg".
+     * @param outputStream The stream to write to.
+     * @return False if no writer can encode the image in the format, true otherwise.
+     * @throws IOException If the image could not be written.
+     */
+    public boolean write(final BufferedImage image, final String format, final OutputStream outputStream) throws IOException {
+        if (pngThreads > 0 && format.equalsIgnoreCase("png")) {
+            final int level = pngCompressionLevel != null ? pngCompressionLevel : ParallelPngEncoder.DEFAULT_COMPRESSION_LEVEL;
+            new ParallelPngEncoder(level, pngThreads, pngPrimeDictionary).encode(image, outputStream);
+            return true;
+        }
+
+        final long setupStart = System.nanoTime();
+        final ImageWriter writer = ImageCodecs.acquireWriter(image, format);
+        if (writer == null) {
+            return false;
+        }
+
+        try (ImageCodecs.MemoryOutput imageStream = ImageCodecs.openOutput()) {
+            writer.setOutput(imageStream);
+            final ImageWriteParam param = toWriteParam(writer);
+            ImageCodecs.recordEncodeSetup(setupStart);
+            writer.write(null, new IIOImage(image, null, null), param);
+            imageStream.writeTo(outputStream);
+        } finally {
+            ImageCodecs.releaseWriter(format, writer);
+        }
+        return true;
+    }
+
+    /**
+     * Applies these options to a writer's default parameters.
+     *
+     * @param writer The writer.
+     * @return The write parameters.
+     */
+    private ImageWriteParam toWriteParam(final ImageWriter writer) {
+        final ImageWriteParam param = writer.getDefaultWriteParam();
+
+        if (param instanceof JPEGImageWriteParam) {
+            if (jpegQuality != null) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(jpegQuality / 100f);
+            }
+            if (progressive != null) {
+                param.setProgressiveMode(progressive ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+            }
+            if (optimizeHuffman != null) {
+                ((JPEGImageWriteParam) param).setOptimizeHuffmanTables(optimizeHuffman);
+            }
+
+        } else if (pngCompressionLevel != null && param.canWriteCompressed()) {
+            // The PNG writer uses deflate level 9 - round(9 * quality)
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality((9 - pngCompressionLevel) / 9f);
+        }
+        return param;
+    }
+
+}
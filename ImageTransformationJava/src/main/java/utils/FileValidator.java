@@ -14,7 +14,7 @@ public class FileValidator {
     /**
      * All allowed file extensions.
      */
-    private static final Set<String> ALLOWED_EXTENSIONS = Set.of("png", "jpeg", "jpg");
+    private static final Set<String> ALLOWED_EXTENSIONS = Set.of("png", "jpeg", "jpg", "raster");
 
     /**
      * Validate the file type for both input and output files.
@@ -55,7 +55,7 @@ public class FileValidator {
     public static boolean isValidOutputFile(String fileName) {
         if (!isValidFileType(fileName)) {
             System.err.println("Invalid output file type: " + getFileExtension(fileName) +
-                    ". Only JPEG, JPG, and PNG are allowed.");
+                    ". Only JPEG, JPG, PNG, and RASTER are allowed.");
             return false;
         }
         return true;
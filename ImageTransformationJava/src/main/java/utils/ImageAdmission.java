@@ -0,0 +1,520 @@
+package utils;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Estimates the memory an image will need before it is decoded, and picks how it should be decoded.
+ *
+ *  Only the image header is read. The decoded size and the peak working set of the requested
+ *  operations are compared against the heap that is currently available, which selects one of:
+ *      - IN_MEMORY:        decode the full image, as before.
+ *      - STRIP_STREAMING:  decode the image in horizontal strips straight into a compact destination.
+ *      - SUBSAMPLED:       decode every n-th pixel when the operations would discard that detail anyway.
+ *      - REJECTED:         refuse the image with a clear error instead of running out of memory.
+ */
+public final class ImageAdmission {
+
+    /**
+     * Request key that allows the image to be subsampled even if no resize follows.
+     */
+    public static final String ALLOW_SUBSAMPLING_KEY = "allow_subsampling";
+
+    /**
+     * The fraction of the available heap an invocation may plan to use.
+     */
+    private static final double HEAP_HEADROOM = 0.85;
+
+    /**
+     * The largest subsampling factor that will be considered.
+     */
+    private static final int MAX_SUBSAMPLING = 8;
+
+    /**
+     * The fewest rows decoded at once on the strip-streaming path. Each strip restarts the decoder,
+     * so strips are made as tall as the budget allows.
+     */
+    private static final int MIN_STRIP_HEIGHT = 64;
+
+
+    /**
+     * How an image will be decoded.
+     */
+    public enum ExecutionPath {
+        IN_MEMORY, STRIP_STREAMING, SUBSAMPLED, REJECTED
+    }
+
+    /**
+     * A single requested operation and its arguments.
+     */
+    public static final class Step {
+        private static final String FORK = "fork";
+
+        private final String name;
+        private final Map<String, Object> args;
+        private final List<List<Step>> branches;
+
+        public Step(final String name, final Map<String, Object> args) {
+            this(name, args, Collections.emptyList());
+        }
+
+        private Step(final String name, final Map<String, Object> args, final List<List<Step>> branches) {
+            this.name = name;
+            this.args = args == null ? Collections.emptyMap() : args;
+            this.branches = branches;
+        }
+
+        /**
+         * Creates a step that hands the current image to several branches, which run at the same time.
+         *
+         * @param branches The operations of each branch.
+         * @return The step.
+         */
+        public static Step fork(final List<List<Step>> branches) {
+            return new Step(FORK, null, branches);
+        }
+    }
+
+    /**
+     * The outcome of admission.
+     */
+    public static final class Decision {
+        public final ExecutionPath path;
+        public final int subsampling;
+        public final int stripHeight;
+        public final long decodedBytes;
+        public final long estimatedPeakBytes;
+        public final long availableBytes;
+        public final String reason;
+
+        private Decision(final ExecutionPath path,
+                         final int subsampling,
+                         final int stripHeight,
+                         final long decodedBytes,
+                         final long estimatedPeakBytes,
+                         final long availableBytes,
+                         final String reason) {
+            this.path = path;
+            this.subsampling = subsampling;
+            this.stripHeight = stripHeight;
+            this.decodedBytes = decodedBytes;
+            this.estimatedPeakBytes = estimatedPeakBytes;
+            this.availableBytes = availableBytes;
+            this.reason = reason;
+        }
+
+        /**
+         * Records the decision to a function's output map.
+         *
+         * @param inspector The map to record to.
+         */
+        public void record(final Map<String, Object> inspector) {
+            inspector.put(Constants.EXECUTION_PATH_KEY, path.name().toLowerCase());
+            inspector.put(Constants.ESTIMATED_PEAK_MEMORY_MB_KEY, toMegabytes(estimatedPeakBytes));
+            inspector.put("estimated_decoded_mb", toMegabytes(decodedBytes));
+            inspector.put("available_heap_mb", toMegabytes(availableBytes));
+            if (subsampling > 1) {
+                inspector.put("subsampling", subsampling);
+            }
+            if (stripHeight > 0) {
+                inspector.put("strip_height", stripHeight);
+            }
+        }
+    }
+
+
+    private ImageAdmission() {
+    }
+
+    /**
+     * Decides how an image should be decoded. Only the header of the reader's input is read.
+     *
+     * @param reader  The reader, with its input already set.
+     * @param steps   The operations that will run on the image.
+     * @param request The request arguments.
+     * @return The decision.
+     * @throws IOException If the header could not be read.
+     */
+    public static Decision admit(final ImageReader reader,
+                                 final List<Step> steps,
+                                 final Map<String, Object> request) throws IOException {
+        return admit(reader, steps, request, availableHeapBytes());
+    }
+
+    /**
+     * Decides how an image should be decoded with a given amount of heap.
+     *
+     * @param reader    The reader, with its input already set.
+     * @param steps     The operations that will run on the image.
+     * @param request   The request arguments.
+     * @param available The heap that can still be allocated.
+     * @return The decision.
+     * @throws IOException If the header could not be read.
+     */
+    static Decision admit(final ImageReader reader,
+                          final List<Step> steps,
+                          final Map<String, Object> request,
+                          final long available) throws IOException {
+        final int width = reader.getWidth(0);
+        final int height = reader.getHeight(0);
+        final int sourceType = decodeType(reader);
+        final int sourceBytesPerPixel = RasterTypes.bytesPerPixel(sourceType);
+        final long decodedBytes = (long) width * height * sourceBytesPerPixel;
+        // Custom decodes are converted to a fast type, holding both copies for a moment
+        final boolean converted = !RasterTypes.isFastType(sourceType);
+        final long inMemoryPeak = estimatePeak(width, height, sourceBytesPerPixel, converted ? decodedBytes : 0, steps);
+
+        final long budget = (long) (available * HEAP_HEADROOM);
+        if (inMemoryPeak <= budget) {
+            return new Decision(ExecutionPath.IN_MEMORY, 1, 0, decodedBytes, inMemoryPeak, available, null);
+        }
+
+        // Strip streaming decodes straight into a grayscale destination, holding a single strip of source pixels
+        if (isStreamable(steps)) {
+            final long rowBytes = (long) width * sourceBytesPerPixel;
+            final long stripRows = Math.min(height, (budget - estimatePeak(width, height, 1, 0, steps)) / rowBytes);
+            if (stripRows >= Math.min(MIN_STRIP_HEIGHT, height)) {
+                final long stripPeak = estimatePeak(width, height, 1, stripRows * rowBytes, steps);
+                return new Decision(ExecutionPath.STRIP_STREAMING, 1, (int) stripRows, (long) width * height, stripPeak, available, null);
+            }
+        }
+
+        final boolean allowSubsampling = Boolean.TRUE.equals(request.get(ALLOW_SUBSAMPLING_KEY));
+        for (int factor = 2; factor <= MAX_SUBSAMPLING; factor++) {
+            final int subWidth = (width + factor - 1) / factor;
+            final int subHeight = (height + factor - 1) / factor;
+            if (!allowSubsampling && !resizesBelow(steps, subWidth, subHeight)) {
+                break;
+            }
+
+            final long subBytes = (long) subWidth * subHeight * sourceBytesPerPixel;
+            final long subPeak = estimatePeak(subWidth, subHeight, sourceBytesPerPixel, converted ? subBytes : 0, steps);
+            if (subPeak <= budget) {
+                return new Decision(ExecutionPath.SUBSAMPLED, factor, 0, subBytes, subPeak, available, null);
+            }
+        }
+
+        final String reason = String.format(
+                "Image of %dx%d needs an estimated %d MB to process, but only %d MB of heap can be used.",
+                width, height, toMegabytes(inMemoryPeak), budget >> 20);
+        return new Decision(ExecutionPath.REJECTED, 1, 0, decodedBytes, inMemoryPeak, available, reason);
+    }
+
+    /**
+     * Decodes an image according to an admission decision.
+     *
+     * @param reader   The reader, with its input already set.
+     * @param decision The admission decision. Must not be a rejection.
+     * @return The decoded image.
+     * @throws IOException If the image could not be decoded.
+     */
+    public static BufferedImage decode(final ImageReader reader, final Decision decision) throws IOException {
+        final ImageReadParam param = reader.getDefaultReadParam();
+
+        switch (decision.path) {
+            case SUBSAMPLED:
+                param.setSourceSubsampling(decision.subsampling, decision.subsampling, 0, 0);
+                return reader.read(0, param);
+
+            case STRIP_STREAMING:
+                return decodeInStrips(reader, decision.stripHeight);
+
+            default:
+                final int type = decodeType(reader);
+                if (type != BufferedImage.TYPE_CUSTOM) {
+                    final BufferedImage destination = RasterPool.acquireUncleared(reader.getWidth(0), reader.getHeight(0), type);
+                    if (destination != null) {
+                        param.setDestination(destination);
+                    }
+                }
+                return reader.read(0, param);
+        }
+    }
+
+    /**
+     * Checks that rasters of a known size fit in the heap that is currently available, for work that
+     * allocates its rasters itself rather than through a single decode, such as tiles.
+     *
+     * @param width  The width of the image the rasters belong to.
+     * @param height The height of the image the rasters belong to.
+     * @param bytes  The bytes the rasters take together.
+     * @return The reason the rasters do not fit, or null if they do.
+     */
+    public static String checkAllocation(final int width, final int height, final long bytes) {
+        final long budget = (long) (availableHeapBytes() * HEAP_HEADROOM);
+        if (bytes <= budget) {
+            return null;
+        }
+        return String.format("Image of %dx%d needs an estimated %d MB to process, but only %d MB of heap can be used.",
+                width, height, toMegabytes(bytes), budget >> 20);
+    }
+
+    /**
+     * Resets the peak usage of every heap memory pool, so a later call to
+     * {@link #peakHeapBytes()} only covers what follows. The peaks are shared by the whole process,
+     * so JvmAccounting only resets them when no other invocation is in flight.
+     */
+    public static void resetPeakHeap() {
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * @return The sum of the peak usage of all heap memory pools since the last reset.
+     */
+    public static long peakHeapBytes() {
+        long peak = 0;
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Garbage that has not been collected yet does not count, unlike the current usage.
+     *
+     * @return The sum of the usage of all heap memory pools after their last collection.
+     */
+    public static long liveHeapBytes() {
+        long live = 0;
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid() && pool.getCollectionUsage() != null) {
+                live += pool.getCollectionUsage().getUsed();
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Converts bytes to whole megabytes.
+     *
+     * @param bytes The number of bytes.
+     * @return The number of megabytes, rounded up.
+     */
+    public static long toMegabytes(final long bytes) {
+        return (bytes + (1 << 20) - 1) >> 20;
+    }
+
+    /**
+     * Builds the admission steps for a batch operation list.
+     *
+     * @param operations The operation list of a batch request.
+     * @return The steps.
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Step> stepsOf(final List<? extends List<Object>> operations) {
+        final List<Step> steps = new ArrayList<>();
+        for (final List<Object> operation : operations) {
+            if (operation.isEmpty() || !(operation.get(0) instanceof String)) {
+                continue;
+            }
+            final Object args = operation.size() > 1 ? operation.get(1) : null;
+            steps.add(new Step((String) operation.get(0), args instanceof Map ? (Map<String, Object>) args : null));
+        }
+        return steps;
+    }
+
+
+    /**
+     * Estimates the peak working set of running the steps over an image.
+     * A step holds its input and its output at the same time.
+     *
+     * @param width         The decoded width.
+     * @param height        The decoded height.
+     * @param bytesPerPixel The bytes per pixel of the decoded image.
+     * @param decodeExtra   Transient bytes held by the decoder.
+     * @param steps         The operations to run.
+     * @return The estimated peak in bytes.
+     */
+    private static long estimatePeak(int width, int height, int bytesPerPixel, final long decodeExtra, final List<Step> steps) {
+        long current = (long) width * height * bytesPerPixel;
+        long peak = current + decodeExtra;
+
+        for (final Step step : steps) {
+            long output = current;
+            long extra = 0;
+            switch (step.name) {
+                case "rotate":
+                    final int angle = intArg(step, "rotation_angle", 0);
+                    if (angle == 90 || angle == 270) {
+                        final int swap = width;
+                        width = height;
+                        height = swap;
+                    }
+                    output = (long) width * height * bytesPerPixel;
+                    break;
+                case "resize":
+                    width = intArg(step, "target_width", width);
+                    height = intArg(step, "target_height", height);
+                    output = (long) width * height * bytesPerPixel;
+                    extra = (long) width * height * 4; // Area averaging filters through an ARGB image
+                    break;
+                case "grayscale":
+                    bytesPerPixel = 1;
+                    output = (long) width * height;
+                    break;
+                case "brightness":
+                    output = (long) width * height * bytesPerPixel;
+                    break;
+                case "blur":
+                case "sharpen":
+                    output = (long) width * height * bytesPerPixel;
+                    extra = output; // The scratch buffer the passes alternate with
+                    if (bytesPerPixel == 4) {
+                        // A premultiplied copy of an image with alpha, and the straight copy sharpen compares with
+                        extra += step.name.equals("sharpen") ? 2 * output : output;
+                    }
+                    break;
+                case "transform":
+                    output = current;
+                    extra = current + (long) width * height * 4; // Encoded bytes and alpha removal
+                    break;
+                case "pyramid":
+                    // A packed copy of the input, plus the levels: a quarter, a sixteenth, ... of it
+                    output = 0;
+                    extra = (long) width * height * 4 + (long) width * height * 4 / 3;
+                    break;
+                case Step.FORK:
+                    // Branches run concurrently, so each holds its own working set on top of the shared input
+                    output = 0;
+                    for (final List<Step> branch : step.branches) {
+                        extra += estimatePeak(width, height, bytesPerPixel, 0, branch) - current;
+                    }
+                    break;
+                default:
+                    output = 0;
+                    break;
+            }
+            peak = Math.max(peak, current + output + extra);
+            if (output > 0) {
+                current = output;
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Decodes an image strip by strip into a grayscale destination.
+     *
+     * @param reader      The reader, with its input already set.
+     * @param stripHeight The number of rows to decode at once.
+     * @return The decoded grayscale image.
+     * @throws IOException If the image could not be decoded.
+     */
+    private static BufferedImage decodeInStrips(final ImageReader reader, final int stripHeight) throws IOException {
+        final int width = reader.getWidth(0);
+        final int height = reader.getHeight(0);
+        final BufferedImage destination = RasterPool.acquire(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        final Graphics2D graphics = destination.createGraphics();
+
+        try {
+            for (int y = 0; y < height; y += stripHeight) {
+                final ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(new Rectangle(0, y, width, Math.min(stripHeight, height - y)));
+                final BufferedImage strip = reader.read(0, param);
+                graphics.drawImage(strip, 0, y, null);
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return destination;
+    }
+
+    /**
+     * A step before the grayscale would see the gray decode in place of the colour image, even
+     * one that only reads it, such as details reporting the colour mode and alpha.
+     *
+     * @param steps The operations to run.
+     * @return True if the first step is grayscale.
+     */
+    private static boolean isStreamable(final List<Step> steps) {
+        return !steps.isEmpty() && steps.get(0).name.equals("grayscale");
+    }
+
+    /**
+     * @param steps     The operations to run.
+     * @param maxWidth  The subsampled width.
+     * @param maxHeight The subsampled height.
+     * @return True if the first resolution-changing step resizes to within the subsampled dimensions.
+     */
+    private static boolean resizesBelow(final List<Step> steps, final int maxWidth, final int maxHeight) {
+        boolean transposed = false;
+        for (final Step step : steps) {
+            if (step.name.equals("rotate")) {
+                final int angle = intArg(step, "rotation_angle", 0);
+                transposed ^= angle == 90 || angle == 270;
+            } else if (step.name.equals("resize")) {
+                final int targetWidth = intArg(step, transposed ? "target_height" : "target_width", Integer.MAX_VALUE);
+                final int targetHeight = intArg(step, transposed ? "target_width" : "target_height", Integer.MAX_VALUE);
+                return targetWidth <= maxWidth && targetHeight <= maxHeight;
+            } else if (step.name.equals(Step.FORK)) {
+                // Every branch has to discard the detail for the shared input to be subsampled
+                final int branchWidth = transposed ? maxHeight : maxWidth;
+                final int branchHeight = transposed ? maxWidth : maxHeight;
+                for (final List<Step> branch : step.branches) {
+                    if (!resizesBelow(branch, branchWidth, branchHeight)) {
+                        return false;
+                    }
+                }
+                return !step.branches.isEmpty();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param reader The reader, with its input already set.
+     * @return The BufferedImage type the reader would decode to by default.
+     * @throws IOException If the header could not be read.
+     */
+    private static int decodeType(final ImageReader reader) throws IOException {
+        final Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        return types.hasNext() ? types.next().getBufferedImageType() : BufferedImage.TYPE_CUSTOM;
+    }
+
+    /**
+     * @param step     The step.
+     * @param key      The argument key.
+     * @param fallback The value to use if the argument is missing.
+     * @return The integer argument.
+     */
+    private static int intArg(final Step step, final String key, final int fallback) {
+        final Object value = step.args.get(key);
+        return value instanceof Number ? ((Number) value).intValue() : fallback;
+    }
+
+    /**
+     * Garbage counts as used heap until it is collected, which an allocation that needs the room
+     * does anyway, so the heap that was live after the last collection is used when it leaves more.
+     *
+     * @return The heap that can still be allocated before reaching the maximum heap size.
+     */
+    private static long availableHeapBytes() {
+        final Runtime runtime = Runtime.getRuntime();
+        final long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        final long live = liveHeapBytes();
+        return live > 0 ? Math.max(free, runtime.maxMemory() - live) : free;
+    }
+
+}
@@ -0,0 +1,476 @@
+package utils;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+import javax.imageio.stream.ImageOutputStreamImpl;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Reusable ImageIO readers and writers, and in-memory image streams.
+ *
+ *  Every thread keeps one reader and one writer per format. A codec is checked out for a decode or
+ *  an encode and reset when it is returned, so the plugin registry is only searched the first
+ *  time a thread sees a format. The image streams are backed by byte arrays, and each thread
+ *  keeps one input and one output buffer for the next stream, so no stream ever falls back to
+ *  ImageIO's disk cache.
+ */
+public final class ImageCodecs {
+
+    /**
+     * The largest buffer a thread keeps for its next stream. Larger buffers are left to the GC.
+     */
+    private static final int MAX_RETAINED_BUFFER_BYTES = 16 * 1024 * 1024;
+
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+
+    /**
+     * Idle readers and writers of the current thread, by format name.
+     */
+    private static final ThreadLocal<Map<String, ImageReader>> READERS = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<Map<String, ImageWriter>> WRITERS = ThreadLocal.withInitial(HashMap::new);
+
+    /**
+     * The idle stream buffers of the current thread, or null while a stream is using them.
+     */
+    private static final ThreadLocal<byte[]> INPUT_BUFFER = new ThreadLocal<>();
+    private static final ThreadLocal<byte[]> OUTPUT_BUFFER = new ThreadLocal<>();
+
+    private static long decodeSetupNanos = 0;
+    private static long encodeSetupNanos = 0;
+    private static long reused = 0;
+    private static long created = 0;
+
+
+    private ImageCodecs() {
+    }
+
+    /**
+     * Opens an image stream over encoded bytes, without copying them.
+     *
+     * @param bytes The encoded image.
+     * @return The stream.
+     */
+    public static ImageInputStream openInput(final byte[] bytes) {
+        return new MemoryInput(bytes, bytes.length, false);
+    }
+
+    /**
+     * Opens an image stream over the contents of a stream, which are read into the thread's
+     * input buffer. The buffer is returned when the image stream is closed.
+     *
+     * @param inputStream The encoded image.
+     * @return The stream.
+     * @throws IOException If the stream could not be read.
+     */
+    public static ImageInputStream openInput(final InputStream inputStream) throws IOException {
+        byte[] buffer = takeBuffer(INPUT_BUFFER);
+        int length = 0;
+        int count;
+        while ((count = inputStream.read(buffer, length, buffer.length - length)) >= 0) {
+            length += count;
+            if (length == buffer.length) {
+                buffer = grow(buffer, length + 1);
+            }
+        }
+        return new MemoryInput(buffer, length, true);
+    }
+
+    /**
+     * Opens an image stream that writes into the thread's output buffer. The buffer is returned
+     * when the image stream is closed.
+     *
+     * @return The stream.
+     */
+    public static MemoryOutput openOutput() {
+        return new MemoryOutput(takeBuffer(OUTPUT_BUFFER));
+    }
+
+    /**
+     * Checks out a reader that can decode a stream and sets the stream as its input. The readers
+     * this thread already holds are tried first, and the plugin registry only when none of them
+     * recognises the stream.
+     *
+     * @param stream The encoded image, positioned at its start.
+     * @return The reader, or null if no reader can decode the stream.
+     * @throws IOException If the stream could not be read.
+     */
+    public static ImageReader acquireReader(final ImageInputStream stream) throws IOException {
+        final long setupStart = System.nanoTime();
+        final Map<String, ImageReader> idle = READERS.get();
+
+        ImageReader reader = null;
+        boolean wasReused = false;
+        for (final Map.Entry<String, ImageReader> entry : idle.entrySet()) {
+            if (entry.getValue().getOriginatingProvider().canDecodeInput(stream)) {
+                reader = idle.remove(entry.getKey());
+                break;
+            }
+        }
+
+        if (reader == null) {
+            final long lookupStart = System.nanoTime();
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            ColdStart.recordFirst(ColdStart.IMAGEIO_LOOKUP_KEY, lookupStart);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            reader = readers.next();
+        } else {
+            wasReused = true;
+        }
+
+        // Strip streaming reads the image more than once, so the stream must stay seekable
+        reader.setInput(stream, false, true);
+        recordSetup(System.nanoTime() - setupStart, 0, wasReused);
+        return reader;
+    }
+
+    /**
+     * Resets a reader and returns it to the thread for the next decode of its format.
+     *
+     * @param reader The reader, checked out on this thread.
+     */
+    public static void releaseReader(final ImageReader reader) {
+        try {
+            reader.reset();
+        } catch (final RuntimeException e) {
+            // A reader that cannot be reset is not reused
+            reader.dispose();
+            return;
+        }
+        final String format = formatOf(reader.getOriginatingProvider().getFormatNames());
+        if (READERS.get().putIfAbsent(format, reader) != null) {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Checks out a writer that can encode an image in a format.
+     *
+     * @param image  The image to encode.
+     * @param format The format name, such as "png" or "jpeg".
+     * @return The writer, or null if no writer can encode the image in the format.
+     */
+    public static ImageWriter acquireWriter(final RenderedImage image, final String format) {
+        final long setupStart = System.nanoTime();
+        final Map<String, ImageWriter> idle = WRITERS.get();
+
+        final ImageWriter cached = idle.remove(formatOf(format));
+        if (cached != null && cached.getOriginatingProvider().canEncodeImage(image)) {
+            recordSetup(0, System.nanoTime() - setupStart, true);
+            return cached;
+        }
+        if (cached != null) {
+            idle.put(formatOf(format), cached);
+        }
+
+        final Iterator<ImageWriter> writers = ImageIO.getImageWriters(ImageTypeSpecifier.createFromRenderedImage(image), format);
+        if (!writers.hasNext()) {
+            return null;
+        }
+        final ImageWriter writer = writers.next();
+        recordSetup(0, System.nanoTime() - setupStart, false);
+        return writer;
+    }
+
+    /**
+     * Resets a writer and returns it to the thread for the next encode of its format.
+     *
+     * @param format The format the writer was acquired for.
+     * @param writer The writer, checked out on this thread.
+     */
+    public static void releaseWriter(final String format, final ImageWriter writer) {
+        try {
+            writer.reset();
+        } catch (final RuntimeException e) {
+            writer.dispose();
+            return;
+        }
+        if (WRITERS.get().putIfAbsent(formatOf(format), writer) != null) {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Adds to the encode setup time, for the work an encoder does before its first pixel.
+     *
+     * @param startNanos The System.nanoTime() at which the setup started.
+     */
+    public static void recordEncodeSetup(final long startNanos) {
+        recordSetup(0, System.nanoTime() - startNanos, null);
+    }
+
+    private static synchronized void recordSetup(final long decodeNanos, final long encodeNanos, final Boolean wasReused) {
+        decodeSetupNanos += decodeNanos;
+        encodeSetupNanos += encodeNanos;
+        if (wasReused != null) {
+            if (wasReused) {
+                reused++;
+            } else {
+                created++;
+            }
+        }
+    }
+
+    private static String formatOf(final String... formatNames) {
+        return formatNames[0].toLowerCase();
+    }
+
+    /**
+     * Takes the idle buffer of the current thread, or allocates one if a stream is using it.
+     */
+    private static byte[] takeBuffer(final ThreadLocal<byte[]> pool) {
+        final byte[] buffer = pool.get();
+        pool.set(null);
+        return buffer != null ? buffer : new byte[INITIAL_BUFFER_BYTES];
+    }
+
+    /**
+     * Keeps a buffer for the next stream of the current thread, unless it is too large to keep.
+     */
+    private static void returnBuffer(final ThreadLocal<byte[]> pool, final byte[] buffer) {
+        if (buffer.length <= MAX_RETAINED_BUFFER_BYTES && pool.get() == null) {
+            pool.set(buffer);
+        }
+    }
+
+    /**
+     * @return A copy of the buffer with room for at least the given number of bytes.
+     */
+    private static byte[] grow(final byte[] buffer, final long minCapacity) {
+        if (minCapacity > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Encoded image is too large.");
+        }
+        final long capacity = Math.max(minCapacity, Math.min((long) buffer.length * 2, Integer.MAX_VALUE - 8));
+        final byte[] grown = new byte[(int) capacity];
+        System.arraycopy(buffer, 0, grown, 0, buffer.length);
+        return grown;
+    }
+
+    /**
+     * Takes a snapshot of the codec counters. Two snapshots can be subtracted
+     * to get the statistics of a single invocation.
+     *
+     * @return The current counters.
+     */
+    public static synchronized Stats snapshot() {
+        return new Stats(decodeSetupNanos, encodeSetupNanos, reused, created);
+    }
+
+    /**
+     * Codec counters at a point in time.
+     */
+    public static final class Stats {
+        public final long decodeSetupNanos;
+        public final long encodeSetupNanos;
+        public final long reused;
+        public final long created;
+
+        private Stats(final long decodeSetupNanos, final long encodeSetupNanos, final long reused, final long created) {
+            this.decodeSetupNanos = decodeSetupNanos;
+            this.encodeSetupNanos = encodeSetupNanos;
+            this.reused = reused;
+            this.created = created;
+        }
+
+        /**
+         * Subtracts an earlier snapshot from this one.
+         *
+         * @param earlier The earlier snapshot.
+         * @return The counters accumulated between the two snapshots.
+         */
+        public Stats since(final Stats earlier) {
+            return new Stats(decodeSetupNanos - earlier.decodeSetupNanos, encodeSetupNanos - earlier.encodeSetupNanos,
+                    reused - earlier.reused, created - earlier.created);
+        }
+
+        /**
+         * @return The time spent finding codecs and opening streams, in milliseconds.
+         */
+        public double decodeSetupMs() {
+            return decodeSetupNanos / 1e6;
+        }
+
+        /**
+         * @return The time spent finding codecs and preparing encoders, in milliseconds.
+         */
+        public double encodeSetupMs() {
+            return encodeSetupNanos / 1e6;
+        }
+    }
+
+    /**
+     * A seekable image stream over a byte array.
+     */
+    private static final class MemoryInput extends ImageInputStreamImpl {
+        private final byte[] buffer;
+        private final int length;
+        private final boolean pooled;
+
+        private MemoryInput(final byte[] buffer, final int length, final boolean pooled) {
+            this.buffer = buffer;
+            this.length = length;
+            this.pooled = pooled;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            return streamPos < length ? buffer[(int) streamPos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            checkClosed();
+            if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+                throw new IndexOutOfBoundsException();
+            }
+            bitOffset = 0;
+            if (len == 0) {
+                return 0;
+            }
+            if (streamPos >= length) {
+                return -1;
+            }
+            final int count = (int) Math.min(len, length - streamPos);
+            System.arraycopy(buffer, (int) streamPos, b, off, count);
+            streamPos += count;
+            return count;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public boolean isCached() {
+            return true;
+        }
+
+        @Override
+        public boolean isCachedMemory() {
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if (pooled) {
+                returnBuffer(INPUT_BUFFER, buffer);
+            }
+        }
+    }
+
+    /**
+     * A seekable image stream that writes into a growable byte array.
+     */
+    public static final class MemoryOutput extends ImageOutputStreamImpl {
+        private byte[] buffer;
+        private int length = 0;
+
+        private MemoryOutput(final byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            return streamPos < length ? buffer[(int) streamPos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            checkClosed();
+            if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+                throw new IndexOutOfBoundsException();
+            }
+            bitOffset = 0;
+            if (len == 0) {
+                return 0;
+            }
+            if (streamPos >= length) {
+                return -1;
+            }
+            final int count = (int) Math.min(len, length - streamPos);
+            System.arraycopy(buffer, (int) streamPos, b, off, count);
+            streamPos += count;
+            return count;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            checkClosed();
+            flushBits();
+            ensureCapacity(streamPos + 1);
+            buffer[(int) streamPos++] = (byte) b;
+            length = (int) Math.max(length, streamPos);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            checkClosed();
+            if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+                throw new IndexOutOfBoundsException();
+            }
+            flushBits();
+            ensureCapacity(streamPos + len);
+            System.arraycopy(b, off, buffer, (int) streamPos, len);
+            streamPos += len;
+            length = (int) Math.max(length, streamPos);
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public boolean isCached() {
+            return true;
+        }
+
+        @Override
+        public boolean isCachedMemory() {
+            return true;
+        }
+
+        /**
+         * Copies everything written so far to a stream.
+         *
+         * @param outputStream The stream to copy to.
+         * @throws IOException If the stream could not be written.
+         */
+        public void writeTo(final OutputStream outputStream) throws IOException {
+            outputStream.write(buffer, 0, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            returnBuffer(OUTPUT_BUFFER, buffer);
+        }
+
+        private void ensureCapacity(final long minCapacity) {
+            if (minCapacity > buffer.length) {
+                buffer = grow(buffer, minCapacity);
+            }
+        }
+    }
+
+}
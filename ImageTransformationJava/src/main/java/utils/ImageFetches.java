@@ -0,0 +1,247 @@
+package utils;
+
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Single-flight fetching and decoding of S3 images.
+ *
+ *  Concurrent requests for the same (bucket, key, version) share one download and one decode:
+ *  the first request leads the fetch, and the ones that arrive while it is in flight wait for it
+ *  and receive the same image. Nothing is cached once the flight lands, so a later request always
+ *  sees the current object. A shared image is read-only; every holder still releases it to the
+ *  raster pool, which keeps it out of the pool until the last holder is done.
+ */
+public final class ImageFetches {
+
+    /**
+     * The request key of an optional S3 object version to fetch.
+     */
+    public static final String VERSION_ID_KEY = "version_id";
+
+    /**
+     * Fetches in flight, keyed by bucket, key and version.
+     */
+    private static final Map<String, Flight> FLIGHTS = new HashMap<>();
+
+    private static long coalesced = 0;
+    private static long bytesSaved = 0;
+
+
+    private ImageFetches() {
+    }
+
+    /**
+     * A fetch in progress, and the requests waiting for it.
+     */
+    private static final class Flight {
+        private final CompletableFuture<Fetched> result = new CompletableFuture<>();
+        private int joiners = 0;
+    }
+
+    /**
+     * The outcome of a fetch.
+     */
+    private static final class Fetched {
+        private final byte[] bytes;
+        private final BufferedImage image;
+        private final Map<String, Object> admission;
+
+        private Fetched(final byte[] bytes, final BufferedImage image, final Map<String, Object> admission) {
+            this.bytes = bytes;
+            this.image = image;
+            this.admission = admission;
+        }
+
+        /**
+         * Only a full in-memory decode suits every request. Streamed and subsampled decodes
+         * depend on the operations of the request that led the fetch.
+         *
+         * @return True if requests that joined the fetch can use its image.
+         */
+        private boolean isShareable() {
+            return image != null && ImageAdmission.ExecutionPath.IN_MEMORY.name().toLowerCase()
+                    .equals(admission.get(Constants.EXECUTION_PATH_KEY));
+        }
+    }
+
+    /**
+     * Fetches and decodes an image, joining a fetch of the same object that is already in flight.
+     *
+     * @param bucketName The bucket to get an image from.
+     * @param fileName   The name of the image.
+     * @param inspector  A map to record the admission decision to.
+     * @param request    The request arguments, optionally holding a "version_id".
+     * @param steps      The operations that will run on the image.
+     * @return The image, or null if it could not be downloaded or decoded.
+     * @throws IOException              If the image could not be read.
+     * @throws IllegalArgumentException If the image is too large to process.
+     */
+    public static BufferedImage fetch(final String bucketName,
+                                      final String fileName,
+                                      final Map<String, Object> inspector,
+                                      final Map<String, Object> request,
+                                      final List<ImageAdmission.Step> steps) throws IOException {
+        final Object version = request.get(VERSION_ID_KEY);
+        final String versionId = version instanceof String ? (String) version : null;
+        final String key = bucketName + '/' + fileName + '@' + (versionId == null ? "" : versionId);
+
+        final Flight flight;
+        final boolean leader;
+        synchronized (FLIGHTS) {
+            final Flight existing = FLIGHTS.get(key);
+            leader = existing == null;
+            flight = leader ? new Flight() : existing;
+            if (leader) {
+                FLIGHTS.put(key, flight);
+            } else {
+                flight.joiners++;
+            }
+        }
+
+        if (leader) {
+            lead(key, flight, bucketName, fileName, versionId, request, steps);
+        }
+
+        final Fetched fetched;
+        try {
+            fetched = flight.result.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        if (fetched.bytes == null) {
+            return null;
+        }
+
+        if (leader || fetched.isShareable()) {
+            if (!leader) {
+                recordCoalesced(fetched.bytes.length + (fetched.image == null ? 0 : RasterPool.sizeInBytes(fetched.image)));
+            }
+            inspector.putAll(fetched.admission);
+            return fetched.image;
+        }
+
+        // The download is still shared, but the decode has to follow this request's own admission
+        recordCoalesced(fetched.bytes.length);
+        return Constants.readImage(fetched.bytes, steps, request, inspector);
+    }
+
+    /**
+     * Downloads and decodes an image on behalf of every request in a flight, then lands the flight.
+     *
+     * @param key        The key of the flight.
+     * @param flight     The flight.
+     * @param bucketName The bucket to get an image from.
+     * @param fileName   The name of the image.
+     * @param versionId  The object version, or null for the current version.
+     * @param request    The request arguments of the leading request.
+     * @param steps      The operations of the leading request.
+     */
+    private static void lead(final String key,
+                             final Flight flight,
+                             final String bucketName,
+                             final String fileName,
+                             final String versionId,
+                             final Map<String, Object> request,
+                             final List<ImageAdmission.Step> steps) {
+        Fetched fetched = null;
+        Throwable error = null;
+        try {
+            final byte[] bytes = download(bucketName, fileName, versionId);
+            final Map<String, Object> admission = new HashMap<>();
+            final BufferedImage image = bytes == null ? null : Constants.readImage(bytes, steps, request, admission);
+            fetched = new Fetched(bytes, image, admission);
+        } catch (final Throwable e) {
+            // The leader rethrows it from the flight like every joiner, including an OutOfMemoryError while decoding
+            error = e;
+        } finally {
+            // Any failure must still land the flight, or the joiners would wait forever.
+            // Later requests start a new flight, and every joiner becomes a holder of the shared image.
+            synchronized (FLIGHTS) {
+                FLIGHTS.remove(key);
+                if (fetched != null && fetched.isShareable()) {
+                    RasterPool.retain(fetched.image, flight.joiners);
+                }
+            }
+
+            if (fetched != null) {
+                flight.result.complete(fetched);
+            } else {
+                flight.result.completeExceptionally(error);
+            }
+        }
+    }
+
+    /**
+     * @param bucketName The bucket to get an image from.
+     * @param fileName   The name of the image.
+     * @param versionId  The object version, or null for the current version.
+     * @return The encoded image, or null if it could not be downloaded.
+     */
+    private static byte[] download(final String bucketName, final String fileName, final String versionId) {
+        try (S3Object s3Object = Constants.getS3Client().getObject(new GetObjectRequest(bucketName, fileName, versionId))) {
+            return s3Object.getObjectContent().readAllBytes();
+        } catch (final Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param saved The bytes a joining request did not have to download or decode.
+     */
+    private static synchronized void recordCoalesced(final long saved) {
+        coalesced++;
+        bytesSaved += saved;
+    }
+
+    /**
+     * Takes a snapshot of the coalescing counters. Two snapshots can be subtracted
+     * to get the statistics of a single invocation.
+     *
+     * @return The current counters.
+     */
+    public static synchronized Stats snapshot() {
+        return new Stats(coalesced, bytesSaved);
+    }
+
+    /**
+     * Coalescing counters at a point in time.
+     */
+    public static final class Stats {
+        public final long coalesced;
+        public final long bytesSaved;
+
+        private Stats(final long coalesced, final long bytesSaved) {
+            this.coalesced = coalesced;
+            this.bytesSaved = bytesSaved;
+        }
+
+        /**
+         * Subtracts an earlier snapshot from this one.
+         *
+         * @param earlier The earlier snapshot.
+         * @return The counters accumulated between the two snapshots.
+         */
+        public Stats since(final Stats earlier) {
+            return new Stats(coalesced - earlier.coalesced, bytesSaved - earlier.bytesSaved);
+        }
+    }
+
+}
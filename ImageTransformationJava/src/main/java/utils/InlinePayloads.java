@@ -0,0 +1,173 @@
+package utils;
+
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Inline image payloads, which bypass the object store for small images.
+ *
+ *  A request that carries its source image as base64 in "image_base64" is processed without an S3
+ *  GET, and its result comes back as base64 in the "image_base64" of the response instead of being
+ *  uploaded. Adding "upload": true uploads the result as well. The "filename" still names the image
+ *  and selects its output format, and the bucket is only needed to upload.
+ *
+ *  Lambda limits a synchronous request and response to 6 MB each, so the encoded image has to fit
+ *  in that limit in both directions, less the room the response keeps for its metrics. A request
+ *  that returns several images, such as the levels of a pyramid or the leaves of a batch graph,
+ *  shares that one limit across all of them.
+ */
+public final class InlinePayloads {
+
+    /**
+     * The request key of the inline source image, and the response key of the inline result.
+     */
+    public static final String IMAGE_BASE64_KEY = "image_base64";
+
+    /**
+     * The request key that asks for an inline result to be uploaded as well.
+     */
+    public static final String UPLOAD_KEY = "upload";
+
+    /**
+     * The largest synchronous Lambda request or response.
+     */
+    public static final int MAX_PAYLOAD_BYTES = 6 * 1024 * 1024;
+
+    /**
+     * The part of a response kept for the metrics and outputs next to the inline image.
+     */
+    private static final int RESPONSE_RESERVE_BYTES = 256 * 1024;
+
+    /**
+     * The request key of the base64 bytes the response has taken so far.
+     */
+    private static final String RESPONSE_BYTES_KEY = "inline_response_bytes";
+
+
+    private InlinePayloads() {
+    }
+
+    /**
+     * @param request The request arguments.
+     * @return True if the request carries its source image inline.
+     */
+    public static boolean isInline(final Map<String, Object> request) {
+        return request.get(IMAGE_BASE64_KEY) instanceof String;
+    }
+
+    /**
+     * @param request The request arguments.
+     * @return True if the result should be uploaded to S3: always for a request that reads from S3,
+     *         and only when asked for a request that carries its image inline.
+     */
+    public static boolean shouldUpload(final Map<String, Object> request) {
+        return !isInline(request) || Boolean.TRUE.equals(request.get(UPLOAD_KEY));
+    }
+
+    /**
+     * Decodes the inline source image of a request. Line breaks in the base64 are ignored.
+     *
+     * @param request The request arguments.
+     * @return The encoded image.
+     * @throws IllegalArgumentException If the image is not valid base64 or exceeds the payload limit.
+     */
+    public static byte[] decode(final Map<String, Object> request) {
+        final String encoded = (String) request.get(IMAGE_BASE64_KEY);
+        if (encoded.length() > MAX_PAYLOAD_BYTES) {
+            throw new IllegalArgumentException("Invalid image_base64. Must be at most " + MAX_PAYLOAD_BYTES + " bytes.");
+        }
+        try {
+            return Base64.getMimeDecoder().decode(encoded);
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid image_base64. Must be base64 encoded: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Checks, before any processing, that the images a request returns inline are expected to fit
+     * in one response, and starts the count of the response bytes the images take. A function that
+     * attaches images from several threads calls this first, on the request thread.
+     *
+     * @param request        The request arguments.
+     * @param estimatedBytes The estimated size of every image the request returns, encoded.
+     * @return An error message if the images will not fit, otherwise null.
+     */
+    public static String checkResponse(final Map<String, Object> request, final long estimatedBytes) {
+        if (!isInline(request)) {
+            return null;
+        }
+        responseBytes(request);
+        if (Boolean.TRUE.equals(request.get(UPLOAD_KEY))) {
+            return null;
+        }
+        final long encodedLength = encodedLength(estimatedBytes);
+        if (encodedLength > MAX_PAYLOAD_BYTES - RESPONSE_RESERVE_BYTES) {
+            return "The output images are expected to be " + encodedLength + " bytes as base64, over the inline response limit of "
+                    + (MAX_PAYLOAD_BYTES - RESPONSE_RESERVE_BYTES) + " bytes. Add \"upload\": true to receive them through S3.";
+        }
+        return null;
+    }
+
+    /**
+     * @param request The request arguments.
+     * @return The size of the inline source image, encoded, or 0 if the request reads from S3.
+     */
+    public static long sourceBytes(final Map<String, Object> request) {
+        return isInline(request) ? 3L * ((String) request.get(IMAGE_BASE64_KEY)).length() / 4 : 0;
+    }
+
+    /**
+     * Adds an encoded image to a response as base64, counting it against the limit the whole
+     * response shares.
+     *
+     * @param imageBytes The encoded image.
+     * @param output     The response to add the image to.
+     * @param request    The request arguments.
+     * @throws IllegalArgumentException If the image is too large to return inline, alone or with the
+     *                                  images already returned, and the request does not upload it instead.
+     */
+    public static void attach(final byte[] imageBytes, final Map<String, Object> output, final Map<String, Object> request) {
+        final long encodedLength = encodedLength(imageBytes.length);
+        final AtomicLong responseBytes = responseBytes(request);
+        long previous;
+        do {
+            previous = responseBytes.get();
+            if (previous + encodedLength > MAX_PAYLOAD_BYTES - RESPONSE_RESERVE_BYTES) {
+                if (Boolean.TRUE.equals(request.get(UPLOAD_KEY))) {
+                    // Too large for the response, but still delivered through S3
+                    return;
+                }
+                throw new IllegalArgumentException("The output image is " + encodedLength + " bytes as base64, which with the "
+                        + previous + " bytes already in the response is over the inline response limit of "
+                        + (MAX_PAYLOAD_BYTES - RESPONSE_RESERVE_BYTES) + " bytes. Add \"upload\": true to receive it through S3.");
+            }
+        } while (!responseBytes.compareAndSet(previous, previous + encodedLength));
+        output.put(IMAGE_BASE64_KEY, Base64.getEncoder().encodeToString(imageBytes));
+    }
+
+    /**
+     * @return The count of the response bytes the inline images of a request take, added to the
+     *         request on first use.
+     */
+    private static AtomicLong responseBytes(final Map<String, Object> request) {
+        final Object count = request.get(RESPONSE_BYTES_KEY);
+        if (count instanceof AtomicLong) {
+            return (AtomicLong) count;
+        }
+        final AtomicLong created = new AtomicLong();
+        request.put(RESPONSE_BYTES_KEY, created);
+        return created;
+    }
+
+    /**
+     * @return The length of the base64 encoding of a number of bytes.
+     */
+    private static long encodedLength(final long bytes) {
+        return 4L * ((bytes + 2) / 3);
+    }
+
+}
@@ -0,0 +1,175 @@
+package utils;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Reads requests and writes responses as JSON streams, without an intermediate document.
+ *
+ *  Requests are parsed token by token into the same shapes the Lambda serializer produces for a
+ *  HashMap handler: objects become maps, arrays become ArrayLists, and whole numbers become
+ *  Integer, or Long when they do not fit, so the functions read both kinds of request alike.
+ *  Responses are written straight from the response maps to the output stream.
+ */
+public final class JsonStreams {
+
+    private JsonStreams() {
+    }
+
+    /**
+     * Parses a JSON object from a stream. The stream is read to the end of the object but not closed.
+     *
+     * @param inputStream The request JSON.
+     * @return The request arguments.
+     * @throws IOException              If the stream could not be read.
+     * @throws IllegalArgumentException If the stream is not a JSON object.
+     */
+    public static HashMap<String, Object> readRequest(final InputStream inputStream) throws IOException {
+        // The JSON reader buffers its input itself
+        final JsonReader reader = new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        try {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                throw new IllegalArgumentException("Invalid request. Must be a JSON object.");
+            }
+            final HashMap<String, Object> request = new HashMap<>();
+            readObject(reader, request);
+            return request;
+        } catch (final IllegalStateException | EOFException | MalformedJsonException e) {
+            throw new IllegalArgumentException("Invalid request JSON: " + e.getMessage());
+        }
+    }
+
+    private static void readObject(final JsonReader reader, final Map<String, Object> object) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            object.put(reader.nextName(), readValue(reader));
+        }
+        reader.endObject();
+    }
+
+    private static Object readValue(final JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                final Map<String, Object> object = new LinkedHashMap<>();
+                readObject(reader, object);
+                return object;
+            case BEGIN_ARRAY:
+                final List<Object> array = new ArrayList<>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    array.add(readValue(reader));
+                }
+                reader.endArray();
+                return array;
+            case STRING:
+                return reader.nextString();
+            case NUMBER:
+                return toNumber(reader.nextString());
+            case BOOLEAN:
+                return reader.nextBoolean();
+            case NULL:
+                reader.nextNull();
+                return null;
+            default:
+                throw new IllegalStateException("Unexpected " + reader.peek() + " at " + reader.getPath());
+        }
+    }
+
+    /**
+     * @param literal A JSON number.
+     * @return An Integer or Long for whole numbers in range, a Double otherwise.
+     */
+    private static Number toNumber(final String literal) {
+        boolean whole = true;
+        for (int i = 0; i < literal.length() && whole; i++) {
+            final char c = literal.charAt(i);
+            whole = c != '.' && c != 'e' && c != 'E';
+        }
+        if (whole) {
+            try {
+                final long value = Long.parseLong(literal);
+                if (value == (int) value) {
+                    return (int) value;
+                }
+                return value;
+            } catch (final NumberFormatException e) {
+                // Too large for a long
+            }
+        }
+        return Double.parseDouble(literal);
+    }
+
+    /**
+     * Writes a response as JSON to a stream. Maps, collections and arrays are written as JSON
+     * objects and arrays, and any other value that is not a number, boolean or string by its
+     * string form. The stream is flushed but not closed.
+     *
+     * @param response     The response.
+     * @param outputStream The stream to write to.
+     * @throws IOException If the stream could not be written.
+     */
+    public static void writeResponse(final Map<String, ?> response, final OutputStream outputStream) throws IOException {
+        final JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)));
+
+        // Metrics such as a hit rate with no lookups can be NaN
+        writer.setLenient(true);
+        writeValue(writer, response);
+        writer.flush();
+    }
+
+    private static void writeValue(final JsonWriter writer, final Object value) throws IOException {
+        if (value == null) {
+            writer.nullValue();
+        } else if (value instanceof String) {
+            writer.value((String) value);
+        } else if (value instanceof Boolean) {
+            writer.value((Boolean) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            writer.value(((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            writer.value((Number) value);
+        } else if (value instanceof Map) {
+            writer.beginObject();
+            for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                writer.name(String.valueOf(entry.getKey()));
+                writeValue(writer, entry.getValue());
+            }
+            writer.endObject();
+        } else if (value instanceof Iterable) {
+            writer.beginArray();
+            for (final Object element : (Iterable<?>) value) {
+                writeValue(writer, element);
+            }
+            writer.endArray();
+        } else if (value.getClass().isArray()) {
+            writer.beginArray();
+            for (int i = 0; i < Array.getLength(value); i++) {
+                writeValue(writer, Array.get(value, i));
+            }
+            writer.endArray();
+        } else {
+            writer.value(value.toString());
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+package utils;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Per-invocation JVM accounting: bytes allocated, garbage collections, heap use, peak heap and
+ *  peak resident set size.
+ *
+ *  A snapshot is taken before an invocation and compared with the state after it. Allocation is
+ *  counted for the handler thread, and for all live threads to include the worker pools that
+ *  encode and upload in parallel. Peak heap and peak RSS (VmHWM) are tracked for the whole process,
+ *  so a reset for one invocation would wipe the peaks of any other in flight. The snapshot resets
+ *  them only when no other invocation is in flight, and each peak is reported with its scope:
+ *  "invocation" if it was reset at the start and no other invocation started before the end,
+ *  otherwise "process".
+ */
+public final class JvmAccounting {
+
+    private static final Path STATUS = Paths.get("/proc/self/status");
+    private static final Path CLEAR_REFS = Paths.get("/proc/self/clear_refs");
+
+    /**
+     * Writing this to clear_refs resets the peak resident set size of the process.
+     */
+    private static final String RESET_PEAK_RSS = "5";
+
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    /**
+     * The invocations between their snapshot and its end, and the number of snapshots ever taken.
+     */
+    private static int invocationsInFlight = 0;
+    private static long invocationsStarted = 0;
+
+
+    private JvmAccounting() {
+    }
+
+    /**
+     * The JVM state at the start of an invocation.
+     */
+    public static final class Snapshot {
+        private final long threadId = Thread.currentThread().getId();
+        private final long threadAllocated;
+        private final long allAllocated;
+        private final long gcCount;
+        private final long gcTimeMs;
+        private final long heapUsed;
+        private final long startIndex;
+        private final boolean peaksReset;
+        private final boolean peakRssReset;
+        private boolean ended = false;
+        private boolean exclusive = false;
+
+        private Snapshot(final long threadAllocated, final long allAllocated, final long gcCount, final long gcTimeMs,
+                         final long heapUsed, final long startIndex, final boolean peaksReset, final boolean peakRssReset) {
+            this.threadAllocated = threadAllocated;
+            this.allAllocated = allAllocated;
+            this.gcCount = gcCount;
+            this.gcTimeMs = gcTimeMs;
+            this.heapUsed = heapUsed;
+            this.startIndex = startIndex;
+            this.peaksReset = peaksReset;
+            this.peakRssReset = peakRssReset;
+        }
+
+        /**
+         * Marks the end of the invocation, so later invocations may reset the peaks again. Must be
+         * called even when the invocation fails. Only the first call has an effect.
+         */
+        public void end() {
+            synchronized (JvmAccounting.class) {
+                if (ended) {
+                    return;
+                }
+                ended = true;
+                invocationsInFlight--;
+                exclusive = peaksReset && invocationsStarted == startIndex;
+            }
+        }
+
+        /**
+         * Ends the invocation if it has not ended yet, and records the difference between this
+         * snapshot and the current state. Must be called on the thread that took the snapshot.
+         *
+         * @param inspector The map to record to.
+         */
+        public void record(final Map<String, Object> inspector) {
+            end();
+            final long[] gc = gcTotals();
+            if (THREADS != null) {
+                inspector.put(Constants.ALLOCATED_BYTES_KEY, THREADS.getThreadAllocatedBytes(threadId) - threadAllocated);
+                inspector.put(Constants.ALLOCATED_BYTES_ALL_THREADS_KEY, Math.max(0, allThreadsAllocated() - allAllocated));
+            }
+            inspector.put(Constants.GC_COUNT_KEY, gc[0] - gcCount);
+            inspector.put(Constants.GC_TIME_MS_KEY, gc[1] - gcTimeMs);
+            inspector.put(Constants.HEAP_USED_BEFORE_MB_KEY, ImageAdmission.toMegabytes(heapUsed));
+            inspector.put(Constants.HEAP_USED_AFTER_MB_KEY, ImageAdmission.toMegabytes(heapUsed()));
+            inspector.put(Constants.ACTUAL_PEAK_HEAP_MB_KEY, ImageAdmission.toMegabytes(ImageAdmission.peakHeapBytes()));
+            inspector.put(Constants.ACTUAL_PEAK_HEAP_SCOPE_KEY, exclusive ? "invocation" : "process");
+
+            final long peakRssKb = peakRssKb();
+            if (peakRssKb >= 0) {
+                inspector.put(Constants.PEAK_RSS_MB_KEY, ImageAdmission.toMegabytes(peakRssKb * 1024));
+                inspector.put(Constants.PEAK_RSS_SCOPE_KEY, exclusive && peakRssReset ? "invocation" : "process");
+            }
+        }
+    }
+
+    /**
+     * Takes a snapshot at the start of an invocation, on the thread that will run it. The peaks are
+     * reset only if no other invocation is in flight.
+     *
+     * @return The snapshot, which must be ended when the invocation ends.
+     */
+    public static Snapshot snapshot() {
+        final long startIndex;
+        final boolean peaksReset;
+        boolean peakRssReset = false;
+        synchronized (JvmAccounting.class) {
+            peaksReset = invocationsInFlight == 0;
+            if (peaksReset) {
+                ImageAdmission.resetPeakHeap();
+                peakRssReset = resetPeakRss();
+            }
+            invocationsInFlight++;
+            startIndex = ++invocationsStarted;
+        }
+
+        final long[] gc = gcTotals();
+        final long threadAllocated = THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        final long allAllocated = THREADS == null ? 0 : allThreadsAllocated();
+        return new Snapshot(threadAllocated, allAllocated, gc[0], gc[1], heapUsed(), startIndex, peaksReset, peakRssReset);
+    }
+
+    /**
+     * @return The total number of collections and the total collection time in milliseconds,
+     * over all collectors.
+     */
+    private static long[] gcTotals() {
+        final long[] totals = new long[2];
+        for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(0, collector.getCollectionCount());
+            totals[1] += Math.max(0, collector.getCollectionTime());
+        }
+        return totals;
+    }
+
+    /**
+     * @return The bytes allocated by all live threads.
+     */
+    private static long allThreadsAllocated() {
+        long total = 0;
+        for (final long allocated : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+            total += Math.max(0, allocated);
+        }
+        return total;
+    }
+
+    /**
+     * @return The heap in use.
+     */
+    private static long heapUsed() {
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * @return True if the kernel reset the peak resident set size of the process.
+     */
+    private static boolean resetPeakRss() {
+        try {
+            Files.write(CLEAR_REFS, RESET_PEAK_RSS.getBytes(StandardCharsets.US_ASCII));
+            return true;
+        } catch (final IOException | SecurityException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return The VmHWM of the process in kB, or -1 if /proc is unavailable.
+     */
+    private static long peakRssKb() {
+        try {
+            for (final String line : Files.readAllLines(STATUS, StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.substring("VmHWM:".length()).replace("kB", "").trim());
+                }
+            }
+        } catch (final IOException | NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+
+    /**
+     * @return The HotSpot thread bean with allocation counting enabled, or null on other JVMs.
+     */
+    private static com.sun.management.ThreadMXBean threadBean() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!bean.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        bean.setThreadAllocatedMemoryEnabled(true);
+        return bean;
+    }
+
+}
@@ -0,0 +1,262 @@
+package utils;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  An object store in a local directory, for running the functions without S3.
+ *
+ *  Every bucket is a directory under the root, and every key a file path under its bucket. Only the
+ *  calls the functions make are supported: get, put, delete, metadata, paged listing and download
+ *  URLs, which are file URLs. ETags are the MD5 of the content, as S3 gives for a single-part upload.
+ *  Writes go to a temporary file that is moved into place, so a reader never sees half an object.
+ *
+ *  Set the LOCAL_OBJECT_STORE environment variable, or the local_object_store system property, to
+ *  the root directory to use it in place of S3 (see Constants.getS3Client).
+ */
+public final class LocalObjectStore extends AbstractAmazonS3 {
+
+    /**
+     * The environment variable and system property that select a local object store.
+     */
+    public static final String ENVIRONMENT_KEY = "LOCAL_OBJECT_STORE";
+    public static final String PROPERTY_KEY = "local_object_store";
+
+    private static final int DEFAULT_MAX_KEYS = 1000;
+
+    private final Path root;
+
+
+    /**
+     * @param root The directory that holds the buckets.
+     */
+    public LocalObjectStore(final File root) {
+        this.root = root.toPath().toAbsolutePath().normalize();
+    }
+
+    /**
+     * @return The local object store configured for this process, or null to use S3.
+     */
+    public static LocalObjectStore fromEnvironment() {
+        String directory = System.getProperty(PROPERTY_KEY);
+        if (directory == null || directory.isEmpty()) {
+            directory = System.getenv(ENVIRONMENT_KEY);
+        }
+        return directory == null || directory.isEmpty() ? null : new LocalObjectStore(new File(directory));
+    }
+
+    @Override
+    public S3Object getObject(final String bucketName, final String key) {
+        final Path path = existing(bucketName, key);
+        final byte[] bytes = read(path);
+        final S3Object object = new S3Object();
+        object.setBucketName(bucketName);
+        object.setKey(key);
+        object.setObjectMetadata(metadata(path, bytes));
+        object.setObjectContent(new ByteArrayInputStream(bytes));
+        return object;
+    }
+
+    @Override
+    public S3Object getObject(final GetObjectRequest request) {
+        return getObject(request.getBucketName(), request.getKey());
+    }
+
+    @Override
+    public String getObjectAsString(final String bucketName, final String key) {
+        return new String(read(existing(bucketName, key)), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(final String bucketName, final String key) {
+        final Path path = existing(bucketName, key);
+        return metadata(path, read(path));
+    }
+
+    @Override
+    public boolean doesObjectExist(final String bucketName, final String key) {
+        return Files.isRegularFile(pathOf(bucketName, key));
+    }
+
+    @Override
+    public PutObjectResult putObject(final String bucketName, final String key, final InputStream input, final ObjectMetadata metadata) {
+        try {
+            final byte[] bytes = input.readAllBytes();
+            final Path path = pathOf(bucketName, key);
+            Files.createDirectories(path.getParent());
+            final Path temporary = Files.createTempFile(path.getParent(), ".put-", ".tmp");
+            Files.write(temporary, bytes);
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            final PutObjectResult result = new PutObjectResult();
+            result.setETag(md5(bytes));
+            result.setMetadata(metadata(path, bytes));
+            return result;
+        } catch (final IOException e) {
+            throw new AmazonS3Exception("Could not write " + bucketName + "/" + key + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public PutObjectResult putObject(final String bucketName, final String key, final String content) {
+        return putObject(bucketName, key, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)), new ObjectMetadata());
+    }
+
+    @Override
+    public void deleteObject(final String bucketName, final String key) {
+        try {
+            Files.deleteIfExists(pathOf(bucketName, key));
+        } catch (final IOException e) {
+            throw new AmazonS3Exception("Could not delete " + bucketName + "/" + key + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Lists the keys of a bucket in order, a page at a time. The continuation token is the last key
+     * of the previous page.
+     */
+    @Override
+    public ListObjectsV2Result listObjectsV2(final ListObjectsV2Request request) {
+        final Path bucket = root.resolve(request.getBucketName());
+        final String prefix = request.getPrefix() == null ? "" : request.getPrefix();
+        final String after = request.getContinuationToken() != null ? request.getContinuationToken() : request.getStartAfter();
+        final int maxKeys = request.getMaxKeys() != null ? request.getMaxKeys() : DEFAULT_MAX_KEYS;
+
+        final List<String> keys;
+        if (!Files.isDirectory(bucket)) {
+            keys = new ArrayList<>();
+        } else {
+            try (Stream<Path> files = Files.walk(bucket)) {
+                keys = files.filter(Files::isRegularFile)
+                        .map(path -> bucket.relativize(path).toString().replace(File.separatorChar, '/'))
+                        .filter(key -> key.startsWith(prefix) && !key.contains("/.put-"))
+                        .filter(key -> after == null || key.compareTo(after) > 0)
+                        .sorted()
+                        .collect(Collectors.toList());
+            } catch (final IOException e) {
+                throw new AmazonS3Exception("Could not list " + request.getBucketName() + ": " + e.getMessage(), e);
+            }
+        }
+
+        final ListObjectsV2Result result = new ListObjectsV2Result();
+        result.setBucketName(request.getBucketName());
+        result.setPrefix(prefix);
+        result.setMaxKeys(maxKeys);
+        final List<String> page = keys.subList(0, Math.min(maxKeys, keys.size()));
+        for (final String key : page) {
+            final Path path = bucket.resolve(key);
+            final S3ObjectSummary summary = new S3ObjectSummary();
+            summary.setBucketName(request.getBucketName());
+            summary.setKey(key);
+            summary.setSize(path.toFile().length());
+            summary.setETag(md5(read(path)));
+            summary.setLastModified(new Date(path.toFile().lastModified()));
+            result.getObjectSummaries().add(summary);
+        }
+        result.setKeyCount(page.size());
+        result.setTruncated(keys.size() > page.size());
+        if (result.isTruncated()) {
+            result.setNextContinuationToken(page.get(page.size() - 1));
+        }
+        return result;
+    }
+
+    @Override
+    public URL generatePresignedUrl(final String bucketName, final String key, final Date expiration) {
+        try {
+            return pathOf(bucketName, key).toUri().toURL();
+        } catch (final MalformedURLException e) {
+            throw new AmazonS3Exception("Invalid key " + key + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return The root directory, which identifies the store.
+     */
+    @Override
+    public String toString() {
+        return root.toString();
+    }
+
+    /**
+     * @return The path of a key, which must stay inside its bucket.
+     */
+    private Path pathOf(final String bucketName, final String key) {
+        final Path bucket = root.resolve(bucketName).normalize();
+        final Path path = bucket.resolve(key).normalize();
+        if (!bucket.startsWith(root) || !path.startsWith(bucket) || path.equals(bucket)) {
+            throw new AmazonS3Exception("Invalid key: " + bucketName + "/" + key);
+        }
+        return path;
+    }
+
+    private Path existing(final String bucketName, final String key) {
+        final Path path = pathOf(bucketName, key);
+        if (!Files.isRegularFile(path)) {
+            final AmazonS3Exception missing = new AmazonS3Exception("The specified key does not exist: " + bucketName + "/" + key);
+            missing.setStatusCode(404);
+            missing.setErrorCode("NoSuchKey");
+            throw missing;
+        }
+        return path;
+    }
+
+    private static byte[] read(final Path path) {
+        try {
+            return Files.readAllBytes(path);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static ObjectMetadata metadata(final Path path, final byte[] bytes) {
+        final ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(bytes.length);
+        metadata.setLastModified(new Date(path.toFile().lastModified()));
+        metadata.setHeader(Headers.ETAG, md5(bytes));
+        return metadata;
+    }
+
+    private static String md5(final byte[] bytes) {
+        try {
+            final StringBuilder hex = new StringBuilder(32);
+            for (final byte b : MessageDigest.getInstance("MD5").digest(bytes)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
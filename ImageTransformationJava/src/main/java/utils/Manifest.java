@@ -0,0 +1,530 @@
+package utils;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  A persistent record of which sources have already been processed, and into what.
+ *
+ *  An entry maps a source key and a plan hash (see BulkProcessing.planHash) to the ETag the source
+ *  had and the key of its output. A source whose ETag still matches its entry for the same plan
+ *  does not need processing again, and the check needs neither a request per source nor a read
+ *  of the source.
+ *
+ *  The manifest is a set of immutable segment objects under a key prefix, in the object store or,
+ *  for a location starting with "file:", in a local directory:
+ *      - base-<generation>-<time>-<id>:    every entry, as of its compaction.
+ *      - delta-<time>-<id>:                the entries one writer recorded since.
+ *  A segment is sorted by key and plan, with a table of entry offsets, so a lookup is a binary
+ *  search over the raw bytes. Writers never modify an object: each flush adds a new delta under a
+ *  name of its own, so any number of workers can record at once. Once there are enough deltas,
+ *  a flush folds them into a new base, which lists the deltas it contains, and removes the bases
+ *  before it; readers take the newest base, by generation and then time, and every delta it does
+ *  not contain, and a newer delta wins over an older one.
+ *  Two compactions at once can at worst drop entries that were written in between, which only
+ *  means those sources are processed again.
+ *
+ *  Segment objects are cached by name, since they never change, until they are deleted or a
+ *  listing no longer shows them.
+ */
+public final class Manifest {
+
+    /**
+     * The request key of the manifest location.
+     */
+    public static final String MANIFEST_KEY = "manifest";
+
+    /**
+     * The response key that tells whether a source was skipped because the manifest had it.
+     */
+    public static final String SKIPPED_KEY = "manifest_skipped";
+
+    /**
+     * The prefix of a manifest location on local disk.
+     */
+    public static final String LOCAL_PREFIX = "file:";
+
+    private static final byte[] MAGIC = {'I', 'M', 'F', '1'};
+    private static final String BASE_PREFIX = "base-";
+    private static final String DELTA_PREFIX = "delta-";
+
+    /**
+     * The number of deltas a flush leaves before it folds them into a new base.
+     */
+    private static final int COMPACT_AFTER_DELTAS = 16;
+
+    /**
+     * Loaded segments by store, bucket and object key.
+     */
+    private static final Map<String, Segment> SEGMENTS = new ConcurrentHashMap<>();
+
+    private final AmazonS3 store;
+    private final String bucket;
+    private final String prefix;
+    private Segment base;
+
+    /**
+     * The deltas not in the base, newest first.
+     */
+    private final List<Segment> deltas;
+
+    /**
+     * Entries recorded since the last flush, by key and plan.
+     */
+    private final TreeMap<String, Entry> pending = new TreeMap<>();
+
+
+    private Manifest(final AmazonS3 store, final String bucket, final String prefix, final Segment base, final List<Segment> deltas) {
+        this.store = store;
+        this.bucket = bucket;
+        this.prefix = prefix;
+        this.base = base;
+        this.deltas = deltas;
+    }
+
+    /**
+     * One processed source.
+     */
+    private static final class Entry {
+        private final String key;
+        private final byte[] plan;
+        private final String etag;
+        private final String output;
+
+        private Entry(final String key, final byte[] plan, final String etag, final String output) {
+            this.key = key;
+            this.plan = plan;
+            this.etag = etag;
+            this.output = output;
+        }
+    }
+
+    /**
+     * Opens the manifest at a location: a key prefix in a bucket of the object store, or "file:"
+     * and a directory on local disk.
+     *
+     * @param bucketName The bucket of the sources, which holds the manifest unless it is local.
+     * @param location   The manifest location.
+     * @return The manifest, as of now.
+     * @throws IOException If a segment could not be read.
+     */
+    public static Manifest open(final String bucketName, final String location) throws IOException {
+        if (location.startsWith(LOCAL_PREFIX)) {
+            final File directory = new File(location.substring(LOCAL_PREFIX.length())).getAbsoluteFile();
+            return open(new LocalObjectStore(directory.getParentFile()), directory.getName(), "");
+        }
+        return open(Constants.getS3Client(), bucketName, location.endsWith("/") ? location : location + "/");
+    }
+
+    private static Manifest open(final AmazonS3 store, final String bucket, final String prefix) throws IOException {
+        final List<String> bases = new ArrayList<>();
+        final List<String> deltaNames = new ArrayList<>();
+        final ListObjectsV2Request listing = new ListObjectsV2Request().withBucketName(bucket).withPrefix(prefix);
+        ListObjectsV2Result page;
+        do {
+            page = store.listObjectsV2(listing);
+            for (final S3ObjectSummary summary : page.getObjectSummaries()) {
+                final String name = summary.getKey().substring(prefix.length());
+                if (name.startsWith(BASE_PREFIX)) {
+                    bases.add(name);
+                } else if (name.startsWith(DELTA_PREFIX)) {
+                    deltaNames.add(name);
+                }
+            }
+            listing.setContinuationToken(page.getNextContinuationToken());
+        } while (page.isTruncated());
+        evictUnlisted(store, bucket, prefix, bases, deltaNames);
+
+        // Names sort by generation and by time, so the newest base and delta come last
+        Collections.sort(bases);
+        Collections.sort(deltaNames);
+        final Segment base = bases.isEmpty() ? null : load(store, bucket, prefix, bases.get(bases.size() - 1));
+        final List<Segment> deltas = new ArrayList<>();
+        for (int i = deltaNames.size() - 1; i >= 0; i--) {
+            if (base == null || !base.included.contains(deltaNames.get(i))) {
+                deltas.add(load(store, bucket, prefix, deltaNames.get(i)));
+            }
+        }
+        return new Manifest(store, bucket, prefix, base, deltas);
+    }
+
+    /**
+     * Finds the output of a source that was already processed with a plan.
+     *
+     * @param key  The source key.
+     * @param etag The current ETag of the source.
+     * @param plan The plan hash, as 16 hex digits.
+     * @return The output key, or null if the source has not been processed with the plan since
+     *         it last changed.
+     */
+    public synchronized String lookup(final String key, final String etag, final String plan) {
+        final String normalized = normalize(etag);
+        final Entry recorded = pending.get(key + '\0' + plan);
+        if (recorded != null) {
+            return recorded.etag.equals(normalized) ? recorded.output : null;
+        }
+
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final byte[] planBytes = parsePlan(plan);
+        for (final Segment delta : deltas) {
+            final Entry entry = delta.find(keyBytes, planBytes);
+            if (entry != null) {
+                return entry.etag.equals(normalized) ? entry.output : null;
+            }
+        }
+        final Entry entry = base == null ? null : base.find(keyBytes, planBytes);
+        return entry != null && entry.etag.equals(normalized) ? entry.output : null;
+    }
+
+    /**
+     * Records that a source was processed. The entry is kept until the next flush.
+     *
+     * @param key    The source key.
+     * @param etag   The ETag of the source that was processed.
+     * @param plan   The plan hash, as 16 hex digits.
+     * @param output The output key.
+     */
+    public synchronized void record(final String key, final String etag, final String plan, final String output) {
+        pending.put(key + '\0' + plan, new Entry(key, parsePlan(plan), normalize(etag), output));
+    }
+
+    /**
+     * Writes the entries recorded since the last flush as a new delta, and folds the deltas into a
+     * new base once there are enough of them.
+     *
+     * @return The number of entries written.
+     * @throws IOException If the delta could not be written.
+     */
+    public synchronized int flush() throws IOException {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        final List<Entry> entries = new ArrayList<>(pending.values());
+        final String name = String.format("%s%013d-%s", DELTA_PREFIX, System.currentTimeMillis(), UUID.randomUUID());
+        final byte[] data = encode(entries, Collections.emptyList());
+        write(name, data);
+        final Segment delta = new Segment(name, data);
+        SEGMENTS.put(cacheKey(store, bucket, prefix, name), delta);
+        deltas.add(0, delta);
+        pending.clear();
+
+        if (deltas.size() >= COMPACT_AFTER_DELTAS) {
+            compact();
+        }
+        return entries.size();
+    }
+
+    /**
+     * @return The number of entries in the base and the deltas, counting a replaced entry once per segment.
+     */
+    public synchronized int size() {
+        int size = base == null ? 0 : base.count;
+        for (final Segment delta : deltas) {
+            size += delta.count;
+        }
+        return size;
+    }
+
+    /**
+     * Folds the base and the deltas into a new base, then removes what it replaced.
+     */
+    private void compact() throws IOException {
+        final TreeMap<String, Entry> merged = new TreeMap<>();
+        final List<Segment> oldestFirst = new ArrayList<>();
+        if (base != null) {
+            oldestFirst.add(base);
+        }
+        for (int i = deltas.size() - 1; i >= 0; i--) {
+            oldestFirst.add(deltas.get(i));
+        }
+        for (final Segment segment : oldestFirst) {
+            for (int i = 0; i < segment.count; i++) {
+                final Entry entry = segment.entry(i);
+                merged.put(entry.key + '\0' + hex(entry.plan), entry);
+            }
+        }
+
+        final List<String> included = new ArrayList<>();
+        for (final Segment delta : deltas) {
+            included.add(delta.name);
+        }
+        final long generation = base == null ? 1 : Long.parseLong(base.name.substring(BASE_PREFIX.length(), BASE_PREFIX.length() + 10)) + 1;
+        final String name = String.format("%s%010d-%013d-%s", BASE_PREFIX, generation, System.currentTimeMillis(), UUID.randomUUID());
+        final byte[] data = encode(new ArrayList<>(merged.values()), included);
+        write(name, data);
+        final Segment compacted = new Segment(name, data);
+        SEGMENTS.put(cacheKey(store, bucket, prefix, name), compacted);
+
+        // Readers that already listed the old segments have loaded them, and new readers take the new base
+        for (final String delta : included) {
+            delete(delta);
+        }
+        for (final String older : listBases()) {
+            if (older.compareTo(name) < 0) {
+                delete(older);
+            }
+        }
+        base = compacted;
+        deltas.clear();
+    }
+
+    /**
+     * @return The names of the bases under the prefix, including ones other writers compacted.
+     */
+    private List<String> listBases() {
+        final List<String> bases = new ArrayList<>();
+        final ListObjectsV2Request listing = new ListObjectsV2Request().withBucketName(bucket).withPrefix(prefix + BASE_PREFIX);
+        ListObjectsV2Result page;
+        do {
+            page = store.listObjectsV2(listing);
+            for (final S3ObjectSummary summary : page.getObjectSummaries()) {
+                bases.add(summary.getKey().substring(prefix.length()));
+            }
+            listing.setContinuationToken(page.getNextContinuationToken());
+        } while (page.isTruncated());
+        return bases;
+    }
+
+    private void delete(final String name) {
+        store.deleteObject(bucket, prefix + name);
+        SEGMENTS.remove(cacheKey(store, bucket, prefix, name));
+    }
+
+    /**
+     * Drops the cached segments of a manifest that its listing no longer shows, such as the ones
+     * another writer compacted away.
+     */
+    private static void evictUnlisted(final AmazonS3 store, final String bucket, final String prefix,
+                                      final List<String> bases, final List<String> deltaNames) {
+        final String location = cacheKey(store, bucket, prefix, "");
+        SEGMENTS.keySet().removeIf(cached -> cached.startsWith(location)
+                && cached.indexOf('/', location.length()) < 0
+                && !bases.contains(cached.substring(location.length()))
+                && !deltaNames.contains(cached.substring(location.length())));
+    }
+
+    private void write(final String name, final byte[] data) {
+        final ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(data.length);
+        metadata.setContentType("application/octet-stream");
+        store.putObject(bucket, prefix + name, new ByteArrayInputStream(data), metadata);
+    }
+
+    private static Segment load(final AmazonS3 store, final String bucket, final String prefix, final String name) throws IOException {
+        final String cacheKey = cacheKey(store, bucket, prefix, name);
+        final Segment cached = SEGMENTS.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+        try (S3Object object = store.getObject(bucket, prefix + name)) {
+            final Segment segment = new Segment(name, object.getObjectContent().readAllBytes());
+            SEGMENTS.put(cacheKey, segment);
+            return segment;
+        } catch (final AmazonS3Exception e) {
+            if (e.getStatusCode() == 404) {
+                // Compacted away since the listing, so its entries are in a newer base
+                return new Segment(name, encode(Collections.emptyList(), Collections.emptyList()));
+            }
+            throw e;
+        }
+    }
+
+    private static String cacheKey(final AmazonS3 store, final String bucket, final String prefix, final String name) {
+        return (store instanceof LocalObjectStore ? store.toString() : "s3") + ":" + bucket + "/" + prefix + name;
+    }
+
+    /**
+     * Encodes sorted entries as a segment:
+     *      "IMF1", entry count, included delta count, the included delta names,
+     *      the offset of every entry, then the entries,
+     *  where an entry is its key, its 8 byte plan, its ETag and its output key, each string with a
+     *  length before it. All numbers are big-endian.
+     */
+    private static byte[] encode(final List<Entry> entries, final List<String> included) throws IOException {
+        entries.sort((a, b) -> compare(a.key.getBytes(StandardCharsets.UTF_8), a.plan, b.key.getBytes(StandardCharsets.UTF_8), b.plan));
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final DataOutputStream bodyOut = new DataOutputStream(body);
+        final int[] offsets = new int[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            final Entry entry = entries.get(i);
+            offsets[i] = bodyOut.size();
+            writeString(bodyOut, entry.key);
+            bodyOut.write(entry.plan);
+            writeString(bodyOut, entry.etag);
+            writeString(bodyOut, entry.output);
+        }
+
+        final ByteArrayOutputStream segment = new ByteArrayOutputStream(body.size() + 4 * offsets.length + 64);
+        final DataOutputStream out = new DataOutputStream(segment);
+        out.write(MAGIC);
+        out.writeInt(entries.size());
+        out.writeInt(included.size());
+        for (final String name : included) {
+            writeString(out, name);
+        }
+        for (final int offset : offsets) {
+            out.writeInt(offset);
+        }
+        body.writeTo(out);
+        out.flush();
+        return segment.toByteArray();
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Compares by key bytes, unsigned, then by plan, which is the order S3 lists keys in.
+     */
+    private static int compare(final byte[] keyA, final byte[] planA, final byte[] keyB, final byte[] planB) {
+        final int byKey = Arrays.compareUnsigned(keyA, keyB);
+        return byKey != 0 ? byKey : Arrays.compareUnsigned(planA, planB);
+    }
+
+    private static String normalize(final String etag) {
+        return etag == null ? "" : etag.replace("\"", "");
+    }
+
+    private static byte[] parsePlan(final String plan) {
+        if (plan.length() != 16) {
+            throw new IllegalArgumentException("Invalid plan hash. Must be 16 hex digits.");
+        }
+        final byte[] bytes = new byte[8];
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) Integer.parseInt(plan.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static String hex(final byte[] bytes) {
+        final StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * A segment, searched in place.
+     */
+    private static final class Segment {
+        private final String name;
+        private final ByteBuffer data;
+        private final int count;
+        private final List<String> included = new ArrayList<>();
+        private final int offsetsStart;
+        private final int entriesStart;
+
+        private Segment(final String name, final byte[] bytes) throws IOException {
+            this.name = name;
+            this.data = ByteBuffer.wrap(bytes);
+            final byte[] magic = new byte[MAGIC.length];
+            data.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Invalid manifest segment: " + name);
+            }
+            count = data.getInt();
+            final int includedCount = data.getInt();
+            for (int i = 0; i < includedCount; i++) {
+                included.add(readString(data.position()));
+                data.position(data.position() + 2 + (data.getShort(data.position()) & 0xFFFF));
+            }
+            offsetsStart = data.position();
+            entriesStart = offsetsStart + 4 * count;
+        }
+
+        /**
+         * Binary search for a key and plan.
+         */
+        private Entry find(final byte[] key, final byte[] plan) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                final int position = entriesStart + data.getInt(offsetsStart + 4 * middle);
+                final int order = compareAt(position, key, plan);
+                if (order < 0) {
+                    low = middle + 1;
+                } else if (order > 0) {
+                    high = middle - 1;
+                } else {
+                    return entry(middle);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Compares the entry at a position with a key and plan, without decoding it.
+         */
+        private int compareAt(final int position, final byte[] key, final byte[] plan) {
+            final int keyLength = data.getShort(position) & 0xFFFF;
+            final int shared = Math.min(keyLength, key.length);
+            for (int i = 0; i < shared; i++) {
+                final int order = Integer.compare(data.get(position + 2 + i) & 0xFF, key[i] & 0xFF);
+                if (order != 0) {
+                    return order;
+                }
+            }
+            if (keyLength != key.length) {
+                return Integer.compare(keyLength, key.length);
+            }
+            final int planPosition = position + 2 + keyLength;
+            for (int i = 0; i < plan.length; i++) {
+                final int order = Integer.compare(data.get(planPosition + i) & 0xFF, plan[i] & 0xFF);
+                if (order != 0) {
+                    return order;
+                }
+            }
+            return 0;
+        }
+
+        private Entry entry(final int index) {
+            int position = entriesStart + data.getInt(offsetsStart + 4 * index);
+            final String key = readString(position);
+            position += 2 + (data.getShort(position) & 0xFFFF);
+            final byte[] plan = new byte[8];
+            for (int i = 0; i < plan.length; i++) {
+                plan[i] = data.get(position + i);
+            }
+            position += plan.length;
+            final String etag = readString(position);
+            position += 2 + (data.getShort(position) & 0xFFFF);
+            return new Entry(key, plan, etag, readString(position));
+        }
+
+        private String readString(final int position) {
+            final int length = data.getShort(position) & 0xFFFF;
+            return new String(data.array(), position + 2, length, StandardCharsets.UTF_8);
+        }
+    }
+
+}
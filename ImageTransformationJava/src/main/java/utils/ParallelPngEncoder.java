@@ -0,0 +1,509 @@
+package utils;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  A pure-Java PNG encoder that filters and compresses on several threads.
+ *
+ *  The image is split into horizontal bands. Each band is filtered and deflated by its own
+ *  Deflater, pigz-style: every band but the last ends with a sync flush so the compressed
+ *  bands can be concatenated into a single zlib stream. A band can be primed with the last
+ *  32 KB of the band before it, which recovers most of the ratio lost by splitting. The
+ *  Adler-32 of the zlib stream and the CRC-32 of the IDAT chunk are combined from the
+ *  per-band checksums, so no pass over the whole output is needed.
+ */
+public final class ParallelPngEncoder {
+
+    /**
+     * The default deflate level, matching the JDK PNG writer.
+     */
+    public static final int DEFAULT_COMPRESSION_LEVEL = 4;
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private static final int COLOR_TYPE_GRAY = 0;
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int COLOR_TYPE_RGBA = 6;
+
+    /**
+     * The size of the deflate window, and so the most dictionary that is useful.
+     */
+    private static final int WINDOW_SIZE = 32 * 1024;
+
+    /**
+     * The number of bands per thread. More bands than threads evens out the work.
+     */
+    private static final int BANDS_PER_THREAD = 2;
+
+    /**
+     * Worker pools, by number of threads. The thread count is capped at the processor count, so there
+     * are at most that many pools.
+     */
+    private static final Map<Integer, ExecutorService> POOLS = new ConcurrentHashMap<>();
+
+
+    private final int compressionLevel;
+    private final int threads;
+    private final boolean primeDictionary;
+
+    /**
+     * @param compressionLevel The deflate level, 0 to 9.
+     * @param threads          The number of threads to encode with, at most the number of processors.
+     * @param primeDictionary  True to prime each band with the data before it.
+     */
+    public ParallelPngEncoder(final int compressionLevel, final int threads, final boolean primeDictionary) {
+        this.compressionLevel = compressionLevel;
+        this.threads = Math.max(1, Math.min(threads, Runtime.getRuntime().availableProcessors()));
+        this.primeDictionary = primeDictionary;
+    }
+
+    /**
+     * Encodes an image as PNG.
+     *
+     * @param image        The image to encode.
+     * @param outputStream The stream to write to.
+     * @throws IOException If the image could not be written.
+     */
+    public void encode(final BufferedImage image, final OutputStream outputStream) throws IOException {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int colorType = image.getType() == BufferedImage.TYPE_BYTE_GRAY
+                ? COLOR_TYPE_GRAY
+                : image.getColorModel().hasAlpha() ? COLOR_TYPE_RGBA : COLOR_TYPE_RGB;
+        final int bytesPerPixel = colorType == COLOR_TYPE_GRAY ? 1 : colorType == COLOR_TYPE_RGB ? 3 : 4;
+
+        // Split rows into bands
+        final int bandCount = Math.max(1, Math.min(height, threads * BANDS_PER_THREAD));
+        final int[] bandStarts = new int[bandCount + 1];
+        for (int i = 0; i <= bandCount; i++) {
+            bandStarts[i] = (int) ((long) height * i / bandCount);
+        }
+
+        // Filter every band in parallel
+        final List<Future<byte[]>> filterJobs = new ArrayList<>();
+        for (int i = 0; i < bandCount; i++) {
+            final int start = bandStarts[i];
+            final int end = bandStarts[i + 1];
+            filterJobs.add(pool().submit(() -> filterBand(image, start, end, bytesPerPixel, colorType)));
+        }
+        final byte[][] filtered = new byte[bandCount][];
+        for (int i = 0; i < bandCount; i++) {
+            filtered[i] = await(filterJobs.get(i));
+        }
+
+        // Deflate every band in parallel
+        final List<Future<Band>> deflateJobs = new ArrayList<>();
+        for (int i = 0; i < bandCount; i++) {
+            final byte[] dictionary = primeDictionary && i > 0 ? filtered[i - 1] : null;
+            final byte[] data = filtered[i];
+            final boolean last = i == bandCount - 1;
+            deflateJobs.add(pool().submit(() -> deflateBand(data, dictionary, last)));
+        }
+        final Band[] bands = new Band[bandCount];
+        for (int i = 0; i < bandCount; i++) {
+            bands[i] = await(deflateJobs.get(i));
+        }
+
+        writePng(outputStream, width, height, colorType, bands);
+    }
+
+    /**
+     * Combines the Adler-32 checksums of two consecutive byte sequences, as zlib's adler32_combine.
+     *
+     * @param adler1 The checksum of the first sequence.
+     * @param adler2 The checksum of the second sequence.
+     * @param length2 The length of the second sequence.
+     * @return The checksum of both sequences.
+     */
+    static long adler32Combine(final long adler1, final long adler2, final long length2) {
+        final long base = 65521;
+        final long remainder = length2 % base;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (remainder * sum1) % base;
+        sum1 += (adler2 & 0xFFFF) + base - 1;
+        sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + base - remainder;
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum1 >= base) {
+            sum1 -= base;
+        }
+        if (sum2 >= (base << 1)) {
+            sum2 -= (base << 1);
+        }
+        if (sum2 >= base) {
+            sum2 -= base;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    /**
+     * Combines the CRC-32 checksums of two consecutive byte sequences, as zlib's crc32_combine.
+     *
+     * @param crc1    The checksum of the first sequence.
+     * @param crc2    The checksum of the second sequence.
+     * @param length2 The length of the second sequence.
+     * @return The checksum of both sequences.
+     */
+    static long crc32Combine(long crc1, final long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+
+        final long[] even = new long[32];
+        final long[] odd = new long[32];
+
+        // Operator for one zero bit
+        odd[0] = 0xEDB88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2MatrixSquare(even, odd); // Two zero bits
+        gf2MatrixSquare(odd, even); // Four zero bits
+
+        // Apply length2 zero bytes to crc1
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+
+        return (crc1 ^ crc2) & 0xFFFFFFFFL;
+    }
+
+
+    /**
+     * Reads and filters a band of rows. Each row gets the filter with the smallest sum of
+     * absolute differences, the same heuristic libpng uses.
+     *
+     * @param image         The image.
+     * @param start         The first row of the band.
+     * @param end           The row after the last row of the band.
+     * @param bytesPerPixel The bytes per pixel of the output.
+     * @param colorType     The PNG color type.
+     * @return The filtered rows, each prefixed with its filter type.
+     */
+    private static byte[] filterBand(final BufferedImage image,
+                                     final int start,
+                                     final int end,
+                                     final int bytesPerPixel,
+                                     final int colorType) {
+        final int rowBytes = image.getWidth() * bytesPerPixel;
+        final byte[] output = new byte[(end - start) * (rowBytes + 1)];
+        final int[] argb = new int[image.getWidth()];
+        final byte[][] candidates = new byte[5][rowBytes];
+
+        byte[] previous = start > 0 ? readRow(image, start - 1, colorType, bytesPerPixel, argb) : new byte[rowBytes];
+        int offset = 0;
+        for (int y = start; y < end; y++) {
+            final byte[] current = readRow(image, y, colorType, bytesPerPixel, argb);
+
+            int bestFilter = 0;
+            long bestSum = Long.MAX_VALUE;
+            for (int filter = 0; filter < 5; filter++) {
+                final long sum = applyFilter(filter, current, previous, bytesPerPixel, candidates[filter]);
+                if (sum < bestSum) {
+                    bestSum = sum;
+                    bestFilter = filter;
+                }
+            }
+
+            output[offset++] = (byte) bestFilter;
+            System.arraycopy(candidates[bestFilter], 0, output, offset, rowBytes);
+            offset += rowBytes;
+            previous = current;
+        }
+        return output;
+    }
+
+    /**
+     * Reads one row of the image as PNG samples.
+     */
+    private static byte[] readRow(final BufferedImage image,
+                                  final int y,
+                                  final int colorType,
+                                  final int bytesPerPixel,
+                                  final int[] argb) {
+        final int width = image.getWidth();
+        if (colorType == COLOR_TYPE_GRAY) {
+            return (byte[]) image.getRaster().getDataElements(0, y, width, 1, null);
+        }
+
+        final byte[] row = new byte[width * bytesPerPixel];
+        image.getRGB(0, y, width, 1, argb, 0, width);
+        int i = 0;
+        for (int x = 0; x < width; x++) {
+            final int pixel = argb[x];
+            row[i++] = (byte) (pixel >> 16);
+            row[i++] = (byte) (pixel >> 8);
+            row[i++] = (byte) pixel;
+            if (colorType == COLOR_TYPE_RGBA) {
+                row[i++] = (byte) (pixel >> 24);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Applies one PNG filter to a row.
+     *
+     * @return The sum of the absolute values of the filtered bytes, as signed bytes.
+     */
+    private static long applyFilter(final int filter,
+                                    final byte[] current,
+                                    final byte[] previous,
+                                    final int bytesPerPixel,
+                                    final byte[] output) {
+        long sum = 0;
+        for (int i = 0; i < current.length; i++) {
+            final int x = current[i] & 0xFF;
+            final int a = i >= bytesPerPixel ? current[i - bytesPerPixel] & 0xFF : 0;
+            final int b = previous[i] & 0xFF;
+            final int c = i >= bytesPerPixel ? previous[i - bytesPerPixel] & 0xFF : 0;
+
+            final int value;
+            switch (filter) {
+                case 1:
+                    value = x - a;
+                    break;
+                case 2:
+                    value = x - b;
+                    break;
+                case 3:
+                    value = x - ((a + b) >> 1);
+                    break;
+                case 4:
+                    value = x - paeth(a, b, c);
+                    break;
+                default:
+                    value = x;
+                    break;
+            }
+            output[i] = (byte) value;
+            sum += Math.abs((byte) value);
+        }
+        return sum;
+    }
+
+    private static int paeth(final int a, final int b, final int c) {
+        final int p = a + b - c;
+        final int pa = Math.abs(p - a);
+        final int pb = Math.abs(p - b);
+        final int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    /**
+     * Deflates one band into raw deflate blocks.
+     *
+     * @param data       The filtered band.
+     * @param dictionary The band before this one, or null to not prime the dictionary.
+     * @param last       True if this is the last band, which finishes the stream.
+     * @return The compressed band and its checksums.
+     */
+    private Band deflateBand(final byte[] data, final byte[] dictionary, final boolean last) {
+        final Deflater deflater = new Deflater(compressionLevel, true);
+        try {
+            if (dictionary != null) {
+                final int length = Math.min(WINDOW_SIZE, dictionary.length);
+                deflater.setDictionary(dictionary, dictionary.length - length, length);
+            }
+            deflater.setInput(data);
+
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            final byte[] buffer = new byte[64 * 1024];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    compressed.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                // A sync flush ends the band on a byte boundary so the next band can follow it
+                int count;
+                do {
+                    count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, count);
+                } while (count == buffer.length);
+            }
+
+            final byte[] bytes = compressed.toByteArray();
+            final Adler32 adler = new Adler32();
+            adler.update(data);
+            final CRC32 crc = new CRC32();
+            crc.update(bytes);
+            return new Band(bytes, data.length, adler.getValue(), crc.getValue());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Writes the PNG signature, IHDR, a single IDAT chunk made from the bands, and IEND.
+     */
+    private void writePng(final OutputStream outputStream,
+                          final int width,
+                          final int height,
+                          final int colorType,
+                          final Band[] bands) throws IOException {
+        final DataOutputStream out = new DataOutputStream(outputStream);
+        out.write(SIGNATURE);
+
+        final ByteArrayOutputStream header = new ByteArrayOutputStream();
+        final DataOutputStream headerData = new DataOutputStream(header);
+        headerData.writeInt(width);
+        headerData.writeInt(height);
+        headerData.writeByte(8); // Bit depth
+        headerData.writeByte(colorType);
+        headerData.writeByte(0); // Compression
+        headerData.writeByte(0); // Filter
+        headerData.writeByte(0); // Interlace
+        writeChunk(out, "IHDR", header.toByteArray());
+
+        // Combine the checksums of the bands
+        final byte[] zlibHeader = zlibHeader();
+        long adler = 1;
+        long idatLength = zlibHeader.length + 4;
+        final CRC32 headCrc = new CRC32();
+        headCrc.update("IDAT".getBytes(StandardCharsets.US_ASCII));
+        headCrc.update(zlibHeader);
+        long crc = headCrc.getValue();
+        for (final Band band : bands) {
+            adler = adler32Combine(adler, band.adler, band.rawLength);
+            crc = crc32Combine(crc, band.crc, band.compressed.length);
+            idatLength += band.compressed.length;
+        }
+        final byte[] trailer = {(byte) (adler >> 24), (byte) (adler >> 16), (byte) (adler >> 8), (byte) adler};
+        final CRC32 trailerCrc = new CRC32();
+        trailerCrc.update(trailer);
+        crc = crc32Combine(crc, trailerCrc.getValue(), trailer.length);
+
+        if (idatLength > Integer.MAX_VALUE) {
+            throw new IOException("Compressed image data is too large for a single IDAT chunk.");
+        }
+        out.writeInt((int) idatLength);
+        out.write("IDAT".getBytes(StandardCharsets.US_ASCII));
+        out.write(zlibHeader);
+        for (final Band band : bands) {
+            out.write(band.compressed);
+        }
+        out.write(trailer);
+        out.writeInt((int) crc);
+
+        writeChunk(out, "IEND", new byte[0]);
+        out.flush();
+    }
+
+    private static void writeChunk(final DataOutputStream out, final String type, final byte[] data) throws IOException {
+        final byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        final CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+
+        out.writeInt(data.length);
+        out.write(typeBytes);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * @return The two byte zlib header for this compression level.
+     */
+    private byte[] zlibHeader() {
+        final int cmf = 0x78; // Deflate, 32 KB window
+        final int level = compressionLevel < 2 ? 0 : compressionLevel < 6 ? 1 : compressionLevel == 6 ? 2 : 3;
+        int flg = level << 6;
+        flg += 31 - ((cmf * 256 + flg) % 31);
+        return new byte[]{(byte) cmf, (byte) flg};
+    }
+
+    private static long gf2MatrixTimes(final long[] matrix, long vector) {
+        long sum = 0;
+        int i = 0;
+        while (vector != 0) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+            vector >>>= 1;
+            i++;
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(final long[] square, final long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(matrix, matrix[n]);
+        }
+    }
+
+    private ExecutorService pool() {
+        return POOLS.computeIfAbsent(threads, n -> Executors.newFixedThreadPool(n, runnable -> {
+            final Thread thread = new Thread(runnable, "png-encoder");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    private static <T> T await(final Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while encoding PNG", e);
+        } catch (final ExecutionException e) {
+            throw new IOException("Failed to encode PNG", e.getCause());
+        }
+    }
+
+
+    /**
+     * A compressed band and its checksums.
+     */
+    private static final class Band {
+        private final byte[] compressed;
+        private final int rawLength;
+        private final long adler;
+        private final long crc;
+
+        private Band(final byte[] compressed, final int rawLength, final long adler, final long crc) {
+            this.compressed = compressed;
+            this.rawLength = rawLength;
+            this.adler = adler;
+            this.crc = crc;
+        }
+    }
+
+}
@@ -0,0 +1,286 @@
+package utils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  A size-class pool of reusable rasters, keyed by dimensions and image type.
+ *
+ *  Operations acquire their destination images from the pool, and the batch pipeline releases
+ *  the previous step's image once the next step is done with it. Two buffers of the same size
+ *  class therefore alternate (ping-pong) for the length of a pipeline instead of allocating a
+ *  fresh full-size raster per step.
+ */
+public final class RasterPool {
+
+    /**
+     * The fraction of the maximum heap that the pool may keep idle.
+     */
+    private static final double MAX_RETAINED_HEAP_FRACTION = 0.25;
+
+    /**
+     * The maximum number of idle images kept per size class.
+     */
+    private static final int MAX_IMAGES_PER_CLASS = 2;
+
+    /**
+     * Idle images, grouped by size class.
+     */
+    private static final Map<SizeClass, ArrayDeque<BufferedImage>> IDLE = new HashMap<>();
+
+    /**
+     * Extra holders of images shared between invocations, compared by identity.
+     */
+    private static final Map<BufferedImage, Integer> SHARED = new IdentityHashMap<>();
+
+    /**
+     * The maximum number of idle bytes the pool will hold.
+     */
+    private static final long MAX_RETAINED_BYTES = (long) (Runtime.getRuntime().maxMemory() * MAX_RETAINED_HEAP_FRACTION);
+
+    private static long retainedBytes = 0;
+    private static long hits = 0;
+    private static long misses = 0;
+    private static long bytesAvoided = 0;
+    private static long bytesAcquired = 0;
+    private static long argbBytesAcquired = 0;
+
+
+    private RasterPool() {
+    }
+
+    /**
+     * Acquires a cleared image from the pool, or allocates a new one if none is idle.
+     *
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @param type   The BufferedImage type of the image. Must not be TYPE_CUSTOM.
+     * @return An image whose pixels are all zero.
+     */
+    public static BufferedImage acquire(final int width, final int height, final int type) {
+        final BufferedImage image = acquireUncleared(width, height, type);
+        if (image != null) {
+            clear(image);
+            return image;
+        }
+        return new BufferedImage(width, height, type);
+    }
+
+    /**
+     * Acquires an idle image from the pool without clearing it. This should only be used when
+     * the caller overwrites every pixel, such as a decoder destination.
+     *
+     * @param width  The width of the image.
+     * @param height The height of the image.
+     * @param type   The BufferedImage type of the image.
+     * @return An idle image of the requested size class, or null if there is none.
+     */
+    public static synchronized BufferedImage acquireUncleared(final int width, final int height, final int type) {
+        // Every acquisition is sized, pooled or not, next to what it would cost as int ARGB
+        bytesAcquired += (long) width * height * RasterTypes.bytesPerPixel(type);
+        argbBytesAcquired += (long) width * height * 4;
+
+        final ArrayDeque<BufferedImage> idle = IDLE.get(new SizeClass(width, height, type));
+        if (idle == null || idle.isEmpty()) {
+            misses++;
+            return null;
+        }
+
+        final BufferedImage image = idle.pop();
+        final long size = sizeInBytes(image);
+        retainedBytes -= size;
+        bytesAvoided += size;
+        hits++;
+        return image;
+    }
+
+    /**
+     * Registers extra holders of an image, so it only goes back to the pool once it has been
+     * released once per holder, in addition to the release of its original owner.
+     *
+     * @param image   The shared image.
+     * @param holders The number of extra holders.
+     */
+    public static synchronized void retain(final BufferedImage image, final int holders) {
+        if (image != null && holders > 0) {
+            SHARED.merge(image, holders, Integer::sum);
+        }
+    }
+
+    /**
+     * Returns an image to the pool so a later operation can reuse its raster.
+     * The caller must not use the image after releasing it.
+     *
+     * @param image The image to release. Null and TYPE_CUSTOM images are ignored.
+     */
+    public static synchronized void release(final BufferedImage image) {
+        if (image == null || image.getType() == BufferedImage.TYPE_CUSTOM) {
+            return;
+        }
+
+        // A shared image stays out of the pool until its last holder lets go
+        final Integer holders = SHARED.get(image);
+        if (holders != null) {
+            if (holders <= 1) {
+                SHARED.remove(image);
+            } else {
+                SHARED.put(image, holders - 1);
+            }
+            return;
+        }
+
+        final long size = sizeInBytes(image);
+        if (retainedBytes + size > MAX_RETAINED_BYTES) {
+            return;
+        }
+
+        final ArrayDeque<BufferedImage> idle = IDLE.computeIfAbsent(
+                new SizeClass(image.getWidth(), image.getHeight(), image.getType()), k -> new ArrayDeque<>());
+        if (idle.size() >= MAX_IMAGES_PER_CLASS) {
+            return;
+        }
+        for (final BufferedImage pooled : idle) {
+            if (pooled == image) {
+                return;
+            }
+        }
+
+        idle.push(image);
+        retainedBytes += size;
+    }
+
+    /**
+     * @return The bytes of the idle rasters the pool holds for reuse.
+     */
+    public static synchronized long retainedBytes() {
+        return retainedBytes;
+    }
+
+    /**
+     * Takes a snapshot of the pool counters. Two snapshots can be subtracted
+     * to get the statistics of a single invocation.
+     *
+     * @return The current counters.
+     */
+    public static synchronized Stats snapshot() {
+        return new Stats(hits, misses, bytesAvoided, bytesAcquired, argbBytesAcquired);
+    }
+
+    /**
+     * Calculates the size of the backing data of an image.
+     *
+     * @param image The image.
+     * @return The size of the raster data in bytes.
+     */
+    public static long sizeInBytes(final BufferedImage image) {
+        final DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * (DataBuffer.getDataTypeSize(buffer.getDataType()) / 8);
+    }
+
+    /**
+     * Zeroes every bank of an image's raster.
+     *
+     * @param image The image to clear.
+     */
+    private static void clear(final BufferedImage image) {
+        final DataBuffer buffer = image.getRaster().getDataBuffer();
+        for (int bank = 0; bank < buffer.getNumBanks(); bank++) {
+            if (buffer instanceof DataBufferInt) {
+                Arrays.fill(((DataBufferInt) buffer).getData(bank), 0);
+            } else if (buffer instanceof DataBufferByte) {
+                Arrays.fill(((DataBufferByte) buffer).getData(bank), (byte) 0);
+            } else if (buffer instanceof DataBufferUShort) {
+                Arrays.fill(((DataBufferUShort) buffer).getData(bank), (short) 0);
+            } else if (buffer instanceof DataBufferShort) {
+                Arrays.fill(((DataBufferShort) buffer).getData(bank), (short) 0);
+            } else {
+                for (int i = 0; i < buffer.getSize(); i++) {
+                    buffer.setElem(bank, i, 0);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * The key of a size class.
+     */
+    private static final class SizeClass {
+        private final int width;
+        private final int height;
+        private final int type;
+
+        private SizeClass(final int width, final int height, final int type) {
+            this.width = width;
+            this.height = height;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof SizeClass)) {
+                return false;
+            }
+            final SizeClass other = (SizeClass) o;
+            return width == other.width && height == other.height && type == other.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(width, height, type);
+        }
+    }
+
+    /**
+     * Pool counters at a point in time.
+     */
+    public static final class Stats {
+        public final long hits;
+        public final long misses;
+        public final long bytesAvoided;
+        public final long bytesAcquired;
+        public final long argbBytesAcquired;
+
+        private Stats(final long hits, final long misses, final long bytesAvoided,
+                      final long bytesAcquired, final long argbBytesAcquired) {
+            this.hits = hits;
+            this.misses = misses;
+            this.bytesAvoided = bytesAvoided;
+            this.bytesAcquired = bytesAcquired;
+            this.argbBytesAcquired = argbBytesAcquired;
+        }
+
+        /**
+         * Subtracts an earlier snapshot from this one.
+         *
+         * @param earlier The earlier snapshot.
+         * @return The counters accumulated between the two snapshots.
+         */
+        public Stats since(final Stats earlier) {
+            return new Stats(hits - earlier.hits, misses - earlier.misses, bytesAvoided - earlier.bytesAvoided,
+                    bytesAcquired - earlier.bytesAcquired, argbBytesAcquired - earlier.argbBytesAcquired);
+        }
+
+        /**
+         * @return The fraction of acquisitions that reused a pooled raster.
+         */
+        public double hitRate() {
+            final long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+
+}
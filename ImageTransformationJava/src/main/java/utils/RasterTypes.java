@@ -0,0 +1,119 @@
+package utils;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.util.Set;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  The raster type policy: which BufferedImage types the operations work in.
+ *
+ *  Java2D has fast loops for a few standard types only; TYPE_CUSTOM images, such as 16-bit or
+ *  gray-with-alpha PNG decodes, fall back to generic per-pixel loops. Decoded images are therefore
+ *  converted once to the most compact fast type for their content, and every operation creates its
+ *  output in the type of its input, so a gray JPEG stays one byte per pixel from decode to encode.
+ */
+public final class RasterTypes {
+
+    /**
+     * Types the operations accept as-is.
+     */
+    private static final Set<Integer> FAST_TYPES = Set.of(
+            BufferedImage.TYPE_BYTE_GRAY,
+            BufferedImage.TYPE_3BYTE_BGR,
+            BufferedImage.TYPE_4BYTE_ABGR,
+            BufferedImage.TYPE_INT_RGB,
+            BufferedImage.TYPE_INT_ARGB
+    );
+
+
+    private RasterTypes() {
+    }
+
+    /**
+     * @param image An image.
+     * @return True if the operations can use the image's type as-is.
+     */
+    public static boolean isFastType(final BufferedImage image) {
+        return isFastType(image.getType());
+    }
+
+    /**
+     * @param type A BufferedImage type.
+     * @return True if the operations can use the type as-is.
+     */
+    public static boolean isFastType(final int type) {
+        return FAST_TYPES.contains(type);
+    }
+
+    /**
+     * Picks the most compact fast type for an image's content: gray, 3-byte BGR, or int ARGB
+     * when the image has transparency.
+     *
+     * @param image An image.
+     * @return The BufferedImage type.
+     */
+    public static int compactType(final BufferedImage image) {
+        final ColorModel colorModel = image.getColorModel();
+        if (colorModel.hasAlpha()) {
+            return BufferedImage.TYPE_INT_ARGB;
+        }
+        if (colorModel.getNumComponents() == 1) {
+            return BufferedImage.TYPE_BYTE_GRAY;
+        }
+        return BufferedImage.TYPE_3BYTE_BGR;
+    }
+
+    /**
+     * Picks the type an operation should create its output in.
+     *
+     * @param image The input of the operation.
+     * @return The input's type if it is a fast type, otherwise its compact type.
+     */
+    public static int outputType(final BufferedImage image) {
+        return isFastType(image) ? image.getType() : compactType(image);
+    }
+
+    /**
+     * Converts an image to its compact type, unless it already has a fast type.
+     *
+     * @param image An image, left untouched.
+     * @return The image itself, or a pooled copy in its compact type.
+     */
+    public static BufferedImage toFastType(final BufferedImage image) {
+        if (image == null || isFastType(image)) {
+            return image;
+        }
+
+        final BufferedImage converted = RasterPool.acquire(image.getWidth(), image.getHeight(), compactType(image));
+        final Graphics2D graphics = converted.createGraphics();
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return converted;
+    }
+
+    /**
+     * @param type A BufferedImage type.
+     * @return The number of bytes per pixel of the type, assuming 4 for custom types.
+     */
+    public static int bytesPerPixel(final int type) {
+        switch (type) {
+            case BufferedImage.TYPE_BYTE_GRAY:
+            case BufferedImage.TYPE_BYTE_BINARY:
+            case BufferedImage.TYPE_BYTE_INDEXED:
+                return 1;
+            case BufferedImage.TYPE_USHORT_GRAY:
+            case BufferedImage.TYPE_USHORT_565_RGB:
+            case BufferedImage.TYPE_USHORT_555_RGB:
+                return 2;
+            case BufferedImage.TYPE_3BYTE_BGR:
+                return 3;
+            default:
+                return 4;
+        }
+    }
+
+}
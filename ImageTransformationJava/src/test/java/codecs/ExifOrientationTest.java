@@ -0,0 +1,204 @@
+package codecs;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks that the orientation is read and rewritten for files with no Exif segment, with an
+ *  Orientation tag and without one, and that the compressed image data is never touched.
+ */
+public class ExifOrientationTest {
+
+    @Test
+    public void composeFollowsTheDisplayRotation() {
+        assertEquals(6, ExifOrientation.compose(1, 90));
+        assertEquals(3, ExifOrientation.compose(6, 90));
+        assertEquals(8, ExifOrientation.compose(3, 90));
+        assertEquals(1, ExifOrientation.compose(8, 90));
+        assertEquals(1, ExifOrientation.compose(3, 180));
+        assertEquals(7, ExifOrientation.compose(2, 90));
+        assertEquals(5, ExifOrientation.compose(7, 180));
+        try {
+            ExifOrientation.compose(1, 45);
+            fail("Accepted a 45 degree rotation");
+        } catch (final IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("45"));
+        }
+    }
+
+    @Test
+    public void fileWithoutExifGetsAMinimalSegment() throws IOException {
+        final byte[] jpeg = jpeg();
+        assertEquals(1, ExifOrientation.read(jpeg));
+
+        final byte[] rotated = ExifOrientation.rotate(jpeg, 90);
+        assertEquals(6, ExifOrientation.read(rotated));
+        assertTrue(rotated.length > jpeg.length);
+        assertScanUnchanged(jpeg, rotated);
+        assertDecodesLike(jpeg, rotated);
+    }
+
+    @Test
+    public void existingTagIsPatchedInPlace() throws IOException {
+        final byte[] tagged = ExifOrientation.withOrientation(jpeg(), 3);
+        final byte[] rotated = ExifOrientation.rotate(tagged, 270);
+
+        assertEquals(tagged.length, rotated.length);
+        assertEquals(ExifOrientation.compose(3, 270), ExifOrientation.read(rotated));
+        assertEquals(1, ExifOrientation.read(ExifOrientation.withOrientation(rotated, 1)));
+
+        int differences = 0;
+        for (int i = 0; i < tagged.length; i++) {
+            differences += tagged[i] != rotated[i] ? 1 : 0;
+        }
+        assertEquals(1, differences);
+    }
+
+    @Test
+    public void missingTagIsAddedAndOtherEntriesKept() throws IOException {
+        for (final boolean littleEndian : new boolean[] {false, true}) {
+            final byte[] jpeg = withSegment(jpeg(), exifWithoutOrientation(littleEndian));
+            assertEquals(1, ExifOrientation.read(jpeg));
+
+            final byte[] rotated = ExifOrientation.rotate(jpeg, 180);
+            assertEquals(3, ExifOrientation.read(rotated));
+            assertScanUnchanged(jpeg, rotated);
+            assertDecodesLike(jpeg, rotated);
+
+            // The software string keeps its place in the original data
+            assertTrue(indexOf(rotated, "edit".getBytes()) >= 0);
+            assertEquals(indexOf(jpeg, "edit".getBytes()), indexOf(rotated, "edit".getBytes()));
+        }
+    }
+
+    @Test
+    public void nonJpegIsRefused() {
+        final byte[] png = {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A};
+        assertFalse(ExifOrientation.isJpeg(png));
+        try {
+            ExifOrientation.read(png);
+            fail("Read a PNG file");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("JPEG"));
+        }
+    }
+
+    private static byte[] jpeg() throws IOException {
+        final BufferedImage image = new BufferedImage(24, 16, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, x * 10 << 16 | y * 15 << 8 | 0x80);
+            }
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(image, "jpeg", out));
+        return out.toByteArray();
+    }
+
+    /**
+     * @return An Exif segment whose only IFD holds a Make and a Software entry, the second stored
+     *         after the IFD so that moving the IFD would break its offset.
+     */
+    private static byte[] exifWithoutOrientation(final boolean littleEndian) {
+        final byte[] tiff = new byte[8 + 2 + 2 * 12 + 4 + 8];
+        tiff[0] = tiff[1] = (byte) (littleEndian ? 'I' : 'M');
+        put16(tiff, 2, 42, littleEndian);
+        put32(tiff, 4, 8, littleEndian);
+        put16(tiff, 8, 2, littleEndian);
+        put16(tiff, 10, 0x010F, littleEndian); // Make, ASCII, inline
+        put16(tiff, 12, 2, littleEndian);
+        put32(tiff, 14, 4, littleEndian);
+        System.arraycopy("cam\0".getBytes(), 0, tiff, 18, 4);
+        put16(tiff, 22, 0x0131, littleEndian); // Software, ASCII, at an offset
+        put16(tiff, 24, 2, littleEndian);
+        put32(tiff, 26, 8, littleEndian);
+        put32(tiff, 30, 38, littleEndian);
+        System.arraycopy("edit1.0\0".getBytes(), 0, tiff, 38, 8);
+
+        final int length = 2 + 6 + tiff.length;
+        final byte[] segment = new byte[2 + length];
+        segment[0] = (byte) 0xFF;
+        segment[1] = (byte) 0xE1;
+        segment[2] = (byte) (length >> 8);
+        segment[3] = (byte) length;
+        System.arraycopy(new byte[] {'E', 'x', 'i', 'f', 0, 0}, 0, segment, 4, 6);
+        System.arraycopy(tiff, 0, segment, 10, tiff.length);
+        return segment;
+    }
+
+    private static void put16(final byte[] bytes, final int position, final int value, final boolean littleEndian) {
+        bytes[position + (littleEndian ? 0 : 1)] = (byte) value;
+        bytes[position + (littleEndian ? 1 : 0)] = (byte) (value >> 8);
+    }
+
+    private static void put32(final byte[] bytes, final int position, final int value, final boolean littleEndian) {
+        put16(bytes, position + (littleEndian ? 0 : 2), value & 0xFFFF, littleEndian);
+        put16(bytes, position + (littleEndian ? 2 : 0), value >>> 16, littleEndian);
+    }
+
+    /**
+     * @return The file with a segment inserted after the start-of-image marker.
+     */
+    private static byte[] withSegment(final byte[] jpeg, final byte[] segment) {
+        final byte[] output = new byte[jpeg.length + segment.length];
+        System.arraycopy(jpeg, 0, output, 0, 2);
+        System.arraycopy(segment, 0, output, 2, segment.length);
+        System.arraycopy(jpeg, 2, output, 2 + segment.length, jpeg.length - 2);
+        return output;
+    }
+
+    /**
+     * Checks that everything from the first scan on is the same, byte for byte.
+     */
+    private static void assertScanUnchanged(final byte[] original, final byte[] rewritten) {
+        final int scan = scanStart(original);
+        final int rewrittenScan = scanStart(rewritten);
+        assertArrayEquals(Arrays.copyOfRange(original, scan, original.length),
+                Arrays.copyOfRange(rewritten, rewrittenScan, rewritten.length));
+    }
+
+    private static int scanStart(final byte[] jpeg) {
+        int position = 2;
+        while ((jpeg[position + 1] & 0xFF) != 0xDA) {
+            position += 2 + ((jpeg[position + 2] & 0xFF) << 8 | jpeg[position + 3] & 0xFF);
+        }
+        return position;
+    }
+
+    private static void assertDecodesLike(final byte[] original, final byte[] rewritten) throws IOException {
+        final BufferedImage expected = ImageIO.read(new ByteArrayInputStream(original));
+        final BufferedImage actual = ImageIO.read(new ByteArrayInputStream(rewritten));
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
+    private static int indexOf(final byte[] bytes, final byte[] pattern) {
+        for (int i = 0; i + pattern.length <= bytes.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + pattern.length), pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
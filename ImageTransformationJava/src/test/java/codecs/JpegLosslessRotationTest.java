@@ -0,0 +1,148 @@
+package codecs;
+
+import org.junit.Test;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks the output size of each rotation, the trimming of partial edge MCUs, that the pixels
+ *  move where a rotation puts them, and that a copied EXIF orientation is reset.
+ */
+public class JpegLosslessRotationTest {
+
+    @Test
+    public void quarterTurnsSwapTheDimensions() throws IOException {
+        final byte[] jpeg = jpeg(48, 32, BufferedImage.TYPE_3BYTE_BGR);
+        for (final int angle : new int[] {90, 180, 270}) {
+            final JpegLosslessRotation.Result result = JpegLosslessRotation.rotate(jpeg, angle, JpegLosslessRotation.EdgeMode.ERROR);
+            final BufferedImage decoded = decode(result.bytes);
+
+            final int width = angle == 180 ? 48 : 32;
+            final int height = angle == 180 ? 32 : 48;
+            assertEquals(width, result.width);
+            assertEquals(height, result.height);
+            assertEquals(width, decoded.getWidth());
+            assertEquals(height, decoded.getHeight());
+            assertEquals(0, result.trimmedWidth);
+            assertEquals(0, result.trimmedHeight);
+        }
+    }
+
+    @Test
+    public void pixelsMoveWithTheRotation() throws IOException {
+        final byte[] jpeg = jpeg(40, 24, BufferedImage.TYPE_BYTE_GRAY);
+        final BufferedImage original = decode(jpeg);
+        for (final int angle : new int[] {90, 180, 270}) {
+            final BufferedImage rotated = decode(JpegLosslessRotation.rotate(jpeg, angle, JpegLosslessRotation.EdgeMode.ERROR).bytes);
+            for (int y = 0; y < original.getHeight(); y++) {
+                for (int x = 0; x < original.getWidth(); x++) {
+                    final int expected = original.getRaster().getSample(x, y, 0);
+                    final int actual;
+                    if (angle == 90) {
+                        actual = rotated.getRaster().getSample(original.getHeight() - 1 - y, x, 0);
+                    } else if (angle == 180) {
+                        actual = rotated.getRaster().getSample(original.getWidth() - 1 - x, original.getHeight() - 1 - y, 0);
+                    } else {
+                        actual = rotated.getRaster().getSample(y, original.getWidth() - 1 - x, 0);
+                    }
+                    // Only the rounding of the inverse DCT differs
+                    assertTrue(angle + " at " + x + "," + y, Math.abs(expected - actual) <= 1);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void fourQuarterTurnsRestoreThePixels() throws IOException {
+        final byte[] jpeg = jpeg(48, 32, BufferedImage.TYPE_3BYTE_BGR);
+        byte[] rotated = jpeg;
+        for (int i = 0; i < 4; i++) {
+            rotated = JpegLosslessRotation.rotate(rotated, 90, JpegLosslessRotation.EdgeMode.ERROR).bytes;
+        }
+
+        final BufferedImage expected = decode(jpeg);
+        final BufferedImage actual = decode(rotated);
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void partialEdgeMcusAreTrimmedOrRefused() throws IOException {
+        // Subsampled chroma makes the MCU 16x16, so 4 columns and 4 rows are partial
+        final byte[] jpeg = jpeg(52, 36, BufferedImage.TYPE_3BYTE_BGR);
+
+        final JpegLosslessRotation.Result quarter = JpegLosslessRotation.rotate(jpeg, 90, JpegLosslessRotation.EdgeMode.TRIM);
+        assertEquals(32, quarter.width);
+        assertEquals(52, quarter.height);
+        assertEquals(0, quarter.trimmedWidth);
+        assertEquals(4, quarter.trimmedHeight);
+
+        final JpegLosslessRotation.Result half = JpegLosslessRotation.rotate(jpeg, 180, JpegLosslessRotation.EdgeMode.TRIM);
+        assertEquals(48, half.width);
+        assertEquals(32, half.height);
+        assertEquals(4, half.trimmedWidth);
+        assertEquals(4, half.trimmedHeight);
+
+        final JpegLosslessRotation.Result threeQuarter = JpegLosslessRotation.rotate(jpeg, 270, JpegLosslessRotation.EdgeMode.TRIM);
+        assertEquals(36, threeQuarter.width);
+        assertEquals(48, threeQuarter.height);
+        assertEquals(4, threeQuarter.trimmedWidth);
+        assertEquals(0, threeQuarter.trimmedHeight);
+        final BufferedImage decoded = decode(threeQuarter.bytes);
+        assertEquals(36, decoded.getWidth());
+        assertEquals(48, decoded.getHeight());
+
+        try {
+            JpegLosslessRotation.rotate(jpeg, 90, JpegLosslessRotation.EdgeMode.ERROR);
+            fail("Rotated a partial MCU in ERROR mode");
+        } catch (final IIOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("52x36"));
+        }
+    }
+
+    @Test
+    public void copiedOrientationIsReset() throws IOException {
+        final byte[] jpeg = ExifOrientation.withOrientation(jpeg(48, 32, BufferedImage.TYPE_3BYTE_BGR), 6);
+        final byte[] rotated = JpegLosslessRotation.rotate(jpeg, 90, JpegLosslessRotation.EdgeMode.ERROR).bytes;
+        assertEquals(1, ExifOrientation.read(rotated));
+
+        // Files without the tag do not gain one
+        final byte[] plain = jpeg(48, 32, BufferedImage.TYPE_3BYTE_BGR);
+        final byte[] plainRotated = JpegLosslessRotation.rotate(plain, 90, JpegLosslessRotation.EdgeMode.ERROR).bytes;
+        assertFalse(new String(plainRotated, StandardCharsets.ISO_8859_1).contains("Exif\0\0"));
+    }
+
+    private static byte[] jpeg(final int width, final int height, final int type) throws IOException {
+        final BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 5) << 16 | (y * 7) << 8 | (x * y & 0xFF));
+            }
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(image, "jpeg", out));
+        return out.toByteArray();
+    }
+
+    private static BufferedImage decode(final byte[] jpeg) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(jpeg));
+    }
+
+}
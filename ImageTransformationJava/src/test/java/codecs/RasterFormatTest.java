@@ -0,0 +1,118 @@
+package codecs;
+
+import org.junit.Test;
+import utils.Constants;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.ServiceLoader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks that every supported type round-trips through the raster format unchanged, with and
+ *  without deflate, and that ImageIO finds the format through its service files.
+ */
+public class RasterFormatTest {
+
+    @Test
+    public void serviceFilesNameTheReaderAndWriter() {
+        boolean reader = false;
+        for (final ImageReaderSpi spi : ServiceLoader.load(ImageReaderSpi.class)) {
+            reader |= spi instanceof RasterImageReader.Spi;
+        }
+        boolean writer = false;
+        for (final ImageWriterSpi spi : ServiceLoader.load(ImageWriterSpi.class)) {
+            writer |= spi instanceof RasterImageWriter.Spi;
+        }
+        assertTrue(reader);
+        assertTrue(writer);
+        assertTrue(ImageIO.getImageReadersByFormatName(RasterFormat.FORMAT_NAME).hasNext());
+        assertTrue(ImageIO.getImageWritersByFormatName(RasterFormat.FORMAT_NAME).hasNext());
+    }
+
+    @Test
+    public void supportedTypesRoundTripExactly() throws IOException {
+        for (final int type : RasterFormat.SUPPORTED_TYPES) {
+            for (final float quality : new float[] {1f, 0.5f, 0f}) {
+                final BufferedImage image = noise(37, 23, type);
+                final BufferedImage read = ImageIO.read(new ByteArrayInputStream(write(image, quality)));
+
+                final String setting = "type " + type + ", quality " + quality;
+                assertEquals(setting, type, read.getType());
+                assertEquals(setting, image.getWidth(), read.getWidth());
+                assertEquals(setting, image.getHeight(), read.getHeight());
+                assertArrayEquals(setting, samples(image), samples(read));
+            }
+        }
+    }
+
+    @Test
+    public void uncompressedPayloadFollowsTheHeader() throws IOException {
+        final BufferedImage image = noise(10, 4, BufferedImage.TYPE_3BYTE_BGR);
+        assertEquals(RasterFormat.HEADER_LENGTH + 10 * 4 * 3, write(image, 1f).length);
+    }
+
+    @Test
+    public void functionsReadFastTypesUnchangedAndDeepGrayAsEightBits() throws IOException {
+        final BufferedImage color = noise(19, 11, BufferedImage.TYPE_INT_ARGB);
+        final BufferedImage readColor = Constants.readImage(write(color, 1f));
+        assertEquals(BufferedImage.TYPE_INT_ARGB, readColor.getType());
+        assertArrayEquals(samples(color), samples(readColor));
+
+        final BufferedImage deep = noise(19, 11, BufferedImage.TYPE_USHORT_GRAY);
+        final BufferedImage readDeep = Constants.readImage(write(deep, 1f));
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, readDeep.getType());
+    }
+
+    private static byte[] write(final BufferedImage image, final float quality) throws IOException {
+        final ImageWriter writer = ImageIO.getImageWritersByFormatName(RasterFormat.FORMAT_NAME).next();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(stream);
+            final ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static BufferedImage noise(final int width, final int height, final int type) {
+        final BufferedImage image = new BufferedImage(width, height, type);
+        final WritableRaster raster = image.getRaster();
+        final Random random = new Random(type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int band = 0; band < raster.getNumBands(); band++) {
+                    final int bits = raster.getSampleModel().getSampleSize(band);
+                    raster.setSample(x, y, band, random.nextInt(1 << bits));
+                }
+            }
+        }
+        return image;
+    }
+
+    private static int[] samples(final BufferedImage image) {
+        return image.getRaster().getPixels(0, 0, image.getWidth(), image.getHeight(), (int[]) null);
+    }
+
+}
@@ -0,0 +1,139 @@
+package functions;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import utils.LocalObjectStore;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks graph validation, and that a shared node fans out to an output per leaf from one decode.
+ */
+public class BatchGraphTest {
+
+    private static File store;
+
+
+    @BeforeClass
+    public static void createStore() throws IOException {
+        store = Files.createTempDirectory("graph-store").toFile();
+        final File bucket = new File(store, "bkt");
+        assertTrue(bucket.mkdirs());
+        final BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < 30; y++) {
+            for (int x = 0; x < 40; x++) {
+                image.setRGB(x, y, (x * 6) << 16 | (y * 8) << 8 | 0x40);
+            }
+        }
+        assertTrue(ImageIO.write(image, "png", new File(bucket, "photo.png")));
+        System.setProperty(LocalObjectStore.PROPERTY_KEY, store.getPath());
+    }
+
+    @AfterClass
+    public static void deleteStore() throws IOException {
+        System.clearProperty(LocalObjectStore.PROPERTY_KEY);
+        try (Stream<Path> files = Files.walk(store.toPath())) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void cycleIsRejected() {
+        final Map<String, Object> nodes = new LinkedHashMap<>();
+        nodes.put("root", List.of("grayscale"));
+        nodes.put("a", List.of("brightness", Map.of("brightness_delta", 10)));
+        nodes.put("b", List.of("brightness", Map.of("brightness_delta", -10)));
+        assertInvalid(graph(nodes, List.of(List.of("source", "root"), List.of("a", "b"), List.of("b", "a"))), "cycle");
+    }
+
+    @Test
+    public void nodeWithTwoInputsIsRejected() {
+        final Map<String, Object> nodes = new LinkedHashMap<>();
+        nodes.put("a", List.of("grayscale"));
+        nodes.put("b", List.of("grayscale"));
+        nodes.put("c", List.of("grayscale"));
+        assertInvalid(graph(nodes, List.of(List.of("a", "c"), List.of("b", "c"))), "more than one input");
+    }
+
+    @Test
+    public void unknownNamesAreRejected() {
+        assertInvalid(graph(Map.of("source", List.of("grayscale")), List.of()), "reserved");
+        assertInvalid(graph(Map.of("a", List.of("emboss")), List.of()), "Invalid operation");
+        assertInvalid(graph(Map.of("a", List.of("grayscale")), List.of(List.of("missing", "a"))), "unknown node missing");
+    }
+
+    @Test
+    public void sharedNodeFansOutToEveryLeaf() throws IOException {
+        final Map<String, Object> nodes = new LinkedHashMap<>();
+        nodes.put("gray", List.of("grayscale"));
+        nodes.put("small", List.of("resize", Map.of("target_width", 20, "target_height", 10)));
+        nodes.put("turned", List.of("rotate", Map.of("rotation_angle", 90)));
+        final HashMap<String, Object> request = graph(nodes, List.of(List.of("source", "gray"), List.of("gray", "small"), List.of("gray", "turned")));
+
+        final HashMap<String, Object> response = ImageBatchProcessing.handleRequest(request, null);
+
+        assertFalse(String.valueOf(response.get("error")), response.containsKey("error"));
+        assertEquals(3, response.get("batch_operations_count"));
+        final List<String> outputs = new ArrayList<>();
+        for (final Object output : (List<?>) response.get("outputs")) {
+            outputs.add((String) ((Map<?, ?>) output).get("filename"));
+        }
+        outputs.sort(null);
+        assertEquals(List.of("batch_small_photo.png", "batch_turned_photo.png"), outputs);
+
+        final BufferedImage small = ImageIO.read(new File(store, "bkt/batch_small_photo.png"));
+        assertEquals(20, small.getWidth());
+        assertEquals(10, small.getHeight());
+        final BufferedImage turned = ImageIO.read(new File(store, "bkt/batch_turned_photo.png"));
+        assertEquals(30, turned.getWidth());
+        assertEquals(40, turned.getHeight());
+
+        // Both leaves read the one gray result
+        for (final BufferedImage leaf : new BufferedImage[] {small, turned}) {
+            final int rgb = leaf.getRGB(leaf.getWidth() / 2, leaf.getHeight() / 2);
+            assertEquals(rgb & 0xFF, rgb >> 8 & 0xFF);
+            assertEquals(rgb & 0xFF, rgb >> 16 & 0xFF);
+        }
+    }
+
+    private static HashMap<String, Object> graph(final Map<String, Object> nodes, final List<List<String>> edges) {
+        final HashMap<String, Object> request = new HashMap<>();
+        request.put("bucketname", "bkt");
+        request.put("filename", "photo.png");
+        request.put("get_download", false);
+        request.put(BatchGraph.NODES_KEY, nodes);
+        request.put(BatchGraph.EDGES_KEY, edges);
+        return request;
+    }
+
+    private static void assertInvalid(final Map<String, Object> request, final String message) {
+        try {
+            BatchGraph.fromRequest(request);
+            fail("Accepted " + request);
+        } catch (final IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+}
@@ -0,0 +1,217 @@
+package functions;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import utils.JsonStreams;
+import utils.LocalObjectStore;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks that a job without a time limit waits for every image, that the wait for the images in
+ *  flight ends in time for the final checkpoint, and that a job stopped by its time budget keeps the
+ *  resumed keys it had no time for in its checkpoint.
+ */
+public class BulkProcessingTest {
+
+    private static final List<String> KEYS = List.of("in/a.png", "in/b.png", "in/c.png", "in/d.png");
+
+    private File store;
+
+
+    @Before
+    public void createStore() throws IOException {
+        store = Files.createTempDirectory("bulk-store").toFile();
+        final File folder = new File(store, "bkt/in");
+        assertTrue(folder.mkdirs());
+        // Large enough that the last image is still running when the dispatching ends
+        final BufferedImage image = new BufferedImage(800, 600, BufferedImage.TYPE_3BYTE_BGR);
+        final Random random = new Random(47);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        for (final String key : KEYS) {
+            assertTrue(ImageIO.write(image, "png", new File(store, "bkt/" + key)));
+        }
+        System.setProperty(LocalObjectStore.PROPERTY_KEY, store.getPath());
+    }
+
+    @After
+    public void deleteStore() throws IOException {
+        System.clearProperty(LocalObjectStore.PROPERTY_KEY);
+        try (Stream<Path> files = Files.walk(store.toPath())) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void jobWithoutTimeLimitWaitsForEveryImage() {
+        final HashMap<String, Object> response = BulkProcessing.handleRequest(request(), null);
+
+        assertFalse(String.valueOf(response.get("error")), response.containsKey("error"));
+        assertEquals(true, response.get("complete"));
+        assertEquals(4L, response.get("processed"));
+        assertEquals(0L, response.get("failed"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void undispatchedResumedKeysStayInTheCheckpoint() throws IOException {
+        final HashMap<String, Object> request = request();
+        final String job = BulkProcessing.hash("in/\n" + BulkProcessing.planHash(request));
+        final File checkpointFile = new File(store, "bkt/bulk_checkpoints/" + job + ".json");
+        final Map<String, Object> checkpoint = new HashMap<>();
+        checkpoint.put("job", job);
+        checkpoint.put("last_dispatched_key", "in/d.png");
+        checkpoint.put("in_flight", List.of("in/a.png", "in/b.png", "in/c.png"));
+        checkpoint.put("processed", 1);
+        checkpoint.put("failed", 0);
+        checkpoint.put("processed_bytes", 0);
+        checkpoint.put("complete", false);
+        assertTrue(checkpointFile.getParentFile().mkdirs());
+        try (OutputStream out = new FileOutputStream(checkpointFile)) {
+            JsonStreams.writeResponse(checkpoint, out);
+        }
+
+        // The budget is spent at once, so only the one image every invocation dispatches is run
+        request.put(BulkProcessing.TIME_BUDGET_KEY, 0);
+        final HashMap<String, Object> stopped = BulkProcessing.handleRequest(request, null);
+        assertEquals(false, stopped.get("complete"));
+        assertEquals(1L, stopped.get("processed"));
+        assertEquals(List.of("in/b.png", "in/c.png"), read(checkpointFile).get("in_flight"));
+
+        // Resuming without a budget finishes the rest
+        request.remove(BulkProcessing.TIME_BUDGET_KEY);
+        final HashMap<String, Object> resumed = BulkProcessing.handleRequest(request, null);
+        assertEquals(true, resumed.get("complete"));
+        assertEquals(2, resumed.get("resumed_in_flight"));
+        assertEquals(2L, resumed.get("processed"));
+        assertEquals(4L, resumed.get("total_processed"));
+        assertEquals(List.of(), read(checkpointFile).get("in_flight"));
+    }
+
+    @Test
+    public void waitForImagesInFlightLeavesTimeForTheFinalCheckpoint() {
+        // Without a deadline or an invocation the wait has no end, rather than overflowing
+        assertEquals(Long.MAX_VALUE, BulkProcessing.awaitMillis(Long.MAX_VALUE, null));
+
+        // A time budget waits for its margin after the deadline
+        final long budgetWait = BulkProcessing.awaitMillis(System.currentTimeMillis() + 1_000, null);
+        assertTrue(budgetWait + " ms", budgetWait > 15_000 && budgetWait <= 16_000);
+
+        // An invocation that ends in 16 s is not waited on to its very end
+        final long invocationWait = BulkProcessing.awaitMillis(Long.MAX_VALUE, new RemainingTime(16_000));
+        assertTrue(invocationWait + " ms", invocationWait > 0 && invocationWait <= 13_000);
+    }
+
+    private static HashMap<String, Object> request() {
+        final HashMap<String, Object> request = new HashMap<>();
+        request.put("bucketname", "bkt");
+        request.put(BulkProcessing.PREFIX_KEY, "in/");
+        request.put(BulkProcessing.OPERATIONS_KEY, List.of(List.of("grayscale")));
+        request.put(BulkProcessing.CONCURRENCY_KEY, 1);
+        return request;
+    }
+
+    private static Map<String, Object> read(final File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return JsonStreams.readRequest(in);
+        }
+    }
+
+    /**
+     * A Lambda context that only knows how much time the invocation has left.
+     */
+    private static final class RemainingTime implements Context {
+        private final long end;
+
+        private RemainingTime(final int remainingMs) {
+            end = System.currentTimeMillis() + remainingMs;
+        }
+
+        @Override
+        public int getRemainingTimeInMillis() {
+            return (int) (end - System.currentTimeMillis());
+        }
+
+        @Override
+        public String getAwsRequestId() {
+            return null;
+        }
+
+        @Override
+        public String getLogGroupName() {
+            return null;
+        }
+
+        @Override
+        public String getLogStreamName() {
+            return null;
+        }
+
+        @Override
+        public String getFunctionName() {
+            return null;
+        }
+
+        @Override
+        public String getFunctionVersion() {
+            return null;
+        }
+
+        @Override
+        public String getInvokedFunctionArn() {
+            return null;
+        }
+
+        @Override
+        public CognitoIdentity getIdentity() {
+            return null;
+        }
+
+        @Override
+        public ClientContext getClientContext() {
+            return null;
+        }
+
+        @Override
+        public int getMemoryLimitInMB() {
+            return 0;
+        }
+
+        @Override
+        public LambdaLogger getLogger() {
+            return null;
+        }
+    }
+
+}
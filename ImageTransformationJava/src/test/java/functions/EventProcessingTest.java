@@ -0,0 +1,131 @@
+package functions;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import utils.JsonStreams;
+import utils.LocalObjectStore;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Runs the S3, SQS and SNS-wrapped fixture events in src/test/resources/events against a local
+ *  object store, and checks which SQS messages are returned for retry.
+ */
+public class EventProcessingTest {
+
+    private static final String SOURCE_PREFIX = "products/2026/";
+
+    @Rule
+    public final TemporaryFolder manifests = new TemporaryFolder();
+
+    private static File store;
+
+
+    @BeforeClass
+    public static void createStore() throws IOException {
+        store = Files.createTempDirectory("event-store").toFile();
+        final File sources = new File(store, "bkt/" + SOURCE_PREFIX);
+        assertTrue(sources.mkdirs());
+        for (final String name : new String[] {"img01.jpg", "img02.jpg", "img03.jpg", "my photo.jpg"}) {
+            final BufferedImage image = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+            image.setRGB(10, 10, 0xFF8040);
+            assertTrue(ImageIO.write(image, "jpg", new File(sources, name)));
+        }
+        Files.write(new File(sources, "broken.png").toPath(), "not a png".getBytes(StandardCharsets.UTF_8));
+        System.setProperty(LocalObjectStore.PROPERTY_KEY, store.getPath());
+    }
+
+    @AfterClass
+    public static void deleteStore() throws IOException {
+        System.clearProperty(LocalObjectStore.PROPERTY_KEY);
+        System.clearProperty(EventProcessing.PLAN_PROPERTY_KEY);
+        try (Stream<Path> files = Files.walk(store.toPath())) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void sqsBatchRetriesOnlyTheFailedMessages() throws IOException {
+        final HashMap<String, Object> response = run("sqs-event.json");
+
+        // m2 names an image that does not decode and m4 has a body that is not JSON
+        assertEquals(List.of("m2", "m4"), itemIdentifiers(response));
+        assertEquals(4, response.get("objects"));
+        assertEquals(3, response.get("processed"));
+        assertEquals(2, response.get("skipped"));
+        assertEquals(2, response.get("failed"));
+        // The key of m7 arrives URL-encoded
+        assertTrue(new File(store, "bkt/batch_" + SOURCE_PREFIX + "my photo.jpg").isFile());
+    }
+
+    @Test
+    public void snsWrappedMessagesAreUnwrapped() throws IOException {
+        final HashMap<String, Object> response = run("sns-event.json");
+
+        // n2 names an object that does not exist
+        assertEquals(List.of("n2"), itemIdentifiers(response));
+        assertEquals(1, response.get("processed"));
+        assertEquals(1, response.get("failed"));
+    }
+
+    @Test
+    public void directS3EventHasNoItemFailures() throws IOException {
+        final HashMap<String, Object> response = run("s3-event.json");
+
+        assertTrue(itemIdentifiers(response).isEmpty());
+        assertEquals(2, response.get("processed"));
+        assertFalse(response.containsKey("error"));
+
+        // The manifest has both objects now, so the same event finds them unchanged
+        final HashMap<String, Object> repeated = run("s3-event.json");
+        assertTrue(itemIdentifiers(repeated).isEmpty());
+        assertEquals(0, repeated.get("processed"));
+        assertEquals(2, repeated.get("unchanged"));
+    }
+
+    /**
+     * Runs a fixture event with a grayscale plan and a manifest of its own test.
+     */
+    private HashMap<String, Object> run(final String fixture) throws IOException {
+        final File manifest = new File(manifests.getRoot(), "manifest");
+        System.setProperty(EventProcessing.PLAN_PROPERTY_KEY, "{\"operations\": [[\"grayscale\"]], \"concurrency\": 2, "
+                + "\"manifest\": \"file:" + manifest.getPath().replace("\\", "\\\\") + "\"}");
+        try (InputStream event = EventProcessingTest.class.getResourceAsStream("/events/" + fixture)) {
+            return EventProcessing.handleRequest(JsonStreams.readRequest(event), null);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> itemIdentifiers(final HashMap<String, Object> response) {
+        final List<String> identifiers = new ArrayList<>();
+        for (final Map<String, Object> failure : (List<Map<String, Object>>) response.get(EventProcessing.BATCH_ITEM_FAILURES_KEY)) {
+            identifiers.add((String) failure.get(EventProcessing.ITEM_IDENTIFIER_KEY));
+        }
+        identifiers.sort(null);
+        return identifiers;
+    }
+
+}
@@ -0,0 +1,79 @@
+package functions;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks that transparency becomes white in JPEG output from any source format, and is kept in PNG output.
+ */
+public class F6ImageTransformTest {
+
+    @Test
+    public void transparentPixelsTurnWhiteInJpeg() {
+        for (final String fileName : new String[] {"photo.png", "photo.raster", "photo.jpg"}) {
+            final HashMap<String, Object> response = F6ImageTransform.imageTransform(halfTransparent(), request(fileName, "jpeg"), null);
+
+            assertFalse(String.valueOf(response.get("error")), response.containsKey("error"));
+            final BufferedImage output = (BufferedImage) response.get("image_file");
+            assertFalse(output.getColorModel().hasAlpha());
+            assertNear(0xFFFFFF, output.getRGB(2, 8));
+            assertNear(0x2040C0, output.getRGB(13, 8));
+        }
+    }
+
+    @Test
+    public void pngKeepsTransparency() {
+        final HashMap<String, Object> response = F6ImageTransform.imageTransform(halfTransparent(), request("photo.jpg", "png"), null);
+
+        assertFalse(String.valueOf(response.get("error")), response.containsKey("error"));
+        final BufferedImage output = (BufferedImage) response.get("image_file");
+        assertTrue(output.getColorModel().hasAlpha());
+        assertEquals(0, output.getRGB(2, 8) >>> 24);
+        assertEquals(0xFF2040C0, output.getRGB(13, 8));
+    }
+
+    @Test
+    public void unknownTargetIsRefused() {
+        final HashMap<String, Object> response = F6ImageTransform.imageTransform(halfTransparent(), request("photo.png", "gif"), null);
+        assertTrue(response.containsKey("error"));
+    }
+
+    /**
+     * @return An image whose left half is transparent and right half is opaque blue.
+     */
+    private static BufferedImage halfTransparent() {
+        final BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 16; y++) {
+            for (int x = 8; x < 16; x++) {
+                image.setRGB(x, y, 0xFF2040C0);
+            }
+        }
+        return image;
+    }
+
+    private static void assertNear(final int expected, final int actual) {
+        for (int shift = 0; shift < 24; shift += 8) {
+            final int difference = Math.abs((expected >> shift & 0xFF) - (actual >> shift & 0xFF));
+            assertTrue(String.format("%06X != %06X", expected, actual & 0xFFFFFF), difference <= 8);
+        }
+    }
+
+    private static HashMap<String, Object> request(final String fileName, final String targetFormat) {
+        final HashMap<String, Object> request = new HashMap<>();
+        request.put("bucketname", "bkt");
+        request.put("filename", fileName);
+        request.put("get_download", false);
+        request.put("target_format", targetFormat);
+        return request;
+    }
+
+}
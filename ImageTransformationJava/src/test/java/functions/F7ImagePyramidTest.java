@@ -0,0 +1,167 @@
+package functions;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import utils.InlinePayloads;
+import utils.LocalObjectStore;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks the sizes, pixels and uploads of the levels the pyramid cascade produces.
+ */
+public class F7ImagePyramidTest {
+
+    private static File store;
+
+
+    @BeforeClass
+    public static void createStore() throws IOException {
+        store = Files.createTempDirectory("pyramid-store").toFile();
+        final File bucket = new File(store, "bkt");
+        assertTrue(bucket.mkdirs());
+
+        final BufferedImage flat = new BufferedImage(400, 300, BufferedImage.TYPE_3BYTE_BGR);
+        final Graphics2D graphics = flat.createGraphics();
+        graphics.setColor(new Color(200, 120, 40));
+        graphics.fillRect(0, 0, 400, 300);
+        graphics.dispose();
+        assertTrue(ImageIO.write(flat, "png", new File(bucket, "flat.png")));
+
+        final BufferedImage blocks = new BufferedImage(4, 2, BufferedImage.TYPE_INT_RGB);
+        final int[] colors = {0x000000, 0x040404, 0x808080, 0xFF0000, 0x080808, 0x0C0C0C, 0x808080, 0x00FF00};
+        blocks.setRGB(0, 0, 4, 2, colors, 0, 4);
+        assertTrue(ImageIO.write(blocks, "png", new File(bucket, "blocks.png")));
+
+        System.setProperty(LocalObjectStore.PROPERTY_KEY, store.getPath());
+    }
+
+    @AfterClass
+    public static void deleteStore() throws IOException {
+        System.clearProperty(LocalObjectStore.PROPERTY_KEY);
+        try (Stream<Path> files = Files.walk(store.toPath())) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void levelsMatchTheirSizesLargestFirst() throws IOException {
+        final HashMap<String, Object> response = F7ImagePyramid.handleRequest(request("flat.png", List.of(50, 200, 1000, 100, 200)), null);
+
+        assertFalse(String.valueOf(response.get("error")), response.containsKey("error"));
+        final List<Integer> sizes = new ArrayList<>();
+        for (final Object level : (List<?>) response.get("levels")) {
+            final Map<?, ?> output = (Map<?, ?>) level;
+            sizes.add((Integer) output.get("size"));
+            final BufferedImage stored = ImageIO.read(new File(store, "bkt/" + output.get("filename")));
+            assertEquals(output.get("width"), stored.getWidth());
+            assertEquals(output.get("height"), stored.getHeight());
+
+            // Averaging a flat image leaves its colour unchanged
+            assertEquals(0xC87828, stored.getRGB(stored.getWidth() / 2, stored.getHeight() / 2) & 0xFFFFFF);
+        }
+        assertEquals(List.of(1000, 200, 100, 50), sizes);
+
+        // Levels are never enlarged, and keep the aspect ratio
+        assertLevel(response, 1000, 400, 300);
+        assertLevel(response, 200, 200, 150);
+        assertLevel(response, 50, 50, 38);
+    }
+
+    @Test
+    public void halvingAveragesEachBlock() throws IOException {
+        final HashMap<String, Object> response = F7ImagePyramid.handleRequest(request("blocks.png", List.of(2)), null);
+
+        assertFalse(String.valueOf(response.get("error")), response.containsKey("error"));
+        final Map<?, ?> level = (Map<?, ?>) ((List<?>) response.get("levels")).get(0);
+        final BufferedImage stored = ImageIO.read(new File(store, "bkt/" + level.get("filename")));
+        assertEquals(2, stored.getWidth());
+        assertEquals(1, stored.getHeight());
+        assertEquals(0x060606, stored.getRGB(0, 0) & 0xFFFFFF);
+        assertEquals(0x808040, stored.getRGB(1, 0) & 0xFFFFFF);
+    }
+
+    @Test
+    public void batchStepPassesItsInputThrough() {
+        final BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        final HashMap<String, Object> response = F7ImagePyramid.imagePyramid(image, request("batch.png", List.of(16)), null);
+
+        assertFalse(String.valueOf(response.get("error")), response.containsKey("error"));
+        assertSame(image, response.get("image_file"));
+        assertTrue(new File(store, "bkt/pyramid_16_batch.png").isFile());
+    }
+
+    @Test
+    public void invalidSizesAreRefused() {
+        assertTrue(F7ImagePyramid.handleRequest(request("flat.png", List.of(0)), null).containsKey("error"));
+        assertTrue(F7ImagePyramid.handleRequest(request("flat.png", List.of()), null).containsKey("error"));
+    }
+
+    @Test
+    public void inlineLevelsOverTheResponseLimitAreRefusedBeforeReduction() throws IOException {
+        // Noise barely compresses, so four full-size levels cannot share one response
+        final BufferedImage noise = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        final Random random = new Random(45);
+        for (int y = 0; y < noise.getHeight(); y++) {
+            for (int x = 0; x < noise.getWidth(); x++) {
+                noise.setRGB(x, y, random.nextInt());
+            }
+        }
+        final ByteArrayOutputStream png = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(noise, "png", png));
+
+        final HashMap<String, Object> request = request("inline.png", List.of(800, 900, 1000, 1100));
+        request.put(InlinePayloads.IMAGE_BASE64_KEY, Base64.getEncoder().encodeToString(png.toByteArray()));
+        final HashMap<String, Object> response = F7ImagePyramid.handleRequest(request, null);
+
+        assertTrue(String.valueOf(response.get("error")).contains("inline response limit"));
+        assertFalse(response.containsKey("levels"));
+    }
+
+    private static void assertLevel(final Map<String, Object> response, final int size, final int width, final int height) {
+        for (final Object level : (List<?>) response.get("levels")) {
+            final Map<?, ?> output = (Map<?, ?>) level;
+            if (output.get("size").equals(size)) {
+                assertEquals(width, output.get("width"));
+                assertEquals(height, output.get("height"));
+                return;
+            }
+        }
+        throw new AssertionError("No level of size " + size);
+    }
+
+    private static HashMap<String, Object> request(final String fileName, final List<Integer> sizes) {
+        final HashMap<String, Object> request = new HashMap<>();
+        request.put("bucketname", "bkt");
+        request.put("filename", fileName);
+        request.put("get_download", false);
+        request.put("sizes", sizes);
+        return request;
+    }
+
+}
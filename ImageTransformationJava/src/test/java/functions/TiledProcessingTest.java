@@ -0,0 +1,187 @@
+package functions;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import utils.LocalObjectStore;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks that tiles decoded band by band stitch into the image the batch functions produce whole,
+ *  and that a remote tile job is checked before it allocates anything.
+ */
+public class TiledProcessingTest {
+
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 200;
+
+    private static File store;
+    private static BufferedImage photo;
+
+
+    @BeforeClass
+    public static void createStore() throws IOException {
+        store = Files.createTempDirectory("tiled-store").toFile();
+        final File bucket = new File(store, "bkt");
+        assertTrue(bucket.mkdirs());
+
+        photo = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        final Random random = new Random(46);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                photo.setRGB(x, y, (x * 255 / WIDTH) << 16 | (y * 255 / HEIGHT) << 8 | random.nextInt(64));
+            }
+        }
+        assertTrue(ImageIO.write(photo, "png", new File(bucket, "photo.png")));
+        System.setProperty(LocalObjectStore.PROPERTY_KEY, store.getPath());
+    }
+
+    @AfterClass
+    public static void deleteStore() throws IOException {
+        System.clearProperty(LocalObjectStore.PROPERTY_KEY);
+        try (Stream<Path> files = Files.walk(store.toPath())) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void pointwiseTilesMatchTheWholeImage() throws IOException {
+        final List<Object> operations = List.of(
+                List.of("grayscale"),
+                List.of("brightness", Map.of("brightness_delta", 20)),
+                List.of("rotate", Map.of("rotation_angle", 90)));
+        final BufferedImage tiled = runTiled(operations);
+        final BufferedImage whole = runWhole(operations);
+
+        assertEquals(HEIGHT, tiled.getWidth());
+        assertEquals(WIDTH, tiled.getHeight());
+        assertEquals(0, maxDifference(whole, tiled));
+    }
+
+    @Test
+    public void overlappingTilesMatchTheWholeImage() throws IOException {
+        final List<Object> operations = List.of(List.of("blur", Map.of("blur_radius", 5)));
+        final BufferedImage tiled = runTiled(operations);
+        final BufferedImage whole = runWhole(operations);
+
+        assertEquals(WIDTH, tiled.getWidth());
+        assertEquals(HEIGHT, tiled.getHeight());
+        assertTrue(maxDifference(whole, tiled) <= 1);
+    }
+
+    @Test
+    public void tileOutsideTheOutputIsRefused() throws IOException {
+        final HashMap<String, Object> job = job(WIDTH, HEIGHT, List.of(250, 0, 64, 64));
+        job.put(TileWorkers.TILE_BASE64_KEY, Base64.getEncoder().encodeToString(TileWorkers.encode(photo, 0)));
+
+        final HashMap<String, Object> answer = TileWorkers.handleRemoteJob(job);
+        assertTrue(String.valueOf(answer.get("error")), String.valueOf(answer.get("error")).contains("Invalid output_tile"));
+    }
+
+    @Test
+    public void oversizedJobIsRefusedBeforeDecoding() throws IOException {
+        // A tile whose header claims the whole region, with only the pixels of a small image behind it
+        final int side = 60_000;
+        final BufferedImage small = new BufferedImage(8, 8, BufferedImage.TYPE_BYTE_GRAY);
+        final byte[] tile = TileWorkers.encode(small, 0);
+        ByteBuffer.wrap(tile).putInt(8, side).putInt(12, side).putInt(20, side);
+
+        final HashMap<String, Object> job = job(side, side, List.of(0, 0, side, side));
+        job.put(TileWorkers.TILE_BASE64_KEY, Base64.getEncoder().encodeToString(tile));
+
+        final HashMap<String, Object> answer = TileWorkers.handleRemoteJob(job);
+        assertTrue(String.valueOf(answer.get("error")), String.valueOf(answer.get("error")).contains("of heap can be used"));
+    }
+
+    @Test
+    public void remoteJobMatchesTheTileComputedInProcess() throws IOException {
+        final HashMap<String, Object> job = job(WIDTH, HEIGHT, List.of(64, 128, 64, 64));
+        final BufferedImage source = photo.getSubimage(64, 128, 64, 64);
+        final HashMap<String, Object> request = new HashMap<>(job);
+        request.put(TileWorkers.TILE_BASE64_KEY, Base64.getEncoder().encodeToString(TileWorkers.encode(source, 0)));
+
+        final HashMap<String, Object> answer = TileWorkers.handleRemoteJob(request);
+        assertFalse(String.valueOf(answer.get("error")), answer.containsKey("error"));
+        final BufferedImage tile = TileWorkers.decode(Base64.getDecoder().decode((String) answer.get(TileWorkers.TILE_BASE64_KEY)));
+        assertEquals(0, maxDifference(TileWorkers.render(job, source), tile));
+    }
+
+    private static HashMap<String, Object> job(final int width, final int height, final List<Integer> outputTile) {
+        final HashMap<String, Object> job = new HashMap<>();
+        job.put(TiledProcessing.OPERATIONS_KEY, List.of(List.of("grayscale")));
+        job.put("filename", "photo.png");
+        job.put(TileWorkers.WIDTH_KEY, width);
+        job.put(TileWorkers.HEIGHT_KEY, height);
+        job.put(TileWorkers.OUTPUT_TILE_KEY, outputTile);
+        return job;
+    }
+
+    private static BufferedImage runTiled(final List<Object> operations) throws IOException {
+        final HashMap<String, Object> request = new HashMap<>();
+        request.put("bucketname", "bkt");
+        request.put("filename", "photo.png");
+        request.put("get_download", false);
+        request.put(TiledProcessing.OPERATIONS_KEY, operations);
+        request.put(TiledProcessing.TILE_SIZE_KEY, 64);
+        request.put(TiledProcessing.WORKERS_KEY, 3);
+
+        final HashMap<String, Object> response = TiledProcessing.handleRequest(request, null);
+        assertFalse(String.valueOf(response.get("error")), response.containsKey("error"));
+        // Five columns of four rows, or four of five once rotated, so every band but the last is one of several
+        assertEquals(20, response.get("tile_count"));
+        return ImageIO.read(new File(store, "bkt/tiled_photo.png"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BufferedImage runWhole(final List<Object> operations) {
+        BufferedImage image = photo;
+        for (final Object entry : operations) {
+            final List<Object> operation = (List<Object>) entry;
+            final HashMap<String, Object> args = operation.size() > 1 ? new HashMap<>((Map<String, Object>) operation.get(1)) : new HashMap<>();
+            args.put("bucketname", "bkt");
+            args.put("filename", "photo.png");
+            final HashMap<String, Object> response = ImageBatchProcessing.FUNCTIONS.get((String) operation.get(0)).process(image, args, null);
+            assertFalse(String.valueOf(response.get("error")), response.containsKey("error"));
+            image = (BufferedImage) response.get("image_file");
+        }
+        return image;
+    }
+
+    private static int maxDifference(final BufferedImage expected, final BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        int max = 0;
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                final int a = expected.getRGB(x, y);
+                final int b = actual.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    max = Math.max(max, Math.abs((a >> shift & 0xFF) - (b >> shift & 0xFF)));
+                }
+            }
+        }
+        return max;
+    }
+
+}
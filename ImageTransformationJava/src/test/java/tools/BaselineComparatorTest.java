@@ -0,0 +1,126 @@
+package tools;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks that clear shifts are flagged as regressions or improvements, that noise and cold starts
+ *  are not, and that only tests present in both runs are compared.
+ */
+public class BaselineComparatorTest {
+
+    private static final String HEADER = "function_runtime_ms,memory_used_mb,network_latency_ms,cold_start,language";
+
+    private File directory;
+
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("comparator").toFile();
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        System.clearProperty("summary");
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void shiftsAreFlaggedAndNoiseIsNot() throws IOException {
+        final File baseline = new File(directory, "baseline.csv");
+        final File candidate = new File(directory, "candidate.csv");
+        try (PrintWriter out = new PrintWriter(baseline, "UTF-8")) {
+            block(out, "rotate_small_java", 100, 200, 40, new Random(1));
+            block(out, "resize_small_java", 100, 200, 40, new Random(2));
+        }
+        try (PrintWriter out = new PrintWriter(candidate, "UTF-8")) {
+            block(out, "rotate_small_java", 150, 200, 20, new Random(3));
+            block(out, "grayscale_small_java", 100, 200, 40, new Random(4));
+        }
+
+        final Map<String, String[]> rows = compare(baseline, candidate);
+
+        assertEquals(3, rows.size());
+        assertEquals("REGRESSION", rows.get("function_runtime_ms")[15]);
+        assertEquals("unchanged", rows.get("memory_used_mb")[15]);
+        assertEquals("improvement", rows.get("network_latency_ms")[15]);
+
+        // The cold start rows are left out of both runs
+        assertEquals("30", rows.get("function_runtime_ms")[4]);
+        assertEquals("30", rows.get("function_runtime_ms")[5]);
+        assertEquals("rotate", rows.get("function_runtime_ms")[0]);
+        assertEquals("small", rows.get("function_runtime_ms")[1]);
+        assertEquals("java", rows.get("function_runtime_ms")[2]);
+    }
+
+    @Test
+    public void identicalRunsAreUnchanged() throws IOException {
+        final File run = new File(directory, "run.csv");
+        try (PrintWriter out = new PrintWriter(run, "UTF-8")) {
+            block(out, "blur_medium_java", 100, 200, 40, new Random(5));
+        }
+
+        for (final String[] row : compare(run, run).values()) {
+            assertEquals("unchanged", row[15]);
+            assertEquals("0.00", row[8]);
+        }
+    }
+
+    /**
+     * Writes a test block of 30 warm calls around the given medians, and one slow cold start.
+     */
+    private static void block(final PrintWriter out, final String test, final double runtimeMs, final double memoryMb,
+                              final double networkMs, final Random random) {
+        out.println(test);
+        out.println(HEADER);
+        out.printf("%.2f,%.2f,%.2f,1,java%n", runtimeMs * 20, memoryMb * 2, networkMs * 20);
+        for (int i = 0; i < 30; i++) {
+            out.printf("%.2f,%.2f,%.2f,0,java%n", runtimeMs * (0.97 + 0.06 * random.nextDouble()),
+                    memoryMb * (0.99 + 0.02 * random.nextDouble()), networkMs * (0.95 + 0.1 * random.nextDouble()));
+        }
+        out.println();
+    }
+
+    /**
+     * Runs the comparator and reads its summary.
+     *
+     * @return The summary rows by metric.
+     */
+    private Map<String, String[]> compare(final File baseline, final File candidate) throws IOException {
+        final File summary = new File(directory, "summary.csv");
+        System.setProperty("summary", summary.getPath());
+        BaselineComparator.main(new String[]{baseline.getPath(), candidate.getPath()});
+
+        final List<String> lines = Files.readAllLines(summary.toPath(), StandardCharsets.UTF_8);
+        assertFalse(lines.isEmpty());
+        final Map<String, String[]> rows = new HashMap<>();
+        for (final String line : lines.subList(1, lines.size())) {
+            final String[] fields = line.split(",");
+            rows.put(fields[3], fields);
+        }
+        return rows;
+    }
+
+}
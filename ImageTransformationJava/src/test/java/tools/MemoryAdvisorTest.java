@@ -0,0 +1,64 @@
+package tools;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks the heap each tier simulates, the latency percentiles, and that replayed operations run
+ *  with their fixed arguments.
+ */
+public class MemoryAdvisorTest {
+
+    @Test
+    public void heapIsAFixedShareOfTheTier() {
+        assertEquals(108, MemoryAdvisor.heapMb(128));
+        assertEquals(1503, MemoryAdvisor.heapMb(1769));
+    }
+
+    @Test
+    public void percentilesUseTheNearestRank() {
+        final List<Double> latencies = List.of(50.0, 10.0, 40.0, 20.0, 30.0, 90.0, 60.0, 80.0, 70.0, 100.0);
+        assertEquals(50.0, MemoryAdvisor.percentile(latencies, 0.5), 0);
+        assertEquals(100.0, MemoryAdvisor.percentile(latencies, 0.95), 0);
+        assertEquals(10.0, MemoryAdvisor.percentile(latencies, 0), 0);
+        assertEquals(7.0, MemoryAdvisor.percentile(List.of(7.0), 0.95), 0);
+    }
+
+    @Test
+    public void operationsRunWithTheirArguments() {
+        final BufferedImage image = new BufferedImage(800, 600, BufferedImage.TYPE_3BYTE_BGR);
+
+        final BufferedImage rotated = MemoryAdvisor.apply("rotate", image, "photo.jpg");
+        assertEquals(600, rotated.getWidth());
+        assertEquals(800, rotated.getHeight());
+
+        final BufferedImage resized = MemoryAdvisor.apply("resize", image, "photo.jpg");
+        assertEquals(640, resized.getWidth());
+        assertEquals(480, resized.getHeight());
+
+        // Details produce no image, so the input carries on
+        assertSame(image, MemoryAdvisor.apply("details", image, "photo.jpg"));
+        assertNotSame(image, MemoryAdvisor.apply("brightness", image, "photo.jpg"));
+    }
+
+    @Test
+    public void unknownOperationIsRefused() {
+        try {
+            MemoryAdvisor.apply("emboss", new BufferedImage(4, 4, BufferedImage.TYPE_3BYTE_BGR), "photo.jpg");
+            fail("Ran an unknown operation");
+        } catch (final IllegalArgumentException e) {
+            assertEquals("Unknown operation: emboss", e.getMessage());
+        }
+    }
+
+}
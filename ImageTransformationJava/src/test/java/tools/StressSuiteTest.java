@@ -0,0 +1,101 @@
+package tools;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks that the synthetic images are deterministic and 4:3, and that a series prints a row per
+ *  raster type, profile and size.
+ */
+public class StressSuiteTest {
+
+    @After
+    public void clearProperties() {
+        System.clearProperty("sizes");
+        System.clearProperty("types");
+        System.clearProperty("profiles");
+    }
+
+    @Test
+    public void imagesAreDeterministicAndFourByThree() {
+        for (final String profile : new String[] {"noise", "gradient", "photo"}) {
+            final BufferedImage first = StressSuite.generate(BufferedImage.TYPE_3BYTE_BGR, profile, 0.12);
+            final BufferedImage second = StressSuite.generate(BufferedImage.TYPE_3BYTE_BGR, profile, 0.12);
+            assertEquals(400, first.getWidth());
+            assertEquals(300, first.getHeight());
+            for (int y = 0; y < first.getHeight(); y += 7) {
+                for (int x = 0; x < first.getWidth(); x += 7) {
+                    assertEquals(profile, first.getRGB(x, y), second.getRGB(x, y));
+                }
+            }
+        }
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, StressSuite.generate(BufferedImage.TYPE_BYTE_GRAY, "photo", 0.01).getType());
+    }
+
+    @Test
+    public void unknownProfileIsRefused() {
+        try {
+            StressSuite.generate(BufferedImage.TYPE_3BYTE_BGR, "stripes", 0.01);
+            fail("Generated an unknown profile");
+        } catch (final IllegalArgumentException e) {
+            assertEquals("Unknown profile: stripes", e.getMessage());
+        }
+    }
+
+    @Test
+    public void seriesPrintsARowPerRun() throws IOException, InterruptedException {
+        System.setProperty("sizes", "0.01,0.02");
+        System.setProperty("types", "gray,argb");
+        System.setProperty("profiles", "gradient");
+
+        final List<String[]> rows = new ArrayList<>();
+        for (final String line : capture("batch").split("\n")) {
+            if (line.startsWith("ROW ")) {
+                rows.add(line.substring(4).split(",", -1));
+            }
+        }
+
+        assertEquals(4, rows.size());
+        for (final String[] row : rows) {
+            assertEquals("batch", row[0]);
+            assertEquals("gradient", row[2]);
+            assertEquals("ok", row[4]);
+            assertEquals(8, row.length);
+        }
+        assertEquals("gray", rows.get(0)[1]);
+        assertEquals("0.02", rows.get(1)[3]);
+        assertEquals("argb", rows.get(3)[1]);
+    }
+
+    /**
+     * Runs a series in this JVM.
+     *
+     * @return What the series printed.
+     */
+    private static String capture(final String operation) throws IOException, InterruptedException {
+        final PrintStream original = System.out;
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(output, true, "UTF-8"));
+        try {
+            StressSuite.main(new String[]{"--run", operation});
+        } finally {
+            System.setOut(original);
+        }
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,46 @@
+package utils;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks that the breakdown is reported once, after the first handler entry, with the first
+ *  duration of each phase and the JVM state at entry.
+ *
+ *  The breakdown is once per JVM, so the whole sequence is a single test.
+ */
+public class ColdStartTest {
+
+    private static final String PHASE_KEY = "test_phase_ms";
+
+    @Test
+    public void breakdownIsReportedOnceAfterEntry() {
+        // Nothing is reported before a handler runs
+        assertNull(ColdStart.takeBreakdown());
+
+        ColdStart.recordFirst(PHASE_KEY, System.nanoTime() - 5_000_000L);
+        ColdStart.recordFirst(PHASE_KEY, System.nanoTime());
+        ColdStart.onHandlerEntry();
+        ColdStart.onHandlerEntry();
+
+        final HashMap<String, Object> breakdown = ColdStart.takeBreakdown();
+        assertTrue((double) breakdown.get(PHASE_KEY) >= 5);
+        assertTrue((long) breakdown.get(ColdStart.JVM_UPTIME_AT_HANDLER_KEY) > 0);
+        assertTrue((long) breakdown.get(ColdStart.CLASSES_LOADED_AT_HANDLER_KEY) > 0);
+        assertTrue((long) breakdown.get(ColdStart.CLASSES_LOADED_FIRST_INVOCATION_KEY) >= 0);
+        final long jitAtEntry = (long) breakdown.get(ColdStart.JIT_TIME_AT_HANDLER_KEY);
+        assertTrue((long) breakdown.get(ColdStart.JIT_TIME_AT_FIRST_RESPONSE_KEY) >= jitAtEntry);
+
+        // Later responses carry nothing
+        ColdStart.onHandlerEntry();
+        assertNull(ColdStart.takeBreakdown());
+    }
+
+}
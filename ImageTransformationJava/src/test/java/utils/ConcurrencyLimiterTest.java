@@ -0,0 +1,128 @@
+package utils;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks that the limit grows while saturated at steady latency, shrinks when latency rises above
+ *  the baseline, and that failures and single fast requests do not lower the baseline.
+ */
+public class ConcurrencyLimiterTest {
+
+    private static final String HANDLER = "resize";
+
+    /**
+     * Enough samples to fill the baseline window.
+     */
+    private static final int BASELINE_SAMPLES = 40;
+
+    @Test
+    public void limitGrowsWhileSaturatedAtSteadyLatency() throws InterruptedException {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(4);
+        final Deque<ConcurrencyLimiter.Permit> running = fill(limiter, 4);
+
+        for (int i = 0; i < 40; i++) {
+            running.removeFirst().release(true, 10);
+            running.addLast(acquire(limiter));
+        }
+
+        assertTrue(limit(limiter) > 4);
+    }
+
+    @Test
+    public void limitShrinksWhenLatencyRises() throws InterruptedException {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(10);
+        complete(limiter, BASELINE_SAMPLES, 10, true);
+        final int before = limit(limiter);
+
+        complete(limiter, 4, 100, true);
+
+        assertTrue(limit(limiter) < before);
+    }
+
+    @Test
+    public void fastFailuresDoNotLowerTheBaseline() throws InterruptedException {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(10);
+        complete(limiter, BASELINE_SAMPLES, 10, true);
+        complete(limiter, 50, 0.5, false);
+        final int before = limit(limiter);
+
+        // Within the tolerance of a 10 ms baseline, far outside that of a 0.5 ms one
+        complete(limiter, 1, 15, true);
+
+        assertEquals(before, limit(limiter));
+    }
+
+    @Test
+    public void singleFastRequestDoesNotLowerTheBaseline() throws InterruptedException {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(10);
+        complete(limiter, BASELINE_SAMPLES, 10, true);
+        final int before = limit(limiter);
+
+        complete(limiter, 1, 0.5, true);
+        complete(limiter, 1, 10, true);
+        complete(limiter, 1, 15, true);
+
+        assertEquals(before, limit(limiter));
+    }
+
+    @Test
+    public void fullQueueRejectsAndFailureFreesTheSlot() throws InterruptedException {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+        final ConcurrencyLimiter.Permit permit = acquire(limiter);
+        assertNull(limiter.acquire(HANDLER, Map.of(ConcurrencyLimiter.QUEUE_TIMEOUT_KEY, 0)));
+
+        permit.release(false);
+        permit.release(false);
+        assertNotNull(acquire(limiter));
+        assertNull(limiter.acquire(HANDLER, Map.of(ConcurrencyLimiter.QUEUE_TIMEOUT_KEY, 0)));
+
+        final Map<String, Object> state = new HashMap<>();
+        limiter.record(state);
+        assertEquals(1, state.get(Constants.REQUESTS_IN_FLIGHT_KEY));
+        assertEquals(2L, state.get(Constants.REJECTED_REQUESTS_KEY));
+    }
+
+    /**
+     * Runs requests one at a time, so the limit never grows from saturation.
+     */
+    private static void complete(final ConcurrencyLimiter limiter, final int count, final double latencyMs, final boolean succeeded)
+            throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            acquire(limiter).release(succeeded, latencyMs);
+        }
+    }
+
+    private static Deque<ConcurrencyLimiter.Permit> fill(final ConcurrencyLimiter limiter, final int count) throws InterruptedException {
+        final Deque<ConcurrencyLimiter.Permit> permits = new ArrayDeque<>();
+        for (int i = 0; i < count; i++) {
+            permits.addLast(acquire(limiter));
+        }
+        return permits;
+    }
+
+    private static ConcurrencyLimiter.Permit acquire(final ConcurrencyLimiter limiter) throws InterruptedException {
+        final ConcurrencyLimiter.Permit permit = limiter.acquire(HANDLER, Map.of(ConcurrencyLimiter.QUEUE_TIMEOUT_KEY, 0));
+        assertNotNull(permit);
+        return permit;
+    }
+
+    private static int limit(final ConcurrencyLimiter limiter) {
+        final Map<String, Object> state = new HashMap<>();
+        limiter.record(state);
+        return (int) state.get(Constants.CONCURRENCY_LIMIT_KEY);
+    }
+
+}
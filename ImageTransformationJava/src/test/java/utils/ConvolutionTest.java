@@ -0,0 +1,258 @@
+package utils;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks the box, Gaussian and kernel passes against a naive two-dimensional convolution in
+ *  doubles, for every edge mode, on images small enough to run on the calling thread and large
+ *  enough to run in bands, and that alpha is convolved premultiplied.
+ */
+public class ConvolutionTest {
+
+    private static final int[][] SIZES = {{37, 23}, {300, 260}};
+
+
+    @Test
+    public void boxBlurMatchesTheNaiveMean() {
+        for (final int[] size : SIZES) {
+            final BufferedImage image = noise(size[0], size[1], BufferedImage.TYPE_3BYTE_BGR);
+            for (final Convolution.EdgeMode edge : Convolution.EdgeMode.values()) {
+                final double[] box = box(3);
+                assertClose("box " + edge, reference(image, box, box, edge), Convolution.boxBlur(image, 3, edge), 1);
+            }
+        }
+    }
+
+    @Test
+    public void smallGaussianMatchesTheSampledKernel() {
+        for (final int[] size : SIZES) {
+            final BufferedImage image = noise(size[0], size[1], BufferedImage.TYPE_3BYTE_BGR);
+            for (final Convolution.EdgeMode edge : Convolution.EdgeMode.values()) {
+                final double[] kernel = gaussian(0.8);
+                assertClose("gaussian " + edge, reference(image, kernel, kernel, edge), Convolution.gaussianBlur(image, 0.8, edge), 1);
+            }
+        }
+    }
+
+    @Test
+    public void largeGaussianMatchesItsStackedBoxes() {
+        final BufferedImage image = noise(300, 260, BufferedImage.TYPE_BYTE_GRAY);
+        double[] kernel = {1};
+        for (final int radius : Convolution.gaussianBoxRadii(4)) {
+            kernel = compose(kernel, box(radius));
+        }
+        assertEquals(Convolution.gaussianSupport(4), kernel.length / 2);
+        // Clamping each pass is not clamping their composition, but wrapping and reflecting a symmetric kernel are
+        for (final Convolution.EdgeMode edge : new Convolution.EdgeMode[]{Convolution.EdgeMode.REFLECT, Convolution.EdgeMode.WRAP}) {
+            // Each of the six passes rounds to a byte
+            assertClose("stacked " + edge, reference(image, kernel, kernel, edge), Convolution.gaussianBlur(image, 4, edge), 3);
+        }
+    }
+
+    @Test
+    public void asymmetricKernelMatchesTheNaiveConvolution() {
+        final BufferedImage image = noise(41, 29, BufferedImage.TYPE_INT_RGB);
+        final int[] horizontal = {4096, 8192, 4096};
+        final int[] vertical = {0, 0, 16384, 0, 0};
+        final int[] identity = {16384};
+        assertClose("horizontal", reference(image, weights(horizontal), weights(identity), Convolution.EdgeMode.REFLECT),
+                Convolution.convolve(image, horizontal, identity, Convolution.EdgeMode.REFLECT), 1);
+        assertClose("identity", reference(image, weights(identity), weights(vertical), Convolution.EdgeMode.CLAMP),
+                Convolution.convolve(image, identity, vertical, Convolution.EdgeMode.CLAMP), 0);
+    }
+
+    @Test
+    public void transparentColourDoesNotBleed() {
+        // Opaque red next to transparent green: blurred premultiplied, only red can show
+        for (final int type : new int[]{BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_ARGB}) {
+            final BufferedImage image = new BufferedImage(20, 20, type);
+            for (int y = 0; y < 20; y++) {
+                for (int x = 0; x < 20; x++) {
+                    image.setRGB(x, y, (x + y) % 2 == 0 ? 0xFFFF0000 : 0x0000FF00);
+                }
+            }
+            final BufferedImage blurred = Convolution.gaussianBlur(image, 2, Convolution.EdgeMode.CLAMP);
+            for (int y = 0; y < 20; y++) {
+                for (int x = 0; x < 20; x++) {
+                    final int argb = blurred.getRGB(x, y);
+                    assertTrue("alpha at " + x + ", " + y, argb >>> 24 > 0 && argb >>> 24 < 255);
+                    assertEquals("colour at " + x + ", " + y, 0xFF0000, argb & 0xFFFFFF);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void alphaMatchesTheNaivePremultipliedConvolution() {
+        for (final int[] size : SIZES) {
+            final BufferedImage image = noise(size[0], size[1], BufferedImage.TYPE_4BYTE_ABGR);
+            final double[] kernel = gaussian(1);
+            final double[][][] expected = referencePremultiplied(image, kernel, Convolution.EdgeMode.REFLECT);
+            final BufferedImage actual = Convolution.gaussianBlur(image, 1, Convolution.EdgeMode.REFLECT);
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    final int argb = actual.getRGB(x, y);
+                    final double alpha = expected[y][x][3];
+                    assertEquals(alpha, argb >>> 24, 1);
+                    if (alpha < 16) {
+                        continue;
+                    }
+                    // Dividing the alpha back out scales up the rounding of the premultiplied colour
+                    final double tolerance = 1 + 2 * 255 / alpha;
+                    for (int c = 0; c < 3; c++) {
+                        assertEquals("channel " + c + " at " + x + ", " + y, expected[y][x][c] / alpha * 255,
+                                argb >> (16 - 8 * c) & 0xFF, tolerance);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sharpenLeavesFlatAreasAndAlphaAlone() {
+        final BufferedImage image = new BufferedImage(30, 30, BufferedImage.TYPE_4BYTE_ABGR);
+        for (int y = 0; y < 30; y++) {
+            for (int x = 0; x < 30; x++) {
+                image.setRGB(x, y, (x < 15 ? 0x80000000 : 0xFF000000) | 0x406080);
+            }
+        }
+        // The threshold absorbs the rounding of premultiplying the half transparent side
+        final BufferedImage sharpened = Convolution.unsharpMask(image, 1, 1, 3, Convolution.EdgeMode.CLAMP);
+        for (int y = 0; y < 30; y++) {
+            for (int x = 0; x < 30; x++) {
+                assertEquals(image.getRGB(x, y), sharpened.getRGB(x, y));
+            }
+        }
+    }
+
+    /**
+     * Convolves every sample with the outer product of two kernels, reading beyond the edges
+     * through the edge mode.
+     *
+     * @return The result, indexed by row, column and band.
+     */
+    private static double[][][] reference(final BufferedImage image, final double[] horizontal, final double[] vertical, final Convolution.EdgeMode edge) {
+        final int bands = image.getRaster().getNumBands();
+        final double[][][] result = new double[image.getHeight()][image.getWidth()][bands];
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                for (int j = 0; j < vertical.length; j++) {
+                    final int sy = edge.index(y + j - vertical.length / 2, image.getHeight());
+                    for (int i = 0; i < horizontal.length; i++) {
+                        final int sx = edge.index(x + i - horizontal.length / 2, image.getWidth());
+                        for (int b = 0; b < bands; b++) {
+                            result[y][x][b] += vertical[j] * horizontal[i] * image.getRaster().getSample(sx, sy, b);
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Convolves the premultiplied colour and the alpha of an RGBA image.
+     *
+     * @return The premultiplied result, indexed by row, column and red, green, blue, alpha.
+     */
+    private static double[][][] referencePremultiplied(final BufferedImage image, final double[] kernel, final Convolution.EdgeMode edge) {
+        final int radius = kernel.length / 2;
+        final double[][][] result = new double[image.getHeight()][image.getWidth()][4];
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                for (int j = -radius; j <= radius; j++) {
+                    for (int i = -radius; i <= radius; i++) {
+                        final int argb = image.getRGB(edge.index(x + i, image.getWidth()), edge.index(y + j, image.getHeight()));
+                        final double weight = kernel[j + radius] * kernel[i + radius];
+                        final int alpha = argb >>> 24;
+                        for (int c = 0; c < 3; c++) {
+                            result[y][x][c] += weight * (argb >> (16 - 8 * c) & 0xFF) * alpha / 255.0;
+                        }
+                        result[y][x][3] += weight * alpha;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void assertClose(final String setting, final double[][][] expected, final BufferedImage actual, final int tolerance) {
+        for (int y = 0; y < actual.getHeight(); y++) {
+            for (int x = 0; x < actual.getWidth(); x++) {
+                for (int b = 0; b < expected[y][x].length; b++) {
+                    final int sample = actual.getRaster().getSample(x, y, b);
+                    assertTrue(String.format("%s: band %d at %d, %d was %d, expected %.2f", setting, b, x, y, sample, expected[y][x][b]),
+                            Math.abs(sample - expected[y][x][b]) <= tolerance + 0.5);
+                }
+            }
+        }
+    }
+
+    private static double[] box(final int radius) {
+        final double[] kernel = new double[2 * radius + 1];
+        Arrays.fill(kernel, 1.0 / kernel.length);
+        return kernel;
+    }
+
+    /**
+     * @return A sampled Gaussian over three standard deviations each side, summing to one.
+     */
+    private static double[] gaussian(final double sigma) {
+        final int radius = Math.max(1, (int) Math.ceil(3 * sigma));
+        final double[] kernel = new double[2 * radius + 1];
+        double total = 0;
+        for (int k = -radius; k <= radius; k++) {
+            kernel[k + radius] = Math.exp(-(k * k) / (2 * sigma * sigma));
+            total += kernel[k + radius];
+        }
+        for (int i = 0; i < kernel.length; i++) {
+            kernel[i] /= total;
+        }
+        return kernel;
+    }
+
+    /**
+     * @return The kernel of running one kernel after the other.
+     */
+    private static double[] compose(final double[] first, final double[] second) {
+        final double[] kernel = new double[first.length + second.length - 1];
+        for (int i = 0; i < first.length; i++) {
+            for (int j = 0; j < second.length; j++) {
+                kernel[i + j] += first[i] * second[j];
+            }
+        }
+        return kernel;
+    }
+
+    private static double[] weights(final int[] fixed) {
+        final double[] kernel = new double[fixed.length];
+        for (int i = 0; i < fixed.length; i++) {
+            kernel[i] = fixed[i] / 16384.0;
+        }
+        return kernel;
+    }
+
+    private static BufferedImage noise(final int width, final int height, final int type) {
+        final BufferedImage image = new BufferedImage(width, height, type);
+        final Random random = new Random(width * 31L + height + type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int band = 0; band < image.getRaster().getNumBands(); band++) {
+                    image.getRaster().setSample(x, y, band, random.nextInt(256));
+                }
+            }
+        }
+        return image;
+    }
+
+}
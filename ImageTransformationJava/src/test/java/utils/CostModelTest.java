@@ -0,0 +1,53 @@
+package utils;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks the vCPU share of each memory size and the pricing of invocations and their stages.
+ */
+public class CostModelTest {
+
+    @Test
+    public void vcpusFollowMemoryUpToTheCap() {
+        assertEquals(1.0, CostModel.vcpus(CostModel.MB_PER_VCPU), 1e-9);
+        assertEquals(128.0 / CostModel.MB_PER_VCPU, CostModel.vcpus(128), 1e-9);
+        assertEquals(CostModel.MAX_VCPUS, CostModel.vcpus(CostModel.MB_PER_VCPU * 8), 1e-9);
+    }
+
+    @Test
+    public void durationIsBilledInWholeMilliseconds() {
+        assertEquals(CostModel.durationCost(2, 1024), CostModel.durationCost(1.2, 1024), 0);
+        assertEquals(2 * CostModel.durationCost(100, 512), CostModel.durationCost(100, 1024), 1e-18);
+        assertEquals(2 * CostModel.durationCost(100, 512), CostModel.durationCost(200, 512), 1e-18);
+        assertEquals(0, CostModel.durationCost(0, 512), 0);
+    }
+
+    @Test
+    public void invocationAddsTheRequestCharge() {
+        assertEquals(0.20 / 1_000_000, CostModel.invocationCost(0, 512), 1e-15);
+        assertEquals(CostModel.durationCost(250, 512) + 0.20 / 1_000_000, CostModel.invocationCost(250, 512), 1e-15);
+    }
+
+    @Test
+    public void stagesSplitTheRuntime() {
+        final HashMap<String, Object> costs = CostModel.stageCosts(1000, 300, 200);
+        final int memorySizeMb = CostModel.memorySizeMb();
+
+        assertEquals(CostModel.durationCost(300, memorySizeMb), (double) costs.get("fetch_decode"), 0);
+        assertEquals(CostModel.durationCost(500, memorySizeMb), (double) costs.get("processing"), 0);
+        assertEquals(CostModel.durationCost(200, memorySizeMb), (double) costs.get("encode"), 0);
+
+        // Stages that overlap the runtime leave no negative processing time
+        assertEquals(0, (double) CostModel.stageCosts(100, 80, 80).get("processing"), 0);
+        assertTrue((double) costs.get("request") > 0);
+    }
+
+}
@@ -0,0 +1,117 @@
+package utils;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks that the encoder profiles order by output size and that invalid settings are refused.
+ */
+public class EncoderOptionsTest {
+
+    @Test
+    public void smallestJpegIsSmallerThanFastest() throws IOException {
+        final BufferedImage image = photo();
+        final int fastest = encode(image, "jpeg", profile("fastest"));
+        final int smallest = encode(image, "jpeg", profile("smallest"));
+
+        assertTrue(smallest + " >= " + fastest, smallest < fastest);
+    }
+
+    @Test
+    public void smallestPngIsNoLargerThanFastest() throws IOException {
+        final BufferedImage image = photo();
+        final int fastest = encode(image, "png", profile("fastest"));
+        final int smallest = encode(image, "png", profile("smallest"));
+
+        assertTrue(smallest + " > " + fastest, smallest <= fastest);
+    }
+
+    @Test
+    public void settingsOverrideTheProfile() throws IOException {
+        final BufferedImage image = photo();
+        final Map<String, Object> request = profile("smallest");
+        request.put(EncoderOptions.JPEG_QUALITY_KEY, 95);
+
+        assertTrue(encode(image, "jpeg", request) > encode(image, "jpeg", profile("smallest")));
+        assertEquals("smallest", EncoderOptions.fromRequest(request).getName());
+    }
+
+    @Test
+    public void pngStaysLossless() throws IOException {
+        final BufferedImage image = photo();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EncoderOptions.fromRequest(profile("fastest")).write(image, "png", out);
+
+        final BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                assertEquals(image.getRGB(x, y), decoded.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void invalidSettingsAreRefused() {
+        assertInvalid(EncoderOptions.PROFILE_KEY, "tiny");
+        assertInvalid(EncoderOptions.JPEG_QUALITY_KEY, 0);
+        assertInvalid(EncoderOptions.JPEG_QUALITY_KEY, 101);
+        assertInvalid(EncoderOptions.PNG_COMPRESSION_LEVEL_KEY, 10);
+        assertInvalid(EncoderOptions.PNG_ENCODER_KEY, "zopfli");
+    }
+
+    private static void assertInvalid(final String key, final Object value) {
+        final Map<String, Object> request = new HashMap<>();
+        request.put(key, value);
+        try {
+            EncoderOptions.fromRequest(request);
+            fail("Accepted " + key + " = " + value);
+        } catch (final IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid " + key));
+        }
+    }
+
+    private static Map<String, Object> profile(final String name) {
+        final Map<String, Object> request = new HashMap<>();
+        request.put(EncoderOptions.PROFILE_KEY, name);
+        return request;
+    }
+
+    private static int encode(final BufferedImage image, final String format, final Map<String, Object> request) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(EncoderOptions.fromRequest(request).write(image, format, out));
+        return out.size();
+    }
+
+    /**
+     * @return Smooth gradients with some noise, which compress like a photo.
+     */
+    private static BufferedImage photo() {
+        final Random random = new Random(462);
+        final BufferedImage image = new BufferedImage(160, 120, BufferedImage.TYPE_3BYTE_BGR);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                final int r = Math.min(255, x + random.nextInt(16));
+                final int g = Math.min(255, 2 * y + random.nextInt(16));
+                final int b = Math.min(255, (x + y) / 2 + random.nextInt(16));
+                image.setRGB(x, y, r << 16 | g << 8 | b);
+            }
+        }
+        return image;
+    }
+
+}
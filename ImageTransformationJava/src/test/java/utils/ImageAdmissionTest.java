@@ -0,0 +1,134 @@
+package utils;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks the execution path admission picks for a 400x400 RGB image (480000 decoded bytes) as
+ *  the available heap shrinks, and the strip-streaming decode.
+ */
+public class ImageAdmissionTest {
+
+    private static final int SIZE = 400;
+
+    private ImageReader reader;
+
+
+    @After
+    public void disposeReader() {
+        if (reader != null) {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void imageThatFitsIsDecodedInMemory() throws IOException {
+        final ImageAdmission.Decision decision = admit(List.of(step("grayscale")), 10 << 20);
+
+        assertEquals(ImageAdmission.ExecutionPath.IN_MEMORY, decision.path);
+        assertEquals(SIZE * SIZE * 3, decision.decodedBytes);
+        assertEquals(BufferedImage.TYPE_3BYTE_BGR, ImageAdmission.decode(reader, decision).getType());
+    }
+
+    @Test
+    public void leadingGrayscaleIsStreamedInStrips() throws IOException {
+        // The source and its gray copy need 640000 bytes, the gray image and 64 rows of source only 396800
+        final ImageAdmission.Decision decision = admit(List.of(step("grayscale")), 600_000);
+
+        assertEquals(ImageAdmission.ExecutionPath.STRIP_STREAMING, decision.path);
+        final BufferedImage image = ImageAdmission.decode(reader, decision);
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, image.getType());
+        assertEquals(SIZE, image.getWidth());
+        assertEquals(SIZE, image.getHeight());
+        assertEquals(255, image.getRaster().getSample(10, 10, 0));
+        assertEquals(0, image.getRaster().getSample(SIZE - 10, SIZE - 10, 0));
+    }
+
+    @Test
+    public void stepBeforeGrayscaleSeesTheColourImage() throws IOException {
+        final ImageAdmission.Decision decision = admit(List.of(step("details"), step("grayscale")), 600_000);
+
+        assertEquals(ImageAdmission.ExecutionPath.REJECTED, decision.path);
+        assertNotNull(decision.reason);
+    }
+
+    @Test
+    public void resizeBelowTheSubsampledSizeIsSubsampled() throws IOException {
+        final Map<String, Object> resize = new HashMap<>();
+        resize.put("target_width", 100);
+        resize.put("target_height", 100);
+
+        // Every second pixel still needs 190000 bytes, every third 123868
+        final ImageAdmission.Decision decision = admit(List.of(new ImageAdmission.Step("resize", resize)), 176_500);
+
+        assertEquals(ImageAdmission.ExecutionPath.SUBSAMPLED, decision.path);
+        assertEquals(3, decision.subsampling);
+        final BufferedImage image = ImageAdmission.decode(reader, decision);
+        assertEquals(134, image.getWidth());
+        assertEquals(134, image.getHeight());
+    }
+
+    @Test
+    public void subsamplingWithoutResizeNeedsPermission() throws IOException {
+        assertEquals(ImageAdmission.ExecutionPath.REJECTED, admit(List.of(step("brightness")), 176_500).path);
+
+        final Map<String, Object> request = new HashMap<>();
+        request.put(ImageAdmission.ALLOW_SUBSAMPLING_KEY, true);
+        reader.dispose();
+        reader = reader(image());
+        final ImageAdmission.Decision decision = ImageAdmission.admit(reader, List.of(step("brightness")), request, 176_500);
+        assertEquals(ImageAdmission.ExecutionPath.SUBSAMPLED, decision.path);
+        assertNull(decision.reason);
+    }
+
+    private ImageAdmission.Decision admit(final List<ImageAdmission.Step> steps, final long available) throws IOException {
+        reader = reader(image());
+        return ImageAdmission.admit(reader, steps, new HashMap<>(), available);
+    }
+
+    private static ImageAdmission.Step step(final String name) {
+        return new ImageAdmission.Step(name, null);
+    }
+
+    /**
+     * @return A PNG that is white at the top left and black at the bottom right.
+     */
+    private static byte[] image() throws IOException {
+        final BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_3BYTE_BGR);
+        final Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, SIZE / 2, SIZE / 2);
+        graphics.dispose();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private static ImageReader reader(final byte[] bytes) throws IOException {
+        final ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes));
+        final ImageReader reader = ImageIO.getImageReaders(input).next();
+        reader.setInput(input);
+        return reader;
+    }
+
+}
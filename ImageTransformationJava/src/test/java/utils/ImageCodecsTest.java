@@ -0,0 +1,147 @@
+package utils;
+
+import org.junit.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks that readers and writers are reused per thread and format, and that the in-memory
+ *  streams read and write whole images, including ones larger than the initial buffer.
+ */
+public class ImageCodecsTest {
+
+    @Test
+    public void readerIsReusedForItsFormat() throws IOException {
+        final byte[] png = encode(noise(32, 24), "png");
+
+        final ImageReader first = decode(png);
+        final ImageCodecs.Stats before = ImageCodecs.snapshot();
+        final ImageReader second = decode(png);
+
+        assertSame(first, second);
+        assertEquals(1, ImageCodecs.snapshot().since(before).reused);
+
+        // A different format is recognised by its own reader
+        final ImageReader jpeg = decode(encode(noise(32, 24), "jpeg"));
+        assertNotSame(first, jpeg);
+    }
+
+    @Test
+    public void unknownInputHasNoReader() throws IOException {
+        try (ImageInputStream stream = ImageCodecs.openInput(new byte[] {1, 2, 3, 4, 5, 6, 7, 8})) {
+            assertNull(ImageCodecs.acquireReader(stream));
+        }
+    }
+
+    @Test
+    public void writerIsReusedForItsFormat() throws IOException {
+        final BufferedImage image = noise(16, 16);
+        final ImageWriter first = ImageCodecs.acquireWriter(image, "png");
+        ImageCodecs.releaseWriter("png", first);
+        final ImageCodecs.Stats before = ImageCodecs.snapshot();
+        final ImageWriter second = ImageCodecs.acquireWriter(image, "png");
+        ImageCodecs.releaseWriter("png", second);
+
+        assertSame(first, second);
+        assertEquals(1, ImageCodecs.snapshot().since(before).reused);
+    }
+
+    @Test
+    public void largeStreamsRoundTrip() throws IOException {
+        // Noise does not compress, so the encoded image outgrows the initial buffers
+        final BufferedImage image = noise(300, 200);
+        final byte[] encoded;
+        try (ImageCodecs.MemoryOutput output = ImageCodecs.openOutput()) {
+            final ImageWriter writer = ImageCodecs.acquireWriter(image, "png");
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), null);
+            ImageCodecs.releaseWriter("png", writer);
+
+            final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+            output.writeTo(copy);
+            encoded = copy.toByteArray();
+            assertEquals(output.length(), encoded.length);
+        }
+        assertTrue(encoded.length > 64 * 1024);
+
+        final BufferedImage decoded;
+        try (ImageInputStream input = ImageCodecs.openInput(new ByteArrayInputStream(encoded))) {
+            assertEquals(encoded.length, input.length());
+            final ImageReader reader = ImageCodecs.acquireReader(input);
+            decoded = reader.read(0);
+            ImageCodecs.releaseReader(reader);
+        }
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                assertEquals(image.getRGB(x, y), decoded.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void outputCanSeekBackAndOverwrite() throws IOException {
+        try (ImageCodecs.MemoryOutput output = ImageCodecs.openOutput()) {
+            output.write(new byte[] {1, 2, 3, 4, 5});
+            output.seek(1);
+            output.write(9);
+            output.seek(0);
+            assertEquals(1, output.read());
+            assertEquals(9, output.read());
+
+            final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+            output.writeTo(copy);
+            assertEquals(5, copy.size());
+            assertEquals(9, copy.toByteArray()[1]);
+        }
+    }
+
+    /**
+     * Decodes an image with a checked-out reader and returns the reader.
+     */
+    private static ImageReader decode(final byte[] bytes) throws IOException {
+        try (ImageInputStream stream = ImageCodecs.openInput(bytes)) {
+            final ImageReader reader = ImageCodecs.acquireReader(stream);
+            assertNotNull(reader);
+            assertEquals(32, reader.read(0).getWidth());
+            ImageCodecs.releaseReader(reader);
+            return reader;
+        }
+    }
+
+    private static byte[] encode(final BufferedImage image, final String format) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(image, format, out));
+        return out.toByteArray();
+    }
+
+    private static BufferedImage noise(final int width, final int height) {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        final Random random = new Random(43);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+}
@@ -0,0 +1,143 @@
+package utils;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks that concurrent fetches of one object share a decode, that a failed fetch lands its
+ *  flight for every waiting request, and that nothing is shared once a flight has landed.
+ */
+public class ImageFetchesTest {
+
+    private static final int THREADS = 8;
+
+    private static File store;
+
+
+    @BeforeClass
+    public static void createStore() throws IOException {
+        store = Files.createTempDirectory("fetch-store").toFile();
+        final File bucket = new File(store, "bkt");
+        assertTrue(bucket.mkdirs());
+
+        // Noise compresses poorly, so the leader's decode stays in flight while the others arrive
+        final BufferedImage image = new BufferedImage(1600, 1200, BufferedImage.TYPE_3BYTE_BGR);
+        final Random random = new Random(36);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        assertTrue(ImageIO.write(image, "png", new File(bucket, "noise.png")));
+        System.setProperty(LocalObjectStore.PROPERTY_KEY, store.getPath());
+    }
+
+    @AfterClass
+    public static void deleteStore() throws IOException {
+        System.clearProperty(LocalObjectStore.PROPERTY_KEY);
+        try (Stream<Path> files = Files.walk(store.toPath())) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void concurrentFetchesShareOneDecode() throws Exception {
+        final ImageFetches.Stats before = ImageFetches.snapshot();
+        final List<BufferedImage> images = fetchConcurrently("noise.png");
+        final ImageFetches.Stats stats = ImageFetches.snapshot().since(before);
+
+        final Set<BufferedImage> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (final BufferedImage image : images) {
+            assertNotNull(image);
+            assertEquals(1600, image.getWidth());
+            distinct.add(image);
+        }
+
+        // Every request either led a flight or joined one
+        assertTrue("Nothing was coalesced", stats.coalesced >= 1);
+        assertEquals(THREADS, distinct.size() + stats.coalesced);
+        assertTrue(stats.bytesSaved >= stats.coalesced * 1600L * 1200 * 3);
+
+        for (final BufferedImage image : images) {
+            RasterPool.release(image);
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void missingObjectLandsTheFlight() throws Exception {
+        for (final BufferedImage image : fetchConcurrently("missing.png")) {
+            assertNull(image);
+        }
+        assertNull(fetch("missing.png"));
+    }
+
+    @Test
+    public void sequentialFetchesAreNotCoalesced() throws IOException {
+        final ImageFetches.Stats before = ImageFetches.snapshot();
+        final BufferedImage first = fetch("noise.png");
+        RasterPool.release(first);
+        final BufferedImage second = fetch("noise.png");
+        RasterPool.release(second);
+
+        assertEquals(0, ImageFetches.snapshot().since(before).coalesced);
+    }
+
+    private static List<BufferedImage> fetchConcurrently(final String fileName) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final CyclicBarrier start = new CyclicBarrier(THREADS);
+            final List<Future<BufferedImage>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return fetch(fileName);
+                }));
+            }
+            final List<BufferedImage> images = new ArrayList<>();
+            for (final Future<BufferedImage> future : futures) {
+                images.add(future.get());
+            }
+            return images;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static BufferedImage fetch(final String fileName) throws IOException {
+        final Map<String, Object> request = new HashMap<>();
+        request.put("bucketname", "bkt");
+        request.put("filename", fileName);
+        return ImageFetches.fetch("bkt", fileName, new HashMap<>(), request, List.of(new ImageAdmission.Step("rotate", request)));
+    }
+
+}
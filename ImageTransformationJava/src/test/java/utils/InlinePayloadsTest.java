@@ -0,0 +1,100 @@
+package utils;
+
+import org.junit.Test;
+
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks that the inline images of one request share a single response limit, and that a request
+ *  expected to go over it is refused before it is processed.
+ */
+public class InlinePayloadsTest {
+
+    /**
+     * An image that fits in a response alone, but not twice.
+     */
+    private static final int IMAGE_BYTES = 3 * 1024 * 1024;
+
+
+    @Test
+    public void imageIsAttachedAsBase64() {
+        final byte[] image = {1, 2, 3, 4, 5};
+        final Map<String, Object> output = new HashMap<>();
+        InlinePayloads.attach(image, output, inlineRequest(false));
+
+        assertArrayEquals(image, Base64.getDecoder().decode((String) output.get(InlinePayloads.IMAGE_BASE64_KEY)));
+    }
+
+    @Test
+    public void imagesShareTheResponseLimit() {
+        final Map<String, Object> request = inlineRequest(false);
+        final Map<String, Object> first = new HashMap<>();
+        InlinePayloads.attach(new byte[IMAGE_BYTES], first, request);
+        assertNotNull(first.get(InlinePayloads.IMAGE_BASE64_KEY));
+
+        try {
+            InlinePayloads.attach(new byte[IMAGE_BYTES], new HashMap<>(), request);
+            fail("Attached two images over the response limit");
+        } catch (final IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("already in the response"));
+        }
+
+        // A smaller image still fits next to the first
+        final Map<String, Object> small = new HashMap<>();
+        InlinePayloads.attach(new byte[1024], small, request);
+        assertNotNull(small.get(InlinePayloads.IMAGE_BASE64_KEY));
+    }
+
+    @Test
+    public void uploadedImageOverTheLimitIsLeftOut() {
+        final Map<String, Object> request = inlineRequest(true);
+        InlinePayloads.attach(new byte[IMAGE_BYTES], new HashMap<>(), request);
+
+        final Map<String, Object> second = new HashMap<>();
+        InlinePayloads.attach(new byte[IMAGE_BYTES], second, request);
+        assertFalse(second.containsKey(InlinePayloads.IMAGE_BASE64_KEY));
+    }
+
+    @Test
+    public void expectedResponseOverTheLimitIsRefused() {
+        final Map<String, Object> request = inlineRequest(false);
+        assertNull(InlinePayloads.checkResponse(request, IMAGE_BYTES));
+        assertNotNull(InlinePayloads.checkResponse(request, 2L * IMAGE_BYTES));
+
+        assertNull(InlinePayloads.checkResponse(inlineRequest(true), 2L * IMAGE_BYTES));
+
+        // A request that reads from S3 returns no inline images, and is left unchanged
+        final Map<String, Object> stored = new HashMap<>();
+        assertNull(InlinePayloads.checkResponse(stored, 2L * IMAGE_BYTES));
+        assertTrue(stored.isEmpty());
+    }
+
+    @Test
+    public void sourceBytesMatchTheDecodedImage() {
+        final Map<String, Object> request = new HashMap<>();
+        request.put(InlinePayloads.IMAGE_BASE64_KEY, Base64.getEncoder().encodeToString(new byte[300]));
+        assertEquals(300, InlinePayloads.sourceBytes(request));
+        assertEquals(0, InlinePayloads.sourceBytes(new HashMap<>()));
+    }
+
+    private static Map<String, Object> inlineRequest(final boolean upload) {
+        final Map<String, Object> request = new HashMap<>();
+        request.put(InlinePayloads.IMAGE_BASE64_KEY, "");
+        request.put(InlinePayloads.UPLOAD_KEY, upload);
+        return request;
+    }
+
+}
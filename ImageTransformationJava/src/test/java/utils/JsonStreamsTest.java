@@ -0,0 +1,102 @@
+package utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks that requests parse into the shapes the Lambda serializer produces, that responses
+ *  write every value kind, and that UTF-8 text survives a round trip.
+ */
+public class JsonStreamsTest {
+
+    @Test
+    public void requestsParseIntoSerializerShapes() throws IOException {
+        final HashMap<String, Object> request = read("{\"width\": 640, \"big\": 5000000000, \"ratio\": 0.5,"
+                + " \"exp\": 1e3, \"flag\": true, \"none\": null, \"name\": \"café ü.png\","
+                + " \"sizes\": [1, 2], \"nested\": {\"a\": {\"b\": \"c\"}}}");
+
+        assertEquals(640, request.get("width"));
+        assertEquals(5_000_000_000L, request.get("big"));
+        assertEquals(0.5, request.get("ratio"));
+        assertEquals(1000.0, request.get("exp"));
+        assertEquals(true, request.get("flag"));
+        assertTrue(request.containsKey("none"));
+        assertNull(request.get("none"));
+        assertEquals("café ü.png", request.get("name"));
+        assertEquals(List.of(1, 2), request.get("sizes"));
+        assertEquals(Map.of("a", Map.of("b", "c")), request.get("nested"));
+    }
+
+    @Test
+    public void nonObjectsAreRefused() throws IOException {
+        for (final String json : new String[] {"[1, 2]", "\"text\"", "{\"open\": ", ""}) {
+            try {
+                read(json);
+                fail("Accepted " + json);
+            } catch (final IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid request"));
+            }
+        }
+    }
+
+    @Test
+    public void responsesRoundTrip() throws IOException {
+        final Map<String, Object> response = new LinkedHashMap<>();
+        response.put("success", "Rotated été ✓");
+        response.put("count", 3);
+        response.put("bytes", 5_000_000_000L);
+        response.put("rate", 0.25);
+        response.put("ok", false);
+        response.put("missing", null);
+        response.put("levels", Arrays.asList(Map.of("size", 50), Map.of("size", 100)));
+        response.put("widths", new int[] {1, 2, 3});
+        response.put("path", new StringBuilder("a/b"));
+
+        final HashMap<String, Object> parsed = read(write(response));
+
+        assertEquals("Rotated été ✓", parsed.get("success"));
+        assertEquals(3, parsed.get("count"));
+        assertEquals(5_000_000_000L, parsed.get("bytes"));
+        assertEquals(0.25, parsed.get("rate"));
+        assertEquals(false, parsed.get("ok"));
+        assertNull(parsed.get("missing"));
+        assertEquals(List.of(Map.of("size", 50), Map.of("size", 100)), parsed.get("levels"));
+        assertEquals(List.of(1, 2, 3), parsed.get("widths"));
+        assertEquals("a/b", parsed.get("path"));
+    }
+
+    @Test
+    public void nanMetricsAreWritten() throws IOException {
+        final Map<String, Object> response = new HashMap<>();
+        response.put("hit_rate", Double.NaN);
+        assertEquals("{\"hit_rate\":NaN}", write(response));
+    }
+
+    private static HashMap<String, Object> read(final String json) throws IOException {
+        return JsonStreams.readRequest(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String write(final Map<String, ?> response) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonStreams.writeResponse(response, out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+}
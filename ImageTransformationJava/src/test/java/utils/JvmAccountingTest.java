@@ -0,0 +1,63 @@
+package utils;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks that an invocation's allocation is counted, and that the process-wide peaks are only
+ *  reported per invocation when no other invocation overlapped it.
+ */
+public class JvmAccountingTest {
+
+    private static final String SCOPE_KEY = Constants.ACTUAL_PEAK_HEAP_SCOPE_KEY;
+
+    @Test
+    public void loneInvocationOwnsItsPeaks() {
+        final JvmAccounting.Snapshot snapshot = JvmAccounting.snapshot();
+        final byte[] allocation = new byte[4 << 20];
+        final Map<String, Object> usage = record(snapshot);
+
+        assertEquals("invocation", usage.get(SCOPE_KEY));
+        assertTrue((long) usage.get(Constants.ACTUAL_PEAK_HEAP_MB_KEY) >= 4);
+        if (usage.containsKey(Constants.ALLOCATED_BYTES_KEY)) {
+            assertTrue((long) usage.get(Constants.ALLOCATED_BYTES_KEY) >= allocation.length);
+        }
+    }
+
+    @Test
+    public void overlappingInvocationsReportProcessPeaks() {
+        final JvmAccounting.Snapshot first = JvmAccounting.snapshot();
+        final JvmAccounting.Snapshot second = JvmAccounting.snapshot();
+
+        // The second did not reset the first's peaks, and the first shared its window with the second
+        assertEquals("process", record(second).get(SCOPE_KEY));
+        assertEquals("process", record(first).get(SCOPE_KEY));
+        assertEquals("invocation", record(JvmAccounting.snapshot()).get(SCOPE_KEY));
+    }
+
+    @Test
+    public void invocationStartedAfterAnotherEndsOwnsItsPeaks() {
+        final JvmAccounting.Snapshot failed = JvmAccounting.snapshot();
+        failed.end();
+        failed.end();
+
+        // Ending twice leaves the count of invocations in flight intact
+        assertEquals("invocation", record(JvmAccounting.snapshot()).get(SCOPE_KEY));
+        assertEquals("invocation", record(failed).get(SCOPE_KEY));
+    }
+
+    private static Map<String, Object> record(final JvmAccounting.Snapshot snapshot) {
+        final Map<String, Object> usage = new HashMap<>();
+        snapshot.record(usage);
+        return usage;
+    }
+
+}
@@ -0,0 +1,147 @@
+package utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks lookups by key, ETag and plan, that flushed entries are found again by a manifest read
+ *  from disk, and that compaction folds the deltas into one base without losing or reviving entries.
+ */
+public class ManifestTest {
+
+    private static final String PLAN = "0123456789abcdef";
+    private static final String OTHER_PLAN = "fedcba9876543210";
+
+    private File root;
+
+
+    @Before
+    public void createRoot() throws IOException {
+        root = Files.createTempDirectory("manifest").toFile();
+    }
+
+    @After
+    public void deleteRoot() throws IOException {
+        try (Stream<Path> files = Files.walk(root.toPath())) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void lookupMatchesKeyETagAndPlan() throws IOException {
+        final Manifest manifest = open("lookup");
+        manifest.record("in/a.png", "\"etag-a\"", PLAN, "batch_a.png");
+
+        // S3 quotes its ETags, and the manifest compares them without the quotes
+        assertEquals("batch_a.png", manifest.lookup("in/a.png", "etag-a", PLAN));
+        assertEquals("batch_a.png", manifest.lookup("in/a.png", "\"etag-a\"", PLAN));
+        assertNull(manifest.lookup("in/a.png", "etag-changed", PLAN));
+        assertNull(manifest.lookup("in/a.png", "etag-a", OTHER_PLAN));
+        assertNull(manifest.lookup("in/b.png", "etag-a", PLAN));
+    }
+
+    @Test
+    public void flushedEntriesAreFoundFromDisk() throws IOException {
+        final Manifest manifest = open("flush");
+        final List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            // Keys that sort differently as text and as numbers, and one past ASCII
+            keys.add("in/" + Integer.toString(i * 7919 % 1000) + (i % 10 == 0 ? "é" : "") + ".png");
+        }
+        for (final String key : keys) {
+            manifest.record(key, "etag-" + key, PLAN, "out-" + key);
+        }
+        assertEquals(keys.size(), manifest.flush());
+        assertEquals(0, manifest.flush());
+
+        // A copy of the directory is not in the segment cache, so its segments are read from disk
+        final Manifest copy = Manifest.open("bkt", Manifest.LOCAL_PREFIX + copy("flush", "flush-copy"));
+        assertEquals(keys.size(), copy.size());
+        for (final String key : keys) {
+            assertEquals(key, "out-" + key, copy.lookup(key, "etag-" + key, PLAN));
+        }
+        assertNull(copy.lookup("in/missing.png", "etag-in/missing.png", PLAN));
+        assertNull(copy.lookup(keys.get(0), "etag-" + keys.get(0), OTHER_PLAN));
+    }
+
+    @Test
+    public void newerDeltaWinsOverOlder() throws IOException {
+        final Manifest manifest = open("newer");
+        manifest.record("in/a.png", "v1", PLAN, "first.png");
+        manifest.flush();
+        manifest.record("in/a.png", "v2", PLAN, "second.png");
+        manifest.flush();
+
+        final Manifest reopened = open("newer");
+        assertEquals("second.png", reopened.lookup("in/a.png", "v2", PLAN));
+        assertNull(reopened.lookup("in/a.png", "v1", PLAN));
+    }
+
+    @Test
+    public void compactionFoldsDeltasIntoOneBase() throws IOException {
+        final Manifest manifest = open("compact");
+        for (int i = 0; i < 16; i++) {
+            // The first key is replaced by every flush, the others are written once
+            manifest.record("in/shared.png", "v" + i, PLAN, "shared-" + i + ".png");
+            manifest.record("in/" + i + ".png", "etag", PLAN, "out-" + i + ".png");
+            manifest.flush();
+        }
+
+        final String[] names = new File(root, "compact").list();
+        assertEquals(1, names.length);
+        assertTrue(names[0], names[0].startsWith("base-0000000001-"));
+
+        // The base holds each key and plan once, with the newest entry
+        final Manifest copy = Manifest.open("bkt", Manifest.LOCAL_PREFIX + copy("compact", "compact-copy"));
+        assertEquals(17, copy.size());
+        assertEquals("shared-15.png", copy.lookup("in/shared.png", "v15", PLAN));
+        assertNull(copy.lookup("in/shared.png", "v0", PLAN));
+        for (int i = 0; i < 16; i++) {
+            assertEquals("out-" + i + ".png", copy.lookup("in/" + i + ".png", "etag", PLAN));
+        }
+
+        // A later delta sits next to the base and overrides it
+        manifest.record("in/shared.png", "v16", PLAN, "shared-16.png");
+        manifest.flush();
+        final Manifest reopened = open("compact");
+        assertEquals(18, reopened.size());
+        assertEquals("shared-16.png", reopened.lookup("in/shared.png", "v16", PLAN));
+        assertNull(reopened.lookup("in/shared.png", "v15", PLAN));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPlanIsRefused() throws IOException {
+        open("plan").record("in/a.png", "etag", "abc", "out.png");
+    }
+
+    private Manifest open(final String name) throws IOException {
+        return Manifest.open("bkt", Manifest.LOCAL_PREFIX + new File(root, name).getPath());
+    }
+
+    private String copy(final String from, final String to) throws IOException {
+        final File target = new File(root, to);
+        assertTrue(target.mkdirs());
+        for (final File file : new File(root, from).listFiles()) {
+            Files.copy(file.toPath(), new File(target, file.getName()).toPath());
+        }
+        return target.getPath();
+    }
+
+}
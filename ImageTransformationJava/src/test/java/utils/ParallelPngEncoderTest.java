@@ -0,0 +1,123 @@
+package utils;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks that the parallel PNG encoder round-trips every pixel through the JDK reader, for each
+ *  colour type, band split and dictionary setting, and that its checksum combination matches a
+ *  checksum over the whole sequence.
+ */
+public class ParallelPngEncoderTest {
+
+    private static final int[] THREADS = {1, 2, Math.max(1, Runtime.getRuntime().availableProcessors())};
+
+    @Test
+    public void rgbRoundTripsExactly() throws IOException {
+        assertRoundTrips(noise(97, 61, BufferedImage.TYPE_3BYTE_BGR));
+        assertRoundTrips(noise(97, 61, BufferedImage.TYPE_INT_RGB));
+    }
+
+    @Test
+    public void alphaRoundTripsExactly() throws IOException {
+        assertRoundTrips(noise(53, 77, BufferedImage.TYPE_INT_ARGB));
+        assertRoundTrips(noise(53, 77, BufferedImage.TYPE_4BYTE_ABGR));
+    }
+
+    @Test
+    public void grayRoundTripsExactly() throws IOException {
+        assertRoundTrips(noise(64, 40, BufferedImage.TYPE_BYTE_GRAY));
+    }
+
+    @Test
+    public void imagesWithFewerRowsThanBandsRoundTrip() throws IOException {
+        assertRoundTrips(noise(300, 1, BufferedImage.TYPE_INT_RGB));
+        assertRoundTrips(noise(1, 3, BufferedImage.TYPE_INT_ARGB));
+    }
+
+    @Test
+    public void combinedChecksumsMatchWholeSequence() {
+        final byte[] data = new byte[100_003];
+        new Random(29).nextBytes(data);
+        for (final int split : new int[] {0, 1, 65521, 70000, data.length}) {
+            final Adler32 adlerFirst = new Adler32();
+            adlerFirst.update(data, 0, split);
+            final Adler32 adlerSecond = new Adler32();
+            adlerSecond.update(data, split, data.length - split);
+            final Adler32 adlerWhole = new Adler32();
+            adlerWhole.update(data);
+            assertEquals(adlerWhole.getValue(),
+                    ParallelPngEncoder.adler32Combine(adlerFirst.getValue(), adlerSecond.getValue(), data.length - split));
+
+            final CRC32 crcFirst = new CRC32();
+            crcFirst.update(data, 0, split);
+            final CRC32 crcSecond = new CRC32();
+            crcSecond.update(data, split, data.length - split);
+            final CRC32 crcWhole = new CRC32();
+            crcWhole.update(data);
+            assertEquals(crcWhole.getValue(),
+                    ParallelPngEncoder.crc32Combine(crcFirst.getValue(), crcSecond.getValue(), data.length - split));
+        }
+    }
+
+    private static void assertRoundTrips(final BufferedImage image) throws IOException {
+        for (final int threads : THREADS) {
+            for (final int level : new int[] {0, ParallelPngEncoder.DEFAULT_COMPRESSION_LEVEL, 9}) {
+                for (final boolean prime : new boolean[] {false, true}) {
+                    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    new ParallelPngEncoder(level, threads, prime).encode(image, out);
+                    final BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+
+                    final String setting = String.format("type %d, %d threads, level %d, prime %b", image.getType(), threads, level, prime);
+                    assertNotNull(setting, decoded);
+                    assertEquals(setting, image.getWidth(), decoded.getWidth());
+                    assertEquals(setting, image.getHeight(), decoded.getHeight());
+                    assertEquals(setting, image.getColorModel().hasAlpha(), decoded.getColorModel().hasAlpha());
+                    for (int y = 0; y < image.getHeight(); y++) {
+                        for (int x = 0; x < image.getWidth(); x++) {
+                            if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+                                assertEquals(setting, image.getRaster().getSample(x, y, 0), decoded.getRaster().getSample(x, y, 0));
+                            } else {
+                                assertEquals(setting, image.getRGB(x, y), decoded.getRGB(x, y));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return An image of noise over a gradient, with random alpha where it has alpha.
+     */
+    private static BufferedImage noise(final int width, final int height, final int type) {
+        final Random random = new Random(width * 31L + height);
+        final BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int argb = random.nextInt() & 0xFF1F1F1F | (x * 4 & 0xE0) << 16 | (y * 4 & 0xE0) << 8;
+                if (type == BufferedImage.TYPE_BYTE_GRAY) {
+                    image.getRaster().setSample(x, y, 0, argb & 0xFF);
+                } else {
+                    image.setRGB(x, y, argb);
+                }
+            }
+        }
+        return image;
+    }
+
+}
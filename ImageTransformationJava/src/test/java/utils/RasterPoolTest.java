@@ -0,0 +1,106 @@
+package utils;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.WritableRaster;
+import java.util.Hashtable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks that released rasters are reused, cleared and kept out of the pool while shared.
+ *  The pool is static, so every test uses a size class of its own.
+ */
+public class RasterPoolTest {
+
+    @Test
+    public void releasedImageIsReusedAndCleared() {
+        final BufferedImage image = RasterPool.acquire(31, 17, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(3, 4, 0xFFFFFF);
+        RasterPool.release(image);
+
+        final RasterPool.Stats before = RasterPool.snapshot();
+        final BufferedImage reused = RasterPool.acquire(31, 17, BufferedImage.TYPE_INT_RGB);
+        final RasterPool.Stats since = RasterPool.snapshot().since(before);
+
+        assertSame(image, reused);
+        assertEquals(0, reused.getRGB(3, 4) & 0xFFFFFF);
+        assertEquals(1, since.hits);
+        assertEquals(RasterPool.sizeInBytes(image), since.bytesAvoided);
+    }
+
+    @Test
+    public void twoBuffersAlternateThroughAPipeline() {
+        // Each step writes into a new buffer and releases the one it read from
+        BufferedImage current = RasterPool.acquire(29, 13, BufferedImage.TYPE_3BYTE_BGR);
+        final BufferedImage first = current;
+        BufferedImage second = null;
+        for (int step = 0; step < 6; step++) {
+            final BufferedImage next = RasterPool.acquire(29, 13, BufferedImage.TYPE_3BYTE_BGR);
+            if (step == 0) {
+                second = next;
+            } else {
+                assertSame(step % 2 == 0 ? second : first, next);
+            }
+            RasterPool.release(current);
+            current = next;
+        }
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void unclearedAcquireIsNullWhenNothingIsIdle() {
+        assertNull(RasterPool.acquireUncleared(37, 11, BufferedImage.TYPE_BYTE_GRAY));
+    }
+
+    @Test
+    public void sharedImageReturnsAfterItsLastHolder() {
+        final BufferedImage image = RasterPool.acquire(23, 19, BufferedImage.TYPE_INT_ARGB);
+        RasterPool.retain(image, 2);
+
+        RasterPool.release(image);
+        RasterPool.release(image);
+        assertNull(RasterPool.acquireUncleared(23, 19, BufferedImage.TYPE_INT_ARGB));
+
+        RasterPool.release(image);
+        assertSame(image, RasterPool.acquireUncleared(23, 19, BufferedImage.TYPE_INT_ARGB));
+    }
+
+    @Test
+    public void sizeClassKeepsAtMostTwoImages() {
+        final BufferedImage[] images = new BufferedImage[3];
+        for (int i = 0; i < images.length; i++) {
+            images[i] = RasterPool.acquire(41, 7, BufferedImage.TYPE_INT_RGB);
+        }
+        for (final BufferedImage image : images) {
+            RasterPool.release(image);
+        }
+        assertSame(images[1], RasterPool.acquireUncleared(41, 7, BufferedImage.TYPE_INT_RGB));
+        assertSame(images[0], RasterPool.acquireUncleared(41, 7, BufferedImage.TYPE_INT_RGB));
+        assertNull(RasterPool.acquireUncleared(41, 7, BufferedImage.TYPE_INT_RGB));
+    }
+
+    @Test
+    public void customImagesAreNotPooled() {
+        final BufferedImage template = new BufferedImage(43, 5, BufferedImage.TYPE_INT_RGB);
+        final ColorModel model = template.getColorModel();
+        final WritableRaster raster = model.createCompatibleWritableRaster(43, 5);
+        final BufferedImage custom = new BufferedImage(model, raster, false, new Hashtable<>()) {
+            @Override
+            public int getType() {
+                return TYPE_CUSTOM;
+            }
+        };
+        RasterPool.release(custom);
+        assertNull(RasterPool.acquireUncleared(43, 5, BufferedImage.TYPE_CUSTOM));
+    }
+
+}
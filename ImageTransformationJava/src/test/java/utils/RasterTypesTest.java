@@ -0,0 +1,77 @@
+package utils;
+
+import org.junit.Test;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/***
+ *  TCSS 462 Image Transformation
+ *  Group 7
+ *
+ *  Checks that custom decodes convert to the most compact fast type with their pixels intact, and
+ *  that fast types are used as-is.
+ */
+public class RasterTypesTest {
+
+    @Test
+    public void fastTypesAreKept() {
+        for (final int type : new int[] {BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_3BYTE_BGR,
+                BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB}) {
+            final BufferedImage image = new BufferedImage(3, 2, type);
+            assertTrue(RasterTypes.isFastType(image));
+            assertEquals(type, RasterTypes.outputType(image));
+            assertSame(image, RasterTypes.toFastType(image));
+        }
+    }
+
+    @Test
+    public void deepGrayBecomesByteGray() {
+        final BufferedImage deep = new BufferedImage(5, 4, BufferedImage.TYPE_USHORT_GRAY);
+        deep.getRaster().setSample(2, 1, 0, 0xFFFF);
+        assertFalse(RasterTypes.isFastType(deep));
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, RasterTypes.compactType(deep));
+
+        final BufferedImage converted = RasterTypes.toFastType(deep);
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, converted.getType());
+        assertEquals(255, converted.getRaster().getSample(2, 1, 0));
+        assertEquals(0, converted.getRaster().getSample(0, 0, 0));
+    }
+
+    @Test
+    public void grayWithAlphaBecomesIntArgb() {
+        final ColorModel model = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY),
+                true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+        final WritableRaster raster = model.createCompatibleWritableRaster(4, 3);
+        raster.setPixel(1, 2, new int[] {200, 128});
+        final BufferedImage custom = new BufferedImage(model, raster, false, null);
+        assertEquals(BufferedImage.TYPE_CUSTOM, custom.getType());
+        assertEquals(BufferedImage.TYPE_INT_ARGB, RasterTypes.outputType(custom));
+
+        final BufferedImage converted = RasterTypes.toFastType(custom);
+        assertEquals(BufferedImage.TYPE_INT_ARGB, converted.getType());
+        assertEquals(custom.getRGB(1, 2), converted.getRGB(1, 2));
+        assertEquals(128, converted.getRGB(1, 2) >>> 24);
+        assertEquals(0, converted.getRGB(0, 0) >>> 24);
+    }
+
+    @Test
+    public void bytesPerPixelFollowTheType() {
+        assertEquals(1, RasterTypes.bytesPerPixel(BufferedImage.TYPE_BYTE_GRAY));
+        assertEquals(2, RasterTypes.bytesPerPixel(BufferedImage.TYPE_USHORT_GRAY));
+        assertEquals(3, RasterTypes.bytesPerPixel(BufferedImage.TYPE_3BYTE_BGR));
+        assertEquals(4, RasterTypes.bytesPerPixel(BufferedImage.TYPE_INT_ARGB));
+        assertEquals(4, RasterTypes.bytesPerPixel(BufferedImage.TYPE_CUSTOM));
+    }
+
+}